@@ -0,0 +1,183 @@
+package open.dolphin.client;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.swing.JTextPane;
+import javax.swing.SwingUtilities;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+import open.dolphin.infomodel.DocumentModel;
+import open.dolphin.infomodel.IInfoModel;
+import open.dolphin.infomodel.ModuleInfoBean;
+import open.dolphin.infomodel.ModuleModel;
+import open.dolphin.infomodel.ProgressCourse;
+import org.jdom.Document;
+import org.jdom.input.SAXBuilder;
+
+/**
+ * カルテ（SOA Pane）描画のマイクロベンチマーク。
+ *
+ * KartePaneDumper_2 の出力と同じ形の XML（段落数 20〜300、色・太字の混じる経過記録）を生成し、
+ *   1. 解析のみ JDOM（SAXBuilder で DOM を作る）と StAX（KarteRenderer_2 と同じく読み流す）
+ *   2. KarteRenderer_2 で表示中の Document に直接挿入する場合と、表示前の Document に挿入して差し替える場合
+ * の一文書あたりの時間を表示する。描画は EDT で行う。
+ *
+ * 製品の jar には含めない。mvn -Pbench package でビルドして実行する。
+ * java -cp OpenDolphin.jar:lib/* open.dolphin.client.KarteRenderBench [文書数 [回数]]
+ */
+public class KarteRenderBench {
+
+    private static final String[] LINES = {
+        "S) 昨日から咽頭痛、37.8℃の発熱あり。咳嗽は軽度。",
+        "O) 咽頭発赤あり、扁桃腫大なし。胸部聴診上ラ音なし。SpO2 98%",
+        "A) 急性上気道炎",
+        "P) 対症療法、水分摂取を指導。3日後に再診。",
+        "血圧 132/84 mmHg 脈拍 72 整。体重 68.2kg（前回比 -0.4kg）",
+        "HbA1c 7.2% → 6.9% と改善傾向。食事療法継続 & 運動療法を追加。",
+        "眠剤の減量について本人と相談 <次回再検討>",
+        "家族より「夜間のせん妄が減った」との報告あり。"
+    };
+
+    public static void main(String[] args) throws Exception {
+
+        int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        final List<String> corpus = new ArrayList<>(numDocs);
+        Random random = new Random(20161018L);
+        long totalChars = 0L;
+        for (int i = 0; i < numDocs; i++) {
+            String xml = createXml(random, 20 + random.nextInt(281));
+            corpus.add(xml);
+            totalChars += xml.length();
+        }
+        System.out.println(String.format("corpus: %d documents, %d chars", numDocs, totalChars));
+
+        // 解析のみ
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        for (int pass = 0; pass < 2; pass++) {
+            String label = pass == 0 ? "warmup  " : "measure ";
+            long t = System.nanoTime();
+            int elements = 0;
+            for (int r = 0; r < rounds; r++) {
+                for (String xml : corpus) {
+                    Document doc = new SAXBuilder().build(new StringReader(xml));
+                    elements += doc.getRootElement().getChildren().size();
+                }
+            }
+            print(label + "parse JDOM     ", System.nanoTime() - t, rounds * corpus.size(), elements);
+
+            t = System.nanoTime();
+            elements = 0;
+            for (int r = 0; r < rounds; r++) {
+                for (String xml : corpus) {
+                    XMLStreamReader reader = factory.createXMLStreamReader(new StringReader(xml));
+                    while (reader.hasNext()) {
+                        if (reader.next() == XMLStreamReader.START_ELEMENT) {
+                            elements++;
+                        }
+                    }
+                    reader.close();
+                }
+            }
+            print(label + "parse StAX     ", System.nanoTime() - t, rounds * corpus.size(), elements);
+        }
+
+        // 描画
+        final List<DocumentModel> models = new ArrayList<>(numDocs);
+        for (String xml : corpus) {
+            models.add(createModel(xml));
+        }
+        SwingUtilities.invokeAndWait(() -> {
+            for (int pass = 0; pass < 2; pass++) {
+                String label = pass == 0 ? "warmup  " : "measure ";
+
+                KarteRenderer_2.setBulkInsert(false);
+                long t = System.nanoTime();
+                long length = render(models, rounds);
+                print(label + "render direct  ", System.nanoTime() - t, rounds * models.size(), length);
+
+                KarteRenderer_2.setBulkInsert(true);
+                t = System.nanoTime();
+                length = render(models, rounds);
+                print(label + "render bulk    ", System.nanoTime() - t, rounds * models.size(), length);
+            }
+        });
+    }
+
+    private static long render(List<DocumentModel> models, int rounds) {
+        long length = 0L;
+        for (int r = 0; r < rounds; r++) {
+            for (DocumentModel model : models) {
+                KartePane soaPane = new KartePane();
+                soaPane.setTextPane(new JTextPane());
+                soaPane.setRole(IInfoModel.ROLE_SOA);
+                new KarteRenderer_2(soaPane, null).render(model);
+                length += soaPane.getTextPane().getDocument().getLength();
+            }
+        }
+        return length;
+    }
+
+    private static void print(String label, long nanos, int count, long check) {
+        System.out.println(String.format("%s %9.1f us/doc  (%d docs, check=%d)", label, nanos / 1000.0 / count, count, check));
+    }
+
+    private static DocumentModel createModel(String xml) {
+        ProgressCourse pc = new ProgressCourse();
+        pc.setFreeText(xml);
+        ModuleInfoBean info = new ModuleInfoBean();
+        info.setStampRole(IInfoModel.ROLE_SOA_SPEC);
+        ModuleModel module = new ModuleModel();
+        module.setModuleInfoBean(info);
+        module.setModel(pc);
+        DocumentModel model = new DocumentModel();
+        model.addModule(module);
+        return model;
+    }
+
+    // KartePaneDumper_2 と同じ形の XML
+    private static String createXml(Random random, int numParagraphs) {
+        StringBuilder sb = new StringBuilder();
+        int pos = 0;
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < numParagraphs; i++) {
+            int start = pos;
+            StringBuilder p = new StringBuilder();
+            int runs = 1 + random.nextInt(3);
+            for (int j = 0; j < runs; j++) {
+                String text = LINES[random.nextInt(LINES.length)];
+                if (j == runs - 1) {
+                    text = text + "\n";
+                }
+                p.append("<content start=\"").append(pos).append("\" end=\"").append(pos + text.length()).append("\"");
+                if (random.nextInt(5) == 0) {
+                    p.append(" foreground=\"255,0,0\"");
+                }
+                if (random.nextInt(8) == 0) {
+                    p.append(" bold=\"true\"");
+                }
+                if (random.nextInt(10) == 0) {
+                    p.append(" size=\"14\"");
+                }
+                p.append("><text>").append(escape(text)).append("</text></content>");
+                pos += text.length();
+            }
+            body.append("<paragraph start=\"").append(start).append("\" end=\"").append(pos).append("\"");
+            if (random.nextInt(15) == 0) {
+                body.append(" Alignment=\"1\"");
+            }
+            body.append(">").append(p).append("</paragraph>");
+        }
+        sb.append("<section start=\"0\" end=\"").append(pos).append("\">").append(body).append("</section>");
+        return sb.toString();
+    }
+
+    // KartePaneDumper_2 は特殊文字を二重に置換している
+    private static String escape(String text) {
+        return text.replace("&", "&amp;amp;").replace("<", "&amp;lt;").replace(">", "&amp;gt;");
+    }
+}
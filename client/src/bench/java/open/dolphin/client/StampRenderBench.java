@@ -0,0 +1,179 @@
+package open.dolphin.client;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import open.dolphin.infomodel.BundleDolphin;
+import open.dolphin.infomodel.BundleMed;
+import open.dolphin.infomodel.ClaimItem;
+import open.dolphin.infomodel.IInfoModel;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.Velocity;
+
+/**
+ * スタンプ描画のマイクロベンチマーク。
+ *
+ * 処方（BundleMed）と処置・検査（BundleDolphin, labo.vm）からなる一カルテ分のスタンプを
+ *   1. これまでの Velocity.evaluate（スタンプ毎に解析）
+ *   2. StampRenderer（解析済みテンプレート）
+ *   3. StampRenderer + memo
+ * で描画し、一スタンプあたりの時間を表示する。
+ *
+ * 製品の jar には含めない。mvn -Pbench package でビルドして実行する。
+ * java -cp OpenDolphin.jar:lib/* open.dolphin.client.StampRenderBench [回数 [スタンプ数]]
+ */
+public class StampRenderBench {
+
+    private static final String TEMPLATE_LOCATION = "/open/dolphin/resources/templates/";
+    private static final String STAMP_NAME = "エディタから発行...";
+
+    public static void main(String[] args) throws Exception {
+
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int numStamps = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        Velocity.setProperty(Velocity.RUNTIME_LOG_LOGSYSTEM, new CustomVelocityLogger());
+        Velocity.init();
+
+        List<IInfoModel> models = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < numStamps; i++) {
+            switch (i % 4) {
+                case 0:
+                case 1:
+                    models.add(createMed(i));
+                    names.add(BundleMed.class.getName() + ".vm");
+                    break;
+                case 2:
+                    models.add(createTreatment(i));
+                    names.add(BundleDolphin.class.getName() + ".vm");
+                    break;
+                default:
+                    models.add(createLabo(i));
+                    names.add("labo.vm");
+                    break;
+            }
+        }
+        StampRenderingHints hints = new StampRenderingHints();
+        hints.setShowStampName(true);
+
+        // 同じ html になること
+        for (int i = 0; i < models.size(); i++) {
+            String a = evaluate(names.get(i), models.get(i), hints);
+            String b = StampRenderer.render(names.get(i), models.get(i), hints, STAMP_NAME);
+            if (!a.equals(b)) {
+                throw new IllegalStateException("different output: " + names.get(i));
+            }
+        }
+
+        for (int pass = 0; pass < 2; pass++) {
+            String label = pass == 0 ? "warmup  " : "measure ";
+
+            long t = System.nanoTime();
+            long chars = 0L;
+            for (int r = 0; r < rounds; r++) {
+                for (int i = 0; i < models.size(); i++) {
+                    chars += evaluate(names.get(i), models.get(i), hints).length();
+                }
+            }
+            print(label + "evaluate       ", System.nanoTime() - t, rounds * models.size(), chars);
+
+            StampRenderer.setMemoEnabled(false);
+            t = System.nanoTime();
+            chars = 0L;
+            for (int r = 0; r < rounds; r++) {
+                for (int i = 0; i < models.size(); i++) {
+                    chars += StampRenderer.render(names.get(i), models.get(i), hints, STAMP_NAME).length();
+                }
+            }
+            print(label + "parsed once    ", System.nanoTime() - t, rounds * models.size(), chars);
+
+            StampRenderer.setMemoEnabled(true);
+            t = System.nanoTime();
+            chars = 0L;
+            for (int r = 0; r < rounds; r++) {
+                for (int i = 0; i < models.size(); i++) {
+                    chars += StampRenderer.render(names.get(i), models.get(i), hints, STAMP_NAME).length();
+                }
+            }
+            print(label + "parsed + memo  ", System.nanoTime() - t, rounds * models.size(), chars);
+            StampRenderer.setMemoEnabled(false);
+        }
+    }
+
+    // StampHolder がこれまで行っていた描画
+    private static String evaluate(String name, IInfoModel model, StampRenderingHints hints) throws Exception {
+        VelocityContext context = new VelocityContext();
+        context.put("model", model);
+        context.put("hints", hints);
+        context.put("stampName", STAMP_NAME);
+        StringWriter sw = new StringWriter();
+        InputStream in = StampRenderBench.class.getResourceAsStream(TEMPLATE_LOCATION + name);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"))) {
+            Velocity.evaluate(context, sw, "stmpHolder", reader);
+        }
+        return sw.toString();
+    }
+
+    private static void print(String label, long nanos, int count, long chars) {
+        System.out.println(String.format("%s %8.2f us/stamp  (%d stamps, %d chars)", label, nanos / 1000.0 / count, count, chars));
+    }
+
+    private static BundleMed createMed(int n) {
+        BundleMed med = new BundleMed();
+        med.setClassCode("212");
+        med.setClassName("内服薬（定時）");
+        med.setAdmin("内服３回 毎食後");
+        med.setAdminCode("1013044400000000");
+        med.setBundleNumber(String.valueOf(7 + n % 7));
+        med.addClaimItem(item("620000519", "ロキソニン錠６０ｍｇ", "3", "錠"));
+        med.addClaimItem(item("620002023", "ムコスタ錠１００ｍｇ", "3", "錠"));
+        med.addClaimItem(item("620004893", "メチコバール錠５００μｇ", "3", "錠"));
+        if (n % 2 == 0) {
+            med.setAdminMemo("院外処方");
+        }
+        return med;
+    }
+
+    private static BundleDolphin createTreatment(int n) {
+        BundleDolphin bundle = new BundleDolphin();
+        bundle.setOrderName("処置");
+        bundle.setClassCode("400");
+        bundle.setClassName("処置");
+        bundle.setBundleNumber("1");
+        bundle.addClaimItem(item("140000610", "創傷処置（１００ｃｍ２未満）", null, null));
+        bundle.addClaimItem(item("620009041", "ゲンタシン軟膏０．１％", "2", "ｇ"));
+        bundle.addClaimItem(item("700030000", "ガーゼ", "1-2", "枚"));
+        bundle.setMemo(n % 3 == 0 ? "右下腿" : null);
+        return bundle;
+    }
+
+    private static BundleDolphin createLabo(int n) {
+        BundleDolphin bundle = new BundleDolphin();
+        bundle.setOrderName("検体検査");
+        bundle.setClassCode("600");
+        bundle.setClassName("検査");
+        bundle.setBundleNumber("1");
+        String[][] items = {
+            {"160008010", "末梢血液一般検査"}, {"160019410", "ＡＳＴ"}, {"160019210", "ＡＬＴ"},
+            {"160020410", "γ－ＧＴ"}, {"160022510", "ＢＵＮ"}, {"160022610", "クレアチニン"},
+            {"160019010", "ＨｂＡ１ｃ"}, {"160021910", "ＬＤＬ－コレステロール"}, {"160000310", "Ｂ－Ｖ"}
+        };
+        for (String[] i : items) {
+            bundle.addClaimItem(item(i[0], i[1], null, null));
+        }
+        return bundle;
+    }
+
+    private static ClaimItem item(String code, String name, String number, String unit) {
+        ClaimItem item = new ClaimItem();
+        item.setCode(code);
+        item.setName(name);
+        item.setNumber(number);
+        item.setUnit(unit);
+        return item;
+    }
+}
@@ -3,6 +3,10 @@ package open.dolphin.client;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
@@ -10,6 +14,8 @@ import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import open.dolphin.delegater.ChartEventDelegater;
 import open.dolphin.infomodel.*;
 import open.dolphin.project.Project;
@@ -42,7 +48,7 @@ public class ChartEventHandler implements PropertyChangeListener {
     private String facilityId;
     
     // スレッド
-    private EventListenTask2 listenTask;
+    private ListenTask listenTask;
     
     private Thread thread;
     
@@ -57,6 +63,12 @@ public class ChartEventHandler implements PropertyChangeListener {
     
     private boolean DEBUG;
     
+    // 最後に受け取ったイベントの sequence 再接続時にここから再開する
+    private long lastSequence = -1L;
+    
+    // lastSequence を振ったサーバーの epoch サーバーが再起動すると変わる
+    private String lastEpoch;
+    
     int retryCnt = 0;
     int retryLimit = Project.getInt("subscribe.retry.count", 10);
     int retryTime = Project.getInt("subscribe.retry.time", 100);
@@ -229,7 +241,12 @@ public class ChartEventHandler implements PropertyChangeListener {
 
         exec = Executors.newSingleThreadExecutor();
 
-        listenTask = new EventListenTask2();
+        // chartevent.transport=sse の場合は server-spring の Server-Sent Events を使う
+        if ("sse".equals(Project.getString("chartevent.transport", "longpoll"))) {
+            listenTask = new SseListenTask();
+        } else {
+            listenTask = new EventListenTask2();
+        }
         
         thread = new Thread(listenTask, "ChartEvent Listen Task");
         thread.setPriority(Thread.NORM_PRIORITY);
@@ -259,9 +276,13 @@ public class ChartEventHandler implements PropertyChangeListener {
         }
     }
     
-   private class EventListenTask2 implements Runnable {
+    private interface ListenTask extends Runnable {
+        void stop();
+    }
+    
+   private class EventListenTask2 implements ListenTask {
    
-        private Future<ChartEventModel> future;
+        private Future<List<ChartEventModel>> future;
         
         private boolean isRunning;
         
@@ -269,7 +290,8 @@ public class ChartEventHandler implements PropertyChangeListener {
             isRunning = true;
         }
 
-        private void stop() {
+        @Override
+        public void stop() {
             isRunning = false;
             if (future != null) {
                 future.cancel(true);
@@ -281,10 +303,14 @@ public class ChartEventHandler implements PropertyChangeListener {
             
             while (isRunning) {
                 try {
-                    future = ChartEventDelegater.getInstance().subscribe();
-                    ChartEventModel cem = future.get();
-                    if (cem != null) {
-                        exec.execute(new RemoteOnEventTask2(cem));
+                    future = ChartEventDelegater.getInstance().subscribe(lastSequence, lastEpoch);
+                    List<ChartEventModel> list = future.get();
+                    if (list != null) {
+                        for (ChartEventModel cem : list) {
+                            exec.execute(new RemoteOnEventTask2(cem));
+                            lastSequence = cem.getSequence();
+                            lastEpoch = cem.getEpoch();
+                        }
                         retryCnt = 0;
                     }                  
                 } catch (Exception e) {
@@ -324,6 +350,90 @@ public class ChartEventHandler implements PropertyChangeListener {
         }
     } 
     
+    // Server-Sent Events を受信するタスク 接続は一本で、切断されたら張り直す
+    private class SseListenTask implements ListenTask {
+        
+        private volatile InputStream stream;
+        
+        private volatile boolean isRunning;
+        
+        private SseListenTask() {
+            isRunning = true;
+        }
+
+        @Override
+        public void stop() {
+            isRunning = false;
+            close();
+        }
+        
+        private void close() {
+            InputStream in = stream;
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        
+        @Override
+        public void run() {
+            
+            ChartEventDelegater del = ChartEventDelegater.getInstance();
+            boolean reconnect = false;
+            
+            while (isRunning) {
+                try {
+                    stream = del.openEventStream(facilityId);
+                    // 切断中のイベントは失われているので受付リストを取り直させる
+                    if (reconnect) {
+                        ChartEventModel renew = new ChartEventModel();
+                        renew.setFacilityId(facilityId);
+                        renew.setEventType(ChartEventModel.PVT_RENEW);
+                        exec.execute(new RemoteOnEventTask2(renew));
+                    }
+                    reconnect = true;
+                    retryCnt = 0;
+                    
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+                    StringBuilder data = new StringBuilder();
+                    String line;
+                    while (isRunning && (line = reader.readLine()) != null) {
+                        if (line.isEmpty()) {
+                            // 空行でイベントの終わり
+                            if (data.length() > 0) {
+                                exec.execute(new RemoteOnEventTask2(del.toChartEventModel(data.toString())));
+                                data.setLength(0);
+                            }
+                        } else if (line.startsWith("data:")) {
+                            if (data.length() > 0) {
+                                data.append("\n");
+                            }
+                            data.append(line.substring(5));
+                        }
+                        // event:, id:, コメント(:ping) は読み飛ばす
+                    }
+                } catch (Exception e) {
+                    if (!isRunning) {
+                        break;
+                    }
+                    Logger.getLogger("open.dolphin").log(Level.WARNING, "event stream exception", e);
+                    retryCnt += 1;
+                    if (Project.getBoolean("subscribe.retry.check", true) && retryCnt > retryLimit) {
+                        isRunning = false;
+                        break;
+                    }
+                } finally {
+                    close();
+                }
+                try{
+                    Thread.sleep(retryTime);
+                }catch(InterruptedException ex) {}
+            }
+        }
+    }
+    
     // 自クライアントの状態変更後、サーバーに通知するタスク
     private class LocalOnEventTask implements Runnable {
         
@@ -363,16 +363,19 @@ public class ChartImpl extends AbstractMainTool implements Chart, IInfoModel {
             @Override
             protected KarteBean doInBackground() throws Exception {
                 
+                long patientPk = getPatientVisit().getPatientModel().getId();
+                Date fromDate = KartePrefetcher.getHistoryFromDate();
+
+                // 受付リストで先読みしていればそれを使う
+                KartePrefetcher prefetcher = KartePrefetcher.getInstance();
+                KarteBean karteBean = prefetcher != null ? prefetcher.take(patientPk, fromDate) : null;
+                if (karteBean != null) {
+                    return karteBean;
+                }
+
                 // Database から患者のカルテを取得する
-                int past = Project.getInt(Project.DOC_HISTORY_PERIOD, -12);
-                GregorianCalendar today = new GregorianCalendar();
-                today.add(GregorianCalendar.MONTH, past);
-                today.clear(Calendar.HOUR_OF_DAY);
-                today.clear(Calendar.MINUTE);
-                today.clear(Calendar.SECOND);
-                today.clear(Calendar.MILLISECOND);
                 DocumentDelegater ddl = new DocumentDelegater();
-                KarteBean karteBean = ddl.getKarte(getPatientVisit().getPatientModel().getId(), today.getTime());
+                karteBean = ddl.getKarte(patientPk, fromDate);
                 return karteBean;
             }
 
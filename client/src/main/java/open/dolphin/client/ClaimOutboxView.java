@@ -0,0 +1,296 @@
+package open.dolphin.client;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.*;
+import open.dolphin.delegater.DocumentDelegater;
+import open.dolphin.infomodel.ClaimOutboxModel;
+import open.dolphin.table.ListTableModel;
+import open.dolphin.table.StripeTableCellRenderer;
+
+/**
+ * サーバーが ORCA へ送る CLAIM 電文のうち、まだ送れていないものを表示する。
+ *
+ * 送信待ち・NAK・送信失敗・応答なしの電文を一覧にし、送り直すか、ORCA で直接入力した等で
+ * 送らずに対応済みにする。NAK・送信失敗・応答なしの電文があるとその患者の後の電文は送られない。
+ * startMonitor で定期的に送信状況を取得し、新しく NAK・送信失敗・応答なしになった電文があれば
+ * このウインドウを開いて知らせる。
+ */
+public final class ClaimOutboxView {
+
+    // 何日前に作成した電文から表示するか
+    private static final int DAYS = 7;
+
+    private static ClaimOutboxView instance;
+
+    // 知らせた NAK・送信失敗・応答なしの pk
+    private static final Set<Long> notified = new HashSet<>();
+
+    private final ResourceBundle bundle = ClientContext.getMyBundle(ClaimOutboxView.class);
+
+    private JFrame frame;
+    private JTable table;
+    private ListTableModel<ClaimOutboxModel> tableModel;
+    private JButton resendBtn;
+    private JButton discardBtn;
+
+    /**
+     * ウインドウを開いて送信状況を取得する。開いていれば前に出して取得し直す。
+     */
+    public static void showView() {
+        if (instance == null) {
+            instance = new ClaimOutboxView();
+            instance.createAndShowGUI();
+        } else {
+            instance.frame.setExtendedState(java.awt.Frame.NORMAL);
+            instance.frame.toFront();
+        }
+        instance.refresh();
+    }
+
+    /**
+     * 送信状況の確認を開始する。EDT から呼ぶ。
+     * @param interval 確認する間隔（ミリ秒）
+     */
+    public static void startMonitor(int interval) {
+        Timer timer = new Timer(interval, (ActionEvent ae) -> check());
+        timer.setInitialDelay(interval);
+        timer.start();
+    }
+
+    private static void check() {
+
+        SwingWorker<List<ClaimOutboxModel>, Void> worker = new SwingWorker<List<ClaimOutboxModel>, Void>() {
+
+            @Override
+            protected List<ClaimOutboxModel> doInBackground() throws Exception {
+                return new DocumentDelegater().getClaimOutbox(fromDate());
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    boolean found = false;
+                    for (ClaimOutboxModel model : get()) {
+                        if (isProblem(model) && notified.add(model.getId())) {
+                            found = true;
+                        }
+                    }
+                    if (found) {
+                        Toolkit.getDefaultToolkit().beep();
+                        showView();
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    Logger.getLogger("open.dolphin").log(Level.FINE, "CLAIM outbox check failed", e);
+                }
+            }
+        };
+        worker.execute();
+    }
+
+    private static boolean isProblem(ClaimOutboxModel model) {
+        int status = model.getStatus();
+        return status == ClaimOutboxModel.STATUS_NAK
+                || status == ClaimOutboxModel.STATUS_FAILED
+                || status == ClaimOutboxModel.STATUS_UNKNOWN;
+    }
+
+    private static Date fromDate() {
+        return new Date(System.currentTimeMillis() - DAYS * 24L * 60L * 60L * 1000L);
+    }
+
+    private void createAndShowGUI() {
+
+        String[] columnNames = bundle.getString("columnNames").split(",");
+        SimpleDateFormat sdf = new SimpleDateFormat(bundle.getString("dateFormat.created"));
+        tableModel = new ListTableModel<ClaimOutboxModel>(columnNames, 0) {
+            @Override
+            public Object getValueAt(int row, int col) {
+                ClaimOutboxModel model = getObject(row);
+                if (model == null) {
+                    return null;
+                }
+                switch (col) {
+                    case 0:
+                        return model.getCreated() != null ? sdf.format(model.getCreated()) : null;
+                    case 1:
+                        return model.getSummary();
+                    case 2:
+                        return bundle.getString("kind." + model.getKind());
+                    case 3:
+                        return bundle.getString("status." + model.getStatus());
+                    case 4:
+                        return String.valueOf(model.getAttempts());
+                    case 5:
+                        return model.getLastError();
+                }
+                return null;
+            }
+        };
+
+        table = new JTable(tableModel);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.getSelectionModel().addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting()) {
+                controlButtons();
+            }
+        });
+        StripeTableCellRenderer renderer = new StripeTableCellRenderer();
+        renderer.setTable(table);
+        renderer.setDefaultRenderer();
+        table.setRowHeight(ClientContext.getMoreHigherRowHeight());
+        int[] widths = {120, 260, 60, 80, 50, 260};
+        for (int col = 0; col < widths.length; col++) {
+            table.getColumnModel().getColumn(col).setPreferredWidth(widths[col]);
+        }
+        JScrollPane scroller = new JScrollPane(table);
+        scroller.setPreferredSize(new Dimension(830, 300));
+
+        resendBtn = new JButton(bundle.getString("actionText.resend"));
+        resendBtn.addActionListener((ActionEvent ae) -> update(true));
+        discardBtn = new JButton(bundle.getString("actionText.discard"));
+        discardBtn.addActionListener((ActionEvent ae) -> update(false));
+        JButton refreshBtn = new JButton(bundle.getString("actionText.refresh"));
+        refreshBtn.addActionListener((ActionEvent ae) -> refresh());
+        JButton closeBtn = new JButton(bundle.getString("actionText.close"));
+        closeBtn.addActionListener((ActionEvent ae) -> close());
+        controlButtons();
+
+        JPanel btnPanel = new JPanel();
+        btnPanel.add(resendBtn);
+        btnPanel.add(discardBtn);
+        btnPanel.add(refreshBtn);
+        btnPanel.add(closeBtn);
+
+        JPanel contentPane = new JPanel(new BorderLayout(0, 7));
+        contentPane.add(new JLabel(bundle.getString("label.notice")), BorderLayout.NORTH);
+        contentPane.add(scroller, BorderLayout.CENTER);
+        contentPane.add(btnPanel, BorderLayout.SOUTH);
+        contentPane.setBorder(BorderFactory.createEmptyBorder(12, 12, 12, 12));
+
+        frame = new JFrame(ClientContext.getFrameTitle(bundle.getString("title.window")));
+        frame.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+        frame.addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosing(java.awt.event.WindowEvent e) {
+                close();
+            }
+        });
+        frame.setContentPane(contentPane);
+        frame.pack();
+        Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
+        int x = (screen.width - frame.getPreferredSize().width) / 2;
+        int y = (screen.height - frame.getPreferredSize().height) / 3;
+        frame.setLocation(x, y);
+        frame.setVisible(true);
+    }
+
+    private void close() {
+        frame.setVisible(false);
+        frame.dispose();
+        instance = null;
+    }
+
+    private void controlButtons() {
+        ClaimOutboxModel model = getSelected();
+        boolean problem = model != null && isProblem(model);
+        resendBtn.setEnabled(problem);
+        discardBtn.setEnabled(problem);
+    }
+
+    private ClaimOutboxModel getSelected() {
+        int row = table.getSelectedRow();
+        return row >= 0 ? tableModel.getObject(row) : null;
+    }
+
+    // 送信済み・対応済み以外を表示する
+    private void refresh() {
+
+        SwingWorker<List<ClaimOutboxModel>, Void> worker = new SwingWorker<List<ClaimOutboxModel>, Void>() {
+
+            @Override
+            protected List<ClaimOutboxModel> doInBackground() throws Exception {
+                return new DocumentDelegater().getClaimOutbox(fromDate());
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    List<ClaimOutboxModel> list = new ArrayList<>();
+                    for (ClaimOutboxModel model : get()) {
+                        if (model.getStatus() != ClaimOutboxModel.STATUS_SENT
+                                && model.getStatus() != ClaimOutboxModel.STATUS_DISCARDED) {
+                            list.add(model);
+                        }
+                        if (isProblem(model)) {
+                            notified.add(model.getId());
+                        }
+                    }
+                    tableModel.setDataProvider(list);
+                    controlButtons();
+                } catch (InterruptedException | ExecutionException e) {
+                    showError(e);
+                }
+            }
+        };
+        worker.execute();
+    }
+
+    /**
+     * 選択した電文を送り直す、または対応済みにする。
+     * @param resend true なら送り直す
+     */
+    private void update(boolean resend) {
+
+        ClaimOutboxModel model = getSelected();
+        if (model == null) {
+            return;
+        }
+        if (!resend) {
+            String msg = String.format(bundle.getString("message.confirmDiscard"), model.getSummary());
+            int option = JOptionPane.showConfirmDialog(frame, msg, ClientContext.getFrameTitle(bundle.getString("title.window")),
+                    JOptionPane.OK_CANCEL_OPTION, JOptionPane.WARNING_MESSAGE);
+            if (option != JOptionPane.OK_OPTION) {
+                return;
+            }
+        }
+
+        SwingWorker<Integer, Void> worker = new SwingWorker<Integer, Void>() {
+
+            @Override
+            protected Integer doInBackground() throws Exception {
+                DocumentDelegater ddl = new DocumentDelegater();
+                return resend ? ddl.resendClaim(model.getId()) : ddl.discardClaim(model.getId());
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    get();
+                    refresh();
+                } catch (InterruptedException | ExecutionException e) {
+                    showError(e);
+                }
+            }
+        };
+        worker.execute();
+    }
+
+    private void showError(Exception e) {
+        Logger.getLogger("open.dolphin").log(Level.WARNING, "CLAIM outbox", e);
+        JOptionPane.showMessageDialog(frame, e.getMessage(), ClientContext.getFrameTitle(bundle.getString("title.window")),
+                JOptionPane.WARNING_MESSAGE);
+    }
+}
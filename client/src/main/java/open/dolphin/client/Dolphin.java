@@ -23,6 +23,8 @@ import javax.swing.*;
 import javax.swing.Timer;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.MenuEvent;
+import open.dolphin.dao.SqlDaoBean;
+import open.dolphin.delegater.BusinessDelegater;
 import open.dolphin.delegater.DocumentDelegater;
 import open.dolphin.delegater.OrcaDelegater;
 import open.dolphin.delegater.OrcaDelegaterFactory;
@@ -202,6 +204,28 @@ public class Dolphin implements MainWindow {
         // プラグインのプロバイダマップを生成する
         setProviders(new HashMap<>());
         
+        // スタンプの描画結果を覚えておくかどうか
+        StampRenderer.setMemoEnabled(Project.getBoolean("stamp.render.memo", false));
+
+        // 取得したカルテ文書をローカルに保存する（MB）
+        if (Project.getBoolean("karte.cache", true)) {
+            long maxBytes = Project.getInt("karte.cache.size", 256) * 1024L * 1024L;
+            KarteDocumentCache.start(Project.getUserModel().getUserId(), Project.getUserModel().getPassword(), maxBytes);
+        }
+
+        // サーバーから ORCA へ送る時は、送れなかった CLAIM 電文を知らせる（確認する間隔 秒）
+        if (Project.claimSenderIsServer() && Project.getBoolean("claim.outbox.monitor", true)) {
+            ClaimOutboxView.startMonitor(Project.getInt("claim.outbox.monitor.interval", 60) * 1000);
+        }
+
+        // 受付リストで待っている患者のカルテを先読みする（人数、一人あたりの文書数、有効時間 分、必要なヒープの空き MB）
+        if (Project.getBoolean("karte.prefetch", true)) {
+            KartePrefetcher.start(Project.getInt("karte.prefetch.count", 3),
+                    Project.getInt(Project.DOC_HISTORY_FETCHCOUNT, 1),
+                    Project.getInt("karte.prefetch.ttl", 5) * 60L * 1000L,
+                    Project.getInt("karte.prefetch.heap", 64) * 1024L * 1024L);
+        }
+
 //minagawa^ Server-ORCA連携
         // Client-ORCA接続の時のみ起動
         if (Project.claimSenderIsClient()) {
@@ -1272,6 +1296,10 @@ public class Dolphin implements MainWindow {
             myFrame.setVisible(false);
             myFrame.dispose();
         }
+        // REST の共有クライアントを閉じ、所要時間の集計をログに残す
+        BusinessDelegater.shutdown();
+        // ORCA の接続プールを閉じる
+        SqlDaoBean.closePools();
         java.util.logging.Logger.getLogger(this.getClass().getName()).info("Exits application");
         System.exit(0);
     }
@@ -1356,6 +1384,13 @@ public class Dolphin implements MainWindow {
     }
 //s.oh$
     
+    /**
+     * CLAIM 送信状況を表示する。
+     */
+    public void showClaimOutbox() {
+        ClaimOutboxView.showView();
+    }
+    
     /**
      * 保険医療機関コードとJMARIコードを取得する
      */
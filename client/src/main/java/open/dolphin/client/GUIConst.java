@@ -86,6 +86,7 @@ public class GUIConst {
     public static final String ACTION_ADD_USER = "addUser";
     public static final String ACTION_FETCH_ACTIVITIES = "fetchActivities";
     public static final String ACTION_FETCH_FACILITY_CODE = "fetchFacilityCode";
+    public static final String ACTION_SHOW_CLAIM_OUTBOX = "showClaimOutbox";
     public static final String ACTION_RECEIPT_BARCODE = "receiptBarcode";           //s.oh^ 2014/08/19 受付バーコード対応
     public static final String ACTION_OUTPUT_ALLKARTEPDF = "outputAllKartePdf";     //s.oh^ 2014/07/22 一括カルテPDF出力
     
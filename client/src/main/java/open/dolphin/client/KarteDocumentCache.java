@@ -0,0 +1,276 @@
+package open.dolphin.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import open.dolphin.infomodel.DocInfoModel;
+import open.dolphin.infomodel.DocumentModel;
+
+/**
+ * サーバから取得したカルテ文書（DocumentModel）をユーザ毎にローカルディスクへ暗号化して保存する。
+ *
+ * 確定した文書は修正すると新しい版（別の pk）になり、元の文書は status が変わる。
+ * したがって pk・status・確定日が同じなら内容も同じである。文書履歴（/karte/docinfo）で取得した
+ * DocInfoModel とこれらが一致する時だけ保存したものを使い、一致しない時は取り直して置き換える。
+ *
+ * 保存するのは beanBytes を decode した後の DocumentModel で、アイコンは読み出した側で作る。
+ * 読み出す度に新しいインスタンスになるので、表示・修正中の文書と共有されることはない。
+ * 合計サイズが上限を超えたら、最も長く使っていない文書から削除する。
+ *
+ * 暗号は AES/GCM、鍵はユーザID とパスワード（ハッシュ）から PBKDF2 で作る。
+ * 他のユーザや改竄されたファイルは復号できないので、無いものとして扱い削除する。
+ */
+public final class KarteDocumentCache {
+
+    private static final String CACHE_DIRECTORY = "cache";
+    private static final String SUFFIX = ".kdc";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int FORMAT = 1;
+
+    private static final String CIPHER = "AES/GCM/NoPadding";
+    private static final String KEY_FACTORY = "PBKDF2WithHmacSHA256";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 128;
+    private static final int KEY_LENGTH = 128;
+    private static final int ITERATIONS = 20000;
+
+    private static KarteDocumentCache instance;
+
+    private final File dir;
+    private final SecretKey key;
+    private final long maxBytes;
+    private final SecureRandom random = new SecureRandom();
+
+    // pk -> ファイルサイズ（使った順）
+    private final LinkedHashMap<Long, Long> index = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+
+    /**
+     * ログインしたユーザのキャッシュを開く。
+     * @param userId ユーザID
+     * @param password パスワード（ハッシュ）
+     * @param maxBytes 合計サイズの上限
+     */
+    public static synchronized void start(String userId, String password, long maxBytes) {
+        try {
+            instance = new KarteDocumentCache(userId, password, maxBytes);
+        } catch (GeneralSecurityException | IOException e) {
+            Logger.getLogger("open.dolphin").log(Level.WARNING, "karte document cache disabled", e);
+            instance = null;
+        }
+    }
+
+    /**
+     * キャッシュを返す。
+     * @return 開いていなければ null
+     */
+    public static synchronized KarteDocumentCache getInstance() {
+        return instance;
+    }
+
+    public static synchronized void stop() {
+        instance = null;
+    }
+
+    private KarteDocumentCache(String userId, String password, long maxBytes) throws GeneralSecurityException, IOException {
+
+        this.maxBytes = maxBytes;
+
+        // ユーザ毎のディレクトリ
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        byte[] digest = md.digest(userId.getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            sb.append(String.format("%02x", digest[i]));
+        }
+        dir = new File(new File(ClientContext.getBaseDirectory(), CACHE_DIRECTORY), sb.toString());
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Can not create the directory " + dir.getPath());
+        }
+
+        // 鍵
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), userId.getBytes(StandardCharsets.UTF_8), ITERATIONS, KEY_LENGTH);
+        try {
+            byte[] encoded = SecretKeyFactory.getInstance(KEY_FACTORY).generateSecret(spec).getEncoded();
+            key = new SecretKeySpec(encoded, "AES");
+        } finally {
+            spec.clearPassword();
+        }
+
+        // 古い順に並べて索引を作る
+        File[] files = dir.listFiles();
+        if (files != null) {
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            for (File f : files) {
+                String name = f.getName();
+                if (name.endsWith(SUFFIX)) {
+                    try {
+                        long pk = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                        index.put(pk, f.length());
+                        totalBytes += f.length();
+                        continue;
+                    } catch (NumberFormatException e) {
+                    }
+                }
+                f.delete();
+            }
+        }
+        evict();
+    }
+
+    /**
+     * 文書履歴の DocInfo と同じ版の文書を返す。
+     * @param docInfo 文書履歴（/karte/docinfo）の DocInfoModel
+     * @return 無いか版が違えば null
+     */
+    public DocumentModel get(DocInfoModel docInfo) {
+
+        long pk = docInfo.getDocPk();
+        File f = file(pk);
+        synchronized (this) {
+            if (index.get(pk) == null) {
+                return null;
+            }
+        }
+        try {
+            byte[] data = Files.readAllBytes(f.toPath());
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            if (buf.getInt() != FORMAT) {
+                remove(pk);
+                return null;
+            }
+            byte[] iv = new byte[IV_LENGTH];
+            buf.get(iv);
+            Cipher cipher = Cipher.getInstance(CIPHER);
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, iv));
+            byte[] plain = cipher.doFinal(data, buf.position(), buf.remaining());
+
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(plain))) {
+                if (!version(docInfo).equals(in.readUTF())) {
+                    // 修正・確定されている
+                    remove(pk);
+                    return null;
+                }
+                DocumentModel doc = (DocumentModel) in.readObject();
+                f.setLastModified(System.currentTimeMillis());
+                return doc;
+            }
+
+        } catch (GeneralSecurityException | IOException | ClassNotFoundException | ClassCastException e) {
+            // 他のユーザ、壊れたファイル、クライアントの更新でクラスが変わったもの
+            Logger.getLogger("open.dolphin").log(Level.FINE, "karte document cache miss " + pk, e);
+            remove(pk);
+            return null;
+        }
+    }
+
+    /**
+     * 文書を保存する。モデルはここで直列化するので、後で変更されても保存した内容は変わらない。
+     * @param docInfo 文書履歴（/karte/docinfo）の DocInfoModel
+     * @param doc beanBytes を decode した DocumentModel（アイコンを設定する前）
+     */
+    public void put(DocInfoModel docInfo, DocumentModel doc) {
+
+        long pk = docInfo.getDocPk();
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(8192);
+            try (ObjectOutputStream out = new ObjectOutputStream(bos)) {
+                out.writeUTF(version(docInfo));
+                out.writeObject(doc);
+            }
+
+            byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance(CIPHER);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, iv));
+            byte[] encrypted = cipher.doFinal(bos.toByteArray());
+
+            ByteBuffer buf = ByteBuffer.allocate(4 + IV_LENGTH + encrypted.length);
+            buf.putInt(FORMAT).put(iv).put(encrypted);
+
+            // 書きかけのファイルを読まないように、別名で書いてから置き換える
+            File tmp = new File(dir, pk + TEMP_SUFFIX);
+            Files.write(tmp.toPath(), buf.array());
+            Files.move(tmp.toPath(), file(pk).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            synchronized (this) {
+                Long old = index.put(pk, (long) buf.capacity());
+                totalBytes += buf.capacity() - (old != null ? old : 0L);
+                evict();
+            }
+
+        } catch (GeneralSecurityException | IOException e) {
+            Logger.getLogger("open.dolphin").log(Level.WARNING, "karte document cache write failed " + pk, e);
+        }
+    }
+
+    /**
+     * 文書を削除する。
+     * @param pk 文書の pk
+     */
+    public synchronized void remove(long pk) {
+        Long size = index.remove(pk);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        file(pk).delete();
+    }
+
+    /**
+     * 全ての文書を削除する。
+     */
+    public synchronized void clear() {
+        for (Long pk : index.keySet()) {
+            file(pk).delete();
+        }
+        index.clear();
+        totalBytes = 0L;
+    }
+
+    private synchronized void evict() {
+        Iterator<Map.Entry<Long, Long>> iter = index.entrySet().iterator();
+        while (totalBytes > maxBytes && iter.hasNext()) {
+            Map.Entry<Long, Long> e = iter.next();
+            totalBytes -= e.getValue();
+            file(e.getKey()).delete();
+            iter.remove();
+        }
+    }
+
+    private File file(long pk) {
+        return new File(dir, pk + SUFFIX);
+    }
+
+    // pk|status|確定日
+    private static String version(DocInfoModel docInfo) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(docInfo.getDocPk()).append('|').append(docInfo.getStatus());
+        if (docInfo.getConfirmDate() != null) {
+            sb.append('|').append(docInfo.getConfirmDate().getTime());
+        }
+        return sb.toString();
+    }
+}
@@ -4,12 +4,14 @@ import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.EventQueue;
+import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.event.*;
 import java.io.File;
 import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
@@ -42,6 +44,10 @@ public class KarteDocumentViewer extends AbstractChartDocument implements Docume
 //s.oh^ 2013/03/28 入力行が一行の場合に文字が全部表示されない。
     private static final int KARTE_OFFSET_HEIGHT = 50;
 //s.oh$
+
+    // この数を超える文書を選択した時は見えている範囲だけを表示する
+    private static final String KARTE_VIRTUAL_THRESHOLD = "karte.virtual.threshold";
+    private static final int DEFAULT_VIRTUAL_THRESHOLD = 10;
     
 //s.oh^ 2013/01/29 過去カルテの修正操作(選択状態)
     public static final Color DEFAULT_BGCOLOR = new Color(214, 217, 223);
@@ -75,6 +81,9 @@ public class KarteDocumentViewer extends AbstractChartDocument implements Docume
     private ArrayList<KarteViewer> removed;
     private JPanel scrollerPanel;
 
+    // 多数の文書を選択した時に見えている範囲だけを表示するリスト
+    private VirtualKarteList virtualList;
+
     /**
      * DocumentViewerオブジェクトを生成する。
      */
@@ -102,6 +111,10 @@ public class KarteDocumentViewer extends AbstractChartDocument implements Docume
 
     @Override
     public void stop() {
+        if (virtualList != null) {
+            virtualList.dispose();
+            virtualList = null;
+        }
         if (karteList != null) {
             karteList.stream().forEach((karte) -> {
                 karte.stop();
@@ -188,6 +201,9 @@ public class KarteDocumentViewer extends AbstractChartDocument implements Docume
      */
     @Override
     public void historyPeriodChanged() {
+        if (virtualList != null) {
+            virtualList.clear();
+        }
         if (karteList != null) {
             karteList.clear();
         }
@@ -221,6 +237,17 @@ public class KarteDocumentViewer extends AbstractChartDocument implements Docume
             return;
         }
 
+        // 縦に並べる時、選択数が多ければ見えている範囲だけを表示する
+        boolean vsc = Project.getBoolean(Project.KARTE_SCROLL_DIRECTION, true);
+        if (vsc && selectedHistories.length > Project.getInt(KARTE_VIRTUAL_THRESHOLD, DEFAULT_VIRTUAL_THRESHOLD)) {
+            showDocumentsVirtual(selectedHistories, scroller);
+            return;
+        }
+        if (virtualList != null && virtualList.size() > 0) {
+            virtualList.clear();
+            scrollerPanel = null;
+        }
+
         // 現在のリストと比較し、新たに追加されたもの、削除されたものに分ける
         ArrayList<DocInfoModel> added = new ArrayList<>(1); // 追加されたもの
         if (removed == null) {
@@ -277,8 +304,6 @@ public class KarteDocumentViewer extends AbstractChartDocument implements Docume
         // 追加されたものがない場合
         if (added.isEmpty()) {
 
-            boolean vsc = Project.getBoolean(Project.KARTE_SCROLL_DIRECTION, true);
-
             if (scrollerPanel != null) {
                 scrollerPanel.removeAll();
             }
@@ -313,18 +338,120 @@ public class KarteDocumentViewer extends AbstractChartDocument implements Docume
             return;
         }
 
-        // 取得する文書のID(PK)をリストを生成する
-        List<Long> docId = new ArrayList<>(added.size());
-        added.stream().forEach((bean) -> {
-            docId.add(bean.getDocPk());
-        });
-
-        // データベースから取得する
+        // データベース（またはキャッシュ）から取得する
         DocumentDelegater ddl = new DocumentDelegater();
-        KarteTask task = new KarteTask(getContext(), docId, added, ddl, scroller);
+        KarteTask task = new KarteTask(getContext(), added, ddl, scroller);
         task.execute();
     }
 
+    /**
+     * 選択された文書を VirtualKarteList で表示する。
+     * 文書本体はスクロールして見える範囲に入った時に取得する。
+     *
+     * @param selectedHistories 文書履歴テーブルで選択された文書情報 DocInfo 配列
+     * @param scroller
+     */
+    private void showDocumentsVirtual(DocInfoModel[] selectedHistories, final JScrollPane scroller) {
+
+        // これまで表示していたカルテを止める
+        if (virtualList != null) {
+            virtualList.clear();
+        }
+        karteList.stream().forEach((karte) -> {
+            karte.stop();
+        });
+        karteList.clear();
+        selectedKarte = null;
+        stateMgr.processEmptyEvent();
+
+        if (virtualList == null) {
+            virtualList = new VirtualKarteList(this, scroller);
+        }
+
+        // 時間軸でソートする
+        List<DocInfoModel> docInfos = new ArrayList<>(Arrays.asList(selectedHistories));
+        if (ascending) {
+            Collections.sort(docInfos);
+        } else {
+            Collections.sort(docInfos, Collections.reverseOrder());
+        }
+
+        scrollerPanel = virtualList.getPanel();
+        scroller.setViewportView(scrollerPanel);
+        scroller.getViewport().setViewPosition(new Point(0, 0));
+        virtualList.show(docInfos, ascending ? docInfos.size() - 1 : 0);
+
+        getContext().enabledAction(GUIConst.ACTION_DELETE, false);
+        getContext().showDocument(0);
+    }
+
+    /**
+     * 表示している文書数を返す。
+     */
+    private int getDocumentCount() {
+        return (virtualList != null && virtualList.size() > 0) ? virtualList.size() : karteList.size();
+    }
+
+    void karteViewerAdded(KarteViewer karteViewer) {
+        karteList.add(karteViewer);
+    }
+
+    void karteViewerRemoved(KarteViewer karteViewer) {
+        karteList.remove(karteViewer);
+        if (karteViewer == selectedKarte) {
+            selectedKarte = null;
+        }
+    }
+
+    /**
+     * 文書を表示する KarteViewer を生成してレンダリングする。
+     * 2号カルテの場合はクリックで選択、ダブルクリックで別画面表示する。
+     *
+     * @param karteModel 表示する文書
+     * @return KarteViewer
+     */
+    KarteViewer startKarteViewer(DocumentModel karteModel) {
+
+        // シングル及び２号用紙の判定を行い、KarteViewer を生成する
+        final KarteViewer karteViewer = createKarteViewer(karteModel.getDocInfoModel());
+        karteViewer.setContext(getContext());
+        karteViewer.setModel(karteModel);
+        karteViewer.setAvoidEnter(true);
+
+        // このコールでモデルのレンダリングが開始される
+        karteViewer.start();
+
+        // 2号カルテの場合ダブルクリックされたカルテを別画面で表示する
+        // MouseListener を生成して KarteViewer の Pane にアタッチする
+        if (karteModel.getDocInfoModel().getDocType().equals(IInfoModel.DOCTYPE_KARTE)) {
+            final MouseListener ml = new MouseAdapter() {
+
+                @Override
+                public void mouseClicked(MouseEvent e) {
+                    int cnt = e.getClickCount();
+                    if (cnt == 2) {
+                        //-----------------------------------
+                        // 選択した Karte を EditoFrame で開く
+                        //-----------------------------------
+                        setSelectedKarte(karteViewer);
+                        openKarte();
+                    } else if (cnt == 1) {
+                        setSelectedKarte(karteViewer);
+                    }
+                }
+            };
+            karteViewer.addMouseListener(ml);
+//s.oh^ 2013/01/29 過去カルテの修正操作(選択状態)
+            if(karteViewer.getUI() instanceof KartePanel2M) {
+                // アイコンの差し換え(デザイン変更)
+                ((KartePanel2M)karteViewer.getUI()).getTimeStampPanel().addMouseListener(ml);
+                ((KartePanel2M)karteViewer.getUI()).getTimeStampLabel().addMouseListener(ml);
+            }
+//s.oh$
+        }
+        return karteViewer;
+    }
+
     private KarteViewer createKarteViewer(DocInfoModel docInfo) {
         if (docInfo != null && docInfo.getDocType().equals(IInfoModel.DOCTYPE_S_KARTE)) {
             return new KarteViewer();
@@ -347,44 +474,7 @@ public class KarteDocumentViewer extends AbstractChartDocument implements Docume
 
                 karteModel.setDocInfoModel(docInfos.get(index++)); // ?
 
-                // シングル及び２号用紙の判定を行い、KarteViewer を生成する
-                final KarteViewer karteViewer = createKarteViewer(karteModel.getDocInfoModel());
-                karteViewer.setContext(getContext());
-                karteViewer.setModel(karteModel);
-                karteViewer.setAvoidEnter(true);
-
-                // このコールでモデルのレンダリングが開始される
-                karteViewer.start();
-
-                // 2号カルテの場合ダブルクリックされたカルテを別画面で表示する
-                // MouseListener を生成して KarteViewer の Pane にアタッチする
-                if (karteModel.getDocInfoModel().getDocType().equals(IInfoModel.DOCTYPE_KARTE)) {
-                    final MouseListener ml = new MouseAdapter() {
-
-                        @Override
-                        public void mouseClicked(MouseEvent e) {
-                            int cnt = e.getClickCount();
-                            if (cnt == 2) {
-                                //-----------------------------------
-                                // 選択した Karte を EditoFrame で開く
-                                //-----------------------------------
-                                setSelectedKarte(karteViewer);
-                                openKarte();
-                            } else if (cnt == 1) {
-                                setSelectedKarte(karteViewer);
-                            }
-                        }
-                    };
-                    karteViewer.addMouseListener(ml);
-//s.oh^ 2013/01/29 過去カルテの修正操作(選択状態)
-                    if(karteViewer.getUI() instanceof KartePanel2M) {
-                        // アイコンの差し換え(デザイン変更)
-                        ((KartePanel2M)karteViewer.getUI()).getTimeStampPanel().addMouseListener(ml);
-                        ((KartePanel2M)karteViewer.getUI()).getTimeStampLabel().addMouseListener(ml);
-                    }
-//s.oh$
-                }
-
+                final KarteViewer karteViewer = startKarteViewer(karteModel);
                 karteList.add(karteViewer);
 
 //s.oh^ 2013/01/29 過去カルテの修正操作(選択状態)
@@ -480,6 +570,25 @@ public class KarteDocumentViewer extends AbstractChartDocument implements Docume
 //s.oh$
     }
 
+    /**
+     * 縦に並べる時のカルテの高さを返す。
+     * @param view KarteViewer
+     * @return 高さ
+     */
+    int getKarteHeight(KarteViewer view) {
+//minagawa^ Kuroiwa specific                        
+//s.oh^ 2013/03/28 入力行が一行の場合に文字が全部表示されない。
+        //int h = view.getActualHeight() + 30;
+//s.oh^ 2014/06/02 複数カルテ表示時に全部表示されない
+        //int h = view.getActualHeight() + KARTE_OFFSET_HEIGHT;
+        int offset = (view.getModel().getModules() != null) ? view.getModel().getModules().size() * 20 : 0;
+        return view.getActualHeight() + KARTE_OFFSET_HEIGHT + offset;
+//s.oh$
+//s.oh$
+        //int h = view.getActualHeight() + KARTE_OFFSET_HEIGHT; -<kuroiwa specific
+//minagawa$
+    }
+
     private void showKarteListV() {
 
         Runnable awt = () -> {
@@ -487,17 +596,7 @@ public class KarteDocumentViewer extends AbstractChartDocument implements Docume
                 int totalHeight = 0;
                 for (KarteViewer view : karteList) {
                     int w = view.panel2.getPreferredSize().width;
-//minagawa^ Kuroiwa specific                        
-//s.oh^ 2013/03/28 入力行が一行の場合に文字が全部表示されない。
-                    //int h = view.getActualHeight() + 30;
-//s.oh^ 2014/06/02 複数カルテ表示時に全部表示されない
-                    //int h = view.getActualHeight() + KARTE_OFFSET_HEIGHT;
-                    int offset = (view.getModel().getModules() != null) ? view.getModel().getModules().size() * 20 : 0;
-                    int h = view.getActualHeight() + KARTE_OFFSET_HEIGHT + offset;
-//s.oh$
-//s.oh$
-                    //int h = view.getActualHeight() + KARTE_OFFSET_HEIGHT; -<kuroiwa specific
-//minagawa$
+                    int h = getKarteHeight(view);
                     totalHeight += h;
                     view.panel2.setPreferredSize(new Dimension(w, h));
                 }
@@ -918,6 +1017,16 @@ public class KarteDocumentViewer extends AbstractChartDocument implements Docume
 
 //s.oh^ 2013/02/07 印刷対応
     private void printPDF() {
+        if (Project.getBoolean(Project.KARTE_PRINT_MULTI) && !Project.getBoolean(Project.KARTE_PRINT_SHOWPDF)
+                && virtualList != null && virtualList.size() > 0) {
+            // まだ取得していない文書を取得してから印刷する
+            virtualList.materializeAll(this::printPDF);
+        } else {
+            printPDF(karteList);
+        }
+    }
+
+    private void printPDF(List<KarteViewer> views) {
         StringBuilder sb = new StringBuilder();
         sb.append(ClientContext.getTempDirectory());
         //sb.append(File.separator);
@@ -933,7 +1042,7 @@ public class KarteDocumentViewer extends AbstractChartDocument implements Docume
         
         if(Project.getBoolean(Project.KARTE_PRINT_MULTI) && !Project.getBoolean(Project.KARTE_PRINT_SHOWPDF)) {
             int id = 0;
-            for(KarteViewer view : karteList) {
+            for(KarteViewer view : views) {
                 String docNo = String.format("%04d", id++);
                 if(view instanceof KarteViewer2) {
                     karte = (KarteViewer2)view;
@@ -1231,13 +1340,11 @@ public class KarteDocumentViewer extends AbstractChartDocument implements Docume
     class KarteTask extends DBTask<List<DocumentModel>, Void> {
 
         private final DocumentDelegater ddl;
-        private final List<Long> docId;
         private final List<DocInfoModel> docInfos;
         private final JScrollPane scroller;
 
-        public KarteTask(Chart ctx, List<Long> docId, List<DocInfoModel> docInfos, DocumentDelegater ddl, JScrollPane scroller) {
+        public KarteTask(Chart ctx, List<DocInfoModel> docInfos, DocumentDelegater ddl, JScrollPane scroller) {
             super(ctx);
-            this.docId = docId;
             this.ddl = ddl;
             this.docInfos = docInfos;
             this.scroller = scroller;
@@ -1246,7 +1353,7 @@ public class KarteDocumentViewer extends AbstractChartDocument implements Docume
         @Override
         protected List<DocumentModel> doInBackground() throws Exception {
             java.util.logging.Logger.getLogger(this.getClass().getName()).fine("カルテタスク doInBackground");
-            List<DocumentModel> result = ddl.getDocuments(docId);
+            List<DocumentModel> result = ddl.getDocumentsByDocInfo(docInfos);
             java.util.logging.Logger.getLogger(this.getClass().getName()).fine("doInBackground noErr, return result");
             return result;
         }
@@ -1380,7 +1487,7 @@ public class KarteDocumentViewer extends AbstractChartDocument implements Docume
             // delete^
 //s.oh^ 2013/06/13 カルテ履歴が複数の場合、カルテ削除メニューを無効
             //getContext().enabledAction(GUIConst.ACTION_DELETE, (!showModified && canEdit)); // 削除 履歴表示中
-            boolean singleSelected = (karteList.size() == 1);
+            boolean singleSelected = (getDocumentCount() == 1);
             getContext().enabledAction(GUIConst.ACTION_DELETE, (!showModified && canEdit && singleSelected));
 //s.oh$
 //s.oh^ 2014/08/19 ID権限
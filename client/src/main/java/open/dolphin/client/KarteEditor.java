@@ -1428,7 +1428,7 @@ public class KarteEditor extends AbstractChartDocument implements IInfoModel, NC
             mb.setFirstConfirmed(docInfo.getFirstConfirmDate());    // 適合開始日
             mb.setRecorded(docInfo.getConfirmDate());               // 記録日
             mb.setStatus(STATUS_FINAL);                             // status
-            mb.setBeanBytes(BeanUtils.getXMLBytes(mb.getModel()));  // byte[]
+            mb.setBeanBytes(encodeModel(mb.getModel()));            // byte[]
 
             // ModuleInfo を設定する
             // Name, Role, Entity は設定されている
@@ -1962,8 +1962,8 @@ public class KarteEditor extends AbstractChartDocument implements IInfoModel, NC
                             }
                         }
 
-                        // 実態をBeanXML化、それのバイトデータ
-                        bean.setBeanBytes(BeanUtils.getXMLBytes(bean.getModel()));
+                        // 実態をBeanXML（またはバイナリ）化、それのバイトデータ
+                        bean.setBeanBytes(encodeModel(bean.getModel()));
 
                         // ModuleInfo を設定する
                         // Name, Role, Entity は設定されている
@@ -2281,6 +2281,20 @@ public class KarteEditor extends AbstractChartDocument implements IInfoModel, NC
     public static List<KarteEditor> getAllKarte() {
         return allKarte;
     }
+
+    /**
+     * モジュールの実体を beanBytes にする。
+     * BeanCodec のバイナリ形式は古いクライアントでは読めないので、
+     * 全てのクライアントを更新して beanbytes.binary=true にするまでは XML で書く。
+     * @param model モジュールの実体
+     * @return beanBytes
+     */
+    private static byte[] encodeModel(IInfoModel model) {
+        if (Project.getBoolean("beanbytes.binary", false)) {
+            return BeanCodec.encode(model);
+        }
+        return BeanUtils.getXMLBytes(model);
+    }
     
 //s.oh^ 2013/11/26 スクロールバーのリセット
     public void resetScrollBar() {
@@ -106,6 +106,9 @@ public class KartePane implements DocumentListener, MouseListener,
     private ComponentHolder[] drragedStamp;
     private int draggedCount;
     private int droppedCount;
+
+    // まとめて挿入している間の表示されていない Document
+    private KarteStyledDocument bulkDocument;
     
 //s.oh^ 2014/01/27 スタンプのテキストコピー機能拡張
     private String patID;
@@ -238,9 +241,39 @@ public class KartePane implements DocumentListener, MouseListener,
      * @return JTextPaneのStyledDocument
      */
     protected KarteStyledDocument getDocument() {
+        if (bulkDocument != null) {
+            return bulkDocument;
+        }
         return (KarteStyledDocument) getTextPane().getDocument();
     }
 
+    /**
+     * まとめて挿入を開始する。
+     * endBulkInsert までの挿入は表示されていない Document に行い、挿入毎に View を計算しない。
+     * すでに内容がある時は何もしない。
+     * @return 開始した時 true
+     */
+    public boolean beginBulkInsert() {
+        if (bulkDocument != null || getTextPane() == null || getTextPane().getDocument().getLength() > 0) {
+            return false;
+        }
+        bulkDocument = new KarteStyledDocument();
+        bulkDocument.setParent(this);
+        return true;
+    }
+
+    /**
+     * まとめて挿入を終了する。
+     * @param commit true の時、組み立てた Document を JTextPane に設定する
+     */
+    public void endBulkInsert(boolean commit) {
+        KarteStyledDocument doc = bulkDocument;
+        bulkDocument = null;
+        if (commit && doc != null && getTextPane() != null) {
+            getTextPane().setDocument(doc);
+        }
+    }
+
     /**
      * 初期長を設定する。
      * @param initialLength
@@ -720,7 +753,7 @@ public class KartePane implements DocumentListener, MouseListener,
         if (schema != null) {
             SchemaHolder h = new SchemaHolder(this, schema);
             h.setTransferHandler(new SchemaHolderTransferHandler(KartePane.this, h));
-            KarteStyledDocument doc = (KarteStyledDocument) getTextPane().getDocument();
+            KarteStyledDocument doc = getDocument();
             doc.flowSchema(h);
         }
     }
@@ -748,7 +781,7 @@ public class KartePane implements DocumentListener, MouseListener,
         if (att != null) {
             AttachmentHolder h = new AttachmentHolder(this, att);
             h.setTransferHandler(new AttachmentHolderTransferHandler(KartePane.this, h));
-            KarteStyledDocument doc = (KarteStyledDocument)getTextPane().getDocument();
+            KarteStyledDocument doc = getDocument();
             doc.flowAttachment(h);
         }
     }
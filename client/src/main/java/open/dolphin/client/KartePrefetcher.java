@@ -0,0 +1,247 @@
+package open.dolphin.client;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import open.dolphin.delegater.DocumentDelegater;
+import open.dolphin.infomodel.ChartEventModel;
+import open.dolphin.infomodel.DocInfoModel;
+import open.dolphin.infomodel.KarteBean;
+import open.dolphin.infomodel.PatientVisitModel;
+import open.dolphin.project.Project;
+
+/**
+ * 受付リストで待っている患者のカルテを先読みする。
+ *
+ * 待ち順の先頭から count 人について、カルテ（getKarte：文書履歴・メモ・アレルギー等）を取得して
+ * メモリに置き、文書履歴で自動選択される最近の文書を KarteDocumentCache に入れておく。
+ * ChartImpl はカルテを開く時に take で受け取り、無ければこれまで通りサーバから取得する。
+ *
+ * 先読みは優先度の低いスレッド一つで順に行い、ヒープの空きが少ない時は行わない。
+ * カルテは SoftReference で持つのでメモリが足りなくなれば捨てられる。
+ * 受け取られなかったカルテは TTL を過ぎるか、待ちの先頭から外れた時に捨てる。
+ * 他の端末での保存や患者情報の変更などでその患者のチャートイベントが届いた時も捨て、
+ * 取得中だったものは置かずに次の受付リストの更新で取り直す。
+ */
+public final class KartePrefetcher implements PropertyChangeListener {
+
+    private static KartePrefetcher instance;
+
+    private final int count;
+    private final int documentCount;
+    private final long ttl;
+    private final long minHeap;
+    private final ExecutorService executor;
+
+    // 患者PK -> 先読みしたカルテ
+    private final Map<Long, Entry> prefetched = new ConcurrentHashMap<>();
+
+    // 先読みを待っている・先読み中の患者PK
+    private final Set<Long> scheduled = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    // 今先読みしたい患者PK（待ち順）
+    private volatile List<Long> wanted = Collections.emptyList();
+
+    // 患者PK -> 最後にチャートイベントが届いた時の eventSeq
+    private final Map<Long, Long> invalidated = new ConcurrentHashMap<>();
+
+    private final AtomicLong eventSeq = new AtomicLong();
+
+    private static class Entry {
+        private final SoftReference<KarteBean> karte;
+        private final Date fromDate;
+        private final long loaded;
+
+        private Entry(KarteBean karte, Date fromDate) {
+            this.karte = new SoftReference<>(karte);
+            this.fromDate = fromDate;
+            this.loaded = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 先読みを開始する。
+     * @param count 先読みする人数
+     * @param documentCount 一人あたり先読みする最近の文書数
+     * @param ttl 先読みしたカルテを使える時間（ミリ秒）
+     * @param minHeap 先読みするのに必要なヒープの空き（バイト）
+     */
+    public static synchronized void start(int count, int documentCount, long ttl, long minHeap) {
+        if (instance == null) {
+            instance = new KartePrefetcher(count, documentCount, ttl, minHeap);
+            ChartEventHandler.getInstance().addPropertyChangeListener(instance);
+        }
+    }
+
+    /**
+     * 先読みを返す。
+     * @return 開始していなければ null
+     */
+    public static synchronized KartePrefetcher getInstance() {
+        return instance;
+    }
+
+    /**
+     * ChartImpl が取得するカルテの文書履歴の開始日（今日から DOC_HISTORY_PERIOD ヶ月前）。
+     * @return 開始日
+     */
+    public static Date getHistoryFromDate() {
+        int past = Project.getInt(Project.DOC_HISTORY_PERIOD, -12);
+        GregorianCalendar today = new GregorianCalendar();
+        today.add(GregorianCalendar.MONTH, past);
+        today.clear(Calendar.HOUR_OF_DAY);
+        today.clear(Calendar.MINUTE);
+        today.clear(Calendar.SECOND);
+        today.clear(Calendar.MILLISECOND);
+        return today.getTime();
+    }
+
+    private KartePrefetcher(int count, int documentCount, long ttl, long minHeap) {
+        this.count = count;
+        this.documentCount = documentCount;
+        this.ttl = ttl;
+        this.minHeap = minHeap;
+        this.executor = Executors.newSingleThreadExecutor((Runnable r) -> {
+            Thread t = new Thread(r, "karte-prefetch");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    /**
+     * 待っている患者のカルテを先読みする。受付リストが更新される度に呼ぶ。
+     * @param waiting 待っている患者の受付（待ち順）
+     */
+    public void prefetch(List<PatientVisitModel> waiting) {
+
+        List<Long> pks = new ArrayList<>(count);
+        for (PatientVisitModel pvt : waiting) {
+            if (pks.size() >= count) {
+                break;
+            }
+            if (pvt.getPatientModel() != null && !pks.contains(pvt.getPatientModel().getId())) {
+                pks.add(pvt.getPatientModel().getId());
+            }
+        }
+        wanted = pks;
+
+        // 待ちの先頭から外れた患者は捨てる
+        prefetched.keySet().retainAll(pks);
+        invalidated.keySet().retainAll(pks);
+
+        for (Long pk : pks) {
+            Entry e = prefetched.get(pk);
+            if (e != null && e.karte.get() != null && !isExpired(e)) {
+                continue;
+            }
+            if (scheduled.add(pk)) {
+                executor.execute(() -> load(pk));
+            }
+        }
+    }
+
+    /**
+     * 先読みしたカルテを返す。一度返したカルテは手放す。
+     * @param patientPk 患者PK
+     * @param fromDate 文書履歴の開始日
+     * @return 先読みしていない、TTL を過ぎた、開始日が違う時は null
+     */
+    public KarteBean take(long patientPk, Date fromDate) {
+        Entry e = prefetched.remove(patientPk);
+        if (e == null || isExpired(e) || !e.fromDate.equals(fromDate)) {
+            return null;
+        }
+        return e.karte.get();
+    }
+
+    /**
+     * チャートイベントの届いた患者の先読みを捨てる。
+     * @param pce CHART_EVENT_PROP
+     */
+    @Override
+    public void propertyChange(PropertyChangeEvent pce) {
+        ChartEventModel evt = (ChartEventModel) pce.getNewValue();
+        if (evt == null) {
+            return;
+        }
+        long seq = eventSeq.incrementAndGet();
+        if (evt.getPtPk() == 0L) {
+            // 患者を特定しない（PVT_RENEW 等）
+            invalidated.clear();
+            for (Long pk : wanted) {
+                invalidated.put(pk, seq);
+            }
+            prefetched.clear();
+        } else {
+            invalidated.put(evt.getPtPk(), seq);
+            prefetched.remove(evt.getPtPk());
+        }
+    }
+
+    private void load(long pk) {
+
+        try {
+            if (!wanted.contains(pk) || !hasHeap()) {
+                return;
+            }
+            long seq = eventSeq.get();
+            Date fromDate = getHistoryFromDate();
+            DocumentDelegater ddl = new DocumentDelegater();
+            KarteBean karte = ddl.getKarte(pk, fromDate);
+            if (karte == null || !wanted.contains(pk) || isInvalidated(pk, seq)) {
+                return;
+            }
+            prefetched.put(pk, new Entry(karte, fromDate));
+            if (isInvalidated(pk, seq)) {
+                // 置く間に届いた
+                prefetched.remove(pk);
+                return;
+            }
+
+            // 文書履歴で自動選択される最近の文書をディスクキャッシュに入れる
+            List<DocInfoModel> list = karte.getDocInfoList();
+            if (documentCount > 0 && KarteDocumentCache.getInstance() != null && list != null && !list.isEmpty()) {
+                List<DocInfoModel> recent = new ArrayList<>(list);
+                Collections.sort(recent, Collections.reverseOrder());
+                recent = recent.subList(0, Math.min(documentCount, recent.size()));
+                ddl.getDocumentsByDocInfo(recent);
+            }
+
+        } catch (Exception e) {
+            Logger.getLogger("open.dolphin").log(Level.FINE, "karte prefetch failed " + pk, e);
+        } finally {
+            scheduled.remove(pk);
+        }
+    }
+
+    // 取得を始めた後にチャートイベントが届いていれば true
+    private boolean isInvalidated(long pk, long seq) {
+        Long last = invalidated.get(pk);
+        return last != null && last > seq;
+    }
+
+    private boolean isExpired(Entry e) {
+        return System.currentTimeMillis() - e.loaded > ttl;
+    }
+
+    private boolean hasHeap() {
+        Runtime rt = Runtime.getRuntime();
+        long used = rt.totalMemory() - rt.freeMemory();
+        return rt.maxMemory() - used > minHeap;
+    }
+}
@@ -1,28 +1,27 @@
 package open.dolphin.client;
 
 import java.awt.Color;
-import java.awt.event.ActionEvent;
-import java.io.BufferedReader;
-import java.io.IOException;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.StringTokenizer;
-import javax.swing.Action;
 import javax.swing.text.*;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import open.dolphin.infomodel.DocumentModel;
 import open.dolphin.infomodel.IInfoModel;
 import open.dolphin.infomodel.ModuleModel;
 import open.dolphin.infomodel.ProgressCourse;
-import org.jdom.Document;
-import org.jdom.JDOMException;
-import org.jdom.input.SAXBuilder;
 
 /**
  * KarteRenderer_2
  *
+ * Pane の XML（KartePaneDumper_2 の出力）を StAX で先頭から読みながら挿入する。
+ * 挿入は表示されていない Document に行い、読み終えてから一度だけ JTextPane に設定する（KartePane.beginBulkInsert）。
+ *
  * @author Kazushi Minagawa, Digital Globe, Inc.
  */
 public class KarteRenderer_2 {
@@ -39,12 +38,6 @@ public class KarteRenderer_2 {
     
     private static final int TT_PARAGRAPH = 1;
     
-    private static final int TT_CONTENT = 2;
-    
-    private static final int TT_ICON = 3;
-    
-    private static final int TT_COMPONENT = 4;
-    
     private static final int TT_PROGRESS_COURSE = 5;
     
     private static final String SECTION_NAME = "section";
@@ -83,6 +76,11 @@ public class KarteRenderer_2 {
     
     private static final String NAME_STAMP_HOLDER = "name=\"stampHolder\"";
     
+    private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+    
+    // false の時は表示中の Document に直接挿入する（比較用）
+    private static volatile boolean bulkInsert = true;
+    
     private DocumentModel model;
     
     private final KartePane soaPane;
@@ -208,6 +206,22 @@ public class KarteRenderer_2 {
         }
     }
     
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+    
+    public static boolean isBulkInsert() {
+        return bulkInsert;
+    }
+    
+    public static void setBulkInsert(boolean b) {
+        bulkInsert = b;
+    }
+    
     /**
      * TextPane Dump の XML を解析する。
      * @param xml TextPane Dump の XML
@@ -216,54 +230,81 @@ public class KarteRenderer_2 {
         
         debug(xml);
         
-        SAXBuilder docBuilder = new SAXBuilder();
+        boolean bulk = bulkInsert && thePane.beginBulkInsert();
+        boolean ok = false;
+        XMLStreamReader reader = null;
         
         try {
-            StringReader sr = new StringReader(xml);
-            Document doc = docBuilder.build(new BufferedReader(sr));
-            org.jdom.Element root = (org.jdom.Element) doc.getRootElement();
-            
-            writeChildren(root);
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(xml));
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    writeChildren(reader);
+                    break;
+                }
+            }
+            // 最後まで整形式であることを確認する
+            while (reader.hasNext()) {
+                reader.next();
+            }
+            ok = true;
         }
         // indicates a well-formedness error
-        catch (JDOMException e) {
-            //e.printStackTrace(System.err);
-        } catch (IOException e) {
+        catch (XMLStreamException e) {
             //e.printStackTrace(System.err);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                }
+            }
+            if (bulk) {
+                // 整形式でない時はこれまで通り何も表示しない
+                thePane.endBulkInsert(ok);
+            }
         }
     }
     
     /**
-     * 子要素をパースする。
-     * @param current 要素
+     * 要素をパースする。開始タグの位置で呼び、終了タグまで読み進める。
+     * @param reader 開始タグの位置の XMLStreamReader
+     * @throws XMLStreamException
      */
-    private void writeChildren(org.jdom.Element current) {
+    private void writeChildren(XMLStreamReader reader) throws XMLStreamException {
         
         int eType = -1;
-        String eName = current.getName();
+        String eName = reader.getLocalName();
         
         if (eName.equals(PARAGRAPH_NAME)) {
             eType = TT_PARAGRAPH;
-            startParagraph(current.getAttributeValue(LOGICAL_STYLE_NAME),
-                    current.getAttributeValue(ALIGNMENT_NAME));
+            startParagraph(reader.getAttributeValue(null, LOGICAL_STYLE_NAME),
+                    reader.getAttributeValue(null, ALIGNMENT_NAME));
             
-        } else if (eName.equals(CONTENT_NAME) && (current.getChild(TEXT_NAME) != null)) {
-            eType = TT_CONTENT;
-            startContent(current.getAttributeValue(FOREGROUND_NAME), 
-                    current.getAttributeValue(SIZE_NAME), 
-                    current.getAttributeValue(BOLD_NAME), 
-                    current.getAttributeValue(ITALIC_NAME), 
-                    current.getAttributeValue(UNDERLINE_NAME), 
-                    current.getChildText(TEXT_NAME));
+        } else if (eName.equals(CONTENT_NAME)) {
+            // 属性は開始タグの位置でしか読めない
+            String foreground = reader.getAttributeValue(null, FOREGROUND_NAME);
+            String size = reader.getAttributeValue(null, SIZE_NAME);
+            String bold = reader.getAttributeValue(null, BOLD_NAME);
+            String italic = reader.getAttributeValue(null, ITALIC_NAME);
+            String underline = reader.getAttributeValue(null, UNDERLINE_NAME);
+            String text = readChildText(reader, TEXT_NAME);
+            if (text != null) {
+                startContent(foreground, size, bold, italic, underline, text);
+                endContent();
+            }
+            return;
             
         } else if (eName.equals(COMPONENT_NAME)) {
-            eType = TT_COMPONENT;
-            startComponent(current.getAttributeValue(NAME_NAME), // compoenet=number
-                    current.getAttributeValue(COMPONENT_ELEMENT_NAME));
+            startComponent(reader.getAttributeValue(null, NAME_NAME), // compoenet=number
+                    reader.getAttributeValue(null, COMPONENT_ELEMENT_NAME));
+            skipElement(reader);
+            endComponent();
+            return;
             
         } else if (eName.equals(ICON_NAME)) {
-            eType = TT_ICON;
-            startIcon(current);
+            startIcon(readChildText(reader, NAME_NAME));
+            endIcon();
+            return;
             
         } else if (eName.equals(PROGRESS_COURSE_NAME)) {
             eType = TT_PROGRESS_COURSE;
@@ -275,18 +316,17 @@ public class KarteRenderer_2 {
             
         } else {
             debug("Other element:" + eName);
+            skipElement(reader);
+            return;
         }
         
         // 子を探索するのはパラグフとトップ要素のみ
-        if (eType == TT_PARAGRAPH || eType == TT_PROGRESS_COURSE
-                || eType == TT_SECTION) {
-            
-            java.util.List children = (java.util.List) current.getChildren();
-            Iterator iterator = children.iterator();
-            
-            while (iterator.hasNext()) {
-                org.jdom.Element child = (org.jdom.Element) iterator.next();
-                writeChildren(child);
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                writeChildren(reader);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
             }
         }
         
@@ -296,18 +336,6 @@ public class KarteRenderer_2 {
                 endParagraph();
                 break;
                 
-            case TT_CONTENT:
-                endContent();
-                break;
-                
-            case TT_ICON:
-                endIcon();
-                break;
-                
-            case TT_COMPONENT:
-                endComponent();
-                break;
-                
             case TT_PROGRESS_COURSE:
                 endProgressCourse();
                 break;
@@ -318,6 +346,74 @@ public class KarteRenderer_2 {
         }
     }
     
+    /**
+     * 最初の子要素 childName のテキストを返し、要素の終了タグまで読み進める。
+     * @param reader 開始タグの位置の XMLStreamReader
+     * @param childName 子要素名
+     * @return テキスト、子要素がない時は null
+     * @throws XMLStreamException
+     */
+    private String readChildText(XMLStreamReader reader, String childName) throws XMLStreamException {
+        String ret = null;
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (ret == null && childName.equals(reader.getLocalName())) {
+                    ret = readText(reader);
+                } else {
+                    skipElement(reader);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return ret;
+            }
+        }
+    }
+    
+    /**
+     * 要素直下のテキストを返し、終了タグまで読み進める。
+     */
+    private String readText(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder sb = null;
+        String first = null;
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE) {
+                if (first == null) {
+                    first = reader.getText();
+                } else {
+                    if (sb == null) {
+                        sb = new StringBuilder(first);
+                    }
+                    sb.append(reader.getText());
+                }
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                skipElement(reader);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+        }
+        if (sb != null) {
+            return sb.toString();
+        }
+        return first != null ? first : "";
+    }
+    
+    /**
+     * 要素を読み飛ばす。
+     */
+    private void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+    
     private void startSection() {
     }
     
@@ -340,39 +436,23 @@ public class KarteRenderer_2 {
         logicalStyle = true;
         
         if (alignStr != null) {
-            DefaultStyledDocument doc = (DefaultStyledDocument) thePane
-                    .getTextPane().getDocument();
+            DefaultStyledDocument doc = thePane.getDocument();
             Style style0 = doc.getStyle("default");
             Style style = doc.addStyle("alignment", style0);
             if (alignStr.equals("0")) {
                 StyleConstants.setAlignment(style, StyleConstants.ALIGN_LEFT);
 //s.oh^ 2014/04/02 修正時の中央揃え／右揃え対応
-                if (thePane.getTextPane() != null) {
-                    Action a = thePane.getTextPane().getActionMap().get("left-justify");
-                    if (a != null) {
-                        a.actionPerformed(new ActionEvent(thePane.getTextPane(), ActionEvent.ACTION_PERFORMED, null));
-                    }
-                }
+                setParagraphAlignment(StyleConstants.ALIGN_LEFT);
 //s.oh$
             } else if (alignStr.equals("1")) {
                 StyleConstants.setAlignment(style, StyleConstants.ALIGN_CENTER);
 //s.oh^ 2014/04/02 修正時の中央揃え／右揃え対応
-                if (thePane.getTextPane() != null) {
-                    Action a = thePane.getTextPane().getActionMap().get("center-justify");
-                    if (a != null) {
-                        a.actionPerformed(new ActionEvent(thePane.getTextPane(), ActionEvent.ACTION_PERFORMED, null));
-                    }
-                }        
+                setParagraphAlignment(StyleConstants.ALIGN_CENTER);
 //s.oh$
             } else if (alignStr.equals("2")) {
                 StyleConstants.setAlignment(style, StyleConstants.ALIGN_RIGHT);
 //s.oh^ 2014/04/02 修正時の中央揃え／右揃え対応
-                if (thePane.getTextPane() != null) {
-                    Action a = thePane.getTextPane().getActionMap().get("right-justify");
-                    if (a != null) {
-                        a.actionPerformed(new ActionEvent(thePane.getTextPane(), ActionEvent.ACTION_PERFORMED, null));
-                    }
-                }         
+                setParagraphAlignment(StyleConstants.ALIGN_RIGHT);
 //s.oh$
             }
             thePane.setLogicalStyle("alignment");
@@ -380,6 +460,18 @@ public class KarteRenderer_2 {
         }
     }
     
+    /**
+     * 挿入中の段落（文書の末尾）に揃えを設定する。
+     * left-justify 等の Action と同じ処理を、表示前の Document にも行えるように末尾に対して行う。
+     * @param alignment StyleConstants.ALIGN_*
+     */
+    private void setParagraphAlignment(int alignment) {
+        KarteStyledDocument doc = thePane.getDocument();
+        MutableAttributeSet atts = new SimpleAttributeSet();
+        StyleConstants.setAlignment(atts, alignment);
+        doc.setParagraphAttributes(doc.getLength(), 0, atts, false);
+    }
+    
     private void endParagraph() {
         //thePane.makeParagraph(); // trim() の廃止で廃止
         if (DEBUG) {
@@ -387,12 +479,7 @@ public class KarteRenderer_2 {
         }
         if (logicalStyle) {
 //s.oh^ 2014/04/02 修正時の中央揃え／右揃え対応
-            if (thePane.getTextPane() != null) {
-                Action a = thePane.getTextPane().getActionMap().get("left-justify");
-                if (a != null) {
-                    a.actionPerformed(new ActionEvent(thePane.getTextPane(), ActionEvent.ACTION_PERFORMED, null));
-                }
-            }
+            setParagraphAlignment(StyleConstants.ALIGN_LEFT);
 //s.oh$
             thePane.clearLogicalStyle();
             logicalStyle = false;
@@ -408,7 +495,10 @@ public class KarteRenderer_2 {
         
         // 特殊文字を戻す
         for (int i = 0; i < REPLACES.length; i++) {
-            text = text.replaceAll(MATCHES[i], REPLACES[i]);
+            if (text.indexOf('&') < 0) {
+                break;
+            }
+            text = text.replace(MATCHES[i], REPLACES[i]);
         }
         
         // このコンテントに設定する AttributeSet
@@ -486,12 +576,10 @@ public class KarteRenderer_2 {
     private void endComponent() {
     }
     
-    private void startIcon(org.jdom.Element current) {
-        
-        String name = current.getChildTextTrim("name");
+    private void startIcon(String name) {
         
         if (name != null) {
-            debug(name);
+            debug(name.trim());
         }
     }
     
@@ -241,8 +241,8 @@ public class KarteStyledDocument extends DefaultStyledDocument {
             // このスタンプ用のスタイルを動的に生成する
             StyleConstants.setComponent(runStyle, sh);
             
-            // キャレット位置を取得する
-            int start = kartePane.getTextPane().getCaretPosition();
+            // 文書の末尾に挿入する（表示前の Document にも挿入できるように）
+            int start = this.getLength();
             
             // Stamp を挿入する
             insertString(start, " ", runStyle);
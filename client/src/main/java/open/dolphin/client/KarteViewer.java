@@ -110,7 +110,8 @@ public class KarteViewer extends AbstractChartDocument implements Comparable {
             JTextPane pane = soaPane.getTextPane();
             int pos = pane.getDocument().getLength();
             Rectangle r = pane.modelToView(pos);
-            int hsoa = r.y;
+            // まだ配置されていない時は null
+            int hsoa = (r != null) ? r.y : 0;
             return hsoa;
             
         } catch (BadLocationException ex) {
@@ -31,12 +31,13 @@ public class KarteViewer2 extends KarteViewer {
             JTextPane pane = soaPane.getTextPane();
             int pos = pane.getDocument().getLength();
             Rectangle r = pane.modelToView(pos);
-            int hsoa = r.y;
+            // まだ配置されていない時は null
+            int hsoa = (r != null) ? r.y : 0;
             
             pane = pPane.getTextPane();
             pos = pane.getDocument().getLength();
             r = pane.modelToView(pos);
-            int hp = r.y;
+            int hp = (r != null) ? r.y : 0;
             
             return Math.max(hsoa, hp);
             
@@ -659,6 +659,16 @@ public class MacMenuFactory extends AbstractMenuFactory {
             }
         };
         map.put(GUIConst.ACTION_FETCH_FACILITY_CODE, fetchFacilityCode);
+        
+        // CLAIM 送信状況
+        text = resource.getString("showClaimOutbox.Action.text");
+        AbstractAction showClaimOutbox = new AbstractAction(text) {
+            @Override
+            public void actionPerformed(ActionEvent ae) {
+                main.sendToChain(GUIConst.ACTION_SHOW_CLAIM_OUTBOX);
+            }
+        };
+        map.put(GUIConst.ACTION_SHOW_CLAIM_OUTBOX, showClaimOutbox);
 
         // Support
         text = resource.getString("browseDolphinSupport.Action.text");
@@ -1253,6 +1263,13 @@ public class MacMenuFactory extends AbstractMenuFactory {
         fetchFacilityCode.setAction(actionMap.get(GUIConst.ACTION_FETCH_FACILITY_CODE));
         tool.add(fetchFacilityCode);
         
+        // サーバーから ORCA へ送る時
+        if (Project.claimSenderIsServer()) {
+            JMenuItem showClaimOutbox = new JMenuItem();
+            showClaimOutbox.setAction(actionMap.get(GUIConst.ACTION_SHOW_CLAIM_OUTBOX));
+            tool.add(showClaimOutbox);
+        }
+        
         LinkedHashMap<String, String> toolProviders = ClientContext.getToolProviders();
         
         if (toolProviders != null && toolProviders.size() > 0) {
@@ -18,11 +18,7 @@ import open.dolphin.infomodel.*;
 import open.dolphin.order.StampEditor;
 import open.dolphin.project.Project;
 import open.dolphin.util.ZenkakuUtils;
-import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.Velocity;
-import org.apache.velocity.exception.MethodInvocationException;
-import org.apache.velocity.exception.ParseErrorException;
-import org.apache.velocity.exception.ResourceNotFoundException;
+import org.apache.velocity.exception.VelocityException;
 
 /**
  * KartePane に Component　として挿入されるスタンプを保持スルクラス。
@@ -31,11 +27,6 @@ import org.apache.velocity.exception.ResourceNotFoundException;
  */
 public final class StampHolder extends AbstractComponentHolder implements ComponentHolder {
 
-    private static final String KEY_MODEL = "model";
-    private static final String KEY_HINTS = "hints";
-    private static final String KEY_STAMP_NAME = "stampName";
-    private static final String KEY_STAMP_HOLDER = "stmpHolder";
-    private static final String KEY_ENCODING = "UTF-8";
     private static final String DOT_VM = ".vm";
     
     private static final Color FOREGROUND = new Color(20, 20, 140);
@@ -241,6 +232,7 @@ public final class StampHolder extends AbstractComponentHolder implements Compon
             for (ClaimItem ci : items) {
                 bundle.addClaimItem(ci);
             }
+            StampRenderer.invalidate(bundle);
             setMyText();
         }
     }
@@ -319,6 +311,7 @@ public final class StampHolder extends AbstractComponentHolder implements Compon
         merge = merge && (newStamp.getModuleInfoBean().getEntity().equals(IInfoModel.ENTITY_MED_ORDER));
         
 //s.oh^ 2013/02/22 不具合修正(同じ用法がマージされない)
+        StampRenderer.invalidate(newStamp.getModel());
         setStamp(newStamp);
 //s.oh$
         
@@ -404,10 +397,6 @@ public final class StampHolder extends AbstractComponentHolder implements Compon
         
         try {
             IInfoModel model = getStamp().getModel();
-            VelocityContext context = ClientContext.getVelocityContext();
-            context.put(KEY_MODEL, model);
-            context.put(KEY_HINTS, getHints());
-            context.put(KEY_STAMP_NAME, getStamp().getModuleInfoBean().getStampName());
             
 //s.oh^ 2014/02/03 撮影分割数対応
             Map<String, String> items = new HashMap<>();
@@ -432,19 +421,10 @@ public final class StampHolder extends AbstractComponentHolder implements Compon
                 } 
             }
             
-            // Merge する
-            StringWriter sw = new StringWriter();
-            BufferedReader reader;
-            try (BufferedWriter bw = new BufferedWriter(sw)) {
-                InputStream instream = ClientContext.getTemplateAsStream(templateFile);
-                reader = new BufferedReader(new InputStreamReader(instream, KEY_ENCODING));
-                Velocity.evaluate(context, bw, KEY_STAMP_HOLDER, reader);
-                bw.flush();
-            }
-            reader.close();
+            // Merge する（解析済みのテンプレートを使う）
+            String text = StampRenderer.render(templateFile, model, getHints(), getStamp().getModuleInfoBean().getStampName());
             
             // 全角数字とスペースを直す
-            String text = sw.toString();
             this.setText(ZenkakuUtils.toHalfNumber(text));
             
             // カルテペインへ展開された時広がるのを防ぐ
@@ -463,7 +443,7 @@ public final class StampHolder extends AbstractComponentHolder implements Compon
             }
 //s.oh$
             
-        } catch (ParseErrorException | MethodInvocationException | ResourceNotFoundException | IOException e) {
+        } catch (VelocityException | IOException e) {
             //e.printStackTrace(System.err);
         }
     }
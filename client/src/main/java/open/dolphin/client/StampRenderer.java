@@ -0,0 +1,190 @@
+package open.dolphin.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import open.dolphin.infomodel.IInfoModel;
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.context.Context;
+import org.apache.velocity.exception.ParseErrorException;
+import org.apache.velocity.exception.ResourceNotFoundException;
+import org.apache.velocity.runtime.RuntimeServices;
+import org.apache.velocity.runtime.RuntimeSingleton;
+import org.apache.velocity.runtime.parser.ParseException;
+import org.apache.velocity.runtime.parser.node.SimpleNode;
+
+/**
+ * スタンプのテンプレート（モデルクラス名.vm, labo.vm）を一度だけ解析して使い回す。
+ *
+ * Velocity.evaluate はスタンプ毎にテンプレートを読み直して解析するため、
+ * カルテを開く度にスタンプの数だけ解析していた。解析済みの Template はスレッドセーフに merge できる。
+ *
+ * setMemoEnabled(true) の時はモデル（インスタンス）・テンプレート・スタンプ名・RenderingHints 毎に
+ * 描画結果を覚えておく。モデルの内容を変えた時は invalidate を呼ぶこと。
+ */
+public final class StampRenderer {
+
+    private static final String TEMPLATE_LOCATION = "/open/dolphin/resources/templates/";
+    private static final String KEY_MODEL = "model";
+    private static final String KEY_HINTS = "hints";
+    private static final String KEY_STAMP_NAME = "stampName";
+    private static final String KEY_ENCODING = "UTF-8";
+
+    // テンプレート名 -> 解析済みテンプレート
+    private static final Map<String, Template> templates = new ConcurrentHashMap<>();
+
+    // モデル -> (テンプレート名|スタンプ名|hints -> 描画結果)
+    private static final Map<IInfoModel, Map<String, String>> memo = new WeakHashMap<>();
+
+    private static volatile boolean memoEnabled;
+
+    private StampRenderer() {
+    }
+
+    public static boolean isMemoEnabled() {
+        return memoEnabled;
+    }
+
+    public static void setMemoEnabled(boolean enabled) {
+        memoEnabled = enabled;
+        if (!enabled) {
+            synchronized (memo) {
+                memo.clear();
+            }
+        }
+    }
+
+    /**
+     * 解析済みのテンプレートを返す。初めての時は読み込んで解析する。
+     * @param name テンプレートファイル名
+     * @return Template
+     * @throws IOException
+     */
+    public static Template getTemplate(String name) throws IOException {
+        Template template = templates.get(name);
+        if (template == null) {
+            template = parse(name);
+            templates.put(name, template);
+        }
+        return template;
+    }
+
+    /**
+     * テンプレートで context を merge する。
+     * @param name テンプレートファイル名
+     * @param context VelocityContext
+     * @param writer 出力先
+     * @throws IOException
+     */
+    public static void merge(String name, Context context, Writer writer) throws IOException {
+        getTemplate(name).merge(context, writer);
+    }
+
+    /**
+     * スタンプを描画する。
+     * @param name テンプレートファイル名
+     * @param model スタンプのモデル
+     * @param hints RenderingHints
+     * @param stampName スタンプ名
+     * @return 描画した html
+     * @throws IOException
+     */
+    public static String render(String name, IInfoModel model, StampRenderingHints hints, String stampName) throws IOException {
+
+        String key = null;
+        if (memoEnabled) {
+            key = memoKey(name, hints, stampName);
+            synchronized (memo) {
+                Map<String, String> m = memo.get(model);
+                if (m != null && m.containsKey(key)) {
+                    return m.get(key);
+                }
+            }
+        }
+
+        VelocityContext context = new VelocityContext();
+        context.put(KEY_MODEL, model);
+        context.put(KEY_HINTS, hints);
+        context.put(KEY_STAMP_NAME, stampName);
+        StringWriter sw = new StringWriter();
+        merge(name, context, sw);
+        String text = sw.toString();
+
+        if (key != null) {
+            synchronized (memo) {
+                Map<String, String> m = memo.get(model);
+                if (m == null) {
+                    m = new HashMap<>(4);
+                    memo.put(model, m);
+                }
+                m.put(key, text);
+            }
+        }
+        return text;
+    }
+
+    /**
+     * モデルの描画結果を忘れる。
+     * @param model 内容を変えたモデル
+     */
+    public static void invalidate(IInfoModel model) {
+        if (model != null) {
+            synchronized (memo) {
+                memo.remove(model);
+            }
+        }
+    }
+
+    /**
+     * 解析済みのテンプレートと描画結果を捨てる。
+     */
+    public static void clear() {
+        templates.clear();
+        synchronized (memo) {
+            memo.clear();
+        }
+    }
+
+    private static Template parse(String name) throws IOException {
+        InputStream in = StampRenderer.class.getResourceAsStream(TEMPLATE_LOCATION + name);
+        if (in == null) {
+            throw new ResourceNotFoundException(name);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, KEY_ENCODING))) {
+            RuntimeServices rs = RuntimeSingleton.getRuntimeServices();
+            SimpleNode node = rs.parse(reader, name);
+            Template template = new Template();
+            template.setRuntimeServices(rs);
+            template.setName(name);
+            template.setData(node);
+            template.initDocument();
+            return template;
+        } catch (ParseException e) {
+            throw new ParseErrorException(e);
+        }
+    }
+
+    private static String memoKey(String name, StampRenderingHints hints, String stampName) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(name).append('|').append(stampName);
+        if (hints != null) {
+            sb.append('|').append(hints.getFontSize());
+            sb.append('|').append(hints.getForegroundAs16String());
+            sb.append('|').append(hints.getBackgroundAs16String());
+            sb.append('|').append(hints.getLabelColorAs16String());
+            sb.append('|').append(hints.getBorder());
+            sb.append('|').append(hints.getCellSpacing());
+            sb.append('|').append(hints.getCellPadding());
+            sb.append('|').append(hints.getShowStampName());
+        }
+        return sb.toString();
+    }
+}
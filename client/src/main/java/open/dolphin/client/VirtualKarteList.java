@@ -0,0 +1,492 @@
+package open.dolphin.client;
+
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.EventQueue;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.BoxLayout;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import javax.swing.event.ChangeListener;
+import open.dolphin.delegater.DocumentDelegater;
+import open.dolphin.infomodel.DocInfoModel;
+import open.dolphin.infomodel.DocumentModel;
+
+/**
+ * 多数の文書を縦に並べる時に、見えている範囲のカルテだけを KarteViewer にする。
+ *
+ * 文書毎に高さを見積もった枠を並べておき、枠が見える範囲（前後に一画面分の余裕）に入ったら
+ * 文書本体を PAGE_SIZE 件ずつ DocumentDelegater で取得して KarteViewer を生成する。
+ * 見える範囲から遠く離れた KarteViewer は止めて枠に戻す（測った高さは残す）。
+ * 取得した文書は KarteViewer にするまでの間だけ MAX_PENDING 件まで保持する。KarteViewer に渡した文書は
+ * KarteViewer が変更するので持たず、枠に戻した文書をまた表示する時は取得し直す（KarteDocumentCache があればそこから読む）。
+ */
+final class VirtualKarteList {
+
+    // 一度に取得する文書数
+    private static final int PAGE_SIZE = 10;
+
+    // KarteViewer にする前の文書本体を保持する数
+    private static final int MAX_PENDING = PAGE_SIZE * 3;
+
+    // まだ測っていない時の高さ
+    private static final int DEFAULT_HEIGHT = 400;
+
+    // KarteViewer を残しておく範囲（画面の高さの倍数）
+    private static final int KEEP_SCREENS = 4;
+
+    // スクロールが止まってから更新するまで（ms）
+    private static final int UPDATE_DELAY = 80;
+
+    private final KarteDocumentViewer owner;
+    private final JScrollPane scroller;
+    private final JPanel panel;
+    private final Timer timer;
+    private final ChangeListener viewportListener;
+
+    // 表示順の枠
+    private final List<Slot> slots = new ArrayList<>();
+
+    // docPk|状態|確定日 -> 取得してまだ KarteViewer にしていない文書本体
+    private final Map<String, DocumentModel> documents = new LinkedHashMap<String, DocumentModel>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, DocumentModel> eldest) {
+            return size() > MAX_PENDING;
+        }
+    };
+
+    // docPk -> 測った高さ
+    private final Map<Long, Integer> heights = new HashMap<>();
+
+    // 取得中の docPk
+    private final List<Long> loading = new ArrayList<>();
+
+    // 最初に選択する枠
+    private Slot toSelect;
+
+    private boolean disposed;
+
+    /**
+     * 一文書分の枠。
+     */
+    private static final class Slot {
+
+        private final DocInfoModel docInfo;
+        private final JPanel holder;
+        private KarteViewer viewer;
+        private int width = 1;
+        private int height;
+        private boolean measured;
+
+        private Slot(DocInfoModel docInfo, int height) {
+            this.docInfo = docInfo;
+            this.height = height;
+            holder = new JPanel(new BorderLayout());
+            holder.setOpaque(false);
+            holder.setAlignmentX(Component.LEFT_ALIGNMENT);
+            setHolderSize();
+        }
+
+        private void setHolderSize() {
+            holder.setPreferredSize(new Dimension(width, height));
+            holder.setMaximumSize(new Dimension(Integer.MAX_VALUE, height));
+        }
+    }
+
+    VirtualKarteList(KarteDocumentViewer owner, JScrollPane scroller) {
+        this.owner = owner;
+        this.scroller = scroller;
+        panel = new JPanel();
+        panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
+        timer = new Timer(UPDATE_DELAY, e -> update());
+        timer.setRepeats(false);
+        viewportListener = e -> timer.restart();
+        scroller.getViewport().addChangeListener(viewportListener);
+    }
+
+    JPanel getPanel() {
+        return panel;
+    }
+
+    /**
+     * 表示している文書数を返す。
+     * @return 文書数
+     */
+    int size() {
+        return slots.size();
+    }
+
+    /**
+     * 文書を並べ直す。
+     * @param docInfos 表示順の文書情報
+     * @param selectIndex 最初に選択する文書のインデックス
+     */
+    void show(List<DocInfoModel> docInfos, int selectIndex) {
+
+        clear();
+
+        int estimate = estimateHeight();
+        for (DocInfoModel docInfo : docInfos) {
+            Integer h = heights.get(docInfo.getDocPk());
+            Slot slot = new Slot(docInfo, h != null ? h : estimate);
+            slots.add(slot);
+            panel.add(slot.holder);
+        }
+        toSelect = (selectIndex >= 0 && selectIndex < slots.size()) ? slots.get(selectIndex) : null;
+
+        panel.revalidate();
+        panel.repaint();
+
+        // 選択する文書と先頭の一ページを取得する
+        if (toSelect != null && !materialize(toSelect)) {
+            List<Slot> first = new ArrayList<>(1);
+            first.add(toSelect);
+            fetch(first);
+        }
+        update();
+    }
+
+    /**
+     * 全ての KarteViewer を止めて枠を取り除く。測った高さは残す。
+     */
+    void clear() {
+        timer.stop();
+        for (Slot slot : slots) {
+            if (slot.viewer != null) {
+                release(slot);
+            }
+        }
+        slots.clear();
+        documents.clear();
+        toSelect = null;
+        panel.removeAll();
+    }
+
+    /**
+     * 止める。
+     */
+    void dispose() {
+        clear();
+        disposed = true;
+        scroller.getViewport().removeChangeListener(viewportListener);
+        documents.clear();
+        heights.clear();
+    }
+
+    /**
+     * 全ての文書を KarteViewer にして表示順に渡す（複数印刷用）。
+     * まだ取得していない文書は別スレッドで取得し、揃ってから EDT で callback を呼ぶ。
+     * @param callback 表示順の KarteViewer を受け取る
+     */
+    void materializeAll(Consumer<List<KarteViewer>> callback) {
+
+        final Map<Long, DocumentModel> fetched = new HashMap<>();
+        final List<Slot> targets = new ArrayList<>();
+        for (Slot slot : slots) {
+            if (slot.viewer == null) {
+                DocumentModel doc = documents.remove(cacheKey(slot.docInfo));
+                if (doc != null) {
+                    fetched.put(slot.docInfo.getDocPk(), doc);
+                } else {
+                    targets.add(slot);
+                }
+            }
+        }
+        if (targets.isEmpty()) {
+            materializeAll(fetched, callback);
+            return;
+        }
+
+        SwingWorker<List<DocumentModel>, Void> worker = new SwingWorker<List<DocumentModel>, Void>() {
+
+            @Override
+            protected List<DocumentModel> doInBackground() throws Exception {
+                return new DocumentDelegater().getDocumentsByDocInfo(docInfos(targets));
+            }
+
+            @Override
+            protected void done() {
+                if (disposed) {
+                    return;
+                }
+                try {
+                    List<DocumentModel> list = get();
+                    if (list != null) {
+                        for (DocumentModel doc : list) {
+                            fetched.put(doc.getId(), doc);
+                        }
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    Logger.getLogger("open.dolphin").log(Level.WARNING, "karte fetch failed", e);
+                }
+                materializeAll(fetched, callback);
+            }
+        };
+        worker.execute();
+    }
+
+    // 取得を待つ間に選択し直されていれば、その時の枠のうち取得できた文書だけを渡す
+    private void materializeAll(Map<Long, DocumentModel> fetched, Consumer<List<KarteViewer>> callback) {
+        List<KarteViewer> ret = new ArrayList<>(slots.size());
+        for (Slot slot : slots) {
+            if (slot.viewer == null) {
+                DocumentModel doc = fetched.get(slot.docInfo.getDocPk());
+                if (doc == null) {
+                    continue;
+                }
+                materialize(slot, doc);
+            }
+            ret.add(slot.viewer);
+        }
+        afterMaterialize();
+        callback.accept(ret);
+    }
+
+    /**
+     * 見えている範囲の枠を KarteViewer にし、遠く離れたものは枠に戻す。
+     */
+    private void update() {
+
+        if (disposed || slots.isEmpty()) {
+            return;
+        }
+
+        Rectangle view = scroller.getViewport().getViewRect();
+        int screen = Math.max(view.height, DEFAULT_HEIGHT);
+        int top = view.y - screen;
+        int bottom = view.y + view.height + screen;
+        int keepTop = view.y - screen * KEEP_SCREENS;
+        int keepBottom = view.y + view.height + screen * KEEP_SCREENS;
+
+        List<Slot> wanted = new ArrayList<>();
+        boolean changed = false;
+        int y = 0;
+        for (Slot slot : slots) {
+            int y0 = y;
+            y += slot.height;
+            if (y0 < bottom && y > top) {
+                if (slot.viewer == null) {
+                    if (materialize(slot)) {
+                        changed = true;
+                    } else {
+                        wanted.add(slot);
+                    }
+                }
+            } else if (slot.viewer != null && (y0 >= keepBottom || y <= keepTop)
+                    && slot.viewer != owner.getSelectedKarte()) {
+                release(slot);
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            afterMaterialize();
+        }
+        if (!wanted.isEmpty()) {
+            fetch(wanted);
+        }
+    }
+
+    /**
+     * 取得済みの文書なら KarteViewer を生成して枠に入れる。
+     * @return 生成した時 true
+     */
+    private boolean materialize(Slot slot) {
+        DocumentModel model = documents.remove(cacheKey(slot.docInfo));
+        if (model == null) {
+            return false;
+        }
+        materialize(slot, model);
+        return true;
+    }
+
+    // 文書は KarteViewer のものになる
+    private void materialize(Slot slot, DocumentModel model) {
+        model.setDocInfoModel(slot.docInfo);
+        slot.viewer = owner.startKarteViewer(model);
+        slot.holder.add(slot.viewer.getUI(), BorderLayout.CENTER);
+        owner.karteViewerAdded(slot.viewer);
+        if (slot == toSelect) {
+            toSelect = null;
+            owner.setSelectedKarte(slot.viewer);
+        }
+    }
+
+    private void release(Slot slot) {
+        KarteViewer viewer = slot.viewer;
+        slot.viewer = null;
+        slot.measured = false;
+        slot.holder.removeAll();
+        owner.karteViewerRemoved(viewer);
+        viewer.stop();
+    }
+
+    private void afterMaterialize() {
+        panel.revalidate();
+        panel.repaint();
+        EventQueue.invokeLater(this::measure);
+    }
+
+    /**
+     * 生成した KarteViewer の高さを測り、見えている位置がずれないように枠の高さを直す。
+     */
+    private void measure() {
+
+        if (disposed) {
+            return;
+        }
+        scroller.validate();
+
+        Point p = scroller.getViewport().getViewPosition();
+        int shift = 0;
+        boolean changed = false;
+        int y = 0;
+        for (Slot slot : slots) {
+            int y0 = y;
+            y += slot.height;
+            if (slot.viewer == null || slot.measured) {
+                continue;
+            }
+            int h = owner.getKarteHeight(slot.viewer);
+            int w = slot.viewer.panel2.getPreferredSize().width;
+            slot.viewer.panel2.setPreferredSize(new Dimension(w, h));
+            if (y0 < p.y) {
+                shift += h - slot.height;
+            }
+            slot.width = w;
+            slot.height = h;
+            slot.measured = true;
+            slot.setHolderSize();
+            heights.put(slot.docInfo.getDocPk(), h);
+            changed = true;
+        }
+
+        if (changed) {
+            panel.revalidate();
+            scroller.validate();
+            if (shift != 0) {
+                scroller.getViewport().setViewPosition(new Point(p.x, Math.max(0, p.y + shift)));
+            }
+            panel.repaint();
+            // 高さが変わって見える範囲に入った枠があれば続けて表示する
+            timer.restart();
+        }
+    }
+
+    /**
+     * 見えている枠の文書とそれに続く文書を一ページ分取得する。
+     * @param wanted 見えている未取得の枠
+     */
+    private void fetch(List<Slot> wanted) {
+
+        final List<Long> ids = new ArrayList<>(PAGE_SIZE);
+        final List<Slot> targets = new ArrayList<>(PAGE_SIZE);
+        for (Slot slot : wanted) {
+            addTarget(slot, ids, targets);
+        }
+        // 続く文書を先読みする
+        int index = slots.indexOf(wanted.get(wanted.size() - 1)) + 1;
+        while (ids.size() < PAGE_SIZE && index > 0 && index < slots.size()) {
+            addTarget(slots.get(index++), ids, targets);
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        loading.addAll(ids);
+
+        SwingWorker<List<DocumentModel>, Void> worker = new SwingWorker<List<DocumentModel>, Void>() {
+
+            @Override
+            protected List<DocumentModel> doInBackground() throws Exception {
+                return new DocumentDelegater().getDocumentsByDocInfo(docInfos(targets));
+            }
+
+            @Override
+            protected void done() {
+                loading.removeAll(ids);
+                if (disposed) {
+                    return;
+                }
+                try {
+                    cache(targets, get());
+                    update();
+                } catch (Exception e) {
+                    Logger.getLogger("open.dolphin").log(Level.WARNING, "karte fetch failed", e);
+                }
+            }
+        };
+        worker.execute();
+    }
+
+    private void addTarget(Slot slot, List<Long> ids, List<Slot> targets) {
+        long pk = slot.docInfo.getDocPk();
+        if (ids.size() < PAGE_SIZE && slot.viewer == null && !loading.contains(pk) && !ids.contains(pk)
+                && documents.get(cacheKey(slot.docInfo)) == null) {
+            ids.add(pk);
+            targets.add(slot);
+        }
+    }
+
+    // 削除された文書は返らず順も保証されないので、文書の pk で要求した文書情報と対応させる
+    private void cache(List<Slot> targets, List<DocumentModel> list) {
+        if (list == null) {
+            return;
+        }
+        Map<Long, DocumentModel> byPk = new HashMap<>();
+        for (DocumentModel doc : list) {
+            byPk.put(doc.getId(), doc);
+        }
+        for (Slot slot : targets) {
+            DocumentModel doc = byPk.get(slot.docInfo.getDocPk());
+            if (doc != null) {
+                documents.put(cacheKey(slot.docInfo), doc);
+            }
+        }
+        // 選択する文書が先頭ページの外にあれば生成しておく
+        if (toSelect != null && materialize(toSelect)) {
+            afterMaterialize();
+        }
+    }
+
+    private List<DocInfoModel> docInfos(List<Slot> targets) {
+        List<DocInfoModel> ret = new ArrayList<>(targets.size());
+        for (Slot slot : targets) {
+            ret.add(slot.docInfo);
+        }
+        return ret;
+    }
+
+    // 同じ pk でも仮保存から確定されたものは取り直す
+    private String cacheKey(DocInfoModel docInfo) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(docInfo.getDocPk()).append('|').append(docInfo.getStatus());
+        if (docInfo.getConfirmDate() != null) {
+            sb.append('|').append(docInfo.getConfirmDate().getTime());
+        }
+        return sb.toString();
+    }
+
+    private int estimateHeight() {
+        if (heights.isEmpty()) {
+            return DEFAULT_HEIGHT;
+        }
+        long total = 0L;
+        for (Integer h : heights.values()) {
+            total += h;
+        }
+        return (int) (total / heights.size());
+    }
+}
@@ -679,6 +679,16 @@ public class WindowsMenuFactory extends AbstractMenuFactory {
             }
         };
         map.put("fetchFacilityCode", fetchFacilityCode);
+        
+        // CLAIM 送信状況
+        text = resource.getString("showClaimOutbox.Action.text");
+        AbstractAction showClaimOutbox = new AbstractAction(text) {
+            @Override
+            public void actionPerformed(ActionEvent ae) {
+                main.sendToChain("showClaimOutbox");
+            }
+        };
+        map.put("showClaimOutbox", showClaimOutbox);
 
         // Support
         text = resource.getString("browseDolphinSupport.Action.text");
@@ -1315,6 +1325,13 @@ public class WindowsMenuFactory extends AbstractMenuFactory {
         tool.add(fetchFacilityCode);
 //s.oh$
         
+        // サーバーから ORCA へ送る時
+        if (Project.claimSenderIsServer()) {
+            JMenuItem showClaimOutbox = new JMenuItem();
+            showClaimOutbox.setAction(actionMap.get("showClaimOutbox"));
+            tool.add(showClaimOutbox);
+        }
+        
         LinkedHashMap<String, String> toolProviders = ClientContext.getToolProviders();
         
         if (toolProviders != null && toolProviders.size() > 0) {
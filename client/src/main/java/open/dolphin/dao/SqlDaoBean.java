@@ -2,6 +2,10 @@ package open.dolphin.dao;
 
 import java.sql.*;
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import open.dolphin.common.JdbcConnectionPool;
 import open.dolphin.project.Project;
 
 /**
@@ -18,6 +22,9 @@ public class SqlDaoBean extends DaoBean {
     private static final String USER = "orca";
     private static final String PASSWD = "";
     
+    // ORCA 接続プール url+user 毎（設定で接続先が変わる場合があるため）
+    private static final Map<String, JdbcConnectionPool> pools = new ConcurrentHashMap<>();
+    
     String dataBase;
     String driver;
     boolean trace = true;
@@ -78,10 +85,12 @@ public class SqlDaoBean extends DaoBean {
             }
         } catch (Exception e) {
             processError(e);
-            closeConnection(con);
+        } finally {
             closeStatement(st);
+            closeConnection(con);
         }
 
+        st = null;
         sql = "select version from tbl_dbkanri where kanricd='ORCADB00'";
         try {
             con = getConnection();
@@ -92,8 +101,9 @@ public class SqlDaoBean extends DaoBean {
             }
         } catch (Exception e) {
             processError(e);
-            closeConnection(con);
+        } finally {
             closeStatement(st);
+            closeConnection(con);
         }
     }
     
@@ -193,7 +203,31 @@ public class SqlDaoBean extends DaoBean {
     }
     
     public Connection getConnection() throws Exception {
-        return DriverManager.getConnection(getURL(), user, passwd);
+        // 接続プール 使い終わったら closeConnection でプールに戻る
+        String key = getURL() + "|" + user;
+        JdbcConnectionPool pool = pools.get(key);
+        if (pool == null) {
+            int max = Project.getInt("orca.jdbc.pool.size", 4);
+            long wait = Project.getInt("orca.jdbc.pool.wait", 10000);
+            int stmtCache = Project.getInt("orca.jdbc.statement.cache", 50);
+            JdbcConnectionPool newPool = new JdbcConnectionPool(getURL(), user, passwd, false, max, wait, stmtCache);
+            pool = pools.putIfAbsent(key, newPool);
+            if (pool == null) {
+                pool = newPool;
+            }
+        }
+        return pool.getConnection();
+    }
+    
+    /**
+     * 終了時に接続プールの統計をログに出して閉じる。
+     */
+    public static void closePools() {
+        for (JdbcConnectionPool pool : pools.values()) {
+            Logger.getLogger("open.dolphin").info(pool.getStats());
+            pool.close();
+        }
+        pools.clear();
     }
 
     public String addSingleQuote(String s) {
@@ -4,6 +4,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import javax.ws.rs.client.ClientRequestContext;
 import javax.ws.rs.client.ClientRequestFilter;
@@ -24,6 +25,8 @@ import org.codehaus.jackson.map.SerializationConfig;
 import org.jboss.resteasy.client.jaxrs.ResteasyClient;
 import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
 import org.jboss.resteasy.client.jaxrs.ResteasyWebTarget;
+import org.jboss.resteasy.plugins.interceptors.encoding.AcceptEncodingGZIPFilter;
+import org.jboss.resteasy.plugins.interceptors.encoding.GZIPDecodingInterceptor;
 
 /**
  * Bsiness Delegater のルートクラス。
@@ -39,16 +42,73 @@ public class BusinessDelegater {
     protected static final String PASSWORD = "password";
     private static final String CLINET_UUID = "clientUUID";
     
+    // 全デレゲータで共有する接続プール付きのクライアント
+    private static ResteasyClient sharedClient;
+    
+    // long polling / event stream 用 読み取りタイムアウトなし
+    private static ResteasyClient subscribeClient;
+    
+    /**
+     * 共有クライアントを返す。接続は keep-alive でプールされ再利用される。
+     * 設定: rest.client.max.connections, rest.client.max.per.route,
+     * rest.client.connect.timeout, rest.client.read.timeout (ms), rest.client.gzip
+     */
+    protected static synchronized ResteasyClient getSharedClient() {
+        if (sharedClient == null) {
+            sharedClient = buildClient(Project.getInt("rest.client.read.timeout", 5*60*1000),
+                    Project.getInt("rest.client.max.connections", 20),
+                    Project.getInt("rest.client.max.per.route", 10));
+        }
+        return sharedClient;
+    }
+    
+    protected static synchronized ResteasyClient getSubscribeClient() {
+        if (subscribeClient == null) {
+            subscribeClient = buildClient(0, 4, 4);
+        }
+        return subscribeClient;
+    }
+    
+    private static ResteasyClient buildClient(int readTimeout, int maxConnections, int maxPerRoute) {
+        RestClientMetrics.getInstance().setSlowMillis(Project.getInt("rest.client.slow.millis", 3000));
+        ResteasyClientBuilder builder = new ResteasyClientBuilder()
+                .connectionPoolSize(maxConnections)
+                .maxPooledPerRoute(maxPerRoute)
+                .establishConnectionTimeout(Project.getInt("rest.client.connect.timeout", 10*1000), TimeUnit.MILLISECONDS)
+                .socketTimeout(readTimeout, TimeUnit.MILLISECONDS);
+        ResteasyClient client = builder.build();
+        if (Project.getBoolean("rest.client.gzip", true)) {
+            client.register(AcceptEncodingGZIPFilter.class);
+            client.register(GZIPDecodingInterceptor.class);
+        }
+        client.register(RestClientMetrics.getInstance());
+        return client;
+    }
+    
+    /**
+     * 共有クライアントを閉じ、REST の所要時間をログに出す。終了時に呼ぶ。
+     */
+    public static synchronized void shutdown() {
+        java.util.logging.Logger.getLogger("open.dolphin").info(RestClientMetrics.getInstance().report());
+        if (sharedClient != null) {
+            sharedClient.close();
+            sharedClient = null;
+        }
+        if (subscribeClient != null) {
+            subscribeClient.close();
+            subscribeClient = null;
+        }
+    }
+    
     protected ResteasyWebTarget getWebTarget(String path, String userName, String password) {
         
         StringBuilder sb = new StringBuilder();
         sb.append(Project.getBaseURI()).append(path);
         String uri = sb.toString();
         
-        ResteasyClient client = new ResteasyClientBuilder().build();
-        client.register(new AuthHeadersRequestFilter(userName, HashUtil.MD5(password)));
-        client.register(new StatusChecker());
-        ResteasyWebTarget target = client.target(uri);
+        ResteasyWebTarget target = getSharedClient().target(uri);
+        target.register(new AuthHeadersRequestFilter(userName, HashUtil.MD5(password)));
+        target.register(new StatusChecker());
         return target;
     }
     
@@ -56,10 +116,9 @@ public class BusinessDelegater {
         StringBuilder sb = new StringBuilder();
         sb.append(baseURI).append(path);
         String uri = sb.toString();
-        ResteasyClient client = new ResteasyClientBuilder().build();
-        client.register(new AuthHeadersRequestFilter(userId, HashUtil.MD5(password)));
-        client.register(new StatusChecker());
-        ResteasyWebTarget target = client.target(uri);
+        ResteasyWebTarget target = getSharedClient().target(uri);
+        target.register(new AuthHeadersRequestFilter(userId, HashUtil.MD5(password)));
+        target.register(new StatusChecker());
         return target;
     }
     
@@ -67,10 +126,9 @@ public class BusinessDelegater {
         StringBuilder sb = new StringBuilder();
         sb.append(Project.getBaseURI()).append(path);
         String uri = sb.toString();
-        ResteasyClient client = new ResteasyClientBuilder().build();
-        client.register(new AuthHeadersRequestFilter(Project.getUserModel().getUserId(), Project.getUserModel().getPassword()));
-        client.register(new StatusChecker());
-        ResteasyWebTarget target = client.target(uri);
+        ResteasyWebTarget target = getSharedClient().target(uri);
+        target.register(new AuthHeadersRequestFilter(Project.getUserModel().getUserId(), Project.getUserModel().getPassword()));
+        target.register(new StatusChecker());
         return target;
     }
     
@@ -78,11 +136,10 @@ public class BusinessDelegater {
         StringBuilder sb = new StringBuilder();
         sb.append(Project.getBaseURI()).append(path);
         String uri = sb.toString();
-        ResteasyClient client = new ResteasyClientBuilder().build();
-        client.register(new AuthHeadersRequestFilter(Project.getUserModel().getUserId(), Project.getUserModel().getPassword()));
+        ResteasyWebTarget target = getSharedClient().target(uri);
+        target.register(new AuthHeadersRequestFilter(Project.getUserModel().getUserId(), Project.getUserModel().getPassword()));
         // 先勝ち制御Filter
-        client.register(new FirstCommitWinChecker());
-        ResteasyWebTarget target = client.target(uri);
+        target.register(new FirstCommitWinChecker());
         return target;
     }
     
@@ -90,9 +147,8 @@ public class BusinessDelegater {
         StringBuilder sb = new StringBuilder();
         sb.append(Project.getBaseURI()).append(path);
         String uri = sb.toString();
-        ResteasyClient client = new ResteasyClientBuilder().build();
-        client.register(new AuthHeadersRequestFilterLong(Project.getUserModel().getUserId(), Project.getUserModel().getPassword()));
-        ResteasyWebTarget target = client.target(uri);
+        ResteasyWebTarget target = getSubscribeClient().target(uri);
+        target.register(new AuthHeadersRequestFilterLong(Project.getUserModel().getUserId(), Project.getUserModel().getPassword()));
         return target;
     }
     
@@ -233,6 +289,10 @@ public class BusinessDelegater {
             int status = crc1.getStatus();
             debug(status);
             if (status/100!=2) {
+                // プールに接続を返す
+                if (crc1.hasEntity()) {
+                    crc1.getEntityStream().close();
+                }
                 String err = "HTTP error code : " + status;
                 throw new RuntimeException(err);
             }
@@ -250,6 +310,7 @@ public class BusinessDelegater {
             }
             // Commons
             String err = IOUtils.toString(crc1.getEntityStream(), UTF8);
+            crc1.getEntityStream().close();
             
             // First Commit Win?
             if (err!=null && err.contains("First Commit Win")) {
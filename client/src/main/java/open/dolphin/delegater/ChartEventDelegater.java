@@ -1,7 +1,13 @@
 package open.dolphin.delegater;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 import java.util.concurrent.Future;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 import open.dolphin.converter.ChartEventModelConverter;
 import open.dolphin.infomodel.ChartEventModel;
 import org.codehaus.jackson.map.ObjectMapper;
@@ -21,6 +27,12 @@ public class ChartEventDelegater extends BusinessDelegater {
     private static final String RES_CE = "/chartEvent";
     private static final String SUBSCRIBE_PATH = RES_CE + "/subscribe";
     private static final String PUT_EVENT_PATH = RES_CE + "/event";
+    private static final String LAST_SEQUENCE = "lastSequence";
+    private static final String EPOCH = "epoch";
+    
+    // server-spring の Server-Sent Events
+    private static final String SSE_SUBSCRIBE_PATH = "/chart-event/subscribe";
+    private static final String SSE_MEDIA_TYPE = "text/event-stream";
     
     private static final ChartEventDelegater instance = new ChartEventDelegater();
     
@@ -52,4 +64,48 @@ public class ChartEventDelegater extends BusinessDelegater {
         ResteasyWebTarget target = getWebTargetSubscribe(SUBSCRIBE_PATH);
         return target.request(MediaType.APPLICATION_JSON).async().get(ChartEventModel.class);
     }
+    
+    /**
+     * lastSequence 以降のイベントをまとめて受け取る。
+     * @param lastSequence 最後に受け取った sequence 初回は -1
+     * @param epoch lastSequence と一緒に受け取った epoch 初回は null
+     * @return 未受信のイベント epoch が変わっていれば PVT_RENEW
+     * @throws Exception 
+     */
+    public Future<List<ChartEventModel>> subscribe(long lastSequence, String epoch) throws Exception {
+        ResteasyWebTarget target = getWebTargetSubscribe(SUBSCRIBE_PATH);
+        Invocation.Builder builder = target.request(MediaType.APPLICATION_JSON)
+                .header(LAST_SEQUENCE, String.valueOf(lastSequence));
+        if (epoch != null) {
+            builder = builder.header(EPOCH, epoch);
+        }
+        return builder.async().get(new GenericType<List<ChartEventModel>>(){});
+    }
+    
+    /**
+     * Server-Sent Events のストリームを開く。切断されるまで読み続けること。
+     * @param fid 施設ID
+     * @return event stream
+     * @throws Exception 
+     */
+    public InputStream openEventStream(String fid) throws Exception {
+        ResteasyWebTarget target = getWebTargetSubscribe(SSE_SUBSCRIBE_PATH).queryParam("fid", fid);
+        Response response = target.request(SSE_MEDIA_TYPE).get();
+        int status = response.getStatus();
+        if (status/100 != 2) {
+            response.close();
+            throw new RuntimeException("HTTP error code : " + status);
+        }
+        return response.readEntity(InputStream.class);
+    }
+    
+    /**
+     * event stream の data を ChartEventModel にする。
+     * @param json data
+     * @return ChartEventModel
+     * @throws IOException 
+     */
+    public ChartEventModel toChartEventModel(String json) throws IOException {
+        return getDeserializeMapper().readValue(json, ChartEventModel.class);
+    }
 }
@@ -2,11 +2,16 @@ package open.dolphin.delegater;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javax.swing.ImageIcon;
+import javax.ws.rs.core.MediaType;
 import open.dolphin.client.ClientContext;
+import open.dolphin.client.KarteDocumentCache;
 import open.dolphin.converter.*;
 import static open.dolphin.delegater.BusinessDelegater.CAMMA;
 import open.dolphin.dto.DocumentSearchSpec;
@@ -15,6 +20,7 @@ import open.dolphin.dto.ModuleSearchSpec;
 import open.dolphin.infomodel.*;
 import open.dolphin.util.BeanUtils;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.jboss.resteasy.client.jaxrs.ResteasyWebTarget;
 
 /**
  * Session と Document の送受信を行う Delegater クラス。
@@ -91,6 +97,74 @@ public final class DocumentDelegater extends BusinessDelegater {
      */
     public List<DocumentModel> getDocuments(List<Long> ids) throws Exception {
 
+        List<DocumentModel> list = fetchDocuments(ids);
+        for (DocumentModel doc : list) {
+            setIcons(doc);
+        }
+        return list;
+    }
+
+    /**
+     * 文書履歴の DocInfo に対応する文書を返す。
+     * KarteDocumentCache に同じ版（pk・status・確定日）の文書があればそれを使い、
+     * 無いものだけサーバから取得してキャッシュする。
+     * @param docInfos 文書履歴（/karte/docinfo）の DocInfoModel
+     * @return DocInfo と同じ順の DocumentModel
+     * @throws java.lang.Exception
+     */
+    public List<DocumentModel> getDocumentsByDocInfo(List<DocInfoModel> docInfos) throws Exception {
+
+        KarteDocumentCache cache = KarteDocumentCache.getInstance();
+        if (cache == null) {
+            List<Long> ids = new ArrayList<>(docInfos.size());
+            for (DocInfoModel docInfo : docInfos) {
+                ids.add(docInfo.getDocPk());
+            }
+            return getDocuments(ids);
+        }
+
+        // キャッシュに無いもの
+        DocumentModel[] found = new DocumentModel[docInfos.size()];
+        List<Long> ids = new ArrayList<>();
+        Map<Long, DocInfoModel> missing = new HashMap<>();
+        for (int i = 0; i < found.length; i++) {
+            DocInfoModel docInfo = docInfos.get(i);
+            found[i] = cache.get(docInfo);
+            if (found[i] == null) {
+                ids.add(docInfo.getDocPk());
+                missing.put(docInfo.getDocPk(), docInfo);
+            }
+        }
+
+        if (!ids.isEmpty()) {
+            Map<Long, DocumentModel> fetched = new HashMap<>();
+            for (DocumentModel doc : fetchDocuments(ids)) {
+                fetched.put(doc.getId(), doc);
+                DocInfoModel docInfo = missing.get(doc.getId());
+                if (docInfo != null) {
+                    cache.put(docInfo, doc);
+                }
+            }
+            for (int i = 0; i < found.length; i++) {
+                if (found[i] == null) {
+                    found[i] = fetched.get(docInfos.get(i).getDocPk());
+                }
+            }
+        }
+
+        List<DocumentModel> list = new ArrayList<>(found.length);
+        for (DocumentModel doc : found) {
+            if (doc != null) {
+                setIcons(doc);
+                list.add(doc);
+            }
+        }
+        return list;
+    }
+
+    // サーバから取得して beanBytes を decode する
+    private List<DocumentModel> fetchDocuments(List<Long> ids) throws Exception {
+
         // PATH
         StringBuilder sb = new StringBuilder();
         sb.append("/karte/documents/");
@@ -114,26 +188,29 @@ public final class DocumentDelegater extends BusinessDelegater {
                     module.setModel((InfoModel) BeanUtils.xmlDecode(module.getBeanBytes()));
                 }
             }
+        }
+        return list;
+    }
 
-            // JPEG byte をアイコンへ戻す
-            Collection<SchemaModel> sc = doc.getSchema();
-            if (sc != null && (!sc.isEmpty())) {
-                for (SchemaModel schema : sc) {
-                    ImageIcon icon = new ImageIcon(schema.getJpegByte());
-                    schema.setIcon(icon);
-                }
+    private void setIcons(DocumentModel doc) {
+
+        // JPEG byte をアイコンへ戻す
+        Collection<SchemaModel> sc = doc.getSchema();
+        if (sc != null && (!sc.isEmpty())) {
+            for (SchemaModel schema : sc) {
+                ImageIcon icon = new ImageIcon(schema.getJpegByte());
+                schema.setIcon(icon);
             }
-            
-            // Attachmentアイコンを設定する
-            Collection<AttachmentModel> atts = doc.getAttachment();
-            if (atts != null && (!atts.isEmpty())) {
-                for (AttachmentModel am : atts) {                  
-                    ImageIcon icon = ClientContext.getImageIconArias("icon_attachment");               
-                    am.setIcon(icon);
-                }
+        }
+
+        // Attachmentアイコンを設定する
+        Collection<AttachmentModel> atts = doc.getAttachment();
+        if (atts != null && (!atts.isEmpty())) {
+            for (AttachmentModel am : atts) {
+                ImageIcon icon = ClientContext.getImageIconArias("icon_attachment");
+                am.setIcon(icon);
             }
         }
-        return list;
     }
     
     /**
@@ -254,6 +331,10 @@ public final class DocumentDelegater extends BusinessDelegater {
         // DELETE
         try {
             StringList result = deleteEasy(path, StringList.class);
+            KarteDocumentCache cache = KarteDocumentCache.getInstance();
+            if (cache != null) {
+                cache.remove(pk);
+            }
             return result.getList();
             
         } catch (Exception e) {
@@ -360,6 +441,53 @@ public final class DocumentDelegater extends BusinessDelegater {
         return null;
     }
 
+    //---------------------------------------------------------------------------
+    // CLAIM 送信状況
+    //---------------------------------------------------------------------------
+    /**
+     * サーバーが ORCA へ送る CLAIM 電文の送信状況を返す（電文本体は含まない）。
+     * @param fromDate この日時以降に作成したもの
+     * @return 新しい順
+     * @throws Exception
+     */
+    public List<ClaimOutboxModel> getClaimOutbox(Date fromDate) throws Exception {
+        
+        // GET
+        ResteasyWebTarget target = getWebTarget("/karte/claim/outbox")
+                .queryParam("from", new SimpleDateFormat(DATE_TIME_FORMAT_REST).format(fromDate));
+        ClaimOutboxModel[] result = target.request(MediaType.APPLICATION_JSON).get(ClaimOutboxModel[].class);
+        
+        return result!=null ? new ArrayList<>(Arrays.asList(result)) : new ArrayList<>(0);
+    }
+    
+    /**
+     * NAK・送信失敗・応答なしの CLAIM 電文を送り直す。
+     * @param id 送信待ちの pk
+     * @return 送信待ちに戻した数
+     * @throws Exception
+     */
+    public int resendClaim(long id) throws Exception {
+        
+        // PUT
+        String cntStr = putEasyText("/karte/claim/outbox/" + id, new byte[0], String.class);
+        
+        return Integer.parseInt(cntStr);
+    }
+    
+    /**
+     * NAK・送信失敗・応答なしの CLAIM 電文を送らずに対応済みにする。
+     * @param id 送信待ちの pk
+     * @return 対応済みにした数
+     * @throws Exception
+     */
+    public int discardClaim(long id) throws Exception {
+        
+        // PUT
+        String cntStr = putEasyText("/karte/claim/outbox/" + id + "/discard", new byte[0], String.class);
+        
+        return Integer.parseInt(cntStr);
+    }
+    
     //---------------------------------------------------------------------------
     // 病名
     //---------------------------------------------------------------------------
@@ -2,6 +2,7 @@ package open.dolphin.delegater;
 
 import java.util.List;
 import open.dolphin.converter.NLaboModuleConverter;
+import open.dolphin.converter.NLaboModuleListConverter;
 import open.dolphin.infomodel.*;
 import org.codehaus.jackson.map.ObjectMapper;
 
@@ -66,6 +67,34 @@ public final class LaboDelegater extends BusinessDelegater {
         return patient;
     }
 
+    /**
+     * 検査結果をまとめて追加する。
+     * @param modules 追加する検査モジュール
+     * @return modules と同じ順の結果
+     * @throws java.lang.Exception 
+     */
+    public List<LaboImportSummary> postNLaboModules(List<NLaboModule> modules) throws Exception {
+
+        // PATH
+        String path = "/lab/module/bulk";
+        
+        // Converter
+        NLaboModuleList list = new NLaboModuleList();
+        list.setList(modules);
+        NLaboModuleListConverter conv = new NLaboModuleListConverter();
+        conv.setModel(list);
+
+        // JSON
+        ObjectMapper mapper = this.getSerializeMapper();
+        byte[] data = mapper.writeValueAsBytes(conv);
+        
+        // POST
+        String json = postEasyJson(path, data, String.class);
+        LaboImportSummaryList result = getDeserializeMapper().readValue(json, LaboImportSummaryList.class);
+        
+        return result.getList();
+    }
+
     /**
      * ラボモジュールを検索する。
      * @param patientId     対象患者のID
@@ -136,6 +165,57 @@ public final class LaboDelegater extends BusinessDelegater {
         return result.getList();
     }
     
+    /**
+     * 検査結果の表（列が検査結果のモジュール、行が検査項目）を取得する。
+     * @param patientId     対象患者のID
+     * @param fromDate      この検体採取日から（yyyy-MM-dd） null なら最初から
+     * @param toDate        この検体採取日まで（yyyy-MM-dd） null なら最後まで
+     * @param maxColumns    列の最大数 新しい方から 0 なら全部
+     * @return              列はモジュール毎で検体採取日の昇順
+     * @throws java.lang.Exception
+     */
+    public LaboTrendPivot getLaboTrend(String patientId, String fromDate, String toDate, int maxColumns) throws Exception {
+
+        // PATH
+        StringBuilder sb = new StringBuilder();
+        sb.append("/lab/trend/");
+        sb.append(patientId);
+        sb.append("?max=").append(maxColumns);
+        if (fromDate != null) {
+            sb.append("&from=").append(fromDate);
+        }
+        if (toDate != null) {
+            sb.append("&to=").append(toDate);
+        }
+        String path = sb.toString();
+
+        // GET
+        String json = getEasyJson(path, String.class);
+        return getDeserializeMapper().readValue(json, LaboTrendPivot.class);
+    }
+
+    /**
+     * 一検査項目の全履歴を取得する。
+     * @param patientId     対象患者のID
+     * @param itemCode      検査項目コード
+     * @return              検体採取日の昇順 なければ null
+     * @throws java.lang.Exception
+     */
+    public LaboTrendRow getLaboTrendItem(String patientId, String itemCode) throws Exception {
+
+        // PATH
+        StringBuilder sb = new StringBuilder();
+        sb.append("/lab/trend/");
+        sb.append(patientId);
+        sb.append("/");
+        sb.append(itemCode);
+        String path = sb.toString();
+
+        // GET
+        String json = getEasyJson(path, String.class);
+        return getDeserializeMapper().readValue(json, LaboTrendRow.class);
+    }
+    
     // ラボデータの削除 2013/06/24
     public int deleteLabTest(long moduleId) throws Exception {
         
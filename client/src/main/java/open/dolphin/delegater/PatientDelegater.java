@@ -27,6 +27,7 @@ public final class  PatientDelegater extends BusinessDelegater {
     private static final String TMP_KARTE_RESOURCE = "/patient/documents/status";
 //s.oh^ 2014/07/22 一括カルテPDF出力
     private static final String ALL_PATIENTS_RESOURCE = "/patient/all";
+    private static final String WITHOUT_INSURANCES = "?insurances=false";
 //s.oh$
     
     /**
@@ -53,6 +54,18 @@ public final class  PatientDelegater extends BusinessDelegater {
      * @throws java.lang.Exception
      */
     public Collection getPatients(PatientSearchSpec spec) throws Exception {
+        return getPatients(spec, true);
+    }
+    
+    /**
+     * 患者を検索する。
+     * @param spec PatientSearchSpec 検索仕様
+     * @param withInsurances false なら健康保険を取得しない（一覧表示用）
+     * カルテを開く時に setHealthInsurances で取得すること
+     * @return PatientModel の Collection
+     * @throws java.lang.Exception
+     */
+    public Collection getPatients(PatientSearchSpec spec, boolean withInsurances) throws Exception {
 
         StringBuilder sb = new StringBuilder();
 
@@ -78,6 +91,9 @@ public final class  PatientDelegater extends BusinessDelegater {
                 sb.append(spec.getDigit());
                 break;
         }
+        if (!withInsurances) {
+            sb.append(WITHOUT_INSURANCES);
+        }
 
         String path = sb.toString();
         
@@ -144,6 +160,24 @@ public final class  PatientDelegater extends BusinessDelegater {
         }
     }
 
+    /**
+     * 健康保険を取得せずに検索した患者に、健康保険を取得して設定する。
+     * @param patient 患者
+     * @throws java.lang.Exception
+     */
+    public void setHealthInsurances(PatientModel patient) throws Exception {
+        
+        // PATH
+        String path = ID_RESOURCE + patient.getPatientId();
+        
+        // GET
+        PatientModel pm = getEasyJson(path, PatientModel.class);
+        if (pm != null) {
+            decodeHealthInsurance(pm);
+            patient.setPvtHealthInsurances(pm.getPvtHealthInsurances());
+        }
+    }
+
     /**
      * バイナリの健康保険データをオブジェクトにデコードする。
      */
@@ -0,0 +1,170 @@
+package open.dolphin.delegater;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+
+/**
+ * REST 呼び出しの所要時間をエンドポイント毎に集計する。
+ * エンドポイントは「メソッド + リソースのパス先頭２階層」（例 GET /karte/document）。
+ * 所要時間はリクエスト送信からレスポンスヘッダー受信まで。
+ */
+public class RestClientMetrics implements ClientRequestFilter, ClientResponseFilter {
+
+    private static final String START_TIME = "open.dolphin.rest.start";
+
+    private static final RestClientMetrics instance = new RestClientMetrics();
+
+    private final ConcurrentHashMap<String, Stat> stats = new ConcurrentHashMap<>();
+
+    // これ以上かかった呼び出しはその都度ログに出す
+    private volatile long slowMillis = 3000L;
+
+    private RestClientMetrics() {
+    }
+
+    public static RestClientMetrics getInstance() {
+        return instance;
+    }
+
+    public void setSlowMillis(long slowMillis) {
+        this.slowMillis = slowMillis;
+    }
+
+    @Override
+    public void filter(ClientRequestContext requestContext) throws IOException {
+        requestContext.setProperty(START_TIME, System.nanoTime());
+    }
+
+    @Override
+    public void filter(ClientRequestContext requestContext, ClientResponseContext responseContext) throws IOException {
+        Object start = requestContext.getProperty(START_TIME);
+        if (start == null) {
+            return;
+        }
+        long nanos = System.nanoTime() - (Long)start;
+        String endpoint = endpoint(requestContext.getMethod(), requestContext.getUri().getPath());
+        Stat stat = stats.get(endpoint);
+        if (stat == null) {
+            Stat newStat = new Stat(endpoint);
+            stat = stats.putIfAbsent(endpoint, newStat);
+            if (stat == null) {
+                stat = newStat;
+            }
+        }
+        stat.add(nanos, responseContext.getStatus()/100 != 2);
+
+        long millis = nanos / 1000000L;
+        if (millis >= slowMillis) {
+            Logger.getLogger("open.dolphin").warning("slow REST call: " + endpoint + " " + millis + " ms status=" + responseContext.getStatus());
+        }
+    }
+
+    /**
+     * 集計結果を平均の遅い順に返す。
+     * @return エンドポイント毎の集計
+     */
+    public List<Stat> getStats() {
+        List<Stat> list = new ArrayList<>(stats.values());
+        Collections.sort(list, (s1, s2) -> Long.compare(s2.getAverageMillis(), s1.getAverageMillis()));
+        return list;
+    }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("REST client metrics (endpoint, count, errors, avg ms, max ms)");
+        for (Stat stat : getStats()) {
+            sb.append("\n").append(stat.toString());
+        }
+        return sb.toString();
+    }
+
+    public void reset() {
+        stats.clear();
+    }
+
+    // /openDolphin/resources/karte/document/1,2 -> GET /karte/document
+    private String endpoint(String method, String path) {
+        int index = path.indexOf("/resources/");
+        String rel = index >= 0 ? path.substring(index + "/resources".length()) : path;
+        String[] segments = rel.split("/");
+        StringBuilder sb = new StringBuilder();
+        sb.append(method).append(" ");
+        int cnt = 0;
+        for (String seg : segments) {
+            if (seg.isEmpty()) {
+                continue;
+            }
+            sb.append("/").append(seg);
+            if (++cnt == 2) {
+                break;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * エンドポイント毎の集計
+     */
+    public static class Stat {
+
+        private final String endpoint;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private Stat(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        private void add(long nanos, boolean error) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            if (error) {
+                errors.incrementAndGet();
+            }
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+
+        public long getAverageMillis() {
+            long c = count.get();
+            return c > 0 ? totalNanos.get() / c / 1000000L : 0L;
+        }
+
+        public long getMaxMillis() {
+            return maxNanos.get() / 1000000L;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(endpoint).append(", ").append(getCount()).append(", ").append(getErrors());
+            sb.append(", ").append(getAverageMillis()).append(", ").append(getMaxMillis());
+            return sb.toString();
+        }
+    }
+}
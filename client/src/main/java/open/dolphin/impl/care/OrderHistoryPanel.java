@@ -16,11 +16,11 @@ import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import javax.swing.table.TableColumn;
 import open.dolphin.client.ClientContext;
+import open.dolphin.client.StampRenderer;
 import open.dolphin.infomodel.*;
 import open.dolphin.table.ListTableModel;
 import open.dolphin.table.StripeTableCellRenderer;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.Velocity;
 import org.apache.velocity.exception.MethodInvocationException;
 import org.apache.velocity.exception.ParseErrorException;
 import org.apache.velocity.exception.ResourceNotFoundException;
@@ -316,15 +316,7 @@ public final class OrderHistoryPanel extends JPanel implements PropertyChangeLis
             
             // Merge する
             StringWriter sw = new StringWriter();
-            BufferedWriter bw = new BufferedWriter(sw);
-            InputStream instream = ClientContext
-                    .getTemplateAsStream(templateFile);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(
-                    instream, "UTF-8"));
-            Velocity.evaluate(context, bw, "stmpHolder", reader);
-            bw.flush();
-            bw.close();
-            reader.close();
+            StampRenderer.merge(templateFile, context, sw);
             contents.setText(sw.toString());
             
         } catch (ParseErrorException | MethodInvocationException | ResourceNotFoundException | IOException e) {
@@ -20,6 +20,8 @@ import open.dolphin.delegater.LaboDelegater;
 import open.dolphin.impl.lbtest.LaboTestPanel;
 import open.dolphin.impl.pvt.WatingListImpl;
 import open.dolphin.infomodel.ChartEventModel;
+import open.dolphin.infomodel.LaboImportSummary;
+import open.dolphin.infomodel.NLaboModule;
 import open.dolphin.infomodel.PatientLiteModel;
 import open.dolphin.infomodel.PatientModel;
 import open.dolphin.infomodel.PatientVisitModel;
@@ -37,8 +39,11 @@ public class NLaboTestImporter extends AbstractMainComponent implements Property
     private final String NAME;
     private final String SUCCESS;
     private final String ERROR;
+    private final String DUPLICATE;
     
     private static final Color UNCONSTRAINED_COLOR = new Color(255,102,102);
+    // 一度に登録するモジュール数
+    private static final int BULK_SIZE = 200;
     private static final String[] LAB_FILES = {"DAT","dat","DAT2","dat2","HL7","hl7", "TXT", "txt", "CSV", "csv"};
     
     // 選択されている患者情報
@@ -62,6 +67,7 @@ public class NLaboTestImporter extends AbstractMainComponent implements Property
         NAME = bundle.getString("title.labReceiver");
         SUCCESS = bundle.getString("text.success");
         ERROR = bundle.getString("text.error");
+        DUPLICATE = bundle.getString("text.duplicate");
         setName(NAME);
         cel = ChartEventHandler.getInstance();
         clientUUID = cel.getClientUUID();
@@ -343,13 +349,18 @@ public class NLaboTestImporter extends AbstractMainComponent implements Property
 
                 LaboDelegater laboDelegater = new LaboDelegater();
 
-                for (NLaboImportSummary summary : modules) {
+                // BULK_SIZE モジュールずつまとめて登録する
+                for (int start = 0; start < modules.size(); start += BULK_SIZE) {
+                    
+                    List<NLaboImportSummary> chunk = modules.subList(start, Math.min(start + BULK_SIZE, modules.size()));
+                    List<NLaboModule> list = new ArrayList<>(chunk.size());
+                    for (NLaboImportSummary summary : chunk) {
+                        list.add(summary.getModule());
+                    }
 
-//s.oh^ 2013/08/29
-                    //PatientModel pm = laboDelegater.putNLaboModule(summary.getModule());
-                    PatientModel pm ;
+                    List<LaboImportSummary> results;
                     try {
-                        pm = laboDelegater.putNLaboModule(summary.getModule());
+                        results = laboDelegater.postNLaboModules(list);
                     } catch (Exception ex) {
                         String why = ex.getMessage();
                         Window parent = SwingUtilities.getWindowAncestor(getUI());
@@ -359,16 +370,21 @@ public class NLaboTestImporter extends AbstractMainComponent implements Property
                         String message = msf.format(new Object[]{why});
                         String title = bundle.getString("title.optionPane.labReceiver");
                         JOptionPane.showMessageDialog(parent, message, ClientContext.getFrameTitle(title), JOptionPane.WARNING_MESSAGE);
-                        pm = null;
+                        results = null;
                     }
-//s.oh$
 
-                    if (pm != null) {
-                        summary.setPatient(pm);
-                        summary.setResult(SUCCESS);
-
-                    } else {
-                        summary.setResult(ERROR);
+                    for (int i = 0; i < chunk.size(); i++) {
+                        NLaboImportSummary summary = chunk.get(i);
+                        LaboImportSummary result = (results != null && i < results.size()) ? results.get(i) : null;
+                        if (result != null && result.isImported()) {
+                            summary.setPatient(result.getPatient());
+                            summary.setResult(SUCCESS);
+                        } else if (result != null && LaboImportSummary.RESULT_DUPLICATE.equals(result.getResult())) {
+                            // 同じファイル内の後の報告が登録された
+                            summary.setResult(DUPLICATE);
+                        } else {
+                            summary.setResult(ERROR);
+                        }
                     }
 
                     // Table 更新
@@ -6,6 +6,8 @@ import java.awt.event.*;
 import java.text.MessageFormat;
 import java.util.*;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.swing.*;
 import javax.swing.event.ListSelectionEvent;
 import open.dolphin.client.AbstractChartDocument;
@@ -62,8 +64,11 @@ public class LaboTestBean extends AbstractChartDocument {
     private JButton printPdfBtn;    // ラボデータPDFの印刷
 //s.oh$
     
-    // ラボデータの削除 2013/06/24
-    private List<NLaboModule> modules;
+    // 検査値の時系列 null なら次の検索で取得する
+    private LaboTrendTable trend;
+
+    // 表示している列（ラボデータの削除）
+    private List<Integer> columns;
     
     public LaboTestBean() {
         String title = ClientContext.getMyBundle(LaboTestBean.class).getString("title.Document");
@@ -78,7 +83,7 @@ public class LaboTestBean extends AbstractChartDocument {
         this.maxResult = maxResult;
     }
 
-    public void createTable(List<NLaboModule> moduleList) {
+    public void createTable(List<Integer> shown) {
 
         // 現在のデータをクリアする
         if (tableModel != null && tableModel.getDataProvider() != null) {
@@ -95,112 +100,23 @@ public class LaboTestBean extends AbstractChartDocument {
         for (int col = 1; col < header.length; col++) {
             header[col] = "";
         }
-        
-        if (modules!=null) {
-            modules.clear();
-        }
-        modules = moduleList;       
+        columns = shown;
 
         // 結果がゼロであれば返る
-        if (modules == null || modules.isEmpty()) {
+        if (columns == null || columns.isEmpty()) {
             tableModel = new ListTableModel<>(header, 0);
             table.setModel(tableModel);
             setColumnWidth();
             return;
         }
 
-        // 検体採取日の降順なので昇順にソートする
-//s.oh^ 2013/06/13 カラムの並び順
-        //Collections.sort(modules, new SampleDateComparator());
-        if(!Project.getBoolean("labtest.column.newest.left", false)) {
-            Collections.sort(modules, new SampleDateComparator());
-        }
-//s.oh$
-
-        // テスト項目全てに対応する rowObject を生成する
-        List<LabTestRowObject> dataProvider = new ArrayList<>();
-
-        int moduleIndex = 0;
-
-        for (NLaboModule module : modules) {
-
-            // 検体採取日
-            header[moduleIndex+1] = module.getSampleDate();
-
-            // モジュールに含まれる検査項目
-            Collection<NLaboItem> c = module.getItems();
-
-            for (NLaboItem item : c) {
-
-                // RowObject を生成し dataProvider へ加える
-                // 最初のモジュールのテスト項目は無条件に加える
-                if (moduleIndex == 0) {
-                    // row
-                    LabTestRowObject row = new LabTestRowObject();
-                    row.setLabCode(item.getLaboCode());
-                    row.setGroupCode(item.getGroupCode());
-                    row.setParentCode(item.getParentCode());
-                    row.setItemCode(item.getItemCode());
-                    row.setItemName(item.getItemName());
-                    row.setUnit(item.getUnit());
-                    row.setNormalValue(item.getNormalValue());
-                    // valueを moduleIndex番目にセットする
-                    LabTestValueObject value = new LabTestValueObject();
-                    value.setSampleDate(module.getSampleDate());
-                    value.setValue(item.getValue());
-                    value.setOut(item.getAbnormalFlg());
-                    value.setComment1(item.getComment1());
-                    value.setComment2(item.getComment2());
-                    row.addLabTestValueObjectAt(moduleIndex, value);
-                    //
-                    dataProvider.add(row);
-                    continue;
-                }
-
-                // 二つ目のモジュールからは無かったら加える
-                boolean found = false;
-
-                for (LabTestRowObject rowObject : dataProvider) {
-                    if (item.getItemCode().equals(rowObject.getItemCode())) {
-                        found = true;
-                        LabTestValueObject value = new LabTestValueObject();
-                        value.setSampleDate(module.getSampleDate());
-                        value.setValue(item.getValue());
-                        value.setOut(item.getAbnormalFlg());
-                        value.setComment1(item.getComment1());
-                        value.setComment2(item.getComment2());
-                        rowObject.addLabTestValueObjectAt(moduleIndex, value);
-                        break;
-                    }
-                }
-
-                if (!found) {
-                    LabTestRowObject row = new LabTestRowObject();
-                    row.setLabCode(item.getLaboCode());
-                    row.setGroupCode(item.getGroupCode());
-                    row.setParentCode(item.getParentCode());
-                    row.setItemCode(item.getItemCode());
-                    row.setItemName(item.getItemName());
-                    row.setUnit(item.getUnit());
-                    row.setNormalValue(item.getNormalValue());
-                    //
-                    LabTestValueObject value = new LabTestValueObject();
-                    value.setSampleDate(module.getSampleDate());
-                    value.setValue(item.getValue());
-                    value.setOut(item.getAbnormalFlg());
-                    value.setComment1(item.getComment1());
-                    value.setComment2(item.getComment2());
-                    row.addLabTestValueObjectAt(moduleIndex, value);
-                    //
-                    dataProvider.add(row);
-                }
-            }
-
-            moduleIndex++;
+        // 列の検体採取日（表示順）
+        for (int i = 0; i < columns.size(); i++) {
+            header[i+1] = trend.getSampleDate(columns.get(i));
         }
 
-        // dataProvider の要素 rowObject をソートする
-        Collections.sort(dataProvider);
+        // テスト項目全てに対応する rowObject を時系列から生成する
+        List<LabTestRowObject> dataProvider = trend.getRows(columns);
 
         // Table Model
         tableModel = new ListTableModel<>(header, 0);
@@ -242,13 +158,17 @@ public class LaboTestBean extends AbstractChartDocument {
                     if (index==0) {
                         return;
                     }
-                    final NLaboModule toDelete = modules.get(index-1);
+                    if (index > columns.size()) {
+                        return;
+                    }
+                    final String toDelete = trend.getSampleDate(columns.get(index-1));
+                    final long moduleId = trend.getModuleId(columns.get(index-1));
                     JPopupMenu popup = new JPopupMenu();
                     String actionText = ClientContext.getMyBundle(LaboTestBean.class).getString("actionText.delete");
                     popup.add(new AbstractAction(actionText) {
                         @Override
                         public void actionPerformed(ActionEvent e) {
-                            String date = toDelete.getSampleDate().replaceAll(" 00:00", "");
+                            String date = toDelete.replaceAll(" 00:00", "");
                             java.util.ResourceBundle bundle = ClientContext.getMyBundle(LaboTestBean.class);
                             String fmt = bundle.getString("messageFormat.deleteTest");
                             MessageFormat msf = new MessageFormat(fmt);
@@ -263,7 +183,7 @@ public class LaboTestBean extends AbstractChartDocument {
                                 case 0:
                                     break;
                                 case 1:
-                                    deleteLabTest(toDelete.getId());
+                                    deleteLabTest(moduleId);
                                     break;
                             }
                         }
@@ -485,25 +405,19 @@ public class LaboTestBean extends AbstractChartDocument {
     private void searchLaboTest(final int firstResult) {
 
         final String pid = getContext().getPatient().getPatientId();
-        ldl = new LaboDelegater();
+        final LaboTrendTable current = trend;
 
-        DBTask task = new DBTask<List<NLaboModule>, Void>(getContext()) {
+        DBTask task = new DBTask<LaboTrendTable, Void>(getContext()) {
 
             @Override
-            protected List<NLaboModule> doInBackground() throws Exception {
-                List<NLaboModule> result = ldl.getLaboTest(pid, firstResult, getMaxResult());
-                return result;
+            protected LaboTrendTable doInBackground() throws Exception {
+                return current != null ? current : LaboTrendTable.load(pid);
             }
 
             @Override
-            protected void succeeded(List<NLaboModule> result) {
-                int moduleCount = result != null ? result.size() : 0;
-                // 全件表示修正^
-                //countField.setText(String.valueOf(moduleCount));
-//s.oh^ 2014/08/04 ラボデータ表示不具合対応
-                //createTable(result);
-                createTable(checkLaboModules(result));
-//s.oh$
+            protected void succeeded(LaboTrendTable result) {
+                trend = result;
+                createTable(trend.getColumns(firstResult, getMaxResult()));
             }
         };
 
@@ -511,47 +425,6 @@ public class LaboTestBean extends AbstractChartDocument {
 
     }
     
-//s.oh^ 2014/08/04 ラボデータ表示不具合対応
-    public List<NLaboModule> checkLaboModules(List<NLaboModule> modules) {
-        if(modules != null) {
-            for(int i = 0; i < modules.size(); i++) {
-                NLaboModule module = modules.get(i);
-                List<NLaboItem> items = new ArrayList<>();
-                for(int j = 0; j < module.getItems().size(); j++) {
-                    NLaboItem item = module.getItems().get(j);
-                    if(items.size() <= 0) {
-                        items.add(item);
-                    }else{
-                        int addedIdx = -1;
-                        boolean notadd = false;
-                        for(int k = 0; k < items.size(); k++) {
-                            NLaboItem addedItem = items.get(k);
-                            if(item.getItemCode().equals(addedItem.getItemCode())) {
-                                if(addedItem.getReportStatus()!= null && addedItem.getReportStatus().equals("E")) {
-                                    notadd = true;
-                                }else{
-                                    items.remove(k);
-                                    addedIdx = k;
-                                    break;
-                                }
-                            }
-                        }
-                        if(!notadd) {
-                            if(addedIdx >= 0) {
-                                items.add(addedIdx, item);
-                            }else{
-                                items.add(item);
-                            }
-                        }
-                    }
-                }
-                module.setItems(items);
-            }
-        }
-        return modules;
-    }
-//s.oh$
-    
     // 全件表示修正^
     private void firstSearch() {
 
@@ -613,9 +486,15 @@ public class LaboTestBean extends AbstractChartDocument {
 //
 //        task.execute();
         // 全件数
+        // 全件数（検体採取日の数）
         String pid = getContext().getPatient().getPatientId();
-        ldl = new LaboDelegater();
-        int moduleCount = Integer.parseInt(ldl.getLaboTestCount(pid));
+        try {
+            trend = LaboTrendTable.load(pid);
+        } catch (Exception ex) {
+            Logger.getLogger(LaboTestBean.class.getName()).log(Level.SEVERE, null, ex);
+            return;
+        }
+        int moduleCount = trend.getColumnCount();
 
         // ComboBox へ表示するItemの数
         int itemCount = moduleCount/getMaxResult();
@@ -649,6 +528,8 @@ public class LaboTestBean extends AbstractChartDocument {
     
     private void deleteLabTest(final long moduleId) {
 
+        trend = null;
+
         final String pid = getContext().getPatient().getPatientId();
         ldl = new LaboDelegater();
 
@@ -907,6 +788,7 @@ public class LaboTestBean extends AbstractChartDocument {
 
 //s.oh^ ラボテストのPDF出力    
     public void updateList() {
+                        trend = null;
                         NameValuePair pair = (NameValuePair)extractionCombo.getSelectedItem();
                         int firstResult = Integer.parseInt(pair.getValue());
                         searchLaboTest(firstResult);
@@ -4,9 +4,6 @@ import java.awt.*;
 import java.awt.datatransfer.StringSelection;
 import java.awt.event.*;
 import java.text.MessageFormat;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -71,8 +68,11 @@ public class LaboTestPanel extends AbstractChartDocument {
     
     private JDialog dialog;
     
-    // ラボデータの削除 2013/06/24
-    private List<NLaboModule> modules;
+    // 検査値の時系列 null なら次の検索で取得する
+    private LaboTrendTable trend;
+
+    // 表示している列（ラボデータの削除）
+    private List<Integer> columns;
     
     public LaboTestPanel(String pid, String pname, String pkana) {
         String title = ClientContext.getMyBundle(LaboTestPanel.class).getString("title.documnet");
@@ -99,7 +99,7 @@ public class LaboTestPanel extends AbstractChartDocument {
 //        this.extractionMenu = extractionMenu;
 //    }
 //minagawa$
-    public void createTable(List<NLaboModule> moduleList) {
+    public void createTable(List<Integer> shown) {
 
         // 現在のデータをクリアする
         if (tableModel != null && tableModel.getDataProvider() != null) {
@@ -116,114 +116,23 @@ public class LaboTestPanel extends AbstractChartDocument {
         for (int col = 1; col < header.length; col++) {
             header[col] = "";
         }
-//minagawa^ LSC 1.4 bug fix ラボデータの削除 2013/06/24
-        if (modules!=null) {
-            modules.clear();
-        }
-        modules = moduleList;
-//minagawa$        
+        columns = shown;
 
         // 結果がゼロであれば返る
-        if (modules == null || modules.isEmpty()) {
+        if (columns == null || columns.isEmpty()) {
             tableModel = new ListTableModel<>(header, 0);
             table.setModel(tableModel);
             setColumnWidth();
             return;
         }
 
-        // 検体採取日の降順なので昇順にソートする
-//s.oh^ 2013/06/13 カラムの並び順
-        //Collections.sort(modules, new SampleDateComparator());
-        if(!Project.getBoolean("labtest.column.newest.left", false)) {
-            Collections.sort(modules, new SampleDateComparator());
+        // 列の検体採取日（表示順）
+        for (int i = 0; i < columns.size(); i++) {
+            header[i+1] = trend.getSampleDate(columns.get(i));
         }
-//s.oh$
-
-        // テスト項目全てに対応する rowObject を生成する
-        List<LabTestRowObject> dataProvider = new ArrayList<>();
-
-        int moduleIndex = 0;
-
-        for (NLaboModule module : modules) {
-
-            // 検体採取日
-            header[moduleIndex+1] = module.getSampleDate();
-
-            // モジュールに含まれる検査項目
-            Collection<NLaboItem> c = module.getItems();
-
-            for (NLaboItem item : c) {
-
-                // RowObject を生成し dataProvider へ加える
-                // 最初のモジュールのテスト項目は無条件に加える
-                if (moduleIndex == 0) {
-                    // row
-                    LabTestRowObject row = new LabTestRowObject();
-                    row.setLabCode(item.getLaboCode());
-                    row.setGroupCode(item.getGroupCode());
-                    row.setParentCode(item.getParentCode());
-                    row.setItemCode(item.getItemCode());
-                    row.setItemName(item.getItemName());
-                    row.setUnit(item.getUnit());
-                    row.setNormalValue(item.getNormalValue());
-                    // valueを moduleIndex番目にセットする
-                    LabTestValueObject value = new LabTestValueObject();
-                    value.setSampleDate(module.getSampleDate());
-                    value.setValue(item.getValue());
-                    value.setOut(item.getAbnormalFlg());
-                    value.setComment1(item.getComment1());
-                    value.setComment2(item.getComment2());
-                    row.addLabTestValueObjectAt(moduleIndex, value);
-                    //
-                    dataProvider.add(row);
-                    continue;
-                }
 
-                // 二つ目のモジュールからは無かったら加える
-                boolean found = false;
-
-                for (LabTestRowObject rowObject : dataProvider) {
-                    if (item.getItemCode().equals(rowObject.getItemCode())) {
-                        found = true;
-                        LabTestValueObject value = new LabTestValueObject();
-                        value.setSampleDate(module.getSampleDate());
-                        value.setValue(item.getValue());
-                        value.setOut(item.getAbnormalFlg());
-                        value.setComment1(item.getComment1());
-                        value.setComment2(item.getComment2());
-                        rowObject.addLabTestValueObjectAt(moduleIndex, value);
-                        break;
-                    }
-                }
-
-                if (!found) {
-                    LabTestRowObject row = new LabTestRowObject();
-                    row.setLabCode(item.getLaboCode());
-                    row.setGroupCode(item.getGroupCode());
-                    row.setParentCode(item.getParentCode());
-                    row.setItemCode(item.getItemCode());
-                    row.setItemName(item.getItemName());
-                    row.setUnit(item.getUnit());
-                    row.setNormalValue(item.getNormalValue());
-                    //
-                    LabTestValueObject value = new LabTestValueObject();
-                    value.setSampleDate(module.getSampleDate());
-                    value.setValue(item.getValue());
-                    value.setOut(item.getAbnormalFlg());
-                    value.setComment1(item.getComment1());
-                    value.setComment2(item.getComment2());
-                    row.addLabTestValueObjectAt(moduleIndex, value);
-                    //
-                    dataProvider.add(row);
-                }
-            }
-
-            moduleIndex++;
-        }
-
-        // dataProvider の要素 rowObject をソートする
-        // grpuCode,parentCode,itemcode;
-        Collections.sort(dataProvider);
+        // テスト項目全てに対応する rowObject を時系列から生成する
+        List<LabTestRowObject> dataProvider = trend.getRows(columns);
 
         // Table Model
         tableModel = new ListTableModel<>(header, 0);
@@ -267,13 +176,17 @@ public class LaboTestPanel extends AbstractChartDocument {
                     if (index==0) {
                         return;
                     }
-                    final NLaboModule toDelete = modules.get(index-1);
+                    if (index > columns.size()) {
+                        return;
+                    }
+                    final String toDelete = trend.getSampleDate(columns.get(index-1));
+                    final long moduleId = trend.getModuleId(columns.get(index-1));
                     JPopupMenu popup = new JPopupMenu();
                     String actionText = ClientContext.getMyBundle(LaboTestPanel.class).getString("actionText.delete");
                     popup.add(new AbstractAction(actionText) {
                         @Override
                         public void actionPerformed(ActionEvent e) {
-                            String date = toDelete.getSampleDate().replaceAll(" 00:00", "");
+                            String date = toDelete.replaceAll(" 00:00", "");
                             java.util.ResourceBundle bundle = ClientContext.getMyBundle(LaboTestPanel.class);
                             String fmt = bundle.getString("messageFormat.delete");
                             MessageFormat msf = new MessageFormat(fmt);
@@ -288,7 +201,7 @@ public class LaboTestPanel extends AbstractChartDocument {
                                 case 0:
                                     break;
                                 case 1:
-                                    deleteLabTest(toDelete.getId());
+                                    deleteLabTest(moduleId);
                                     break;
                             }
                         }
@@ -545,59 +458,15 @@ public class LaboTestPanel extends AbstractChartDocument {
      */
     private void searchLaboTest(final int firstResult) {
         try {
-            ldl = new LaboDelegater();
-            List<NLaboModule> modules = ldl.getLaboTest(pid, firstResult, getMaxResult());
-            int moduleCount = modules != null ? modules.size() : 0;
-//s.oh^ 2014/08/04 ラボデータ表示不具合対応
-            //createTable(modules);
-            createTable(checkLaboModules(modules));
-//s.oh$
+            if (trend == null) {
+                trend = LaboTrendTable.load(pid);
+            }
+            createTable(trend.getColumns(firstResult, getMaxResult()));
         } catch (Exception ex) {
             Logger.getLogger(LaboTestPanel.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
     
-//s.oh^ 2014/08/04 ラボデータ表示不具合対応
-    public List<NLaboModule> checkLaboModules(List<NLaboModule> modules) {
-        if(modules != null) {
-            for(int i = 0; i < modules.size(); i++) {
-                NLaboModule module = modules.get(i);
-                List<NLaboItem> items = new ArrayList<>();
-                for(int j = 0; j < module.getItems().size(); j++) {
-                    NLaboItem item = module.getItems().get(j);
-                    if(items.size() <= 0) {
-                        items.add(item);
-                    }else{
-                        int addedIdx = -1;
-                        boolean notadd = false;
-                        for(int k = 0; k < items.size(); k++) {
-                            NLaboItem addedItem = items.get(k);
-                            if(item.getItemCode().equals(addedItem.getItemCode())) {
-                                if(addedItem.getReportStatus() != null && addedItem.getReportStatus().equals("E")) {
-                                    notadd = true;
-                                }else{
-                                    items.remove(k);
-                                    addedIdx = k;
-                                    break;
-                                }
-                            }
-                        }
-                        if(!notadd) {
-                            if(addedIdx >= 0) {
-                                items.add(addedIdx, item);
-                            }else{
-                                items.add(item);
-                            }
-                        }
-                    }
-                }
-                module.setItems(items);
-            }
-        }
-        return modules;
-    }
-//s.oh$
-    
     // 全件表示修正^
     private void firstSearch() {
 //s.oh^ 2013/09/18 ラボデータの高速化
@@ -657,9 +526,14 @@ public class LaboTestPanel extends AbstractChartDocument {
 //        };
 //
 //        task.execute();
-        // 全件数
-        ldl = new LaboDelegater();
-        int moduleCount = Integer.parseInt(ldl.getLaboTestCount(pid));
+        // 全件数（検体採取日の数）
+        try {
+            trend = LaboTrendTable.load(pid);
+        } catch (Exception ex) {
+            Logger.getLogger(LaboTestPanel.class.getName()).log(Level.SEVERE, null, ex);
+            return;
+        }
+        int moduleCount = trend.getColumnCount();
 
         // ComboBox へ表示するItemの数
         int itemCount = moduleCount/getMaxResult();
@@ -718,7 +592,8 @@ public class LaboTestPanel extends AbstractChartDocument {
 //        task.execute();
         try {
             ldl = new LaboDelegater();
-            int result = ldl.deleteLabTest(moduleId);
+            trend = null;
+            ldl.deleteLabTest(moduleId);
             if (extractionCombo.getSelectedIndex()==0) {
                 searchLaboTest(0);
             } else {
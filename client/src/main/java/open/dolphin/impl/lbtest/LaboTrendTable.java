@@ -0,0 +1,129 @@
+package open.dolphin.impl.lbtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import open.dolphin.delegater.LaboDelegater;
+import open.dolphin.infomodel.LabTestRowObject;
+import open.dolphin.infomodel.LabTestValueObject;
+import open.dolphin.infomodel.LaboTrendPivot;
+import open.dolphin.infomodel.LaboTrendRow;
+import open.dolphin.project.Project;
+
+/**
+ * 検査値の時系列（LaboDelegater#getLaboTrend）を検査結果テーブルの行にする。
+ * LaboTestBean と LaboTestPanel で使う。
+ *
+ * 列は検査結果のモジュールで、同じ検体採取日の報告もそれぞれ一列になる。
+ * 列は新しい方から何番目かの番号で指定する。
+ * 再報告で同じ項目が重複している時の選び方はサーバ側で済んでいる。
+ */
+final class LaboTrendTable {
+
+    private final List<String> sampleDates;
+
+    private final List<Long> moduleIds;
+
+    private final List<LaboTrendRow> rows;
+
+    private LaboTrendTable(LaboTrendPivot pivot) {
+        sampleDates = pivot != null && pivot.getSampleDates() != null ? pivot.getSampleDates() : new ArrayList<String>();
+        moduleIds = pivot != null && pivot.getModuleIds() != null ? pivot.getModuleIds() : new ArrayList<Long>();
+        rows = pivot != null && pivot.getRows() != null ? pivot.getRows() : new ArrayList<LaboTrendRow>();
+    }
+
+    /**
+     * 患者の検査結果の表を全て取得する。
+     * @param pid 患者ID
+     * @return 表
+     * @throws Exception
+     */
+    static LaboTrendTable load(String pid) throws Exception {
+        return new LaboTrendTable(new LaboDelegater().getLaboTrend(pid, null, null, 0));
+    }
+
+    /**
+     * @return 列（検査結果のモジュール）の数
+     */
+    int getColumnCount() {
+        return sampleDates.size();
+    }
+
+    /**
+     * 新しい方から firstResult 番目以降の列を表示順に返す。
+     * labtest.column.newest.left なら新しい順、そうでなければ古い順。
+     * @param firstResult 新しい方から何番目から
+     * @param maxResult 最大数
+     * @return 列
+     */
+    List<Integer> getColumns(int firstResult, int maxResult) {
+        List<Integer> ret = new ArrayList<>();
+        int to = sampleDates.size() - firstResult;
+        for (int i = Math.max(0, to - maxResult); i < to; i++) {
+            ret.add(i);
+        }
+        if (Project.getBoolean("labtest.column.newest.left", false)) {
+            Collections.reverse(ret);
+        }
+        return ret;
+    }
+
+    /**
+     * @param column 列
+     * @return 列の検体採取日
+     */
+    String getSampleDate(int column) {
+        return sampleDates.get(column);
+    }
+
+    /**
+     * @param column 列
+     * @return 列の検査結果のモジュールの pk
+     */
+    long getModuleId(int column) {
+        return moduleIds.get(column);
+    }
+
+    /**
+     * 列に値を揃えた行を返す。どの列にも値のない項目は除く。
+     * @param columns 列
+     * @return groupCode, parentCode, itemCode の順
+     */
+    List<LabTestRowObject> getRows(List<Integer> columns) {
+
+        List<LabTestRowObject> ret = new ArrayList<>();
+        for (LaboTrendRow row : rows) {
+            List<LabTestValueObject> values = new ArrayList<>(columns.size());
+            boolean any = false;
+            for (int i : columns) {
+                if (row.getModuleIds().get(i) == null) {
+                    values.add(null);
+                    continue;
+                }
+                LabTestValueObject value = new LabTestValueObject();
+                value.setSampleDate(sampleDates.get(i));
+                value.setValue(row.getValues().get(i));
+                value.setOut(row.getAbnormalFlgs().get(i));
+                if (row.getComments() != null) {
+                    value.setComment1(row.getComments().get(i));
+                }
+                values.add(value);
+                any = true;
+            }
+            if (!any) {
+                continue;
+            }
+            LabTestRowObject rowObj = new LabTestRowObject();
+            rowObj.setGroupCode(row.getGroupCode());
+            rowObj.setParentCode(row.getParentCode());
+            rowObj.setItemCode(row.getItemCode());
+            rowObj.setItemName(row.getItemName());
+            rowObj.setUnit(row.getUnit());
+            rowObj.setNormalValue(row.getNormalValue());
+            rowObj.setValues(values);
+            ret.add(rowObj);
+        }
+        Collections.sort(ret);
+        return ret;
+    }
+}
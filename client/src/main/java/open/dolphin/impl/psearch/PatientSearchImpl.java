@@ -12,6 +12,8 @@ import java.beans.PropertyChangeListener;
 import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.swing.*;
 import javax.swing.event.*;
 import open.dolphin.client.*;
@@ -641,6 +643,16 @@ public class PatientSearchImpl extends AbstractMainComponent implements Property
 
         if (canOpen(getSelectedPatinet())) {
 
+            // 検索結果には健康保険が無い
+            if (getSelectedPatinet().getPvtHealthInsurances() == null) {
+                try {
+                    new PatientDelegater().setHealthInsurances(getSelectedPatinet());
+                } catch (Exception e) {
+                    Logger.getLogger("open.dolphin").log(Level.WARNING, "health insurance fetch failed", e);
+                    return;
+                }
+            }
+
             // 来院情報を生成する
             PatientVisitModel pvt = new PatientVisitModel();
             pvt.setId(0L);
@@ -803,7 +815,8 @@ public class PatientSearchImpl extends AbstractMainComponent implements Property
             @Override
             protected Collection doInBackground() throws Exception {
                 PatientDelegater pdl = new PatientDelegater();
-                Collection result = pdl.getPatients(searchSpec);
+                // 一覧には健康保険を使わない カルテを開く時に取得する
+                Collection result = pdl.getPatients(searchSpec, false);
                 return result;
             }
 
@@ -1182,6 +1182,32 @@ public class WatingListImpl extends AbstractMainComponent implements PropertyCha
         }
     }
 //pns$
+
+    // 待っている患者（担当分・未担当）のカルテを待ち順に先読みする
+    private void prefetchKarte() {
+
+        KartePrefetcher prefetcher = KartePrefetcher.getInstance();
+        if (prefetcher == null) {
+            return;
+        }
+
+        List<PatientVisitModel> waiting = new ArrayList<>();
+        for (PatientVisitModel pvt : pvtTableModel.getDataProvider()) {
+            if (pvt.getStateBit(PatientVisitModel.BIT_SAVE_CLAIM) ||
+                    pvt.getStateBit(PatientVisitModel.BIT_MODIFY_CLAIM) ||
+                    pvt.getStateBit(PatientVisitModel.BIT_CANCEL) ||
+                    pvt.getStateBit(PatientVisitModel.BIT_OPEN)) {
+                continue;
+            }
+            String doctorId = pvt.getDoctorId();
+            if (orcaId != null && doctorId != null && !doctorId.equals(orcaId) && !doctorId.equals(UN_ASSIGNED_ID)) {
+                continue;
+            }
+            waiting.add(pvt);
+        }
+        prefetcher.prefetch(waiting);
+    }
+
     // 最終行を表示する
     private void showLastRow() {
 
@@ -1246,6 +1272,7 @@ public class WatingListImpl extends AbstractMainComponent implements PropertyCha
                     // 最終行までスクロール
                     showLastRow();
                     countPvt();
+                    prefetchKarte();
                     updatePvtInfo();
                 } catch (InterruptedException | ExecutionException ex) {
                 }
@@ -1281,6 +1308,7 @@ public class WatingListImpl extends AbstractMainComponent implements PropertyCha
         SwingUtilities.invokeLater(() -> {
             filterPatients();
             countPvt();
+            prefetchKarte();
             updatePvtInfo();
             
             view.getKutuBtn().setEnabled(true);
@@ -1674,6 +1702,7 @@ public class WatingListImpl extends AbstractMainComponent implements PropertyCha
         
         // PvtInfoを更新する
         countPvt();
+        prefetchKarte();
         updatePvtInfo();
     }
     
@@ -2054,4 +2083,4 @@ public class WatingListImpl extends AbstractMainComponent implements PropertyCha
             return this;
         }
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -5,6 +5,7 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import open.dolphin.infomodel.BeanCodec;
 
 /**
  *
@@ -72,11 +73,7 @@ public class BeanUtils {
     }
     
     public static Object xmlDecode(byte[] bytes)  {
-        
-        XMLDecoder d = new XMLDecoder(
-                new BufferedInputStream(
-                new ByteArrayInputStream(bytes)));
-        return d.readObject();
+        return BeanCodec.decode(bytes);
     }
 
     //masuda^   http://forums.sun.com/thread.jspa?threadID=427879
@@ -0,0 +1,463 @@
+package open.dolphin.common;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * ORCA の JDBC 接続プール。
+ *
+ * 接続数は maxSize までに制限し、空きがなければ maxWaitMillis 待つ。
+ * 一定時間使われなかった接続は貸し出し前に select 1 で検証する。
+ * パラメータ（?）付きの PreparedStatement は接続毎に LRU でキャッシュし、
+ * close() されても実際には閉じずに次の prepareStatement で再利用する。
+ * close() されずに捨てられた接続は GC 後に回収する。
+ */
+public class JdbcConnectionPool {
+
+    private static final String VALIDATION_QUERY = "select 1";
+
+    // これより長く遊んでいた接続は貸し出し前に検証する
+    private static final long VALIDATE_AFTER_IDLE_MILLIS = 30 * 1000L;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final boolean readOnly;
+    private final int maxSize;
+    private final long maxWaitMillis;
+    private final int statementCacheSize;
+
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+
+    // 貸し出し中の接続 リースが GC されたら回収する
+    private final ReferenceQueue<Connection> leakQueue = new ReferenceQueue<>();
+    private final Map<Reference<Connection>, PooledConnection> leased = new ConcurrentHashMap<>();
+
+    // metrics
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWait = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+
+    private volatile boolean closed;
+
+    public JdbcConnectionPool(String url, String user, String password, boolean readOnly,
+            int maxSize, long maxWaitMillis, int statementCacheSize) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.readOnly = readOnly;
+        this.maxSize = maxSize;
+        this.maxWaitMillis = maxWaitMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * 接続を借りる。使い終わったら必ず close() すること。
+     * @return プールされた接続
+     * @throws SQLException 接続できない、または maxWaitMillis 以内に空かなかった場合
+     */
+    public Connection getConnection() throws SQLException {
+
+        if (closed) {
+            throw new SQLException("connection pool is closed");
+        }
+
+        reclaimLeaks();
+
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLException("ORCA connection pool exhausted: " + maxSize + " connections in use");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for a connection", e);
+        }
+        long waited = System.nanoTime() - start;
+        waitNanos.addAndGet(waited);
+        long max = maxWait.get();
+        while (waited > max && !maxWait.compareAndSet(max, waited)) {
+            max = maxWait.get();
+        }
+
+        try {
+            PooledConnection pc;
+            while ((pc = idle.pollFirst()) != null) {
+                if (pc.validate()) {
+                    break;
+                }
+                validationFailures.incrementAndGet();
+                pc.closePhysical();
+            }
+            if (pc == null) {
+                Connection physical = DriverManager.getConnection(url, user, password);
+                physical.setReadOnly(readOnly);
+                pc = new PooledConnection(physical);
+                created.incrementAndGet();
+            }
+            borrowed.incrementAndGet();
+            return pc.lease();
+
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 遊んでいる接続を全て閉じ、以後の貸し出しを止める。
+     */
+    public void close() {
+        closed = true;
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            pc.closePhysical();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    /**
+     * ログ出力用の統計。
+     * @return 統計の文字列
+     */
+    public String getStats() {
+        long b = borrowed.get();
+        StringBuilder sb = new StringBuilder();
+        sb.append("ORCA connection pool: active=").append(getActiveCount());
+        sb.append(", idle=").append(getIdleCount());
+        sb.append(", max=").append(maxSize);
+        sb.append(", created=").append(created.get());
+        sb.append(", borrowed=").append(b);
+        sb.append(", avgWait=").append(b > 0 ? waitNanos.get() / b / 1000000L : 0L).append("ms");
+        sb.append(", maxWait=").append(maxWait.get() / 1000000L).append("ms");
+        sb.append(", timeouts=").append(timeouts.get());
+        sb.append(", validationFailures=").append(validationFailures.get());
+        sb.append(", leaks=").append(leaks.get());
+        sb.append(", stmtCacheHit=").append(statementHits.get());
+        sb.append(", stmtCacheMiss=").append(statementMisses.get());
+        return sb.toString();
+    }
+
+    // close() されずに GC された接続を回収する
+    private void reclaimLeaks() {
+        Reference<? extends Connection> ref;
+        while ((ref = leakQueue.poll()) != null) {
+            PooledConnection pc = leased.remove(ref);
+            if (pc != null) {
+                leaks.incrementAndGet();
+                Logger.getLogger("open.dolphin").warning("ORCA connection was not closed; reclaimed");
+                pc.closePhysical();
+                permits.release();
+            }
+        }
+    }
+
+    private void giveBack(PooledConnection pc, Reference<Connection> ref, boolean broken) {
+        leased.remove(ref);
+        ref.clear();
+        if (broken || closed || !pc.reset()) {
+            pc.closePhysical();
+        } else {
+            pc.lastUsed = System.currentTimeMillis();
+            idle.offerFirst(pc);
+        }
+        permits.release();
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static boolean isConnectionError(Throwable t) {
+        if (t instanceof SQLException) {
+            String state = ((SQLException)t).getSQLState();
+            return state != null && state.startsWith("08");
+        }
+        return false;
+    }
+
+    /**
+     * 物理接続とその PreparedStatement キャッシュ
+     */
+    private class PooledConnection {
+
+        private final Connection physical;
+        private long lastUsed = System.currentTimeMillis();
+
+        // sql -> PreparedStatement アクセス順
+        private final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() > statementCacheSize && !eldest.getValue().inUse) {
+                    eldest.getValue().closePhysical();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        private PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        private Connection lease() {
+            LeaseHandler handler = new LeaseHandler(this);
+            Connection proxy = (Connection)Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, handler);
+            handler.ref = new PhantomReference<>(proxy, leakQueue);
+            leased.put(handler.ref, this);
+            return proxy;
+        }
+
+        private boolean validate() {
+            if (System.currentTimeMillis() - lastUsed < VALIDATE_AFTER_IDLE_MILLIS) {
+                return true;
+            }
+            try (Statement st = physical.createStatement()) {
+                st.execute(VALIDATION_QUERY);
+                return true;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        // プールに戻す前に状態を戻す
+        private boolean reset() {
+            try {
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+                if (physical.isReadOnly() != readOnly) {
+                    physical.setReadOnly(readOnly);
+                }
+                for (CachedStatement cs : statements.values()) {
+                    cs.inUse = false;
+                }
+                return true;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        private void closePhysical() {
+            for (CachedStatement cs : statements.values()) {
+                cs.closePhysical();
+            }
+            statements.clear();
+            try {
+                physical.close();
+            } catch (SQLException e) {
+            }
+        }
+    }
+
+    private static class CachedStatement {
+
+        private final PreparedStatement ps;
+        private boolean inUse;
+
+        private CachedStatement(PreparedStatement ps) {
+            this.ps = ps;
+        }
+
+        private void closePhysical() {
+            try {
+                ps.close();
+            } catch (SQLException e) {
+            }
+        }
+    }
+
+    /**
+     * 貸し出した Connection の proxy
+     */
+    private class LeaseHandler implements InvocationHandler {
+
+        private final PooledConnection pc;
+        private Reference<Connection> ref;
+        private final List<Statement> opened = new ArrayList<>();
+        private boolean released;
+        private boolean broken;
+
+        private LeaseHandler(PooledConnection pc) {
+            this.pc = pc;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+            String name = method.getName();
+
+            if (name.equals("close")) {
+                release();
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return released || pc.physical.isClosed();
+            }
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            if (name.equals("toString")) {
+                return "Pooled" + pc.physical.toString();
+            }
+            if (released) {
+                throw new SQLException("connection is closed");
+            }
+
+            try {
+                if (name.equals("prepareStatement") && args.length == 1 && statementCacheSize > 0
+                        && ((String)args[0]).indexOf('?') >= 0) {
+                    return prepareCached((Connection)proxy, (String)args[0]);
+                }
+                Object ret = JdbcConnectionPool.invoke(pc.physical, method, args);
+                if (ret instanceof Statement) {
+                    opened.add((Statement)ret);
+                }
+                return ret;
+            } catch (Throwable t) {
+                if (isConnectionError(t)) {
+                    broken = true;
+                }
+                throw t;
+            }
+        }
+
+        private PreparedStatement prepareCached(Connection proxy, String sql) throws SQLException {
+            CachedStatement cs = pc.statements.get(sql);
+            if (cs != null && !cs.inUse) {
+                statementHits.incrementAndGet();
+            } else if (cs == null) {
+                statementMisses.incrementAndGet();
+                cs = new CachedStatement(pc.physical.prepareStatement(sql));
+                pc.statements.put(sql, cs);
+            } else {
+                // 同じ SQL を同時に二つ使う場合はキャッシュしない
+                PreparedStatement ps = pc.physical.prepareStatement(sql);
+                opened.add(ps);
+                return ps;
+            }
+            cs.inUse = true;
+            return (PreparedStatement)Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, new StatementHandler(cs, proxy, this));
+        }
+
+        private void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            for (Statement st : opened) {
+                try {
+                    st.close();
+                } catch (SQLException e) {
+                }
+            }
+            opened.clear();
+            giveBack(pc, ref, broken);
+        }
+    }
+
+    /**
+     * キャッシュした PreparedStatement の proxy close() では閉じない
+     * 接続を返した後の close() は無視する（既に別の貸し出しで使われている可能性がある）
+     */
+    private static class StatementHandler implements InvocationHandler {
+
+        private final CachedStatement cs;
+        private final Connection connection;
+        private final LeaseHandler lease;
+        private boolean closed;
+
+        private StatementHandler(CachedStatement cs, Connection connection, LeaseHandler lease) {
+            this.cs = cs;
+            this.connection = connection;
+            this.lease = lease;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+            String name = method.getName();
+
+            if (name.equals("close")) {
+                if (!closed) {
+                    closed = true;
+                    if (lease.released) {
+                        return null;
+                    }
+                    cs.inUse = false;
+                    try {
+                        cs.ps.clearParameters();
+                    } catch (SQLException e) {
+                    }
+                }
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return closed || lease.released;
+            }
+            if (name.equals("getConnection")) {
+                return connection;
+            }
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            if (closed || lease.released) {
+                throw new SQLException("statement is closed");
+            }
+            return JdbcConnectionPool.invoke(cs.ps, method, args);
+        }
+    }
+}
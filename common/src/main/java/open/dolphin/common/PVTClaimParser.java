@@ -0,0 +1,722 @@
+package open.dolphin.common;
+
+import java.beans.XMLEncoder;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Reader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.logging.Logger;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import open.dolphin.infomodel.*;
+
+/**
+ * ORCA の CLAIM 受付電文（MML）を StAX で読み、PatientVisitModel を作る。
+ *
+ * 以前の PVTBuilder（サーバー・クライアント）は JDOM で全体の木を作ってから辿っていたが、
+ * ここでは必要な要素だけを読みながら直接モデルに設定する。結果は PVTBuilder と同じ。
+ * インスタンスは一電文毎に作ること。
+ */
+public final class PVTClaimParser {
+
+    private static final String NS_CM = "http://www.medxml.net/MML/SharedComponent/Common/1.0";
+    private static final String NS_NM = "http://www.medxml.net/MML/SharedComponent/Name/1.0";
+    private static final String NS_FC = "http://www.medxml.net/MML/SharedComponent/Facility/1.0";
+    private static final String NS_DP = "http://www.medxml.net/MML/SharedComponent/Department/1.0";
+    private static final String NS_PSI = "http://www.medxml.net/MML/SharedComponent/PersonalizedInfo/1.0";
+    private static final String NS_CI = "http://www.medxml.net/MML/SharedComponent/CreatorInfo/1.0";
+    private static final String NS_HI = "http://www.medxml.net/MML/ContentModule/HealthInsurance/1.1";
+    private static final String NS_CLAIM = "http://www.medxml.net/claim/claimModule/2.1";
+    private static final String NS_NONE = "";
+
+    private static final String MmlBody = "MmlBody";
+    private static final String MmlModuleItem = "MmlModuleItem";
+    private static final String docInfo = "docInfo";
+    private static final String content = "content";
+    private static final String contentModuleType = "contentModuleType";
+    private static final String patientInfo = "patientInfo";
+    private static final String healthInsurance = "healthInsurance";
+    private static final String e_claim = "claim";
+    private static final String P = "P";
+    private static final String I = "I";
+    private static final String A = "A";
+
+    private static final char FULL_SPACE = '　';
+    private static final char HALF_SPACE = ' ';
+
+    private static final XMLInputFactory FACTORY;
+    static {
+        FACTORY = XMLInputFactory.newInstance();
+        FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private PatientModel patientModel;
+
+    private AddressModel curAddress;
+
+    private TelephoneModel curTelephone;
+
+    private ArrayList<PVTHealthInsuranceModel> pvtInsurnaces;
+
+    private PVTHealthInsuranceModel curInsurance;
+
+    private PVTClaim pvtClaim;
+
+    private String curRepCode;
+
+    /**
+     * CLAIM 電文をパースする。
+     * @param reader 電文
+     * @throws XMLStreamException 電文が XML でない
+     */
+    public void parse(Reader reader) throws XMLStreamException {
+        XMLStreamReader r = FACTORY.createXMLStreamReader(reader);
+        try {
+            r.nextTag();
+            while (nextChild(r)) {
+                if (is(r, NS_NONE, MmlBody)) {
+                    parseBody(r);
+                } else {
+                    skip(r);
+                }
+            }
+        } finally {
+            r.close();
+        }
+    }
+
+    public PVTClaim getPvtClaim() {
+        return pvtClaim;
+    }
+
+    /**
+     * パース結果の PatientVisitModel を返す。
+     *
+     * @return 受付 受付登録（status=regist）以外の電文なら null
+     */
+    public PatientVisitModel getProduct() {
+
+        PatientVisitModel model = new PatientVisitModel();
+
+        if (patientModel != null) {
+
+            model.setPatientModel(patientModel);
+
+            // ORCA CLAIM 特有の処理を行う
+            // 全角のスペースを半角スペースに変換する
+            String fullName = patientModel.getFullName();
+            fullName = fullName.replace(FULL_SPACE, HALF_SPACE);
+            patientModel.setFullName(fullName);
+
+            // FamilyName と GivenName を設定する
+            int index = fullName.indexOf(HALF_SPACE);
+            if (patientModel.getFamilyName() == null && index > 0) {
+                patientModel.setFamilyName(fullName.substring(0, index));
+            }
+            if (patientModel.getGivenName() == null && index > 0) {
+                patientModel.setGivenName(fullName.substring(index+1));
+            }
+
+            // カナ
+            String kana = patientModel.getKanaName();
+            if (kana != null) {
+                kana = kana.replace(FULL_SPACE, HALF_SPACE);
+                patientModel.setKanaName(kana);
+
+                int index2 = kana.indexOf(HALF_SPACE);
+                if (patientModel.getKanaFamilyName() == null && index2 > 0) {
+                    patientModel.setKanaFamilyName(kana.substring(0, index2));
+                }
+                if (patientModel.getKanaGivenName() == null && index2 > 0) {
+                    patientModel.setKanaGivenName(kana.substring(index2+1));
+                }
+            }
+
+            // 住所をEmbedded に変換する
+            Collection<AddressModel> addresses = patientModel.getAddresses();
+            if (addresses != null && addresses.size() > 0) {
+                AddressModel bean = addresses.iterator().next();
+                String addr = bean.getAddress().replace(FULL_SPACE, HALF_SPACE);
+                addr = addr.replace('ー', '-');
+                SimpleAddressModel simple = new SimpleAddressModel();
+                simple.setZipCode(bean.getZipCode());
+                simple.setAddress(addr);
+                patientModel.setSimpleAddressModel(simple);
+            }
+
+            // 電話をフィールドにする
+            Collection<TelephoneModel> telephones = patientModel.getTelephones();
+            if (telephones != null) {
+                for (TelephoneModel bean : telephones) {
+                    // MEMO へ設定
+                    patientModel.setTelephone(bean.getMemo());
+                }
+            }
+
+            // 健康保険モジュールを PVTHealthInsuranceModel の XML バイトで保持する
+            if (pvtInsurnaces != null && pvtInsurnaces.size() > 0) {
+                for (PVTHealthInsuranceModel bean : pvtInsurnaces) {
+                    HealthInsuranceModel insModel = new HealthInsuranceModel();
+                    insModel.setBeanBytes(getXMLBytes(bean));
+                    patientModel.addHealthInsurance(insModel);
+                    insModel.setPatient(patientModel);
+                }
+            }
+        }
+
+        if (pvtClaim != null) {
+
+            // ORCA患者登録対応
+            if(pvtClaim.getClaimStatus() != null && pvtClaim.getClaimStatus().trim().equals("regist")) {
+                Logger.getLogger("open.dolphin").info("受付登録情報受信");
+            }else{
+                Logger.getLogger("open.dolphin").info("受付登録ではないため受信した情報を破棄");
+                return null;
+            }
+
+            model.setDeptCode(pvtClaim.getClaimDeptCode());             // 診療科コード
+            model.setDeptName(pvtClaim.getClaimDeptName());             // 診療科名
+            model.setDoctorId(pvtClaim.getAssignedDoctorId());          // 担当医コード
+            model.setDoctorName(pvtClaim.getAssignedDoctorName());      // 担当医名
+            model.setJmariNumber(pvtClaim.getJmariCode());              // JMARI
+            // (予定カルテ対応)
+            if (isAfterToday(pvtClaim.getClaimRegistTime())) {
+                model.setPvtDate(dateAsSchedule(pvtClaim.getClaimRegistTime())); // 受付登録日時
+            } else {
+                model.setPvtDate(pvtClaim.getClaimRegistTime());            // 受付登録日時
+            }
+            model.setInsuranceUid(pvtClaim.getInsuranceUid());          // UUID
+            if (pvtInsurnaces != null && pvtInsurnaces.size() > 0) {
+                PVTHealthInsuranceModel bean = pvtInsurnaces.get(0);    // 受付た保険情報の toString()
+                model.setFirstInsurance(bean.toString());
+            }
+        }
+
+        return model;
+    }
+
+    private void parseBody(XMLStreamReader r) throws XMLStreamException {
+        while (nextChild(r)) {
+            if (is(r, NS_NONE, MmlModuleItem)) {
+                parseModuleItem(r);
+            } else {
+                skip(r);
+            }
+        }
+    }
+
+    // MmlModuleItem = docInfo + content
+    private void parseModuleItem(XMLStreamReader r) throws XMLStreamException {
+        DocInfo info = null;
+        while (nextChild(r)) {
+            if (info == null && is(r, NS_NONE, docInfo)) {
+                info = parseDocInfo(r);
+            } else if (info != null && is(r, NS_NONE, content)) {
+                parseContent(r, info);
+            } else {
+                skip(r);
+            }
+        }
+    }
+
+    private DocInfo parseDocInfo(XMLStreamReader r) throws XMLStreamException {
+        DocInfo info = new DocInfo();
+        info.contentModuleType = r.getAttributeValue(null, contentModuleType);
+        while (nextChild(r)) {
+            if (is(r, NS_NONE, "docId")) {
+                while (nextChild(r)) {
+                    if (info.uid == null && is(r, NS_NONE, "uid")) {
+                        info.uid = readText(r);
+                    } else {
+                        skip(r);
+                    }
+                }
+            } else if (is(r, NS_CI, "CreatorInfo")) {
+                while (nextChild(r)) {
+                    if (is(r, NS_PSI, "PersonalizedInfo")) {
+                        parsePersonalizedInfo(r, info);
+                    } else {
+                        skip(r);
+                    }
+                }
+            } else {
+                skip(r);
+            }
+        }
+        return info;
+    }
+
+    // ClaimModule の DocInfo に含まれる担当医・施設・診療科
+    private void parsePersonalizedInfo(XMLStreamReader r, DocInfo info) throws XMLStreamException {
+        while (nextChild(r)) {
+            if (info.doctorId == null && is(r, NS_CM, "Id")) {
+                info.doctorId = readText(r);
+            } else if (is(r, NS_PSI, "personName")) {
+                boolean first = true;
+                while (nextChild(r)) {
+                    if (first && is(r, NS_NM, "Name")) {
+                        first = false;
+                        while (nextChild(r)) {
+                            if (info.doctorName == null && is(r, NS_NM, "fullname")) {
+                                info.doctorName = readText(r);
+                            } else {
+                                skip(r);
+                            }
+                        }
+                    } else {
+                        skip(r);
+                    }
+                }
+            } else if (is(r, NS_FC, "Facility")) {
+                while (nextChild(r)) {
+                    if (info.jmariCode == null && is(r, NS_CM, "Id")) {
+                        info.jmariCode = readText(r);
+                    } else {
+                        skip(r);
+                    }
+                }
+            } else if (is(r, NS_DP, "Department")) {
+                while (nextChild(r)) {
+                    if (info.deptName == null && is(r, NS_DP, "name")) {
+                        info.deptName = readText(r);
+                    } else if (info.deptCode == null && is(r, NS_CM, "Id")) {
+                        info.deptCode = readText(r);
+                    } else {
+                        skip(r);
+                    }
+                }
+            } else {
+                skip(r);
+            }
+        }
+    }
+
+    private void parseContent(XMLStreamReader r, DocInfo info) throws XMLStreamException {
+        String type = info.contentModuleType;
+        if (patientInfo.equals(type)) {
+            patientModel = new PatientModel();
+            while (nextChild(r)) {
+                parsePatientElement(r);
+            }
+
+        } else if (healthInsurance.equals(type)) {
+            if (pvtInsurnaces == null) {
+                pvtInsurnaces = new ArrayList<>();
+            }
+            curInsurance = new PVTHealthInsuranceModel();
+            curInsurance.setGUID(info.uid);
+            pvtInsurnaces.add(curInsurance);
+            boolean found = false;
+            while (nextChild(r)) {
+                if (!found && is(r, NS_HI, "HealthInsuranceModule")) {
+                    found = true;
+                    parseHealthInsurance(r);
+                } else {
+                    skip(r);
+                }
+            }
+            if (!found) {
+                Logger.getLogger("open.dolphin").fine("No HealthInsuranceModule");
+            }
+
+        } else if (e_claim.equals(type)) {
+            pvtClaim = new PVTClaim();
+            pvtClaim.setAssignedDoctorId(info.doctorId);
+            pvtClaim.setAssignedDoctorName(info.doctorName);
+            pvtClaim.setJmariCode(info.jmariCode);
+            pvtClaim.setClaimDeptName(info.deptName);
+            pvtClaim.setClaimDeptCode(info.deptCode);
+            parseClaim(r);
+            // 施設患者一括表示機能
+            if(patientModel != null) {
+                patientModel.setAppMemo(pvtClaim.getClaimAppMemo());
+            }
+
+        } else {
+            Logger.getLogger("open.dolphin").warning("Unknown attribute value : " + type);
+            skip(r);
+        }
+    }
+
+    /**
+     * 患者モジュールの要素。子孫を順に辿り、接頭辞付きの要素名で値を設定する。
+     */
+    private void parsePatientElement(XMLStreamReader r) throws XMLStreamException {
+        String qname = qname(r);
+        switch (qname) {
+            case "mmlNm:Name":
+                for (int i = 0; i < r.getAttributeCount(); i++) {
+                    if ("repCode".equals(r.getAttributeLocalName(i))) {
+                        curRepCode = r.getAttributeValue(i);
+                    }
+                }
+                break;
+            case "mmlAd:Address":
+                curAddress = new AddressModel();
+                patientModel.addAddress(curAddress);
+                for (int i = 0; i < r.getAttributeCount(); i++) {
+                    String attr = r.getAttributeLocalName(i);
+                    if ("addressClass".equals(attr)) {
+                        curRepCode = r.getAttributeValue(i);
+                        curAddress.setAddressType(r.getAttributeValue(i));
+                    } else if ("tableId".equals(attr)) {
+                        curAddress.setAddressTypeCodeSys(r.getAttributeValue(i));
+                    }
+                }
+                break;
+            case "mmlPh:Phone":
+                curTelephone = new TelephoneModel();
+                patientModel.addTelephone(curTelephone);
+                break;
+            default:
+                break;
+        }
+
+        // 直下のテキストを集めながら子要素を辿る
+        StringBuilder text = null;
+        while (true) {
+            int event = r.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                parsePatientElement(r);
+            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE) {
+                if (text == null) {
+                    text = new StringBuilder();
+                }
+                text.append(r.getText());
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+        }
+        String value = text != null ? text.toString().trim() : "";
+
+        switch (qname) {
+            case "mmlCm:Id":
+                patientModel.setPatientId(value);
+                break;
+            case "mmlNm:family":
+                if (curRepCode.equals(P)) {
+                    patientModel.setKanaFamilyName(value);
+                } else if (curRepCode.equals(I)) {
+                    patientModel.setFamilyName(value);
+                } else if (curRepCode.equals(A)) {
+                    patientModel.setRomanFamilyName(value);
+                }
+                break;
+            case "mmlNm:given":
+                if (curRepCode.equals(P)) {
+                    patientModel.setKanaGivenName(value);
+                } else if (curRepCode.equals(I)) {
+                    patientModel.setGivenName(value);
+                } else if (curRepCode.equals(A)) {
+                    patientModel.setRomanGivenName(value);
+                }
+                break;
+            case "mmlNm:fullname":
+                if (curRepCode.equals(P)) {
+                    patientModel.setKanaName(value);
+                } else if (curRepCode.equals(I)) {
+                    patientModel.setFullName(value);
+                } else if (curRepCode.equals(A)) {
+                    patientModel.setRomanName(value);
+                }
+                break;
+            case "mmlPi:birthday":
+                patientModel.setBirthday(value);
+                break;
+            case "mmlPi:sex":
+                patientModel.setGender(value);
+                break;
+            case "mmlAd:full":
+                curAddress.setAddress(value);
+                break;
+            case "mmlAd:zip":
+                curAddress.setZipCode(value);
+                break;
+            case "mmlPh:area":
+                curTelephone.setArea(value);
+                break;
+            case "mmlPh:city":
+                curTelephone.setCity(value);
+                break;
+            case "mmlPh:number":
+                curTelephone.setNumber(value);
+                break;
+            case "mmlPh:memo":
+                // ORCA
+                curTelephone.setMemo(value);
+                break;
+            default:
+                break;
+        }
+    }
+
+    // mmlHi:HealthInsuranceModule
+    private void parseHealthInsurance(XMLStreamReader r) throws XMLStreamException {
+        while (nextChild(r)) {
+            if (!NS_HI.equals(r.getNamespaceURI())) {
+                skip(r);
+                continue;
+            }
+            switch (r.getLocalName()) {
+                case "insuranceClass":
+                    String classCode = r.getAttributeValue(NS_HI, "ClassCode");
+                    String tableId = r.getAttributeValue(NS_HI, "tableId");
+                    curInsurance.setInsuranceClass(readText(r));
+                    if (classCode != null) {
+                        curInsurance.setInsuranceClassCode(classCode);
+                    }
+                    if (tableId != null) {
+                        curInsurance.setInsuranceClassCodeSys(tableId);
+                    }
+                    break;
+                case "insuranceNumber":
+                    curInsurance.setInsuranceNumber(readText(r));
+                    break;
+                case "clientId":
+                    while (nextChild(r)) {
+                        if (is(r, NS_HI, "group")) {
+                            curInsurance.setClientGroup(readText(r));
+                        } else if (is(r, NS_HI, "number")) {
+                            curInsurance.setClientNumber(readText(r));
+                        } else {
+                            skip(r);
+                        }
+                    }
+                    break;
+                case "familyClass":
+                    curInsurance.setFamilyClass(readText(r));
+                    break;
+                case "startDate":
+                    curInsurance.setStartDate(readText(r));
+                    break;
+                case "expiredDate":
+                    curInsurance.setExpiredDate(readText(r));
+                    break;
+                case "paymentInRatio":
+                    curInsurance.setPayInRatio(readText(r));
+                    break;
+                case "paymentOutRatio":
+                    curInsurance.setPayOutRatio(readText(r));
+                    break;
+                case "publicInsurance":
+                    while (nextChild(r)) {
+                        parsePublicInsuranceItem(r);
+                    }
+                    break;
+                default:
+                    skip(r);
+                    break;
+            }
+        }
+    }
+
+    // publicInsurance の子要素（publicInsuranceItem）
+    private void parsePublicInsuranceItem(XMLStreamReader r) throws XMLStreamException {
+        PVTPublicInsuranceItemModel item = new PVTPublicInsuranceItemModel();
+        curInsurance.addPvtPublicInsuranceItem(item);
+        String priority = r.getAttributeValue(NS_HI, "priority");
+        if (priority != null) {
+            item.setPriority(priority);
+        }
+        while (nextChild(r)) {
+            if (!NS_HI.equals(r.getNamespaceURI())) {
+                skip(r);
+                continue;
+            }
+            switch (r.getLocalName()) {
+                case "providerName":
+                    item.setProviderName(readText(r));
+                    break;
+                case "provider":
+                    item.setProvider(readText(r));
+                    break;
+                case "recipient":
+                    item.setRecipient(readText(r));
+                    break;
+                case "startDate":
+                    item.setStartDate(readText(r));
+                    break;
+                case "expiredDate":
+                    item.setExpiredDate(readText(r));
+                    break;
+                case "paymentRatio":
+                    String ratioType = r.getAttributeValue(NS_HI, "ratioType");
+                    item.setPaymentRatio(readText(r));
+                    if (ratioType != null) {
+                        item.setPaymentRatioType(ratioType);
+                    }
+                    break;
+                default:
+                    skip(r);
+                    break;
+            }
+        }
+    }
+
+    // claim:ClaimModule/claim:information
+    private void parseClaim(XMLStreamReader r) throws XMLStreamException {
+        while (nextChild(r)) {
+            if (!is(r, NS_CLAIM, "ClaimModule")) {
+                skip(r);
+                continue;
+            }
+            while (nextChild(r)) {
+                if (!is(r, NS_CLAIM, "information")) {
+                    skip(r);
+                    continue;
+                }
+                pvtClaim.setClaimStatus(r.getAttributeValue(NS_CLAIM, "status"));
+                pvtClaim.setClaimRegistTime(r.getAttributeValue(NS_CLAIM, "registTime"));
+                pvtClaim.setClaimAdmitFlag(r.getAttributeValue(NS_CLAIM, "admitFlag"));
+                pvtClaim.setInsuranceUid(r.getAttributeValue(NS_CLAIM, "insuranceUid"));
+                // 在宅関連(在宅患者登録)
+                while (nextChild(r)) {
+                    if (!is(r, NS_CLAIM, "appoint")) {
+                        skip(r);
+                        continue;
+                    }
+                    while (nextChild(r)) {
+                        if (is(r, NS_CLAIM, "memo")) {
+                            pvtClaim.setClaimAppMemo(readText(r));
+                        } else {
+                            skip(r);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    protected byte[] getXMLBytes(Object bean) {
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        XMLEncoder e = new XMLEncoder(new BufferedOutputStream(bo));
+        e.writeObject(bean);
+        e.close();
+        return bo.toByteArray();
+    }
+
+    // 現在の要素の次の子要素へ進む。親の終了タグに来たら false
+    private static boolean nextChild(XMLStreamReader r) throws XMLStreamException {
+        while (r.hasNext()) {
+            int event = r.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    // 現在の要素を読み飛ばす
+    private static void skip(XMLStreamReader r) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = r.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    // 現在の要素直下のテキスト（子要素の中は含めない）を trim して返す
+    private static String readText(XMLStreamReader r) throws XMLStreamException {
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            int event = r.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                skip(r);
+            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE) {
+                sb.append(r.getText());
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return sb.toString().trim();
+            }
+        }
+    }
+
+    private static boolean is(XMLStreamReader r, String ns, String localName) {
+        String uri = r.getNamespaceURI();
+        return localName.equals(r.getLocalName()) && ns.equals(uri != null ? uri : NS_NONE);
+    }
+
+    private static String qname(XMLStreamReader r) {
+        String prefix = r.getPrefix();
+        return prefix != null && !prefix.isEmpty() ? prefix + ":" + r.getLocalName() : r.getLocalName();
+    }
+
+    // (予定カルテ対応)
+    private boolean isAfterToday(String mmlDate) {
+        try {
+            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+            Date test = sdf.parse(mmlDate);
+            GregorianCalendar gc1 = new GregorianCalendar();
+            gc1.setTime(test);
+            gc1.clear(Calendar.HOUR_OF_DAY);
+            gc1.clear(Calendar.MINUTE);
+            gc1.clear(Calendar.SECOND);
+            gc1.clear(Calendar.MILLISECOND);
+            GregorianCalendar gc2 = new GregorianCalendar();
+            gc2.setTime(new Date());
+            gc2.clear(Calendar.HOUR_OF_DAY);
+            gc2.clear(Calendar.MINUTE);
+            gc2.clear(Calendar.SECOND);
+            gc2.clear(Calendar.MILLISECOND);
+            // 受付不具合修正
+            boolean after = false;
+            if(gc1.get(Calendar.YEAR) > gc2.get(Calendar.YEAR)) {
+                after = true;
+            }else if(gc1.get(Calendar.MONTH) > gc2.get(Calendar.MONTH)) {
+                after = true;
+            }else if(gc1.get(Calendar.DAY_OF_MONTH) > gc2.get(Calendar.DAY_OF_MONTH)) {
+                after = true;
+            }
+            return after;
+        } catch (ParseException ex) {
+        }
+        return false;
+    }
+
+    // (予定カルテ対応)
+    private String dateAsSchedule(String mmlDate) {
+        try {
+            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+            Date test = sdf.parse(mmlDate);
+            GregorianCalendar gc1 = new GregorianCalendar();
+            gc1.setTime(test);
+            gc1.set(Calendar.HOUR_OF_DAY, 0);
+            gc1.set(Calendar.MINUTE, 0);
+            gc1.set(Calendar.SECOND, 0);
+            gc1.set(Calendar.MILLISECOND, 0);
+            return sdf.format(gc1.getTime());
+        } catch (ParseException ex) {
+        }
+        return null;
+    }
+
+    // docInfo から必要な値
+    private static final class DocInfo {
+        private String contentModuleType;
+        private String uid;
+        private String doctorId;
+        private String doctorName;
+        private String jmariCode;
+        private String deptName;
+        private String deptCode;
+    }
+}
@@ -64,6 +64,12 @@ public class ChartEventModelConverter implements IInfoModelConverter {
     public String getFacilityId() {
         return model.getFacilityId();
     }
+    public long getSequence() {
+        return model.getSequence();
+    }
+    public String getEpoch() {
+        return model.getEpoch();
+    }
 
     @Override
     public void setModel(IInfoModel model) {
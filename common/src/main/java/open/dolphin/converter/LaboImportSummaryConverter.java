@@ -0,0 +1,59 @@
+package open.dolphin.converter;
+
+import open.dolphin.infomodel.IInfoModel;
+import open.dolphin.infomodel.LaboImportSummary;
+
+public final class LaboImportSummaryConverter implements IInfoModelConverter {
+    
+    private LaboImportSummary model;
+    
+    public String getPatientId() {
+        return model.getPatientId();
+    }
+    
+    public PatientModelConverter getPatient() {
+        if (model.getPatient()==null) {
+            return null;
+        }
+        PatientModelConverter con = new PatientModelConverter();
+        con.setModel(model.getPatient());
+        return con;
+    }
+    
+    public String getModuleKey() {
+        return model.getModuleKey();
+    }
+    
+    public long getModuleId() {
+        return model.getModuleId();
+    }
+    
+    public String getSetName() {
+        return model.getSetName();
+    }
+    
+    public String getSampleTime() {
+        return model.getSampleTime();
+    }
+    
+    public String getReportTime() {
+        return model.getReportTime();
+    }
+    
+    public String getReportStatus() {
+        return model.getReportStatus();
+    }
+    
+    public String getLaboratoryCenter() {
+        return model.getLaboratoryCenter();
+    }
+    
+    public String getResult() {
+        return model.getResult();
+    }
+    
+    @Override
+    public void setModel(IInfoModel model) {
+        this.model = (LaboImportSummary)model;
+    }
+}
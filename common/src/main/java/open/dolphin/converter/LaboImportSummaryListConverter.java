@@ -0,0 +1,34 @@
+package open.dolphin.converter;
+
+import java.util.ArrayList;
+import java.util.List;
+import open.dolphin.infomodel.IInfoModel;
+import open.dolphin.infomodel.LaboImportSummary;
+import open.dolphin.infomodel.LaboImportSummaryList;
+
+public class LaboImportSummaryListConverter implements IInfoModelConverter {
+    
+    private LaboImportSummaryList model;
+    
+    public List<LaboImportSummaryConverter> getList() {
+        
+        List<LaboImportSummary> list = model.getList();
+        if (list==null || list.isEmpty()) {
+            return null;
+        }
+        
+        List<LaboImportSummaryConverter> ret = new ArrayList<>(list.size());
+        for (LaboImportSummary m : list) {
+            LaboImportSummaryConverter con = new LaboImportSummaryConverter();
+            con.setModel(m);
+            ret.add(con);
+        }
+        
+        return ret;
+    }
+    
+    @Override
+    public void setModel(IInfoModel model) {
+        this.model = (LaboImportSummaryList)model;
+    }
+}
@@ -0,0 +1,145 @@
+package open.dolphin.infomodel;
+
+import java.io.Serializable;
+import java.util.Date;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.persistence.UniqueConstraint;
+
+/**
+ * 施設・日毎の利用件数（ActivityModel の集計用）。
+ * 患者・来院・カルテ等の登録・削除時に増減する。
+ * activityDate が null の行は、その施設の既存データを集計し終えた印。
+ */
+@Entity
+@Table(name = "d_activity_counter", uniqueConstraints = @UniqueConstraint(columnNames = {"facilityId", "activityDate"}))
+public class ActivityCounterModel implements Serializable {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private long id;
+
+    @Column(nullable = false)
+    private String facilityId;
+
+    @Temporal(value = TemporalType.DATE)
+    private Date activityDate;
+
+    // 新規患者（カルテを作った患者 カルテの作成日）
+    private long patients;
+
+    // 来院
+    private long patientVisits;
+
+    // カルテ（確定）
+    private long karte;
+
+    // 画像（確定）
+    private long images;
+
+    // 添付文書（確定）
+    private long attachments;
+
+    // 傷病名
+    private long diagnosis;
+
+    // 紹介状（確定）
+    private long letters;
+
+    // 検査（検体採取日）
+    private long labTests;
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getFacilityId() {
+        return facilityId;
+    }
+
+    public void setFacilityId(String facilityId) {
+        this.facilityId = facilityId;
+    }
+
+    public Date getActivityDate() {
+        return activityDate;
+    }
+
+    public void setActivityDate(Date activityDate) {
+        this.activityDate = activityDate;
+    }
+
+    public long getPatients() {
+        return patients;
+    }
+
+    public void setPatients(long patients) {
+        this.patients = patients;
+    }
+
+    public long getPatientVisits() {
+        return patientVisits;
+    }
+
+    public void setPatientVisits(long patientVisits) {
+        this.patientVisits = patientVisits;
+    }
+
+    public long getKarte() {
+        return karte;
+    }
+
+    public void setKarte(long karte) {
+        this.karte = karte;
+    }
+
+    public long getImages() {
+        return images;
+    }
+
+    public void setImages(long images) {
+        this.images = images;
+    }
+
+    public long getAttachments() {
+        return attachments;
+    }
+
+    public void setAttachments(long attachments) {
+        this.attachments = attachments;
+    }
+
+    public long getDiagnosis() {
+        return diagnosis;
+    }
+
+    public void setDiagnosis(long diagnosis) {
+        this.diagnosis = diagnosis;
+    }
+
+    public long getLetters() {
+        return letters;
+    }
+
+    public void setLetters(long letters) {
+        this.letters = letters;
+    }
+
+    public long getLabTests() {
+        return labTests;
+    }
+
+    public void setLabTests(long labTests) {
+        this.labTests = labTests;
+    }
+}
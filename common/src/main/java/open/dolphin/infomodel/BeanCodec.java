@@ -0,0 +1,563 @@
+package open.dolphin.infomodel;
+
+import java.beans.BeanInfo;
+import java.beans.ExceptionListener;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.beans.XMLDecoder;
+import java.beans.XMLEncoder;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ModuleModel.beanBytes 等に格納する InfoModel のバイナリコーデック。
+ *
+ * XMLEncoder と同じく JavaBeans のプロパティ（getter/setter の組）を対象とするが、
+ * 先頭にマジックとバージョンを持つコンパクトなバイナリで書き出す。
+ * decode はフォーマットを判別し、従来の XMLEncoder で保存されたデータも読める。
+ *
+ * フォーマット (version 1):
+ *   magic(0xD0 0x1F 'B' 'C') version(1byte) value
+ *   value = tag(1byte) + payload
+ *   クラス名・プロパティ名はデータ内の名前表で二回目以降は番号参照する。
+ *   null のプロパティは、引数なしコンストラクタで作った時に null でないものだけ T_NULL で書く。
+ */
+public final class BeanCodec {
+
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = {(byte)0xD0, (byte)0x1F, 'B', 'C'};
+
+    // デコード可能なクラスはこのパッケージ配下に限定する
+    private static final String ALLOWED_PACKAGE = "open.dolphin.";
+
+    private static final byte T_NULL = 0;
+    private static final byte T_STRING = 1;
+    private static final byte T_INT = 2;
+    private static final byte T_LONG = 3;
+    private static final byte T_FLOAT = 4;
+    private static final byte T_DOUBLE = 5;
+    private static final byte T_BOOLEAN = 6;
+    private static final byte T_DATE = 7;
+    private static final byte T_BEAN = 8;
+    private static final byte T_ARRAY = 9;
+    private static final byte T_LIST = 10;
+    private static final byte T_SHORT = 11;
+    private static final byte T_BYTES = 12;
+
+    // クラス毎の読み書き可能なプロパティ
+    private static final Map<Class<?>, PropertyDescriptor[]> PROPERTIES = new ConcurrentHashMap<Class<?>, PropertyDescriptor[]>();
+
+    private static final Map<Class<?>, Map<String, PropertyDescriptor>> PROPERTY_NAMES = new ConcurrentHashMap<Class<?>, Map<String, PropertyDescriptor>>();
+
+    // クラス毎 新しいインスタンスでプロパティが null でないか（properties の順）
+    private static final Map<Class<?>, boolean[]> NON_NULL_DEFAULTS = new ConcurrentHashMap<Class<?>, boolean[]>();
+
+    private BeanCodec() {
+    }
+
+    /**
+     * バイナリフォーマットかどうかを返す。
+     * @param bytes beanBytes
+     * @return バイナリフォーマットの場合 true
+     */
+    public static boolean isBinary(byte[] bytes) {
+        if (bytes==null || bytes.length < MAGIC.length+1) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[i]!=MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Bean をバイナリへエンコードする。
+     * バイナリで表現できない型を含む場合は XMLEncoder の出力を返す。
+     * @param bean 対象の Bean
+     * @return エンコードされたバイト配列
+     */
+    public static byte[] encode(Object bean) {
+        if (bean==null) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream bo = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bo);
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            new Writer(out).writeValue(bean);
+            out.flush();
+            return bo.toByteArray();
+        } catch (UnsupportedOperationException | IOException | ReflectiveOperationException e) {
+            return xmlEncode(bean);
+        }
+    }
+
+    /**
+     * フォーマットを判別して Bean へデコードする。
+     * @param bytes beanBytes
+     * @return デコードされた Bean
+     */
+    public static Object decode(byte[] bytes) {
+        if (bytes==null) {
+            return null;
+        }
+        if (!isBinary(bytes)) {
+            return xmlDecode(bytes);
+        }
+        int version = bytes[MAGIC.length] & 0xff;
+        if (version!=VERSION) {
+            throw new IllegalArgumentException("Unsupported bean codec version: " + version);
+        }
+        try {
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(bytes, MAGIC.length+1, bytes.length-MAGIC.length-1));
+            return new Reader(in).readValue(null);
+        } catch (IOException | ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Broken bean bytes", e);
+        }
+    }
+
+    /**
+     * decode と同じだが、XMLDecoder が途中で例外を報告した場合は欠けた Bean を返さずに例外を投げる。
+     * 移行のように読んだ結果を書き戻す時に使う。
+     * @param bytes beanBytes
+     * @return デコードされた Bean
+     * @throws IllegalArgumentException 読めなかった場合
+     */
+    public static Object decodeStrict(byte[] bytes) {
+        if (bytes==null || isBinary(bytes)) {
+            return decode(bytes);
+        }
+        final List<Exception> errors = new ArrayList<Exception>();
+        Object bean;
+        try (XMLDecoder d = new XMLDecoder(
+                new BufferedInputStream(
+                new ByteArrayInputStream(bytes)))) {
+            d.setExceptionListener(new ExceptionListener() {
+
+                @Override
+                public void exceptionThrown(Exception e) {
+                    errors.add(e);
+                }
+            });
+            bean = d.readObject();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Broken bean xml", e);
+        }
+        if (!errors.isEmpty()) {
+            throw new IllegalArgumentException("Broken bean xml: " + errors.size() + " errors", errors.get(0));
+        }
+        return bean;
+    }
+
+    /**
+     * 従来形式（XMLEncoder）でエンコードする。
+     * @param bean 対象の Bean
+     * @return XML バイト配列
+     */
+    public static byte[] xmlEncode(Object bean) {
+        ByteArrayOutputStream bo = new ByteArrayOutputStream();
+        try (XMLEncoder e = new XMLEncoder(new BufferedOutputStream(bo))) {
+            e.writeObject(bean);
+        }
+        return bo.toByteArray();
+    }
+
+    private static Object xmlDecode(byte[] bytes) {
+
+        // target should not be null でヌルポとか何とか…
+        ExceptionListener el = new ExceptionListener() {
+
+            @Override
+            public void exceptionThrown(Exception e) {
+            }
+        };
+
+        try (XMLDecoder d = new XMLDecoder(
+                new BufferedInputStream(
+                new ByteArrayInputStream(bytes)))) {
+            d.setExceptionListener(el);
+            return d.readObject();
+        }
+    }
+
+    private static PropertyDescriptor[] properties(Class<?> clazz) {
+        PropertyDescriptor[] ret = PROPERTIES.get(clazz);
+        if (ret!=null) {
+            return ret;
+        }
+        try {
+            BeanInfo info = Introspector.getBeanInfo(clazz, Object.class);
+            List<PropertyDescriptor> list = new ArrayList<PropertyDescriptor>();
+            for (PropertyDescriptor pd : info.getPropertyDescriptors()) {
+                if (pd.getReadMethod()!=null && pd.getWriteMethod()!=null && !Boolean.TRUE.equals(pd.getValue("transient"))) {
+                    list.add(pd);
+                }
+            }
+            ret = list.toArray(new PropertyDescriptor[list.size()]);
+        } catch (IntrospectionException e) {
+            throw new UnsupportedOperationException(clazz.getName(), e);
+        }
+        PROPERTIES.put(clazz, ret);
+        return ret;
+    }
+
+    private static boolean[] nonNullDefaults(Class<?> clazz) throws ReflectiveOperationException {
+        boolean[] ret = NON_NULL_DEFAULTS.get(clazz);
+        if (ret!=null) {
+            return ret;
+        }
+        PropertyDescriptor[] pds = properties(clazz);
+        Object bean = clazz.getConstructor().newInstance();
+        ret = new boolean[pds.length];
+        for (int i = 0; i < pds.length; i++) {
+            ret[i] = pds[i].getReadMethod().invoke(bean)!=null;
+        }
+        NON_NULL_DEFAULTS.put(clazz, ret);
+        return ret;
+    }
+
+    private static PropertyDescriptor property(Class<?> clazz, String name) {
+        Map<String, PropertyDescriptor> map = PROPERTY_NAMES.get(clazz);
+        if (map==null) {
+            map = new HashMap<String, PropertyDescriptor>();
+            for (PropertyDescriptor pd : properties(clazz)) {
+                map.put(pd.getName(), pd);
+            }
+            PROPERTY_NAMES.put(clazz, map);
+        }
+        return map.get(name);
+    }
+
+    private static Class<?> loadClass(String name) throws ClassNotFoundException {
+        if (!name.startsWith(ALLOWED_PACKAGE)) {
+            throw new ClassNotFoundException("Not allowed: " + name);
+        }
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        if (cl==null) {
+            cl = BeanCodec.class.getClassLoader();
+        }
+        return Class.forName(name, false, cl);
+    }
+
+    // loadComponentClass で読める配列の要素型か
+    private static boolean isSupportedComponent(Class<?> component) {
+        return component==String.class
+                || component==Object.class
+                || component==Date.class
+                || component.getName().startsWith(ALLOWED_PACKAGE);
+    }
+
+    private static Class<?> loadComponentClass(String name) throws ClassNotFoundException {
+        switch (name) {
+            case "java.lang.String":
+                return String.class;
+            case "java.lang.Object":
+                return Object.class;
+            case "java.util.Date":
+                return Date.class;
+            default:
+                return loadClass(name);
+        }
+    }
+
+    private static void writeSize(DataOutputStream out, int value) throws IOException {
+        // unsigned varint
+        while ((value & ~0x7f)!=0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readSize(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80)==0) {
+                return value;
+            }
+            shift += 7;
+            if (shift > 28) {
+                throw new IOException("Malformed size");
+            }
+        }
+    }
+
+    /**
+     * エンコーダ。名前表はデータ単位で持つ。
+     */
+    private static final class Writer {
+
+        private final DataOutputStream out;
+        private final Map<String, Integer> names = new HashMap<String, Integer>();
+
+        private Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        private void writeName(String name) throws IOException {
+            Integer index = names.get(name);
+            if (index!=null) {
+                writeSize(out, index + 1);
+                return;
+            }
+            names.put(name, names.size());
+            writeSize(out, 0);
+            writeString(name);
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] b = value.getBytes(StandardCharsets.UTF_8);
+            writeSize(out, b.length);
+            out.write(b);
+        }
+
+        private void writeValue(Object value) throws IOException, ReflectiveOperationException {
+
+            if (value==null) {
+                out.writeByte(T_NULL);
+
+            } else if (value instanceof String) {
+                out.writeByte(T_STRING);
+                writeString((String)value);
+
+            } else if (value instanceof Integer) {
+                out.writeByte(T_INT);
+                out.writeInt((Integer)value);
+
+            } else if (value instanceof Long) {
+                out.writeByte(T_LONG);
+                out.writeLong((Long)value);
+
+            } else if (value instanceof Float) {
+                out.writeByte(T_FLOAT);
+                out.writeFloat((Float)value);
+
+            } else if (value instanceof Double) {
+                out.writeByte(T_DOUBLE);
+                out.writeDouble((Double)value);
+
+            } else if (value instanceof Boolean) {
+                out.writeByte(T_BOOLEAN);
+                out.writeBoolean((Boolean)value);
+
+            } else if (value instanceof Short) {
+                out.writeByte(T_SHORT);
+                out.writeShort((Short)value);
+
+            } else if (value instanceof Date) {
+                out.writeByte(T_DATE);
+                out.writeLong(((Date)value).getTime());
+
+            } else if (value instanceof byte[]) {
+                byte[] b = (byte[])value;
+                out.writeByte(T_BYTES);
+                writeSize(out, b.length);
+                out.write(b);
+
+            } else if (value.getClass().isArray()) {
+                Class<?> component = value.getClass().getComponentType();
+                if (!isSupportedComponent(component)) {
+                    // Integer[] 等は読めないので XML にする
+                    throw new UnsupportedOperationException(component.getName());
+                }
+                int len = Array.getLength(value);
+                out.writeByte(T_ARRAY);
+                writeName(component.getName());
+                writeSize(out, len);
+                for (int i = 0; i < len; i++) {
+                    writeValue(Array.get(value, i));
+                }
+
+            } else if (value instanceof List) {
+                // PersistentBag 等も ArrayList として復元する
+                Collection<?> c = (Collection<?>)value;
+                out.writeByte(T_LIST);
+                writeSize(out, c.size());
+                for (Object o : c) {
+                    writeValue(o);
+                }
+
+            } else if (value.getClass().getName().startsWith(ALLOWED_PACKAGE)) {
+                writeBean(value);
+
+            } else {
+                throw new UnsupportedOperationException(value.getClass().getName());
+            }
+        }
+
+        private void writeBean(Object bean) throws IOException, ReflectiveOperationException {
+
+            // public な引数なしコンストラクタがなければ復元できない
+            boolean[] nonNullDefaults = nonNullDefaults(bean.getClass());
+
+            PropertyDescriptor[] pds = properties(bean.getClass());
+            Object[] values = new Object[pds.length];
+            boolean[] written = new boolean[pds.length];
+            int count = 0;
+            for (int i = 0; i < pds.length; i++) {
+                values[i] = pds[i].getReadMethod().invoke(bean);
+                // 既定値が null でないプロパティの null は書かないと既定値に戻る
+                written[i] = values[i]!=null || nonNullDefaults[i];
+                if (written[i]) {
+                    count++;
+                }
+            }
+
+            out.writeByte(T_BEAN);
+            writeName(bean.getClass().getName());
+            writeSize(out, count);
+            for (int i = 0; i < pds.length; i++) {
+                if (written[i]) {
+                    writeName(pds[i].getName());
+                    writeValue(values[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * デコーダ。
+     */
+    private static final class Reader {
+
+        private final DataInputStream in;
+        private final List<String> names = new ArrayList<String>();
+
+        private Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        private String readName() throws IOException {
+            int index = readSize(in);
+            if (index==0) {
+                String name = readString();
+                names.add(name);
+                return name;
+            }
+            if (index > names.size()) {
+                throw new IOException("Unknown name reference: " + index);
+            }
+            return names.get(index-1);
+        }
+
+        private String readString() throws IOException {
+            byte[] b = new byte[readSize(in)];
+            in.readFully(b);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @param type 代入先の型（不明な場合は null）
+         */
+        private Object readValue(Class<?> type) throws IOException, ReflectiveOperationException {
+
+            byte tag = in.readByte();
+
+            switch (tag) {
+                case T_NULL:
+                    return null;
+
+                case T_STRING:
+                    return readString();
+
+                case T_INT:
+                    return in.readInt();
+
+                case T_LONG:
+                    return in.readLong();
+
+                case T_FLOAT:
+                    return in.readFloat();
+
+                case T_DOUBLE:
+                    return in.readDouble();
+
+                case T_BOOLEAN:
+                    return in.readBoolean();
+
+                case T_SHORT:
+                    return in.readShort();
+
+                case T_DATE:
+                    long time = in.readLong();
+                    if (type==java.sql.Timestamp.class) {
+                        return new java.sql.Timestamp(time);
+                    } else if (type==java.sql.Date.class) {
+                        return new java.sql.Date(time);
+                    }
+                    return new Date(time);
+
+                case T_BYTES:
+                    byte[] b = new byte[readSize(in)];
+                    in.readFully(b);
+                    return b;
+
+                case T_ARRAY:
+                    Class<?> component = loadComponentClass(readName());
+                    int len = readSize(in);
+                    Object array = Array.newInstance(component, len);
+                    for (int i = 0; i < len; i++) {
+                        Array.set(array, i, readValue(component));
+                    }
+                    return array;
+
+                case T_LIST:
+                    int size = readSize(in);
+                    List<Object> list = new ArrayList<Object>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue(null));
+                    }
+                    return list;
+
+                case T_BEAN:
+                    return readBean();
+
+                default:
+                    throw new IOException("Unknown tag: " + tag);
+            }
+        }
+
+        private Object readBean() throws IOException, ReflectiveOperationException {
+
+            Class<?> clazz = loadClass(readName());
+            Object bean = clazz.getConstructor().newInstance();
+            int count = readSize(in);
+
+            for (int i = 0; i < count; i++) {
+                String name = readName();
+                PropertyDescriptor pd = property(clazz, name);
+                Object value = readValue(pd!=null ? pd.getPropertyType() : null);
+                if (pd!=null) {
+                    // モデルから削除されたプロパティは読み捨てる
+                    Method setter = pd.getWriteMethod();
+                    setter.invoke(bean, value);
+                }
+            }
+            return bean;
+        }
+    }
+}
@@ -33,6 +33,12 @@ public class ChartEventModel extends InfoModel implements java.io.Serializable {
     private long ptPk;
     private PatientModel patient;
     
+    // 施設毎にサーバーが振る通番 購読の再開位置に使う
+    private long sequence;
+    
+    // sequence を振ったキューの識別子 サーバーが再起動すると変わる
+    private String epoch;
+    
     //public static enum EVENT {PVT_STATE, PVT_ADD, PVT_DELETE, PVT_RENEW, PVT_MERGE, PM_MERGE};
     
     public ChartEventModel() {
@@ -96,6 +102,12 @@ public class ChartEventModel extends InfoModel implements java.io.Serializable {
     public void setFacilityId(String fid) {
         facilityId = fid;
     }
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+    public void setEpoch(String epoch) {
+        this.epoch = epoch;
+    }
     
     public int getEventType() {
         return eventType;
@@ -133,4 +145,10 @@ public class ChartEventModel extends InfoModel implements java.io.Serializable {
     public String getFacilityId() {
         return facilityId;
     }
+    public long getSequence() {
+        return sequence;
+    }
+    public String getEpoch() {
+        return epoch;
+    }
 }
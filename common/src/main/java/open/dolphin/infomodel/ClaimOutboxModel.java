@@ -0,0 +1,178 @@
+package open.dolphin.infomodel;
+
+import java.io.Serializable;
+import java.util.Date;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import org.hibernate.annotations.Type;
+
+/**
+ * ORCA へ送る CLAIM 電文の送信待ち行列。
+ * カルテ・傷病名の保存と同じトランザクションで作成し、サーバーの送信スレッドが送る。
+ */
+@Entity
+@Table(name = "d_claim_outbox")
+public class ClaimOutboxModel implements Serializable {
+
+    public static final String KIND_DOCUMENT = "document";
+    public static final String KIND_DIAGNOSIS = "diagnosis";
+
+    // 送信待ち・送信済み(ACK)・NAK・送信失敗・送ったが応答なし（ORCA に届いたか不明）・
+    // 送らずに対応済み（ORCA で直接入力した、届いていたのを確認した等）
+    public static final int STATUS_PENDING = 0;
+    public static final int STATUS_SENT = 1;
+    public static final int STATUS_NAK = 2;
+    public static final int STATUS_FAILED = 3;
+    public static final int STATUS_UNKNOWN = 4;
+    public static final int STATUS_DISCARDED = 5;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private long id;
+
+    @Column(nullable=false)
+    private String facilityId;
+
+    @Column(nullable=false)
+    private String patientId;
+
+    @Column(nullable=false)
+    private String kind;
+
+    // カルテの文書ID 傷病名は null
+    private String docId;
+
+    // 確定日 患者ID 氏名 性別（ログ・一覧表示用）
+    private String summary;
+
+    @Lob
+    @Type(type="org.hibernate.type.StringType")
+    private String message;
+
+    private int status;
+
+    private int attempts;
+
+    @Column(nullable=false)
+    @Temporal(value = TemporalType.TIMESTAMP)
+    private Date created;
+
+    @Temporal(value = TemporalType.TIMESTAMP)
+    private Date nextAttempt;
+
+    @Temporal(value = TemporalType.TIMESTAMP)
+    private Date sent;
+
+    private String lastError;
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getFacilityId() {
+        return facilityId;
+    }
+
+    public void setFacilityId(String facilityId) {
+        this.facilityId = facilityId;
+    }
+
+    public String getPatientId() {
+        return patientId;
+    }
+
+    public void setPatientId(String patientId) {
+        this.patientId = patientId;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public void setKind(String kind) {
+        this.kind = kind;
+    }
+
+    public String getDocId() {
+        return docId;
+    }
+
+    public void setDocId(String docId) {
+        this.docId = docId;
+    }
+
+    public String getSummary() {
+        return summary;
+    }
+
+    public void setSummary(String summary) {
+        this.summary = summary;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public void setCreated(Date created) {
+        this.created = created;
+    }
+
+    public Date getNextAttempt() {
+        return nextAttempt;
+    }
+
+    public void setNextAttempt(Date nextAttempt) {
+        this.nextAttempt = nextAttempt;
+    }
+
+    public Date getSent() {
+        return sent;
+    }
+
+    public void setSent(Date sent) {
+        this.sent = sent;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+}
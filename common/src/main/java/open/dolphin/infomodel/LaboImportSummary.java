@@ -6,10 +6,24 @@ import java.io.Serializable;
  * LaboImportSummary
  * 
  * @author Minagawa,Kazushi
+ * 
+ * 一括登録（/lab/module/bulk）の一モジュール毎の結果にも使う。
  */
-public class LaboImportSummary implements Serializable {
+public class LaboImportSummary extends InfoModel implements Serializable {
 	
     private static final long serialVersionUID = 8730078673332969884L;
+    
+    // 一括登録の結果 新規登録・再報告で置き換え・患者が登録されていない・失敗
+    // ・同じファイル内の後の報告があるので登録しなかった
+    public static final String RESULT_REGISTERED = "registered";
+    public static final String RESULT_REPLACED = "replaced";
+    public static final String RESULT_NO_PATIENT = "noPatient";
+    public static final String RESULT_ERROR = "error";
+    public static final String RESULT_DUPLICATE = "duplicate";
+    
+    private String moduleKey;
+    
+    private long moduleId;
 
     private String patientId;
 
@@ -39,15 +53,15 @@ public class LaboImportSummary implements Serializable {
     }
 
     public String getPatientBirthday() {
-            return this.getPatient().getBirthday();
+            return this.getPatient()!=null ? this.getPatient().getBirthday() : null;
     }
 
     public String getPatientGender() {
-            return this.getPatient().getGenderDesc();
+            return this.getPatient()!=null ? this.getPatient().getGenderDesc() : null;
     }
 
     public String getPatientName() {
-            return this.getPatient().getFullName();
+            return this.getPatient()!=null ? this.getPatient().getFullName() : null;
     }
 
 
@@ -84,6 +98,9 @@ public class LaboImportSummary implements Serializable {
     }
 
     public String getReportTime() {
+            if (reportTime == null) {
+                return null;
+            }
             int index = reportTime.indexOf('T');
             return index > 0 ? reportTime.substring(0, index) : reportTime;
     }
@@ -93,6 +110,9 @@ public class LaboImportSummary implements Serializable {
     }
 
     public String getSampleTime() {
+            if (sampleTime == null) {
+                return null;
+            }
             int index = sampleTime.indexOf('T');
             return index > 0 ? sampleTime.substring(0, index) : sampleTime;
     }
@@ -116,4 +136,28 @@ public class LaboImportSummary implements Serializable {
     public void setResult(String result) {
             this.result = result;
     }
+
+    public String getModuleKey() {
+            return moduleKey;
+    }
+
+    public void setModuleKey(String moduleKey) {
+            this.moduleKey = moduleKey;
+    }
+
+    public long getModuleId() {
+            return moduleId;
+    }
+
+    public void setModuleId(long moduleId) {
+            this.moduleId = moduleId;
+    }
+    
+    /**
+     * 登録できたかどうか
+     * @return 新規登録または置き換えなら true
+     */
+    public boolean isImported() {
+            return RESULT_REGISTERED.equals(result) || RESULT_REPLACED.equals(result);
+    }
 }
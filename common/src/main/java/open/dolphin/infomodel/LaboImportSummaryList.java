@@ -0,0 +1,18 @@
+package open.dolphin.infomodel;
+
+import java.util.List;
+
+public class LaboImportSummaryList extends InfoModel implements java.io.Serializable {
+    
+    private static final long serialVersionUID = -1449983666796416558L;
+    
+    private List<LaboImportSummary> list;
+
+    public List<LaboImportSummary> getList() {
+        return list;
+    }
+
+    public void setList(List<LaboImportSummary> list) {
+        this.list = list;
+    }
+}
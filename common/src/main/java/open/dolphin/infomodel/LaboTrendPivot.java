@@ -0,0 +1,53 @@
+package open.dolphin.infomodel;
+
+import java.util.List;
+
+/**
+ * 検査結果の表。列が検査結果のモジュール（検体採取日の昇順）、行が検査項目。
+ * 同じ検体採取日のモジュールはそれぞれ別の列になる。
+ */
+public class LaboTrendPivot implements java.io.Serializable {
+
+    // 施設ID:患者ID
+    private String patientId;
+
+    // 列の検体採取日
+    private List<String> sampleDates;
+
+    // 列のモジュールの pk
+    private List<Long> moduleIds;
+
+    private List<LaboTrendRow> rows;
+
+    public String getPatientId() {
+        return patientId;
+    }
+
+    public void setPatientId(String patientId) {
+        this.patientId = patientId;
+    }
+
+    public List<String> getSampleDates() {
+        return sampleDates;
+    }
+
+    public void setSampleDates(List<String> sampleDates) {
+        this.sampleDates = sampleDates;
+    }
+
+    public List<Long> getModuleIds() {
+        return moduleIds;
+    }
+
+    public void setModuleIds(List<Long> moduleIds) {
+        this.moduleIds = moduleIds;
+    }
+
+    public List<LaboTrendRow> getRows() {
+        return rows;
+    }
+
+    public void setRows(List<LaboTrendRow> rows) {
+        this.rows = rows;
+    }
+}
@@ -0,0 +1,121 @@
+package open.dolphin.infomodel;
+
+import java.util.List;
+
+/**
+ * 一検査項目の検査値の並び。
+ * 表（LaboTrendPivot）の一行の時は値が表の列（モジュール）に揃えてあり、ない所は null。
+ * 項目の履歴の時は sampleDates に検体採取日の昇順が入る。
+ */
+public class LaboTrendRow implements java.io.Serializable {
+
+    private String itemCode;
+
+    private String itemName;
+
+    private String groupCode;
+
+    private String parentCode;
+
+    private String unit;
+
+    private String normalValue;
+
+    private List<String> sampleDates;
+
+    private List<String> values;
+
+    private List<String> abnormalFlgs;
+
+    private List<Long> moduleIds;
+
+    private List<String> comments;
+
+    public String getItemCode() {
+        return itemCode;
+    }
+
+    public void setItemCode(String itemCode) {
+        this.itemCode = itemCode;
+    }
+
+    public String getItemName() {
+        return itemName;
+    }
+
+    public void setItemName(String itemName) {
+        this.itemName = itemName;
+    }
+
+    public String getGroupCode() {
+        return groupCode;
+    }
+
+    public void setGroupCode(String groupCode) {
+        this.groupCode = groupCode;
+    }
+
+    public String getParentCode() {
+        return parentCode;
+    }
+
+    public void setParentCode(String parentCode) {
+        this.parentCode = parentCode;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public void setUnit(String unit) {
+        this.unit = unit;
+    }
+
+    public String getNormalValue() {
+        return normalValue;
+    }
+
+    public void setNormalValue(String normalValue) {
+        this.normalValue = normalValue;
+    }
+
+    public List<String> getSampleDates() {
+        return sampleDates;
+    }
+
+    public void setSampleDates(List<String> sampleDates) {
+        this.sampleDates = sampleDates;
+    }
+
+    public List<String> getValues() {
+        return values;
+    }
+
+    public void setValues(List<String> values) {
+        this.values = values;
+    }
+
+    public List<String> getAbnormalFlgs() {
+        return abnormalFlgs;
+    }
+
+    public void setAbnormalFlgs(List<String> abnormalFlgs) {
+        this.abnormalFlgs = abnormalFlgs;
+    }
+
+    public List<Long> getModuleIds() {
+        return moduleIds;
+    }
+
+    public void setModuleIds(List<Long> moduleIds) {
+        this.moduleIds = moduleIds;
+    }
+
+    public List<String> getComments() {
+        return comments;
+    }
+
+    public void setComments(List<String> comments) {
+        this.comments = comments;
+    }
+}
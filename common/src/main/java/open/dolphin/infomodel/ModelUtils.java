@@ -1,9 +1,5 @@
 package open.dolphin.infomodel;
 
-import java.beans.ExceptionListener;
-import java.beans.XMLDecoder;
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -557,24 +553,19 @@ public class ModelUtils implements IInfoModel {
         return sb.toString();
     }
 
+    /**
+     * beanBytes を復元する。
+     * バイナリ形式（BeanCodec）と従来の XMLEncoder 形式のどちらも読める。
+     * @param bytes beanBytes
+     * @return 復元された Bean
+     */
     public static Object xmlDecode(byte[] bytes) {
         
         // target should not be null でヌルポとか何とか…
         // org.hibernate.collection.PersistentBag でヌルポとか何とか…
         // なんでやねん
-        ExceptionListener el = new ExceptionListener() {
-
-            public void exceptionThrown(Exception e) {
-            }
-        };
-
-        XMLDecoder d = new XMLDecoder(
-                new BufferedInputStream(
-                new ByteArrayInputStream(bytes)));
-        
-        d.setExceptionListener(el);
-        
-        return d.readObject();
+        // → XMLDecoder の ExceptionListener は BeanCodec 側で握りつぶす
+        return BeanCodec.decode(bytes);
     }
     
     public static String convertListLongToStr(List<Long> list){
@@ -0,0 +1,163 @@
+package open.dolphin.infomodel;
+
+import java.io.Serializable;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import javax.persistence.Version;
+import org.hibernate.annotations.Type;
+
+/**
+ * 患者・検査項目毎の検査値の時系列。
+ * NLaboItem を項目コード毎にまとめたもので、ラボモジュールの登録・削除時に更新する。
+ * series は一行一検査値 "検体採取日 TAB 値 TAB 異常フラグ TAB モジュールID TAB コメント" を検体採取日の昇順に並べたもの。
+ * 同じ series を二つのトランザクションが書き換えた時に片方が消えないよう version で楽観ロックする。
+ */
+@Entity
+@Table(name = "d_nlabo_trend", uniqueConstraints = @UniqueConstraint(columnNames = {"patientId", "itemCode"}))
+public class NLaboTrend implements Serializable {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    private long id;
+
+    @Version
+    private long version;
+
+    // 施設ID:患者ID
+    @Column(nullable = false)
+    private String patientId;
+
+    @Column(nullable = false)
+    private String itemCode;
+
+    // 以下は最新の検査値のもの
+    private String itemName;
+
+    private String groupCode;
+
+    private String parentCode;
+
+    private String sortKey;
+
+    private String unit;
+
+    private String normalValue;
+
+    private String lastSampleDate;
+
+    private int numPoints;
+
+    @Lob
+    @Type(type="org.hibernate.type.StringType")
+    private String series;
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public String getPatientId() {
+        return patientId;
+    }
+
+    public void setPatientId(String patientId) {
+        this.patientId = patientId;
+    }
+
+    public String getItemCode() {
+        return itemCode;
+    }
+
+    public void setItemCode(String itemCode) {
+        this.itemCode = itemCode;
+    }
+
+    public String getItemName() {
+        return itemName;
+    }
+
+    public void setItemName(String itemName) {
+        this.itemName = itemName;
+    }
+
+    public String getGroupCode() {
+        return groupCode;
+    }
+
+    public void setGroupCode(String groupCode) {
+        this.groupCode = groupCode;
+    }
+
+    public String getParentCode() {
+        return parentCode;
+    }
+
+    public void setParentCode(String parentCode) {
+        this.parentCode = parentCode;
+    }
+
+    public String getSortKey() {
+        return sortKey;
+    }
+
+    public void setSortKey(String sortKey) {
+        this.sortKey = sortKey;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public void setUnit(String unit) {
+        this.unit = unit;
+    }
+
+    public String getNormalValue() {
+        return normalValue;
+    }
+
+    public void setNormalValue(String normalValue) {
+        this.normalValue = normalValue;
+    }
+
+    public String getLastSampleDate() {
+        return lastSampleDate;
+    }
+
+    public void setLastSampleDate(String lastSampleDate) {
+        this.lastSampleDate = lastSampleDate;
+    }
+
+    public int getNumPoints() {
+        return numPoints;
+    }
+
+    public void setNumPoints(int numPoints) {
+        this.numPoints = numPoints;
+    }
+
+    public String getSeries() {
+        return series;
+    }
+
+    public void setSeries(String series) {
+        this.series = series;
+    }
+}
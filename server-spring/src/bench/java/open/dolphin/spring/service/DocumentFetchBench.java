@@ -0,0 +1,185 @@
+package open.dolphin.spring.service;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmark for loading the modules, schemas and attachments of a set of documents.
+ *
+ * Seeds an in-memory H2 database (PostgreSQL mode) with the d_document, d_module,
+ * d_image and d_attachment columns that KarteService reads, then loads the same
+ * document ids two ways:
+ *   1. per document: three queries for each document (the old KarteService.getDocuments)
+ *   2. IN-list: three queries per IN_LIST_SIZE documents, grouped by doc_id in memory
+ *      (KarteService.loadDocumentComponents)
+ * and prints the queries per request and the mean latency of each.
+ *
+ * H2 runs in process, so a query costs almost no round trip. Pass a simulated
+ * round trip in microseconds to see the effect of a database on another host.
+ *
+ * Not part of the application jar. Build with mvn -Pbench test-compile and run:
+ * java -cp target/classes:target/test-classes:h2.jar open.dolphin.spring.service.DocumentFetchBench
+ *      [documents per request [modules per document [rounds [round trip us]]]]
+ */
+public class DocumentFetchBench {
+
+    private static final int IN_LIST_SIZE = 500;
+
+    private static final int TOTAL_DOCUMENTS = 2000;
+
+    private static final String[] TABLES = {"d_module", "d_image", "d_attachment"};
+
+    private static int queries;
+
+    private static long roundTripNanos;
+
+    public static void main(String[] args) throws Exception {
+
+        int docsPerRequest = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        int modulesPerDoc = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        roundTripNanos = args.length > 3 ? Long.parseLong(args[3]) * 1000L : 0L;
+
+        try (Connection con = DriverManager.getConnection("jdbc:h2:mem:bench;MODE=PostgreSQL")) {
+            seed(con, modulesPerDoc);
+
+            List<Long> ids = new ArrayList<>();
+            for (long id = 1; id <= docsPerRequest; id++) {
+                ids.add(id * (TOTAL_DOCUMENTS / docsPerRequest));
+            }
+
+            // warm up both paths
+            for (int i = 0; i < rounds / 5; i++) {
+                perDocument(con, ids);
+                inList(con, ids);
+            }
+
+            report("per document", con, ids, rounds, false);
+            report("IN-list", con, ids, rounds, true);
+        }
+    }
+
+    private static void report(String name, Connection con, List<Long> ids, int rounds, boolean inList) throws SQLException {
+        queries = 0;
+        int rows = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            rows += inList ? inList(con, ids) : perDocument(con, ids);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-13s %d documents: %d queries/request, %.3f ms/request, %d rows/request%n",
+                name, ids.size(), queries / rounds, elapsed / 1e6 / rounds, rows / rounds);
+    }
+
+    private static int perDocument(Connection con, List<Long> ids) throws SQLException {
+        int rows = 0;
+        for (Long id : ids) {
+            for (String table : TABLES) {
+                try (PreparedStatement ps = con.prepareStatement(
+                        "select id, doc_id, bytes from " + table + " where doc_id = ? order by id")) {
+                    ps.setLong(1, id);
+                    rows += read(ps, null);
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static int inList(Connection con, List<Long> ids) throws SQLException {
+        Map<Long, List<byte[]>> byDocument = new HashMap<>();
+        for (Long id : ids) {
+            byDocument.put(id, new ArrayList<>());
+        }
+        int rows = 0;
+        for (int from = 0; from < ids.size(); from += IN_LIST_SIZE) {
+            List<Long> chunk = ids.subList(from, Math.min(from + IN_LIST_SIZE, ids.size()));
+            StringBuilder in = new StringBuilder();
+            for (int i = 0; i < chunk.size(); i++) {
+                in.append(i == 0 ? "?" : ",?");
+            }
+            for (String table : TABLES) {
+                try (PreparedStatement ps = con.prepareStatement(
+                        "select id, doc_id, bytes from " + table + " where doc_id in (" + in + ") order by id")) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        ps.setLong(i + 1, chunk.get(i));
+                    }
+                    rows += read(ps, byDocument);
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static int read(PreparedStatement ps, Map<Long, List<byte[]>> byDocument) throws SQLException {
+        queries++;
+        if (roundTripNanos > 0) {
+            long until = System.nanoTime() + roundTripNanos;
+            while (System.nanoTime() < until) {
+                Thread.onSpinWait();
+            }
+        }
+        int rows = 0;
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                byte[] bytes = rs.getBytes(3);
+                if (byDocument != null) {
+                    byDocument.get(rs.getLong(2)).add(bytes);
+                }
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    private static void seed(Connection con, int modulesPerDoc) throws SQLException {
+        try (Statement st = con.createStatement()) {
+            st.execute("create table d_document (id bigint primary key, karte_id bigint not null)");
+            for (String table : TABLES) {
+                st.execute("create table " + table + " (id bigint generated by default as identity primary key, doc_id bigint not null, bytes bytea)");
+                st.execute("create index " + table + "_doc_idx on " + table + " (doc_id)");
+            }
+        }
+        con.setAutoCommit(false);
+        byte[] moduleBytes = new byte[600];
+        byte[] imageBytes = new byte[20000];
+        try (PreparedStatement doc = con.prepareStatement("insert into d_document (id, karte_id) values (?, 1)");
+             PreparedStatement module = con.prepareStatement("insert into d_module (doc_id, bytes) values (?, ?)");
+             PreparedStatement image = con.prepareStatement("insert into d_image (doc_id, bytes) values (?, ?)");
+             PreparedStatement attachment = con.prepareStatement("insert into d_attachment (doc_id, bytes) values (?, ?)")) {
+            for (long id = 1; id <= TOTAL_DOCUMENTS; id++) {
+                doc.setLong(1, id);
+                doc.addBatch();
+                for (int m = 0; m < modulesPerDoc; m++) {
+                    module.setLong(1, id);
+                    module.setBytes(2, moduleBytes);
+                    module.addBatch();
+                }
+                // one document in five has a schema, one in twenty an attachment
+                if (id % 5 == 0) {
+                    image.setLong(1, id);
+                    image.setBytes(2, imageBytes);
+                    image.addBatch();
+                }
+                if (id % 20 == 0) {
+                    attachment.setLong(1, id);
+                    attachment.setBytes(2, imageBytes);
+                    attachment.addBatch();
+                }
+            }
+            doc.executeBatch();
+            module.executeBatch();
+            image.executeBatch();
+            attachment.executeBatch();
+        }
+        con.commit();
+        con.setAutoCommit(true);
+    }
+}
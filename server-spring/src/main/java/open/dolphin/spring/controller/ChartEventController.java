@@ -1,10 +1,14 @@
 package open.dolphin.spring.controller;
 
 import open.dolphin.spring.model.entity.*;
+import open.dolphin.spring.service.ChartEventEmitterRegistry;
 import open.dolphin.spring.service.ChartEventService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
 
@@ -19,6 +23,28 @@ public class ChartEventController {
     @Autowired
     private ChartEventService chartEventService;
 
+    @Autowired
+    private ChartEventEmitterRegistry emitterRegistry;
+
+    /**
+     * Subscribe to chart events of a facility as a Server-Sent Events stream.
+     * Each event is a ChartEventModel in JSON named "chartEvent"; events issued by
+     * the same clientUUID are not echoed back.
+     * @param facilityId facility ID
+     * @param clientUUID client UUID
+     * @return event stream, or 503 when the node has reached its subscriber limit
+     */
+    @GetMapping(value = "/subscribe", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> subscribe(
+            @RequestParam("fid") String facilityId,
+            @RequestHeader("clientUUID") String clientUUID) {
+        try {
+            return ResponseEntity.ok(emitterRegistry.subscribe(facilityId, clientUUID));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+    }
+
     /**
      * Process a chart event (PVT state changes, deletions, etc.).
      * @param event chart event to process
@@ -25,9 +25,10 @@ public class PatientController {
     @GetMapping("/name/{name}")
     public ResponseEntity<List<PatientModel>> getPatientsByName(
             @RequestParam("fid") String fid,
-            @PathVariable("name") String name) {
+            @PathVariable("name") String name,
+            @RequestParam(value = "insurances", defaultValue = "true") boolean insurances) {
 
-        List<PatientModel> patients = patientService.getPatientsByName(fid, name);
+        List<PatientModel> patients = patientService.getPatientsByName(fid, name, insurances);
         return ResponseEntity.ok(patients);
     }
 
@@ -37,9 +38,10 @@ public class PatientController {
     @GetMapping("/kana/{name}")
     public ResponseEntity<List<PatientModel>> getPatientsByKana(
             @RequestParam("fid") String fid,
-            @PathVariable("name") String name) {
+            @PathVariable("name") String name,
+            @RequestParam(value = "insurances", defaultValue = "true") boolean insurances) {
 
-        List<PatientModel> patients = patientService.getPatientsByKana(fid, name);
+        List<PatientModel> patients = patientService.getPatientsByKana(fid, name, insurances);
         return ResponseEntity.ok(patients);
     }
 
@@ -49,9 +51,10 @@ public class PatientController {
     @GetMapping("/digit/{digit}")
     public ResponseEntity<List<PatientModel>> getPatientsByDigit(
             @RequestParam("fid") String fid,
-            @PathVariable("digit") String digit) {
+            @PathVariable("digit") String digit,
+            @RequestParam(value = "insurances", defaultValue = "true") boolean insurances) {
 
-        List<PatientModel> patients = patientService.getPatientsByDigit(fid, digit);
+        List<PatientModel> patients = patientService.getPatientsByDigit(fid, digit, insurances);
         return ResponseEntity.ok(patients);
     }
 
@@ -73,9 +76,10 @@ public class PatientController {
     @GetMapping("/pvt/{date}")
     public ResponseEntity<List<PatientModel>> getPatientsByPvtDate(
             @RequestParam("fid") String fid,
-            @PathVariable("date") String date) {
+            @PathVariable("date") String date,
+            @RequestParam(value = "insurances", defaultValue = "true") boolean insurances) {
 
-        List<PatientModel> patients = patientService.getPatientsByPvtDate(fid, date);
+        List<PatientModel> patients = patientService.getPatientsByPvtDate(fid, date, insurances);
         return ResponseEntity.ok(patients);
     }
 
@@ -145,9 +149,10 @@ public class PatientController {
     @GetMapping("/custom/{param}")
     public ResponseEntity<List<PatientModel>> getPatientsByCustomSearch(
             @RequestParam("fid") String fid,
-            @PathVariable("param") String param) {
+            @PathVariable("param") String param,
+            @RequestParam(value = "insurances", defaultValue = "true") boolean insurances) {
 
-        List<PatientModel> patients = patientService.getCustom(fid, param);
+        List<PatientModel> patients = patientService.getCustom(fid, param, insurances);
         return ResponseEntity.ok(patients);
     }
 }
@@ -1,9 +1,5 @@
 package open.dolphin.spring.model.core;
 
-import java.beans.ExceptionListener;
-import java.beans.XMLDecoder;
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -11,6 +7,7 @@ import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
 
+import open.dolphin.infomodel.BeanCodec;
 import open.dolphin.spring.model.domain.medical.AttachmentModel;
 import open.dolphin.spring.model.domain.medical.ModuleModel;
 import open.dolphin.spring.model.domain.medical.SchemaModel;
@@ -574,24 +571,12 @@ public class ModelUtils implements IInfoModel {
         return sb.toString();
     }
 
+    /**
+     * beanBytes を復元する。
+     * バイナリ形式（BeanCodec）と従来の XMLEncoder 形式のどちらも読める。
+     */
     public static Object xmlDecode(byte[] bytes) {
-
-        // target should not be null でヌルポとか何とか…
-        // org.hibernate.collection.PersistentBag でヌルポとか何とか…
-        // なんでやねん
-        ExceptionListener el = new ExceptionListener() {
-
-            public void exceptionThrown(Exception e) {
-            }
-        };
-
-        XMLDecoder d = new XMLDecoder(
-                new BufferedInputStream(
-                        new ByteArrayInputStream(bytes)));
-
-        d.setExceptionListener(el);
-
-        return d.readObject();
+        return BeanCodec.decode(bytes);
     }
 
     public static String convertListLongToStr(List<Long> list) {
@@ -1,5 +1,6 @@
 package open.dolphin.spring.model.domain.appointment;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -40,9 +41,12 @@ public class ChartEventModel extends InfoModel {
     private String ownerUUID;
     private String facilityId;
 
+    // same property names as the client's ChartEventModel
+    @JsonProperty("patientVisitModel")
     private PatientVisitModel pvt;
 
     private long ptPk;
+    @JsonProperty("patientModel")
     private PatientModel patient;
 
     // public static enum EVENT {PVT_STATE, PVT_ADD, PVT_DELETE, PVT_RENEW,
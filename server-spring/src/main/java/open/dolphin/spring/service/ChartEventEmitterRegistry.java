@@ -0,0 +1,287 @@
+package open.dolphin.spring.service;
+
+import open.dolphin.spring.model.domain.appointment.ChartEventModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Server-Sent Events subscribers for chart events, keyed by facility id and client UUID.
+ * Connections are held by the servlet container's async support, so an idle subscriber
+ * costs one SseEmitter and no thread. A single daemon thread queues heartbeats so that
+ * dead connections are detected and dropped.
+ * <p>
+ * Each subscriber has its own bounded queue. Broadcasting only enqueues; a writer
+ * thread drains one subscriber's queue at a time, so its events stay in order and a
+ * stalled client holds at most the one writer that is blocked in its send. The writer
+ * pool grows while sends are blocked; when it is at its maximum, subscribers wait in a
+ * backlog for the next free writer. A subscriber whose queue is full, or whose send has
+ * not returned within the write timeout, is completed and removed; the client
+ * resubscribes and catches up from the event queue.
+ */
+@Component
+public class ChartEventEmitterRegistry {
+
+    private static final Logger logger = Logger.getLogger(ChartEventEmitterRegistry.class.getName());
+
+    public static final String EVENT_NAME = "chartEvent";
+
+    private final Map<String, Map<String, Subscriber>> emitters = new ConcurrentHashMap<>();
+
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+
+    private final int maxSubscribers;
+
+    private final long timeoutMillis;
+
+    private final int queueCapacity;
+
+    private final long writeTimeoutNanos;
+
+    private final ScheduledExecutorService heartbeat;
+
+    private final ThreadPoolExecutor writers;
+
+    private final AtomicInteger writerIndex = new AtomicInteger();
+
+    // subscribers with queued events that no writer could take
+    private final ConcurrentLinkedQueue<Subscriber> backlog = new ConcurrentLinkedQueue<>();
+
+    public ChartEventEmitterRegistry(
+            @Value("${dolphin.chartevent.max-subscribers:5000}") int maxSubscribers,
+            @Value("${dolphin.chartevent.timeout-ms:3600000}") long timeoutMillis,
+            @Value("${dolphin.chartevent.heartbeat-seconds:30}") long heartbeatSeconds,
+            @Value("${dolphin.chartevent.writer-threads:4}") int writerThreads,
+            @Value("${dolphin.chartevent.max-writer-threads:64}") int maxWriterThreads,
+            @Value("${dolphin.chartevent.queue-capacity:256}") int queueCapacity,
+            @Value("${dolphin.chartevent.write-timeout-ms:10000}") long writeTimeoutMillis) {
+        this.maxSubscribers = maxSubscribers;
+        this.timeoutMillis = timeoutMillis;
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+        int core = Math.max(1, writerThreads);
+        this.writers = new ThreadPoolExecutor(core, Math.max(core, maxWriterThreads),
+                60L, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            Thread t = new Thread(r, "chart-event-writer-" + writerIndex.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chart-event-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        if (heartbeatSeconds > 0) {
+            heartbeat.scheduleWithFixedDelay(this::sendHeartbeat, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Register a subscriber. A client that reconnects replaces its previous emitter.
+     * @param fid facility id
+     * @param clientUUID client UUID
+     * @return emitter to return from the controller
+     * @throws IllegalStateException when the node already holds maxSubscribers connections
+     */
+    public SseEmitter subscribe(String fid, String clientUUID) {
+        SseEmitter emitter = createEmitter(timeoutMillis);
+        Subscriber subscriber = new Subscriber(fid, clientUUID, emitter);
+        Map<String, Subscriber> facility = emitters.computeIfAbsent(fid, k -> new ConcurrentHashMap<>());
+
+        Subscriber old = facility.put(clientUUID, subscriber);
+        if (old != null) {
+            old.close();
+        } else if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            facility.remove(clientUUID, subscriber);
+            subscriberCount.decrementAndGet();
+            throw new IllegalStateException("Too many chart event subscribers: " + maxSubscribers);
+        }
+
+        emitter.onCompletion(() -> remove(subscriber));
+        emitter.onTimeout(() -> remove(subscriber));
+        emitter.onError(e -> remove(subscriber));
+        return emitter;
+    }
+
+    /**
+     * Queue the event for every subscriber of the facility except its issuer.
+     * Returns without writing; writer threads send it.
+     * @param evt chart event
+     * @return number of subscribers the event was queued for
+     */
+    public int broadcast(ChartEventModel evt) {
+        Map<String, Subscriber> facility = emitters.get(evt.getFacilityId());
+        if (facility == null) {
+            return 0;
+        }
+        int queued = 0;
+        for (Subscriber subscriber : facility.values()) {
+            if (!subscriber.clientUUID.equals(evt.getIssuerUUID())
+                    && subscriber.offer(SseEmitter.event().name(EVENT_NAME).data(evt, MediaType.APPLICATION_JSON))) {
+                queued++;
+            }
+        }
+        return queued;
+    }
+
+    public int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    protected SseEmitter createEmitter(long timeout) {
+        return new SseEmitter(timeout);
+    }
+
+    private void remove(Subscriber subscriber) {
+        Map<String, Subscriber> facility = emitters.get(subscriber.fid);
+        if (facility != null && facility.remove(subscriber.clientUUID, subscriber)) {
+            subscriberCount.decrementAndGet();
+        }
+    }
+
+    private void schedule(Subscriber subscriber) {
+        if (subscriber.scheduled.compareAndSet(false, true)) {
+            try {
+                writers.execute(() -> write(subscriber));
+            } catch (RejectedExecutionException e) {
+                // every writer is busy, or the registry is shut down
+                backlog.offer(subscriber);
+            }
+        }
+    }
+
+    private void write(Subscriber first) {
+        for (Subscriber subscriber = first; subscriber != null; subscriber = backlog.poll()) {
+            subscriber.drain();
+        }
+    }
+
+    // Also completes subscribers whose send has been blocked longer than the write timeout.
+    private void sendHeartbeat() {
+        long now = System.nanoTime();
+        for (Map<String, Subscriber> facility : emitters.values()) {
+            for (Subscriber subscriber : facility.values()) {
+                long since = subscriber.sendingSince;
+                if (since != 0L && now - since > writeTimeoutNanos) {
+                    logger.warning("ChartEventEmitterRegistry: write timed out, dropped " + subscriber.clientUUID);
+                    subscriber.close();
+                } else {
+                    subscriber.offer(SseEmitter.event().comment("ping"));
+                }
+            }
+        }
+        Subscriber waiting = backlog.poll();
+        if (waiting != null) {
+            try {
+                writers.execute(() -> write(waiting));
+            } catch (RejectedExecutionException e) {
+                backlog.offer(waiting);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        heartbeat.shutdownNow();
+        writers.shutdownNow();
+        for (Map<String, Subscriber> facility : emitters.values()) {
+            for (Subscriber subscriber : facility.values()) {
+                subscriber.emitter.complete();
+            }
+        }
+        emitters.clear();
+        logger.info("ChartEventEmitterRegistry: closed");
+    }
+
+    /**
+     * One connection and the events waiting to be written to it.
+     */
+    private final class Subscriber {
+
+        private final String fid;
+        private final String clientUUID;
+        private final SseEmitter emitter;
+        private final BlockingQueue<SseEmitter.SseEventBuilder> queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        // a writer is draining the queue, or it is in the backlog
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private volatile boolean closed;
+
+        // System.nanoTime() when the current send started, 0 when not sending
+        private volatile long sendingSince;
+
+        private Subscriber(String fid, String clientUUID, SseEmitter emitter) {
+            this.fid = fid;
+            this.clientUUID = clientUUID;
+            this.emitter = emitter;
+        }
+
+        /**
+         * @return false if the subscriber is closed, or was closed because its queue is full
+         */
+        private boolean offer(SseEmitter.SseEventBuilder event) {
+            if (closed) {
+                return false;
+            }
+            if (!queue.offer(event)) {
+                logger.warning("ChartEventEmitterRegistry: queue full, dropped " + clientUUID);
+                close();
+                return false;
+            }
+            schedule(this);
+            return true;
+        }
+
+        private void drain() {
+            while (!closed) {
+                SseEmitter.SseEventBuilder event = queue.poll();
+                if (event == null) {
+                    scheduled.set(false);
+                    // an offer may have raced with the reset
+                    if (queue.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                sendingSince = System.nanoTime();
+                try {
+                    emitter.send(event);
+                } catch (IOException | IllegalStateException e) {
+                    remove(this);
+                    closed = true;
+                    queue.clear();
+                    emitter.completeWithError(e);
+                    return;
+                } finally {
+                    sendingSince = 0L;
+                }
+            }
+        }
+
+        private void close() {
+            closed = true;
+            remove(this);
+            queue.clear();
+            emitter.complete();
+        }
+    }
+}
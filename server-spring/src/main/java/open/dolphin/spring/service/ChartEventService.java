@@ -3,6 +3,7 @@ package open.dolphin.spring.service;
 import open.dolphin.spring.model.domain.appointment.ChartEventModel;
 import open.dolphin.spring.model.domain.patient.PatientModel;
 import open.dolphin.spring.model.domain.patient.PatientVisitModel;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -24,23 +25,25 @@ public class ChartEventService {
     @PersistenceContext
     private EntityManager em;
 
-    private boolean DEBUG = false;
+    @Autowired
+    private ChartEventEmitterRegistry emitterRegistry;
 
-    // In Spring Boot, we'll use a simpler approach for event handling
-    // For now, we'll implement the core functionality without async context handling
+    private boolean DEBUG = false;
 
+    /**
+     * Push the event to the facility's Server-Sent Events subscribers, except its issuer.
+     */
     public void notifyEvent(ChartEventModel evt) {
-        // In Spring Boot, we could use WebSocket or Server-Sent Events
-        // For now, we'll implement a basic version
         String fid = evt.getFacilityId();
         if (fid == null) {
             logger.warning("Facility id is null.");
             return;
         }
 
-        // Log the event for debugging
+        int sent = emitterRegistry.broadcast(evt);
+
         if (DEBUG) {
-            logger.info("ChartEvent notified: " + evt.getEventType() + " for facility: " + fid);
+            logger.info("ChartEvent notified: " + evt.getEventType() + " for facility: " + fid + " to " + sent + " subscribers");
         }
     }
 
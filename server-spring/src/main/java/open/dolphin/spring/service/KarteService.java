@@ -33,9 +33,9 @@ public class KarteService {
 
     // Query constants
     private static final String QUERY_KARTE = "from KarteBean k where k.patient.id=:patientPk";
-    private static final String QUERY_ALLERGY = "from ObservationModel o where o.karte.id=:karteId and o.observation='Allergy'";
-    private static final String QUERY_BODY_HEIGHT = "from ObservationModel o where o.karte.id=:karteId and o.observation='PhysicalExam' and o.phenomenon='bodyHeight'";
-    private static final String QUERY_BODY_WEIGHT = "from ObservationModel o where o.karte.id=:karteId and o.observation='PhysicalExam' and o.phenomenon='bodyWeight'";
+    private static final String QUERY_KARTE_BY_PATIENT_PK = "from KarteBean k join fetch k.patient p where p.id=:patientPk";
+    private static final String QUERY_KARTE_BY_FID_PID = "from KarteBean k join fetch k.patient p where p.facilityId=:fid and p.patientId=:pid";
+    private static final String QUERY_KARTE_OBSERVATIONS = "from ObservationModel o where o.karte.id=:karteId and (o.observation='Allergy' or (o.observation='PhysicalExam' and o.phenomenon in ('bodyHeight','bodyWeight')))";
     private static final String QUERY_PATIENT_VISIT = "from PatientVisitModel p where p.patient.id=:patientPk and p.pvtDate >= :fromDate and p.status!=64";
     private static final String QUERY_DOC_INFO = "from DocumentModel d where d.karte.id=:karteId and d.started >= :fromDate and (d.status='F' or d.status='T')";
     private static final String QUERY_PATIENT_MEMO = "from PatientMemoModel p where p.karte.id=:karteId";
@@ -45,6 +45,10 @@ public class KarteService {
     private static final String QUERY_MODULE_BY_DOC_ID = "from ModuleModel m where m.document.id=:id order by m.id";
     private static final String QUERY_SCHEMA_BY_DOC_ID = "from SchemaModel i where i.document.id=:id order by i.id";
     private static final String QUERY_ATTACHMENT_BY_DOC_ID = "from AttachmentModel a where a.document.id=:id order by a.id";
+    private static final String QUERY_DOCUMENT_BY_IDS = "from DocumentModel d where d.id in (:ids)";
+    private static final String QUERY_MODULE_BY_DOC_IDS = "from ModuleModel m where m.document.id in (:ids) order by m.id";
+    private static final String QUERY_SCHEMA_BY_DOC_IDS = "from SchemaModel i where i.document.id in (:ids) order by i.id";
+    private static final String QUERY_ATTACHMENT_BY_DOC_IDS = "from AttachmentModel a where a.document.id in (:ids) order by a.id";
     private static final String QUERY_ATTACHMENT_BY_ID = "from AttachmentModel a where a.id=:id";
     private static final String QUERY_MODULE_BY_ENTITY = "from ModuleModel m where m.karte.id=:karteId and m.moduleInfo.entity=:entity and m.started between :fromDate and :toDate and m.status='F' order by m.started";
     private static final String QUERY_SCHEMA_BY_KARTE_ID = "from SchemaModel i where i.karte.id =:karteId and i.started between :fromDate and :toDate and i.status='F'";
@@ -58,10 +62,13 @@ public class KarteService {
     private static final String QUERY_LETTER_BY_ID = "from TouTouLetter t where t.id=:id";
     private static final String QUERY_REPLY_BY_ID = "from TouTouReply t where t.id=:id";
     private static final String QUERY_APPO_BY_KARTE_ID_PERIOD = "from AppointmentModel a where a.karte.id = :karteId and a.date between :fromDate and :toDate";
-    private static final String QUERY_PATIENT_BY_FID_PID = "from PatientModel p where p.facilityId=:fid and p.patientId=:pid";
     private static final String QUERY_LASTDOC_DATE = "select max(m.started) from DocumentModel m where m.karte.id = :karteId and (m.status = 'F' or m.status = 'T')";
     private static final String QUERY_FREEDOCU_BY_FPID = "from PatientFreeDocumentModel p where p.facilityPatId=:fpid";
     private static final String FPID = "fpid";
+    private static final String IDS = "ids";
+
+    // Maximum number of ids bound to a single IN clause
+    private static final int IN_LIST_SIZE = 500;
 
     @PersistenceContext
     private EntityManager em;
@@ -74,8 +81,8 @@ public class KarteService {
      */
     public KarteBean getKarte(long patientPK, Date fromDate) {
         try {
-            // Get karte
-            List<KarteBean> kartes = em.createQuery(QUERY_KARTE)
+            // Get karte together with its patient
+            List<KarteBean> kartes = em.createQuery(QUERY_KARTE_BY_PATIENT_PK)
                     .setParameter(PATIENT_PK, patientPK)
                     .getResultList();
 
@@ -83,28 +90,7 @@ public class KarteService {
                 return null;
             }
 
-            KarteBean karte = kartes.get(0);
-            long karteId = karte.getId();
-
-            // Load allergies
-            loadAllergies(karte, karteId);
-
-            // Load physical measurements
-            loadPhysicalMeasurements(karte, karteId);
-
-            // Load patient visits
-            loadPatientVisits(karte, patientPK, fromDate);
-
-            // Load document history
-            loadDocumentHistory(karte, karteId, fromDate);
-
-            // Load patient memos
-            loadPatientMemos(karte, karteId);
-
-            // Load last document date
-            loadLastDocumentDate(karte, karteId);
-
-            return karte;
+            return loadKarteSummary(kartes.get(0), fromDate);
 
         } catch (Exception e) {
             logger.warning("Error getting karte by PK: " + e.getMessage());
@@ -117,61 +103,68 @@ public class KarteService {
      */
     public KarteBean getKarte(String fid, String pid, Date fromDate) {
         try {
-            // Get patient
-            PatientModel patient = (PatientModel) em.createQuery(QUERY_PATIENT_BY_FID_PID)
+            // Get patient and karte in one statement
+            List<KarteBean> kartes = em.createQuery(QUERY_KARTE_BY_FID_PID)
                     .setParameter(FID, fid)
                     .setParameter(PID, pid)
-                    .getSingleResult();
-
-            long patientPK = patient.getId();
-
-            // Get karte
-            List<KarteBean> kartes = em.createQuery(QUERY_KARTE)
-                    .setParameter(PATIENT_PK, patientPK)
                     .getResultList();
 
             if (kartes.isEmpty()) {
                 return null;
             }
 
-            KarteBean karte = kartes.get(0);
-            long karteId = karte.getId();
-
-            // Load allergies
-            loadAllergies(karte, karteId);
+            return loadKarteSummary(kartes.get(0), fromDate);
 
-            // Load physical measurements
-            loadPhysicalMeasurements(karte, karteId);
+        } catch (Exception e) {
+            logger.warning("Error getting karte: " + e.getMessage());
+            return null;
+        }
+    }
 
-            // Load patient visits
-            loadPatientVisits(karte, patientPK, fromDate);
+    /**
+     * Fill the facets shown on chart open: allergies, heights, weights,
+     * visits, document history, memos and last document date.
+     * Allergies and physical measurements share one query, and the last
+     * document date is taken from the document history when it is not empty.
+     */
+    private KarteBean loadKarteSummary(KarteBean karte, Date fromDate) {
+        long karteId = karte.getId();
+        long patientPK = karte.getPatientModel().getId();
 
-            // Load document history
-            loadDocumentHistory(karte, karteId, fromDate);
+        // Load allergies and physical measurements
+        loadObservations(karte, karteId);
 
-            // Load patient memos
-            loadPatientMemos(karte, karteId);
+        // Load patient visits
+        loadPatientVisits(karte, patientPK, fromDate);
 
-            // Load last document date
-            loadLastDocumentDate(karte, karteId);
+        // Load document history
+        Date lastDocDate = loadDocumentHistory(karte, karteId, fromDate);
 
-            return karte;
+        // Load patient memos
+        loadPatientMemos(karte, karteId);
 
-        } catch (Exception e) {
-            logger.warning("Error getting karte: " + e.getMessage());
-            return null;
+        // Load last document date
+        if (lastDocDate != null) {
+            karte.setLastDocDate(lastDocDate);
+        } else {
+            loadLastDocumentDate(karte, karteId);
         }
+
+        return karte;
     }
 
-    private void loadAllergies(KarteBean karte, long karteId) {
-        List<ObservationModel> allergyObservations =
-                em.createQuery(QUERY_ALLERGY)
+    private void loadObservations(KarteBean karte, long karteId) {
+        List<ObservationModel> observations =
+                em.createQuery(QUERY_KARTE_OBSERVATIONS)
                   .setParameter(KARTE_ID, karteId)
                   .getResultList();
 
-        if (!allergyObservations.isEmpty()) {
-            List<AllergyModel> allergies = new ArrayList<>(allergyObservations.size());
-            for (ObservationModel observation : allergyObservations) {
+        List<AllergyModel> allergies = new ArrayList<>();
+        List<PhysicalModel> heights = new ArrayList<>();
+        List<PhysicalModel> weights = new ArrayList<>();
+
+        for (ObservationModel observation : observations) {
+            if ("Allergy".equals(observation.getObservation())) {
                 AllergyModel allergy = new AllergyModel();
                 allergy.setObservationId(observation.getId());
                 allergy.setFactor(observation.getPhenomenon());
@@ -179,40 +172,14 @@ public class KarteService {
                 allergy.setIdentifiedDate(observation.confirmDateAsString());
                 allergy.setMemo(observation.getMemo());
                 allergies.add(allergy);
-            }
-            karte.setAllergies(allergies);
-        }
-    }
-
-    private void loadPhysicalMeasurements(KarteBean karte, long karteId) {
-        // Load height data
-        List<ObservationModel> heightObservations =
-                em.createQuery(QUERY_BODY_HEIGHT)
-                  .setParameter(KARTE_ID, karteId)
-                  .getResultList();
-
-        if (!heightObservations.isEmpty()) {
-            List<PhysicalModel> heights = new ArrayList<>(heightObservations.size());
-            for (ObservationModel observation : heightObservations) {
+            } else if ("bodyHeight".equals(observation.getPhenomenon())) {
                 PhysicalModel physical = new PhysicalModel();
                 physical.setHeightId(observation.getId());
                 physical.setHeight(observation.getValue());
                 physical.setIdentifiedDate(observation.confirmDateAsString());
                 physical.setMemo(ModelUtils.getDateAsString(observation.getRecorded()));
                 heights.add(physical);
-            }
-            karte.setHeights(heights);
-        }
-
-        // Load weight data
-        List<ObservationModel> weightObservations =
-                em.createQuery(QUERY_BODY_WEIGHT)
-                  .setParameter(KARTE_ID, karteId)
-                  .getResultList();
-
-        if (!weightObservations.isEmpty()) {
-            List<PhysicalModel> weights = new ArrayList<>(weightObservations.size());
-            for (ObservationModel observation : weightObservations) {
+            } else {
                 PhysicalModel physical = new PhysicalModel();
                 physical.setWeightId(observation.getId());
                 physical.setWeight(observation.getValue());
@@ -220,6 +187,15 @@ public class KarteService {
                 physical.setMemo(ModelUtils.getDateAsString(observation.getRecorded()));
                 weights.add(physical);
             }
+        }
+
+        if (!allergies.isEmpty()) {
+            karte.setAllergies(allergies);
+        }
+        if (!heights.isEmpty()) {
+            karte.setHeights(heights);
+        }
+        if (!weights.isEmpty()) {
             karte.setWeights(weights);
         }
     }
@@ -240,21 +216,29 @@ public class KarteService {
         }
     }
 
-    private void loadDocumentHistory(KarteBean karte, long karteId, Date fromDate) {
+    /**
+     * @return the latest started date among the loaded documents, or null
+     */
+    private Date loadDocumentHistory(KarteBean karte, long karteId, Date fromDate) {
         List<DocumentModel> documents =
                 em.createQuery(QUERY_DOC_INFO)
                   .setParameter(KARTE_ID, karteId)
                   .setParameter(FROM_DATE, fromDate)
                   .getResultList();
 
+        Date lastDocDate = null;
         if (!documents.isEmpty()) {
             List<DocInfoModel> docInfos = new ArrayList<>(documents.size());
             for (DocumentModel doc : documents) {
                 doc.toDetuch();
                 docInfos.add(doc.getDocInfoModel());
+                if (lastDocDate == null || (doc.getStarted() != null && doc.getStarted().after(lastDocDate))) {
+                    lastDocDate = doc.getStarted();
+                }
             }
             karte.setDocInfoList(docInfos);
         }
+        return lastDocDate;
     }
 
     private void loadPatientMemos(KarteBean karte, long karteId) {
@@ -310,32 +294,28 @@ public class KarteService {
      * Get full documents with modules, schemas, and attachments.
      */
     public List<DocumentModel> getDocuments(List<Long> ids) {
-        List<DocumentModel> ret = new ArrayList<>();
-
-        for (Long id : ids) {
-            DocumentModel document = em.find(DocumentModel.class, id);
-
-            // Load modules
-            List<ModuleModel> modules = em.createQuery(QUERY_MODULE_BY_DOC_ID)
-                    .setParameter(ID, id)
-                    .getResultList();
-            document.setModules(modules);
-
-            // Load schemas
-            List<SchemaModel> schemas = em.createQuery(QUERY_SCHEMA_BY_DOC_ID)
-                    .setParameter(ID, id)
-                    .getResultList();
-            document.setSchema(schemas);
-
-            // Load attachments
-            List<AttachmentModel> attachments = em.createQuery(QUERY_ATTACHMENT_BY_DOC_ID)
-                    .setParameter(ID, id)
+        Map<Long, DocumentModel> found = new HashMap<>();
+        for (List<Long> chunk : chunks(ids)) {
+            List<DocumentModel> list = em.createQuery(QUERY_DOCUMENT_BY_IDS)
+                    .setParameter(IDS, chunk)
                     .getResultList();
-            document.setAttachment(attachments);
+            for (DocumentModel doc : list) {
+                found.put(doc.getId(), doc);
+            }
+        }
 
-            ret.add(document);
+        // Keep the requested order, skipping unknown ids
+        List<DocumentModel> ret = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            DocumentModel document = found.get(id);
+            if (document != null) {
+                ret.add(document);
+            }
         }
 
+        // Load modules, schemas and attachments for all documents at once
+        loadDocumentComponents(ret);
+
         // Detach documents for client use
         for (DocumentModel doc : ret) {
             doc.toDetuch();
@@ -600,9 +580,9 @@ public class KarteService {
 
             for (DocumentModel model : documents) {
                 model.toDetuch();
-                loadDocumentComponents(model);
-                result.add(model);
             }
+            loadDocumentComponents(documents);
+            result.addAll(documents);
 
         } catch (NoResultException e) {
             // No karte found for patient
@@ -611,34 +591,59 @@ public class KarteService {
         return result;
     }
 
-    private void loadDocumentComponents(DocumentModel model) {
-        long id = model.getId();
+    /**
+     * Load modules, schemas and attachments of the given documents with a
+     * constant number of queries per IN_LIST_SIZE documents, grouping the
+     * rows by document in memory.
+     */
+    private void loadDocumentComponents(List<DocumentModel> documents) {
+        Map<Long, List<ModuleModel>> modules = new HashMap<>();
+        Map<Long, List<SchemaModel>> schemas = new HashMap<>();
+        Map<Long, List<AttachmentModel>> attachments = new HashMap<>();
+        List<Long> ids = new ArrayList<>(documents.size());
 
-        try {
-            List modules = em.createQuery(QUERY_MODULE_BY_DOC_ID)
-                    .setParameter(ID, id)
-                    .getResultList();
-            model.setModules(modules);
-        } catch (NoResultException e) {
-            // No modules found
+        for (DocumentModel doc : documents) {
+            ids.add(doc.getId());
+            modules.put(doc.getId(), new ArrayList<>());
+            schemas.put(doc.getId(), new ArrayList<>());
+            attachments.put(doc.getId(), new ArrayList<>());
         }
 
-        try {
-            List schemas = em.createQuery(QUERY_SCHEMA_BY_DOC_ID)
-                    .setParameter(ID, id)
+        for (List<Long> chunk : chunks(ids)) {
+            List<ModuleModel> moduleList = em.createQuery(QUERY_MODULE_BY_DOC_IDS)
+                    .setParameter(IDS, chunk)
                     .getResultList();
-            model.setSchema(schemas);
-        } catch (NoResultException e) {
-            // No schemas found
-        }
+            for (ModuleModel module : moduleList) {
+                modules.get(module.getDocumentModel().getId()).add(module);
+            }
 
-        try {
-            List attachments = em.createQuery(QUERY_ATTACHMENT_BY_DOC_ID)
-                    .setParameter(ID, id)
+            List<SchemaModel> schemaList = em.createQuery(QUERY_SCHEMA_BY_DOC_IDS)
+                    .setParameter(IDS, chunk)
                     .getResultList();
-            model.setAttachment(attachments);
-        } catch (NoResultException e) {
-            // No attachments found
+            for (SchemaModel schema : schemaList) {
+                schemas.get(schema.getDocumentModel().getId()).add(schema);
+            }
+
+            List<AttachmentModel> attachmentList = em.createQuery(QUERY_ATTACHMENT_BY_DOC_IDS)
+                    .setParameter(IDS, chunk)
+                    .getResultList();
+            for (AttachmentModel attachment : attachmentList) {
+                attachments.get(attachment.getDocument().getId()).add(attachment);
+            }
         }
+
+        for (DocumentModel doc : documents) {
+            doc.setModules(modules.get(doc.getId()));
+            doc.setSchema(schemas.get(doc.getId()));
+            doc.setAttachment(attachments.get(doc.getId()));
+        }
+    }
+
+    private static List<List<Long>> chunks(List<Long> ids) {
+        List<List<Long>> ret = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += IN_LIST_SIZE) {
+            ret.add(ids.subList(i, Math.min(i + IN_LIST_SIZE, ids.size())));
+        }
+        return ret;
     }
 }
@@ -1,12 +1,12 @@
 package open.dolphin.spring.service;
 
+import open.dolphin.infomodel.BeanCodec;
 import open.dolphin.spring.model.entity.*;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
-import java.beans.XMLDecoder;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
@@ -597,9 +597,6 @@ public class MmlService {
     }
 
     private Object xmlDecode(byte[] bytes) {
-        XMLDecoder decoder = new XMLDecoder(
-            new BufferedInputStream(
-                new ByteArrayInputStream(bytes)));
-        return decoder.readObject();
+        return BeanCodec.decode(bytes);
     }
 }
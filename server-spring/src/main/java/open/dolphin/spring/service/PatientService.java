@@ -14,7 +14,6 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import jakarta.persistence.EntityManager;
-import jakarta.persistence.NoResultException;
 import jakarta.persistence.PersistenceContext;
 import java.util.*;
 
@@ -35,6 +34,9 @@ public class PatientService {
     private static final String QUERY_PATIENT_BY_ZIPCODE = "from PatientModel p where p.facilityId = :fid and p.address.zipCode like :zipCode";
     private static final String QUERY_INSURANCE_BY_PATIENT_PK = "from HealthInsuranceModel h where h.patient.id=:pk";
     private static final String QUERY_PATIENT_BY_APPMEMO = "from PatientModel p where p.facilityId = :fid and p.appMemo like :appMemo";
+    private static final String QUERY_INSURANCE_BY_PATIENT_PKS = "select h.patient.id, h from HealthInsuranceModel h where h.patient.id in (:ids)";
+    private static final String QUERY_LAST_PVTDATE_BY_PATIENT_PKS = "select p.patient.id, max(p.pvtDate) from PatientVisitModel p where p.facilityId=:fid and p.patient.id in (:ids) and p.status != :status group by p.patient.id";
+    private static final int IN_CLAUSE_SIZE = 500;
 
     private static final String PK = "pk";
     private static final String FID = "fid";
@@ -45,6 +47,7 @@ public class PatientService {
     private static final String DATE = "date";
     private static final String PERCENT = "%";
     private static final String APPMEMO = "appMemo";
+    private static final String IDS = "ids";
 
     @PersistenceContext
     private EntityManager em;
@@ -53,6 +56,13 @@ public class PatientService {
     private ChartEventService eventService;
 
     public List<PatientModel> getPatientsByName(String fid, String name) {
+        return getPatientsByName(fid, name, true);
+    }
+
+    /**
+     * @param withInsurances false to skip loading health insurances (list views)
+     */
+    public List<PatientModel> getPatientsByName(String fid, String name, boolean withInsurances) {
         List<PatientModel> ret = em.createQuery(QUERY_PATIENT_BY_NAME)
                 .setParameter(FID, fid)
                 .setParameter(NAME, name + PERCENT)
@@ -81,7 +91,9 @@ public class PatientService {
         }
 
         // 患者の健康保険を取得する
-        setHealthInsurances(ret);
+        if (withInsurances) {
+            setHealthInsurances(ret);
+        }
 
         // 最終受診日設定
         if (!ret.isEmpty()) {
@@ -92,6 +104,13 @@ public class PatientService {
     }
 
     public List<PatientModel> getPatientsByKana(String fid, String name) {
+        return getPatientsByKana(fid, name, true);
+    }
+
+    /**
+     * @param withInsurances false to skip loading health insurances (list views)
+     */
+    public List<PatientModel> getPatientsByKana(String fid, String name, boolean withInsurances) {
         List<PatientModel> ret = em.createQuery(QUERY_PATIENT_BY_KANA)
                 .setParameter(FID, fid)
                 .setParameter(NAME, name + PERCENT)
@@ -119,7 +138,9 @@ public class PatientService {
         }
 
         // 患者の健康保険を取得する
-        setHealthInsurances(ret);
+        if (withInsurances) {
+            setHealthInsurances(ret);
+        }
 
         // 最終受診日設定
         if (!ret.isEmpty()) {
@@ -130,6 +151,13 @@ public class PatientService {
     }
 
     public List<PatientModel> getPatientsByDigit(String fid, String digit) {
+        return getPatientsByDigit(fid, digit, true);
+    }
+
+    /**
+     * @param withInsurances false to skip loading health insurances (list views)
+     */
+    public List<PatientModel> getPatientsByDigit(String fid, String digit, boolean withInsurances) {
         List<PatientModel> ret = em.createQuery(QUERY_PATIENT_BY_FID_PID)
                 .setParameter(FID, fid)
                 .setParameter(PID, digit + PERCENT)
@@ -150,7 +178,9 @@ public class PatientService {
         }
 
         // 患者の健康保険を取得する
-        setHealthInsurances(ret);
+        if (withInsurances) {
+            setHealthInsurances(ret);
+        }
 
         // 最終受診日設定
         if (!ret.isEmpty()) {
@@ -161,6 +191,13 @@ public class PatientService {
     }
 
     public List<PatientModel> getPatientsByPvtDate(String fid, String pvtDate) {
+        return getPatientsByPvtDate(fid, pvtDate, true);
+    }
+
+    /**
+     * @param withInsurances false to skip loading health insurances (list views)
+     */
+    public List<PatientModel> getPatientsByPvtDate(String fid, String pvtDate, boolean withInsurances) {
         List<PatientVisitModel> list = em.createQuery(QUERY_PATIENT_BY_PVTDATE)
                 .setParameter(FID, fid)
                 .setParameter(DATE, pvtDate + PERCENT)
@@ -170,16 +207,14 @@ public class PatientService {
 
         for (PatientVisitModel pvt : list) {
             PatientModel patient = pvt.getPatientModel();
-            List<HealthInsuranceModel> insurances = (List<HealthInsuranceModel>) em
-                    .createQuery(QUERY_INSURANCE_BY_PATIENT_PK)
-                    .setParameter(PK, patient.getId()).getResultList();
-            patient.setHealthInsurances(insurances);
             ret.add(patient);
-
-            // 患者の健康保険を取得する
-            setHealthInsurances(patient);
             patient.setPvtDate(pvt.getPvtDate());
         }
+
+        // 患者の健康保険をまとめて取得する
+        if (withInsurances) {
+            setHealthInsurances(ret);
+        }
         return ret;
     }
 
@@ -276,21 +311,27 @@ public class PatientService {
         }
     }
 
+    // 最終受診日（キャンセル以外）を IN_CLAUSE_SIZE 件ずつまとめて取得する
     private void setPvtDate(String fid, List<PatientModel> list) {
-        final String sql = "from PatientVisitModel p where p.facilityId = :fid and p.patient.id = :patientPk "
-                + "and p.status != :status order by p.pvtDate desc";
-
+        Map<Long, String> lastVisit = new HashMap<>(list.size() * 2);
+        List<Long> pks = new ArrayList<>(list.size());
+        for (PatientModel patient : list) {
+            pks.add(patient.getId());
+        }
+        for (int i = 0; i < pks.size(); i += IN_CLAUSE_SIZE) {
+            List<Object[]> rows = em.createQuery(QUERY_LAST_PVTDATE_BY_PATIENT_PKS)
+                    .setParameter(FID, fid)
+                    .setParameter(IDS, pks.subList(i, Math.min(i + IN_CLAUSE_SIZE, pks.size())))
+                    .setParameter("status", -1)
+                    .getResultList();
+            for (Object[] row : rows) {
+                lastVisit.put((Long) row[0], (String) row[1]);
+            }
+        }
         for (PatientModel patient : list) {
-            try {
-                PatientVisitModel pvt = (PatientVisitModel) em.createQuery(sql)
-                        .setParameter("fid", fid)
-                        .setParameter("patientPk", patient.getId())
-                        .setParameter("status", -1)
-                        .setMaxResults(1)
-                        .getSingleResult();
-                patient.setPvtDate(pvt.getPvtDate());
-            } catch (NoResultException e) {
-                // No result found, continue
+            String pvtDate = lastVisit.get(patient.getId());
+            if (pvtDate != null) {
+                patient.setPvtDate(pvtDate);
             }
         }
     }
@@ -309,12 +350,27 @@ public class PatientService {
         return list;
     }
 
+    // 健康保険を IN_CLAUSE_SIZE 件ずつまとめて取得する
     protected void setHealthInsurances(Collection<PatientModel> list) {
-        if (list != null && !list.isEmpty()) {
-            for (PatientModel pm : list) {
-                setHealthInsurances(pm);
+        if (list == null || list.isEmpty()) {
+            return;
+        }
+        Map<Long, List<HealthInsuranceModel>> map = new HashMap<>(list.size() * 2);
+        for (PatientModel pm : list) {
+            map.put(pm.getId(), new ArrayList<>(2));
+        }
+        List<Long> pks = new ArrayList<>(map.keySet());
+        for (int i = 0; i < pks.size(); i += IN_CLAUSE_SIZE) {
+            List<Object[]> rows = em.createQuery(QUERY_INSURANCE_BY_PATIENT_PKS)
+                    .setParameter(IDS, pks.subList(i, Math.min(i + IN_CLAUSE_SIZE, pks.size())))
+                    .getResultList();
+            for (Object[] row : rows) {
+                map.get((Long) row[0]).add((HealthInsuranceModel) row[1]);
             }
         }
+        for (PatientModel pm : list) {
+            pm.setHealthInsurances(map.get(pm.getId()));
+        }
     }
 
     protected void setHealthInsurances(PatientModel pm) {
@@ -354,6 +410,10 @@ public class PatientService {
 
     // 患者検索(傷病名)
     public List<PatientModel> getCustom(String fid, String param) {
+        return getCustom(fid, param, true);
+    }
+
+    public List<PatientModel> getCustom(String fid, String param, boolean withInsurances) {
         List<PatientModel> ret = new ArrayList<>();
 
         final String DIAGNOSIS = "[D]";
@@ -397,7 +457,9 @@ public class PatientService {
             map.clear();
         }
 
-        this.setHealthInsurances(ret);
+        if (withInsurances) {
+            this.setHealthInsurances(ret);
+        }
 
         return ret;
     }
@@ -10,6 +10,7 @@ import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.web.servlet.MockMvc;
 
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -36,6 +37,18 @@ class PatientControllerTest {
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON));
     }
 
+    @Test
+    @WithMockUser(username = "admin", roles = {"USER"})
+    void getPatientsByName_shouldSkipInsurancesWhenRequested() throws Exception {
+        mockMvc.perform(get("/patient/name/john")
+                .param("fid", "1")
+                .param("insurances", "false")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        verify(patientService).getPatientsByName("1", "john", false);
+    }
+
     @Test
     @WithMockUser(username = "admin", roles = {"USER"})
     void getPatientsByKana_shouldReturnPatients() throws Exception {
@@ -0,0 +1,161 @@
+package open.dolphin.spring.model.core;
+
+import open.dolphin.infomodel.BeanCodec;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for BeanCodec.
+ */
+class BeanCodecTest {
+
+    @Test
+    void encode_shouldRoundTripNestedBeans() {
+        Bundle bundle = sampleBundle(30);
+
+        byte[] bytes = BeanCodec.encode(bundle);
+
+        assertTrue(BeanCodec.isBinary(bytes));
+        Bundle decoded = (Bundle) BeanCodec.decode(bytes);
+        assertEquals("内服１回等分", decoded.getAdmin());
+        assertEquals(30, decoded.getItems().length);
+        assertEquals("薬剤29", decoded.getItems()[29].getName());
+        assertEquals(1.5f, decoded.getItems()[29].getSuryo());
+        assertEquals(Arrays.asList("A", "B"), decoded.getItems()[3].getCodes());
+        assertEquals(bundle.getStarted(), decoded.getStarted());
+        assertNull(decoded.getMemo());
+    }
+
+    @Test
+    void decode_shouldReadLegacyXmlEncoderBytes() {
+        Bundle bundle = sampleBundle(3);
+
+        byte[] xml = BeanCodec.xmlEncode(bundle);
+
+        assertFalse(BeanCodec.isBinary(xml));
+        Bundle decoded = (Bundle) BeanCodec.decode(xml);
+        assertEquals(3, decoded.getItems().length);
+        assertEquals("薬剤2", decoded.getItems()[2].getName());
+    }
+
+    @Test
+    void encode_shouldBeSmallerThanXml() {
+        Bundle bundle = sampleBundle(30);
+
+        assertTrue(BeanCodec.encode(bundle).length * 4 < BeanCodec.xmlEncode(bundle).length);
+    }
+
+    @Test
+    void decode_shouldRejectClassesOutsideModelPackages() {
+        byte[] bytes = BeanCodec.encode(sampleBundle(1));
+        String s = new String(bytes, java.nio.charset.StandardCharsets.ISO_8859_1)
+                .replace("open.dolphin.", "java.lang.xx.");
+
+        assertThrows(IllegalArgumentException.class,
+                () -> BeanCodec.decode(s.getBytes(java.nio.charset.StandardCharsets.ISO_8859_1)));
+    }
+
+    @Test
+    void encode_shouldKeepNullOverNonNullDefault() {
+        Bundle bundle = sampleBundle(1);
+        bundle.setUnit(null);
+
+        Bundle decoded = (Bundle) BeanCodec.decode(BeanCodec.encode(bundle));
+
+        assertNull(decoded.getUnit());
+    }
+
+    @Test
+    void encode_shouldFallBackToXmlForUnreadableArrays() {
+        Bundle bundle = sampleBundle(1);
+        bundle.setCounts(new Integer[] {1, 2});
+
+        byte[] bytes = BeanCodec.encode(bundle);
+
+        assertFalse(BeanCodec.isBinary(bytes));
+        Bundle decoded = (Bundle) BeanCodec.decode(bytes);
+        assertArrayEquals(new Integer[] {1, 2}, decoded.getCounts());
+    }
+
+    @Test
+    void decodeStrict_shouldRejectXmlWithDecoderErrors() {
+        String xml = new String(BeanCodec.xmlEncode(sampleBundle(1)), java.nio.charset.StandardCharsets.UTF_8)
+                .replace("property=\"admin\"", "property=\"removed\"");
+
+        byte[] bytes = xml.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+
+        assertNotNull(BeanCodec.decode(bytes));
+        assertThrows(IllegalArgumentException.class, () -> BeanCodec.decodeStrict(bytes));
+    }
+
+    private Bundle sampleBundle(int count) {
+        Bundle bundle = new Bundle();
+        bundle.setAdmin("内服１回等分");
+        bundle.setBundleNumber("7");
+        bundle.setStarted(new Date(1700000000000L));
+        Item[] items = new Item[count];
+        for (int i = 0; i < count; i++) {
+            Item item = new Item();
+            item.setName("薬剤" + i);
+            item.setCode("6" + i);
+            item.setSuryo(1.5f);
+            item.setCodes(new ArrayList<>(Arrays.asList("A", "B")));
+            items[i] = item;
+        }
+        bundle.setItems(items);
+        return bundle;
+    }
+
+    public static class Bundle extends InfoModel {
+        private String admin;
+        private String bundleNumber;
+        private String memo;
+        private Date started;
+        private Item[] items;
+        private String unit = "錠";
+        private Integer[] counts;
+
+        public Bundle() {
+        }
+
+        public String getAdmin() { return admin; }
+        public void setAdmin(String admin) { this.admin = admin; }
+        public String getBundleNumber() { return bundleNumber; }
+        public void setBundleNumber(String bundleNumber) { this.bundleNumber = bundleNumber; }
+        public String getMemo() { return memo; }
+        public void setMemo(String memo) { this.memo = memo; }
+        public Date getStarted() { return started; }
+        public void setStarted(Date started) { this.started = started; }
+        public Item[] getItems() { return items; }
+        public void setItems(Item[] items) { this.items = items; }
+        public String getUnit() { return unit; }
+        public void setUnit(String unit) { this.unit = unit; }
+        public Integer[] getCounts() { return counts; }
+        public void setCounts(Integer[] counts) { this.counts = counts; }
+    }
+
+    public static class Item extends InfoModel {
+        private String name;
+        private String code;
+        private float suryo;
+        private List<String> codes;
+
+        public Item() {
+        }
+
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+        public String getCode() { return code; }
+        public void setCode(String code) { this.code = code; }
+        public float getSuryo() { return suryo; }
+        public void setSuryo(float suryo) { this.suryo = suryo; }
+        public List<String> getCodes() { return codes; }
+        public void setCodes(List<String> codes) { this.codes = codes; }
+    }
+}
@@ -0,0 +1,255 @@
+package open.dolphin.spring.service;
+
+import open.dolphin.spring.model.domain.appointment.ChartEventModel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit and load tests for ChartEventEmitterRegistry.
+ */
+class ChartEventEmitterRegistryTest {
+
+    private final AtomicInteger delivered = new AtomicInteger();
+
+    private CountingRegistry registry;
+
+    // sends to emitters created while this is set block until it is opened
+    private volatile CountDownLatch gate;
+
+    @AfterEach
+    void tearDown() {
+        if (registry != null) {
+            registry.shutdown();
+        }
+    }
+
+    @Test
+    void broadcast_shouldSkipIssuerAndOtherFacilities() throws Exception {
+        registry = new CountingRegistry(100);
+        registry.subscribe("F1", "client-a");
+        registry.subscribe("F1", "client-b");
+        registry.subscribe("F2", "client-c");
+
+        int sent = registry.broadcast(event("F1", "client-a"));
+
+        assertEquals(1, sent);
+        awaitDelivered(1);
+    }
+
+    @Test
+    void subscribe_shouldReplaceEmitterOfReconnectingClient() throws Exception {
+        registry = new CountingRegistry(100);
+        registry.subscribe("F1", "client-a");
+        registry.subscribe("F1", "client-a");
+
+        assertEquals(1, registry.getSubscriberCount());
+        assertEquals(1, registry.broadcast(event("F1", "other")));
+        awaitDelivered(1);
+    }
+
+    @Test
+    void subscribe_shouldRejectBeyondLimit() {
+        registry = new CountingRegistry(2);
+        registry.subscribe("F1", "client-a");
+        registry.subscribe("F1", "client-b");
+
+        assertThrows(IllegalStateException.class, () -> registry.subscribe("F1", "client-c"));
+        assertEquals(2, registry.getSubscriberCount());
+    }
+
+    @Test
+    void broadcast_shouldNotWaitForSlowSubscriber() throws Exception {
+        registry = new CountingRegistry(100);
+        CountDownLatch stalled = new CountDownLatch(1);
+        gate = stalled;
+        registry.subscribe("F1", "client-a");
+        gate = null;
+
+        long start = System.nanoTime();
+        assertEquals(1, registry.broadcast(event("F1", "other")));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsedMillis < 1000, "broadcast blocked for " + elapsedMillis + " ms");
+        assertEquals(0, delivered.get());
+        stalled.countDown();
+        awaitDelivered(1);
+    }
+
+    @Test
+    void broadcast_shouldNotHoldOtherSubscribersBehindStalledOnes() throws Exception {
+        registry = new CountingRegistry(100);
+        CountDownLatch stalled = new CountDownLatch(1);
+        // more stalled clients than core writer threads
+        gate = stalled;
+        for (int c = 0; c < 8; c++) {
+            registry.subscribe("F0", "stalled-" + c);
+        }
+        gate = null;
+        for (int f = 1; f <= 4; f++) {
+            registry.subscribe("F" + f, "client-" + f);
+            registry.subscribe("F0", "client-0-" + f);
+        }
+
+        registry.broadcast(event("F0", "other"));
+        for (int f = 1; f <= 4; f++) {
+            registry.broadcast(event("F" + f, "other"));
+        }
+
+        awaitDelivered(8);
+        stalled.countDown();
+        awaitDelivered(16);
+    }
+
+    @Test
+    void broadcast_shouldDropSubscriberWhoseQueueIsFull() throws Exception {
+        registry = new CountingRegistry(100, 4, 60000L);
+        CountDownLatch stalled = new CountDownLatch(1);
+        gate = stalled;
+        SseEmitter slow = registry.subscribe("F1", "client-a");
+        gate = null;
+        registry.subscribe("F1", "client-b");
+
+        // client-b keeps up, client-a holds its first event and queues the rest
+        for (int i = 0; i < 10; i++) {
+            registry.broadcast(event("F1", "other"));
+            awaitDelivered(i + 1);
+        }
+
+        assertEquals(1, registry.getSubscriberCount());
+        assertEquals(1, registry.broadcast(event("F1", "other")));
+        awaitDelivered(11);
+        stalled.countDown();
+        assertTrue(((TestEmitter) slow).completed);
+    }
+
+    @Test
+    void heartbeat_shouldDropSubscriberStalledBeyondWriteTimeout() throws Exception {
+        registry = new CountingRegistry(100, 16, 200L);
+        CountDownLatch stalled = new CountDownLatch(1);
+        gate = stalled;
+        registry.subscribe("F1", "client-a");
+        gate = null;
+        registry.subscribe("F1", "client-b");
+
+        registry.broadcast(event("F1", "other"));
+        awaitDelivered(1);
+
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (registry.getSubscriberCount() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(1, registry.getSubscriberCount());
+        stalled.countDown();
+    }
+
+    @Test
+    void broadcast_shouldReachThousandsOfIdleSubscribersConcurrently() throws Exception {
+        int facilities = 10;
+        int clientsPerFacility = 500;
+        int eventsPerFacility = 20;
+        registry = new CountingRegistry(facilities * clientsPerFacility);
+
+        for (int f = 0; f < facilities; f++) {
+            for (int c = 0; c < clientsPerFacility; c++) {
+                registry.subscribe("F" + f, "client-" + f + "-" + c);
+            }
+        }
+        assertEquals(facilities * clientsPerFacility, registry.getSubscriberCount());
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int f = 0; f < facilities; f++) {
+            String fid = "F" + f;
+            String issuer = "client-" + f + "-0";
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < eventsPerFacility; i++) {
+                    registry.broadcast(event(fid, issuer));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        awaitDelivered(facilities * eventsPerFacility * (clientsPerFacility - 1));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        pool.shutdown();
+
+        assertTrue(elapsedMillis < 30000, "broadcast took " + elapsedMillis + " ms");
+    }
+
+    private void awaitDelivered(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30000L;
+        while (delivered.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(expected, delivered.get());
+    }
+
+    private ChartEventModel event(String fid, String issuer) {
+        ChartEventModel evt = new ChartEventModel(issuer);
+        evt.setFacilityId(fid);
+        evt.setEventType(ChartEventModel.PVT_STATE);
+        return evt;
+    }
+
+    private class CountingRegistry extends ChartEventEmitterRegistry {
+
+        CountingRegistry(int maxSubscribers) {
+            super(maxSubscribers, 60000L, 0L, 4, 64, 256, 10000L);
+        }
+
+        // heartbeat every second to check the write timeout
+        CountingRegistry(int maxSubscribers, int queueCapacity, long writeTimeoutMillis) {
+            super(maxSubscribers, 60000L, writeTimeoutMillis < 10000L ? 1L : 0L, 4, 64, queueCapacity, writeTimeoutMillis);
+        }
+
+        @Override
+        protected SseEmitter createEmitter(long timeout) {
+            return new TestEmitter(timeout, gate);
+        }
+    }
+
+    private class TestEmitter extends SseEmitter {
+
+        private final CountDownLatch stalled;
+
+        private volatile boolean completed;
+
+        TestEmitter(long timeout, CountDownLatch stalled) {
+            super(timeout);
+            this.stalled = stalled;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            if (stalled != null) {
+                try {
+                    stalled.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            delivered.incrementAndGet();
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+            super.complete();
+        }
+    }
+}
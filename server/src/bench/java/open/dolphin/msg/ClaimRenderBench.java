@@ -0,0 +1,195 @@
+package open.dolphin.msg;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Properties;
+import open.dolphin.infomodel.BundleDolphin;
+import open.dolphin.infomodel.BundleMed;
+import open.dolphin.infomodel.ClaimItem;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+
+/**
+ * CLAIM 電文生成のマイクロベンチマーク。
+ *
+ * 処方・処置・検査のバンドルからなる一カルテ分の ClaimHelper を claimHelper.vm で
+ *   1. これまでの生成（テンプレートのキャッシュなし、StringWriter + BufferedWriter）
+ *   2. VelocityHelper.merge（解析済みテンプレート、呼び出し毎のバッファ）
+ *   3. これまでの MML の書き出し（String から getBytes して ByteBuffer）
+ *   4. VelocityHelper.mergeToBytes（String を作らずに UTF-8 へ）
+ * で生成し、一電文あたりの時間を表示する。
+ *
+ * テンプレートは jboss.home.dir/templates から読む。省略時はクライアントのテンプレートを使う。
+ * 製品の war には含めない。mvn -Pbench compile でビルドして実行する。
+ * java -cp target/classes:lib/* [-Djboss.home.dir=...] open.dolphin.msg.ClaimRenderBench [回数 [バンドル数]]
+ */
+public class ClaimRenderBench {
+
+    private static final String OBJECT_NAME = "claimHelper";
+    private static final String TEMPLATE_NAME = "claimHelper.vm";
+    private static final String TEMPLATE_ENC = "SHIFT_JIS";
+
+    public static void main(String[] args) throws Exception {
+
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int numBundles = args.length > 1 ? Integer.parseInt(args[1]) : 12;
+
+        if (System.getProperty("jboss.home.dir") == null) {
+            System.setProperty("jboss.home.dir", "../client/src/main/java/open/dolphin/resources");
+        }
+        String resDir = System.getProperty("jboss.home.dir") + File.separator + "templates";
+
+        // これまでの VelocityHelper の設定（キャッシュなし）
+        Properties p = new Properties();
+        p.setProperty("file.resource.loader.path", resDir);
+        VelocityEngine uncached = new VelocityEngine();
+        uncached.init(p);
+
+        ClaimHelper helper = createHelper(numBundles);
+
+        // 同じ電文になること
+        String a = mergeUncached(uncached, helper);
+        String b = VelocityHelper.merge(TEMPLATE_NAME, TEMPLATE_ENC, OBJECT_NAME, helper);
+        ByteBuffer c = VelocityHelper.mergeToBytes(TEMPLATE_NAME, TEMPLATE_ENC, OBJECT_NAME, helper, StandardCharsets.UTF_8);
+        byte[] cb = new byte[c.remaining()];
+        c.get(cb);
+        if (!a.equals(b) || !Arrays.equals(a.getBytes(StandardCharsets.UTF_8), cb)) {
+            throw new IllegalStateException("different output");
+        }
+
+        for (int pass = 0; pass < 2; pass++) {
+            String label = pass == 0 ? "warmup  " : "measure ";
+
+            long t = System.nanoTime();
+            long len = 0L;
+            for (int r = 0; r < rounds; r++) {
+                len += mergeUncached(uncached, helper).length();
+            }
+            print(label + "uncached string", System.nanoTime() - t, rounds, len);
+
+            t = System.nanoTime();
+            len = 0L;
+            for (int r = 0; r < rounds; r++) {
+                len += VelocityHelper.merge(TEMPLATE_NAME, TEMPLATE_ENC, OBJECT_NAME, helper).length();
+            }
+            print(label + "cached string  ", System.nanoTime() - t, rounds, len);
+
+            t = System.nanoTime();
+            len = 0L;
+            for (int r = 0; r < rounds; r++) {
+                len += ByteBuffer.wrap(mergeUncached(uncached, helper).getBytes(StandardCharsets.UTF_8)).remaining();
+            }
+            print(label + "uncached bytes ", System.nanoTime() - t, rounds, len);
+
+            t = System.nanoTime();
+            len = 0L;
+            for (int r = 0; r < rounds; r++) {
+                len += VelocityHelper.mergeToBytes(TEMPLATE_NAME, TEMPLATE_ENC, OBJECT_NAME, helper, StandardCharsets.UTF_8).remaining();
+            }
+            print(label + "cached bytes   ", System.nanoTime() - t, rounds, len);
+        }
+    }
+
+    // ClaimSender がこれまで行っていた生成
+    private static String mergeUncached(VelocityEngine engine, ClaimHelper helper) throws Exception {
+        VelocityContext context = new VelocityContext();
+        context.put(OBJECT_NAME, helper);
+        StringWriter sw = new StringWriter();
+        BufferedWriter bw = new BufferedWriter(sw);
+        engine.mergeTemplate(TEMPLATE_NAME, TEMPLATE_ENC, context, bw);
+        bw.flush();
+        bw.close();
+        return sw.toString();
+    }
+
+    private static void print(String label, long nanos, int count, long len) {
+        System.out.println(String.format("%s %8.2f us/message  (%d messages, %d chars or bytes)", label, nanos / 1000.0 / count, count, len));
+    }
+
+    private static ClaimHelper createHelper(int numBundles) {
+        ClaimHelper helper = new ClaimHelper();
+        helper.setConfirmDate("2026-10-18T10:15:00");
+        helper.setCreatorDeptDesc("内科");
+        helper.setCreatorDept("01");
+        helper.setCreatorName("青木 太郎");
+        helper.setCreatorId("10001");
+        helper.setCreatorLicense("doctor");
+        helper.setJmariCode("JPN000000000000");
+        helper.setFacilityName("オープンドルフィン医院");
+        helper.setPatientId("00012345");
+        helper.setGenerationPurpose("claim");
+        helper.setDocId("0123456789abcdef0123456789abcdef");
+        helper.setHealthInsuranceGUID("fedcba9876543210fedcba9876543210");
+        helper.setHealthInsuranceClassCode("060");
+        helper.setHealthInsuranceDesc("国保");
+        for (int i = 0; i < numBundles; i++) {
+            switch (i % 3) {
+                case 0:
+                    helper.addClaimBundle(createMed(i));
+                    break;
+                case 1:
+                    helper.addClaimBundle(createTreatment(i));
+                    break;
+                default:
+                    helper.addClaimBundle(createLabo());
+                    break;
+            }
+        }
+        return helper;
+    }
+
+    private static BundleMed createMed(int n) {
+        BundleMed med = new BundleMed();
+        med.setClassCode("212");
+        med.setClassName("内服薬（定時）");
+        med.setAdmin("内服３回 毎食後");
+        med.setAdminCode("1013044400000000");
+        med.setBundleNumber(String.valueOf(7 + n % 7));
+        med.addClaimItem(item("620000519", "ロキソニン錠６０ｍｇ", "3", "錠"));
+        med.addClaimItem(item("620002023", "ムコスタ錠１００ｍｇ", "3", "錠"));
+        med.addClaimItem(item("620004893", "メチコバール錠５００μｇ", "3", "錠"));
+        return med;
+    }
+
+    private static BundleDolphin createTreatment(int n) {
+        BundleDolphin bundle = new BundleDolphin();
+        bundle.setOrderName("処置");
+        bundle.setClassCode("400");
+        bundle.setClassName("処置");
+        bundle.setBundleNumber("1");
+        bundle.addClaimItem(item("140000610", "創傷処置（１００ｃｍ２未満）", null, null));
+        bundle.addClaimItem(item("620009041", "ゲンタシン軟膏０．１％", "2", "ｇ"));
+        bundle.setMemo(n % 2 == 0 ? "右下腿" : null);
+        return bundle;
+    }
+
+    private static BundleDolphin createLabo() {
+        BundleDolphin bundle = new BundleDolphin();
+        bundle.setOrderName("検体検査");
+        bundle.setClassCode("600");
+        bundle.setClassName("検査");
+        bundle.setBundleNumber("1");
+        String[][] items = {
+            {"160008010", "末梢血液一般検査"}, {"160019410", "ＡＳＴ"}, {"160019210", "ＡＬＴ"},
+            {"160020410", "γ－ＧＴ"}, {"160022510", "ＢＵＮ"}, {"160022610", "クレアチニン"}
+        };
+        for (String[] i : items) {
+            bundle.addClaimItem(item(i[0], i[1], null, null));
+        }
+        return bundle;
+    }
+
+    private static ClaimItem item(String code, String name, String number, String unit) {
+        ClaimItem item = new ClaimItem();
+        item.setCode(code);
+        item.setName(name);
+        item.setNumber(number);
+        item.setUnit(unit);
+        item.setClassCode("0");
+        return item;
+    }
+}
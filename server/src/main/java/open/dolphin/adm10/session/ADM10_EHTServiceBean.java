@@ -6,6 +6,7 @@ package open.dolphin.adm10.session;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -35,6 +36,7 @@ import open.dolphin.infomodel.SchemaModel;
 import open.dolphin.infomodel.StampModel;
 import open.dolphin.infomodel.StampTreeModel;
 import open.dolphin.infomodel.VitalModel;
+import open.dolphin.session.DocumentLoader;
 
 /**
  *
@@ -244,26 +246,8 @@ public class ADM10_EHTServiceBean {
                                        .setParameter("pk", docPk)
                                        .getSingleResult();
         
-        // module
-        List<ModuleModel> modules =
-                em.createQuery(QUERY_MODULE_BY_DOCUMENT)
-                  .setParameter("id", ret.getId())
-                  .getResultList();
-
-        ret.setModules(modules);
-
-        // SchemaModel を取得する
-        List<SchemaModel> images =
-                em.createQuery(QUERY_SCHEMA_BY_DOCUMENT)
-                  .setParameter("id", ret.getId())
-                  .getResultList();
-        ret.setSchema(images);
-        
-        // AttachmentModel を取得する
-            List attachments = em.createQuery(QUERY_ATTACHMENT_BY_DOC_ID)
-            .setParameter("id", ret.getId())
-            .getResultList();
-            ret.setAttachment(attachments);
+        // module, SchemaModel, AttachmentModel を取得する
+        DocumentLoader.fetchContents(em, Collections.singletonList(ret), true);
         
         return ret;
     }
@@ -10,6 +10,7 @@ import java.io.InputStreamReader;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -39,6 +40,7 @@ import open.dolphin.infomodel.UserModel;
 import open.dolphin.msg.ClaimSender;
 import open.dolphin.msg.DiagnosisSender;
 import open.dolphin.adm20.converter.IOSHelper;
+import open.dolphin.session.DocumentLoader;
 //import org.jboss.logging.Logger;
 
 /**
@@ -452,26 +454,8 @@ public class ADM20_AdmissionServiceBean {
                                        .setParameter("pk", docPk)
                                        .getSingleResult();
         
-        // module
-        List<ModuleModel> modules =
-                em.createQuery(QUERY_MODULE_BY_DOCUMENT)
-                  .setParameter("id", ret.getId())
-                  .getResultList();
-
-        ret.setModules(modules);
-
-        // SchemaModel を取得する
-        List<SchemaModel> images =
-                em.createQuery(QUERY_SCHEMA_BY_DOCUMENT)
-                  .setParameter("id", ret.getId())
-                  .getResultList();
-        ret.setSchema(images);
-        
-        // AttachmentModel を取得する
-            List attachments = em.createQuery(QUERY_ATTACHMENT_BY_DOC_ID)
-            .setParameter("id", ret.getId())
-            .getResultList();
-            ret.setAttachment(attachments);
+        // module, SchemaModel, AttachmentModel を取得する
+        DocumentLoader.fetchContents(em, Collections.singletonList(ret), true);
         
         return ret;
     }
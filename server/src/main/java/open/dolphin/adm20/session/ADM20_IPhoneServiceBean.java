@@ -2,12 +2,14 @@ package open.dolphin.adm20.session;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import javax.ejb.Stateless;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import open.dolphin.infomodel.*;
+import open.dolphin.session.DocumentLoader;
 
 /**
  *
@@ -159,26 +161,8 @@ public class ADM20_IPhoneServiceBean {
                                        .setParameter(PK, docPk)
                                        .getSingleResult();
         
-        // module
-        List<ModuleModel> modules =
-                em.createQuery(QUERY_MODULE_BY_DOCUMENT)
-                  .setParameter(ID, ret.getId())
-                  .getResultList();
-
-        ret.setModules(modules);
-
-        // SchemaModel を取得する
-        List<SchemaModel> images =
-                em.createQuery(QUERY_SCHEMA_BY_DOCUMENT)
-                  .setParameter(ID, ret.getId())
-                  .getResultList();
-        ret.setSchema(images);
-        
-        // AttachmentModel を取得する
-            List attachments = em.createQuery(QUERY_ATTACHMENT_BY_DOC_ID)
-            .setParameter(ID, ret.getId())
-            .getResultList();
-            ret.setAttachment(attachments);
+        // module, SchemaModel, AttachmentModel を取得する
+        DocumentLoader.fetchContents(em, Collections.singletonList(ret), true);
         
         return ret;
     }
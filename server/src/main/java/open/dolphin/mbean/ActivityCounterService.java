@@ -0,0 +1,224 @@
+package open.dolphin.mbean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.inject.Inject;
+import open.dolphin.session.ActivityCounterServiceBean;
+import open.orca.rest.ORCAConnection;
+
+/**
+ * 施設・日毎の利用件数（d_activity_counter）をまとめて書き込む。
+ *
+ * コミットされたトランザクションの増減をメモリに溜め、一分毎に一施設一日一行で書き込む。
+ * 起動時に、まだ集計していない施設の既存データを別スレッドで集計する（一度だけ）。
+ * 集計が終わるまでの施設は SystemServiceBean がこれまで通り count で数える。
+ *
+ * 集計を始める前の増減は集計結果に含まれるので捨て、集計中にコミットされた増減は集計後に書き込む。
+ * 停止せずに落ちると書き込み前の増減（最大一分）が失われる。合わせるには /dolphin/activity/rebuild で施設毎に集計し直す。
+ * 集計は施設の全データを数えるので、毎日 AM 4:00 の全施設の集計し直しは
+ * custom.properties の activity.counter.reconcile=true の時のみ行う。
+ */
+@Singleton
+@Startup
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+public class ActivityCounterService implements Runnable {
+
+    public static final String KEY_SEPARATOR = "|";
+
+    @Resource(lookup="java:jboss/ee/concurrency/factory/default")
+    private ManagedThreadFactory threadFactory;
+
+    @Inject
+    private ActivityCounterServiceBean counterServiceBean;
+
+    // 書き込み待ちの増減 施設ID|yyyy-MM-dd -> 件数
+    private final ConcurrentHashMap<String, long[]> pending = new ConcurrentHashMap<>();
+
+    // 既存データを集計し終えた施設
+    private final Set<String> ready = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    // 集計中の施設 増減は書き込まずに溜めておく
+    private final Set<String> rebuilding = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private volatile String dbSize;
+
+    // 毎日全施設を集計し直す
+    private boolean reconcile;
+
+    @PostConstruct
+    public void start() {
+        Properties config = ORCAConnection.getInstance().getProperties();
+        reconcile = Boolean.parseBoolean(config.getProperty("activity.counter.reconcile", "false"));
+        Thread t = threadFactory.newThread(this);
+        t.setName("activity-counter-backfill");
+        t.start();
+    }
+
+    /**
+     * まだ集計していない施設の既存データを集計する。
+     */
+    @Override
+    public void run() {
+        try {
+            ready.addAll(counterServiceBean.getReadyFacilities());
+            for (String fid : counterServiceBean.getFacilityIds()) {
+                if (!ready.contains(fid)) {
+                    rebuild(fid);
+                }
+            }
+            dbSize = counterServiceBean.queryDbSize();
+        } catch (Throwable e) {
+            Logger.getLogger("open.dolphin").log(Level.WARNING, "activity counter backfill failed", e);
+        }
+    }
+
+    /**
+     * 施設の件数を既存データから作り直す。
+     * @param fid 施設ID
+     */
+    @Lock(LockType.READ)
+    public void rebuild(String fid) {
+        if (!rebuilding.add(fid)) {
+            return;
+        }
+        try {
+            // 集計を始める前の増減は集計結果に含まれる
+            // 集計済みの施設は集計に失敗しても失わないよう先に書き込み、まだの施設は捨てる
+            String prefix = fid + KEY_SEPARATOR;
+            for (String key : new ArrayList<>(pending.keySet())) {
+                if (key.startsWith(prefix)) {
+                    long[] deltas = pending.remove(key);
+                    if (deltas != null && ready.contains(fid)) {
+                        apply(key, deltas);
+                    }
+                }
+            }
+            counterServiceBean.rebuild(fid);
+            ready.add(fid);
+        } finally {
+            rebuilding.remove(fid);
+        }
+        // 集計中にコミットされた増減
+        flush();
+    }
+
+    /**
+     * 書き込みそこねた増減や取りこぼしを直すため、全施設を集計し直す。
+     * activity.counter.reconcile=true の時のみ。
+     */
+    @Lock(LockType.READ)
+    @Schedule(hour="4", minute="0", persistent=false)
+    public void reconcile() {
+        if (!reconcile) {
+            return;
+        }
+        for (String fid : counterServiceBean.getFacilityIds()) {
+            try {
+                rebuild(fid);
+            } catch (Throwable e) {
+                Logger.getLogger("open.dolphin").log(Level.WARNING, "activity counter reconcile failed " + fid, e);
+            }
+        }
+    }
+
+    /**
+     * 件数を既存データから集計し終えているか
+     * @param fid 施設ID
+     * @return 終えていれば true
+     */
+    @Lock(LockType.READ)
+    public boolean isReady(String fid) {
+        return ready.contains(fid);
+    }
+
+    /**
+     * コミットされたトランザクションの増減を溜める。
+     * @param deltas 施設ID|yyyy-MM-dd -> 件数
+     */
+    @Lock(LockType.READ)
+    public void add(Map<String, long[]> deltas) {
+        for (Map.Entry<String, long[]> e : deltas.entrySet()) {
+            final long[] d = e.getValue();
+            pending.compute(e.getKey(), (key, counts) -> {
+                if (counts == null) {
+                    counts = new long[d.length];
+                }
+                for (int i = 0; i < d.length; i++) {
+                    counts[i] += d[i];
+                }
+                return counts;
+            });
+        }
+    }
+
+    /**
+     * 溜まった増減を書き込む。
+     */
+    @Lock(LockType.READ)
+    @Schedule(hour="*", minute="*", persistent=false)
+    public void flush() {
+        List<String> keys = new ArrayList<>(pending.keySet());
+        for (String key : keys) {
+            String fid = key.substring(0, key.indexOf(KEY_SEPARATOR));
+            // 集計前・集計中の施設の増減は rebuild まで溜めておく
+            if (!ready.contains(fid) || rebuilding.contains(fid)) {
+                continue;
+            }
+            long[] deltas = pending.remove(key);
+            if (deltas != null) {
+                apply(key, deltas);
+            }
+        }
+    }
+
+    private void apply(String key, long[] deltas) {
+        int index = key.indexOf(KEY_SEPARATOR);
+        try {
+            counterServiceBean.apply(key.substring(0, index), key.substring(index + 1), deltas);
+        } catch (Throwable e) {
+            Logger.getLogger("open.dolphin").log(Level.WARNING, "activity counter flush failed " + key, e);
+            add(Collections.singletonMap(key, deltas));
+        }
+    }
+
+    /**
+     * データベースの容量（一時間毎に更新）
+     * @return pg_size_pretty
+     */
+    @Lock(LockType.READ)
+    public String getDbSize() {
+        if (dbSize == null) {
+            dbSize = counterServiceBean.queryDbSize();
+        }
+        return dbSize;
+    }
+
+    @Lock(LockType.READ)
+    @Schedule(hour="*", minute="5", persistent=false)
+    public void refreshDbSize() {
+        dbSize = counterServiceBean.queryDbSize();
+    }
+
+    @PreDestroy
+    public void stop() {
+        flush();
+    }
+}
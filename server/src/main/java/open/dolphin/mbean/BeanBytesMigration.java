@@ -0,0 +1,108 @@
+package open.dolphin.mbean;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import open.dolphin.session.BeanBytesMigrationServiceBean;
+import open.orca.rest.ORCAConnection;
+
+/**
+ * 毎日 AM 3:00 に d_module.beanBytes を XML からバイナリ形式へ移行する。
+ *
+ * custom.properties の beanbytes.migration=true の場合のみ実行する。
+ * 移行したモジュールは古いクライアントでは読めないので、全てのクライアントを更新してから有効にすること。
+ * beanbytes.migration.minutes（既定 60 分）経過したら翌日へ持ち越す。
+ * 移行済みの最後の id は ${jboss.home.dir}/beanbytes/checkpoint.properties に残し、再起動しても続きから行う。
+ *
+ * ServletStartup の他の処理を止めないように、専用の Singleton で READ ロックのまま実行する。
+ */
+@Singleton
+@Lock(LockType.READ)
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+public class BeanBytesMigration {
+
+    private static final String CHECKPOINT = "checkpoint.properties";
+    private static final String LAST_ID = "lastId";
+
+    @Inject
+    private BeanBytesMigrationServiceBean migrationServiceBean;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Schedule(hour="3", minute="0", persistent=false)
+    public void migrateBeanBytes() {
+
+        Properties config = ORCAConnection.getInstance().getProperties();
+        if (!"true".equals(config.getProperty("beanbytes.migration"))) {
+            return;
+        }
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        Logger log = Logger.getLogger("open.dolphin");
+        try {
+            int batchSize = Integer.parseInt(config.getProperty("beanbytes.migration.batch", "500"));
+            long minutes = Long.parseLong(config.getProperty("beanbytes.migration.minutes", "60"));
+            long deadline = System.currentTimeMillis() + minutes * 60L * 1000L;
+
+            File dir = new File(System.getProperty("jboss.home.dir"), "beanbytes");
+            long lastId = readCheckpoint(dir);
+            log.info("Migrate beanBytes from module id " + lastId);
+
+            // 移行し終えた後に古いクライアントが XML で保存したものは、次回以降に続きから移行される
+            while (System.currentTimeMillis() < deadline) {
+                long id = migrationServiceBean.migrateModules(lastId, batchSize);
+                if (id < 0L) {
+                    log.info("beanBytes migration completed up to module id " + lastId);
+                    break;
+                }
+                lastId = id;
+                writeCheckpoint(dir, lastId);
+            }
+
+        } catch (IOException | RuntimeException e) {
+            log.log(Level.WARNING, "beanBytes migration failed", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private long readCheckpoint(File dir) throws IOException {
+        File f = new File(dir, CHECKPOINT);
+        if (!f.exists()) {
+            return 0L;
+        }
+        Properties cp = new Properties();
+        try (Reader r = new FileReader(f)) {
+            cp.load(r);
+        }
+        return Long.parseLong(cp.getProperty(LAST_ID, "0"));
+    }
+
+    private void writeCheckpoint(File dir, long lastId) throws IOException {
+        Files.createDirectories(dir.toPath());
+        Properties cp = new Properties();
+        cp.setProperty(LAST_ID, String.valueOf(lastId));
+        File tmp = new File(dir, CHECKPOINT + ".tmp");
+        try (Writer w = new FileWriter(tmp)) {
+            cp.store(w, "beanBytes migration");
+        }
+        Files.move(tmp.toPath(), new File(dir, CHECKPOINT).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
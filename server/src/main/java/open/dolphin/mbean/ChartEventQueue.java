@@ -0,0 +1,190 @@
+package open.dolphin.mbean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import javax.servlet.AsyncContext;
+import open.dolphin.infomodel.ChartEventModel;
+
+/**
+ * 施設毎の ChartEventModel のリングバッファと待機中の購読者。
+ *
+ * 発行されたイベントには施設内で単調増加する sequence を振ってバッファに残す。
+ * 購読者は最後に受け取った sequence を申告し、それ以降のイベントをまとめて受け取る。
+ * 再接続中に発行されたイベントも失われない。ロックは施設単位。
+ *
+ * sequence はサーバーを再起動すると 1 から振り直すので、キュー毎の epoch も一緒に配信する。
+ * 申告された epoch が違う購読者には PVT_RENEW を返して受付リストを取り直させる。
+ */
+public class ChartEventQueue {
+
+    // バッファに残すイベント数
+    public static final int CAPACITY = 1024;
+
+    // sequence を申告しない（旧）クライアント
+    public static final long NO_SEQUENCE = -2L;
+
+    // 現在位置から購読を始めるクライアント
+    public static final long FROM_NOW = -1L;
+
+    private final String facilityId;
+
+    // このキューの識別子 再起動すると変わる
+    private final String epoch = UUID.randomUUID().toString();
+
+    private final ChartEventModel[] ring = new ChartEventModel[CAPACITY];
+
+    // 最後に振った sequence
+    private long lastSequence;
+
+    private final List<Subscriber> waiters = new ArrayList<>();
+
+    public ChartEventQueue(String facilityId) {
+        this.facilityId = facilityId;
+    }
+
+    /**
+     * 購読を登録する。
+     * 申告された sequence 以降に配信すべきイベントがあれば登録せずにそれを返す。
+     * @param s 購読者
+     * @return 直ちに配信するイベント なければ null（待機する）
+     */
+    public synchronized List<ChartEventModel> subscribe(Subscriber s) {
+        if (s.lastSequence == FROM_NOW) {
+            s.lastSequence = lastSequence;
+        } else if (s.lastSequence >= 0 && !epoch.equals(s.epoch)) {
+            // 再起動前の sequence は使えない
+            return Collections.singletonList(renewEvent());
+        } else if (s.lastSequence >= 0) {
+            List<ChartEventModel> pending = pendingEvents(s);
+            if (!pending.isEmpty()) {
+                return pending;
+            }
+        }
+        waiters.add(s);
+        return null;
+    }
+
+    /**
+     * イベントに sequence を振ってバッファに追加し、起こす購読者と配信内容を返す。
+     * dispatch はロックの外で行うこと。
+     * @param evt 発行されたイベント
+     * @return 購読者と配信するイベント
+     */
+    public synchronized Map<Subscriber, List<ChartEventModel>> publish(ChartEventModel evt) {
+
+        evt.setSequence(++lastSequence);
+        evt.setEpoch(epoch);
+        ring[(int)(lastSequence % CAPACITY)] = evt;
+
+        Map<Subscriber, List<ChartEventModel>> ret = new LinkedHashMap<>();
+        String issuerUUID = evt.getIssuerUUID();
+
+        for (Iterator<Subscriber> itr = waiters.iterator(); itr.hasNext();) {
+            Subscriber s = itr.next();
+            // 発行者自身には通知しない
+            if (s.clientUUID != null && s.clientUUID.equals(issuerUUID)) {
+                continue;
+            }
+            List<ChartEventModel> list = s.isBatch()
+                    ? pendingEvents(s)
+                    : Collections.singletonList(evt);
+            if (!list.isEmpty()) {
+                itr.remove();
+                ret.put(s, list);
+            }
+        }
+        return ret;
+    }
+
+    public synchronized void remove(AsyncContext ac) {
+        for (Iterator<Subscriber> itr = waiters.iterator(); itr.hasNext();) {
+            if (itr.next().ac == ac) {
+                itr.remove();
+            }
+        }
+    }
+
+    public synchronized int getSubscriberCount() {
+        return waiters.size();
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    public String getFacilityId() {
+        return facilityId;
+    }
+
+    public String getEpoch() {
+        return epoch;
+    }
+
+    // s.lastSequence より後のイベント（自分の発行分を除く）
+    // バッファから溢れた、あるいはサーバーが再起動した場合は PVT_RENEW を返して全件取得させる
+    private List<ChartEventModel> pendingEvents(Subscriber s) {
+
+        long from = s.lastSequence;
+        List<ChartEventModel> ret = new ArrayList<>();
+
+        if (from > lastSequence || lastSequence - from > CAPACITY) {
+            ret.add(renewEvent());
+            return ret;
+        }
+
+        for (long seq = from + 1; seq <= lastSequence; seq++) {
+            ChartEventModel evt = ring[(int)(seq % CAPACITY)];
+            if (evt == null || (s.clientUUID != null && s.clientUUID.equals(evt.getIssuerUUID()))) {
+                continue;
+            }
+            ret.add(evt);
+        }
+        return ret;
+    }
+
+    // 受付リストを取り直させるイベント 現在の sequence と epoch から再開させる
+    private ChartEventModel renewEvent() {
+        ChartEventModel renew = new ChartEventModel();
+        renew.setFacilityId(facilityId);
+        renew.setEventType(ChartEventModel.PVT_RENEW);
+        renew.setSequence(lastSequence);
+        renew.setEpoch(epoch);
+        return renew;
+    }
+
+    /**
+     * long polling 中の購読者
+     */
+    public static class Subscriber {
+
+        private final AsyncContext ac;
+        private final String clientUUID;
+        private long lastSequence;
+        private final String epoch;
+
+        public Subscriber(AsyncContext ac, String clientUUID, long lastSequence, String epoch) {
+            this.ac = ac;
+            this.clientUUID = clientUUID;
+            this.lastSequence = lastSequence;
+            this.epoch = epoch;
+        }
+
+        public AsyncContext getAsyncContext() {
+            return ac;
+        }
+
+        public String getClientUUID() {
+            return clientUUID;
+        }
+
+        // sequence を申告したクライアントにはまとめて配信する
+        public boolean isBatch() {
+            return lastSequence != NO_SEQUENCE;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package open.dolphin.mbean;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.inject.Inject;
+import open.dolphin.infomodel.ClaimOutboxModel;
+import open.dolphin.msg.ClaimConnection;
+import open.dolphin.session.ClaimOutboxServiceBean;
+import open.orca.rest.ORCAConnection;
+
+/**
+ * d_claim_outbox に溜まった CLAIM 電文を ORCA へ送る。
+ *
+ * 一本のスレッドが送信できる電文を作成順に取り出し、患者ID で振り分けた
+ * claim.send.concurrency 本のワーカーに渡す。ワーカーはそれぞれ ORCA への接続を使い回す。
+ * 同じ患者の電文は前の電文が ACK になるか対応済みにされるまで送らない。接続・書き込みで送れなかった電文は
+ * 間隔を倍にしながら claim.send.attempts 回まで送り直し、それでも送れなければ送信失敗にする。
+ * 書いた後に応答が得られなかった電文は ORCA に届いたか分からないので、送り直さずに応答なしにする。
+ * NAK・送信失敗・応答なしはクライアントの CLAIM 送信状況（/karte/claim/outbox）で確認し、
+ * 送り直すか対応済みにする。
+ */
+@Singleton
+@Startup
+public class ClaimOutboxService implements Runnable {
+
+    private static final long FIRST_RETRY_MILLIS = 5000L;
+    private static final long MAX_RETRY_MILLIS = 600000L;
+    private static final long POLL_MILLIS = 10000L;
+    private static final int BATCH_SIZE = 50;
+
+    @Resource(lookup="java:jboss/ee/concurrency/factory/default")
+    private ManagedThreadFactory threadFactory;
+
+    @Inject
+    private ClaimOutboxServiceBean outboxServiceBean;
+
+    private boolean enabled;
+    private String host;
+    private int port;
+    private String encoding;
+    private int timeoutMillis;
+    private boolean keepAlive;
+    private int maxAttempts;
+    private int keepDays;
+
+    // 電文を患者ID で振り分けるワーカー 応答を記録するまで inFlight に残る
+    private PartitionedExecutor<Long> workers;
+    private ClaimConnection[] connections;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    private final AtomicLong acks = new AtomicLong();
+    private final AtomicLong naks = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong unknown = new AtomicLong();
+
+    @PostConstruct
+    public void register() {
+        try {
+            startService();
+        } catch (Exception e) {
+            Logger.getLogger("dolphin.claim").log(Level.WARNING, "CLAIM outbox start failed", e);
+        }
+    }
+
+    private void startService() {
+
+        Properties config = ORCAConnection.getInstance().getProperties();
+
+        // サーバーから送信し、送信待ち行列を使う場合のみ
+        enabled = "server".equals(config.getProperty("claim.conn"))
+                && Boolean.parseBoolean(config.getProperty("claim.send.outbox", "true"));
+        if (!enabled) {
+            return;
+        }
+
+        host = config.getProperty("claim.host");
+        port = Integer.parseInt(config.getProperty("claim.send.port"));
+        encoding = config.getProperty("claim.send.encoding");
+
+        // 並列数・最大送信回数・応答待ち（秒）・接続の使い回し・送信済みの保存日数
+        int concurrency = Math.max(1, Integer.parseInt(config.getProperty("claim.send.concurrency", "1")));
+        maxAttempts = Math.max(1, Integer.parseInt(config.getProperty("claim.send.attempts", "10")));
+        timeoutMillis = Integer.parseInt(config.getProperty("claim.send.timeout", "30")) * 1000;
+        keepAlive = Boolean.parseBoolean(config.getProperty("claim.send.keepAlive", "true"));
+        keepDays = Integer.parseInt(config.getProperty("claim.outbox.keepDays", "30"));
+
+        workers = new PartitionedExecutor<>(threadFactory, concurrency);
+        connections = new ClaimConnection[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            connections[i] = new ClaimConnection(host, port, encoding, timeoutMillis, keepAlive);
+        }
+
+        running = true;
+        thread = threadFactory.newThread(this);
+        thread.setName("claim-outbox");
+        thread.start();
+        Logger.getLogger("dolphin.claim").info("CLAIM outbox started " + host + ":" + port + " concurrency: " + concurrency + " keepAlive: " + keepAlive);
+    }
+
+    /**
+     * ORCA へ送るかどうか。false ならこれまで通りその場で送る。
+     * @return 送信待ち行列を使う時 true
+     */
+    @Lock(LockType.READ)
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 電文が追加されたことを知らせる。
+     */
+    @Lock(LockType.READ)
+    public void signal() {
+        if (workers != null) {
+            workers.signal();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            boolean dispatched = false;
+            try {
+                if (workers.inFlightSize() < BATCH_SIZE) {
+                    List<ClaimOutboxModel> list = outboxServiceBean.getDue(BATCH_SIZE + workers.inFlightSize());
+                    for (ClaimOutboxModel model : list) {
+                        if (!running || workers.inFlightSize() >= BATCH_SIZE) {
+                            break;
+                        }
+                        if (!workers.isInFlight(model.getId())) {
+                            dispatch(model);
+                            dispatched = true;
+                        }
+                    }
+                }
+            } catch (Throwable e) {
+                Logger.getLogger("dolphin.claim").log(Level.WARNING, "CLAIM outbox dispatch failed", e);
+            }
+            if (!dispatched && !workers.await(POLL_MILLIS)) {
+                return;
+            }
+        }
+    }
+
+    private void dispatch(final ClaimOutboxModel model) {
+        final int index = workers.partition(model.getPatientId());
+        workers.execute(model.getId(), index, () -> {
+            try {
+                send(connections[index], model);
+            } catch (Throwable e) {
+                Logger.getLogger("dolphin.claim").log(Level.WARNING, "CLAIM outbox send failed", e);
+            }
+        });
+    }
+
+    private void send(ClaimConnection conn, ClaimOutboxModel model) {
+        Logger log = Logger.getLogger("dolphin.claim");
+        int reply;
+        try {
+            reply = conn.send(model.getMessage());
+        } catch (ClaimConnection.UnknownReplyException e) {
+            // 届いたか分からない 送り直すと二重になり得るので手で確認してもらう
+            unknown.incrementAndGet();
+            log.warning("CLAIM no reply " + model.getSummary() + ": " + e);
+            outboxServiceBean.unknown(model.getId(), e.toString());
+            return;
+        } catch (Exception e) {
+            int attempt = model.getAttempts() + 1;
+            if (attempt >= maxAttempts) {
+                failed.incrementAndGet();
+                log.warning("CLAIM send failed (" + attempt + "/" + maxAttempts + ") " + model.getSummary() + ": " + e);
+                outboxServiceBean.failed(model.getId(), e.toString(), null);
+            } else {
+                retried.incrementAndGet();
+                long wait = Math.min(FIRST_RETRY_MILLIS << Math.min(attempt - 1, 20), MAX_RETRY_MILLIS);
+                log.fine("CLAIM send retry (" + attempt + "/" + maxAttempts + ") " + model.getSummary() + ": " + e);
+                outboxServiceBean.failed(model.getId(), e.toString(), new Date(System.currentTimeMillis() + wait));
+            }
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        if (reply == ClaimConnection.ACK) {
+            acks.incrementAndGet();
+            sb.append("ACK");
+            outboxServiceBean.replied(model.getId(), ClaimOutboxModel.STATUS_SENT);
+        } else {
+            naks.incrementAndGet();
+            sb.append("NAK");
+            outboxServiceBean.replied(model.getId(), ClaimOutboxModel.STATUS_NAK);
+        }
+        sb.append(" ").append(model.getSummary());
+        log.info(sb.toString());
+    }
+
+    @Schedule(hour="*", minute="*/10", persistent=false)
+    public void logStats() {
+        if (enabled) {
+            Logger.getLogger("dolphin.claim").info(toString());
+        }
+    }
+
+    @Schedule(hour="3", minute="30", persistent=false)
+    public void purgeSent() {
+        if (enabled && keepDays > 0) {
+            Date before = new Date(System.currentTimeMillis() - keepDays * 24L * 60L * 60L * 1000L);
+            int cnt = outboxServiceBean.purgeSent(before);
+            Logger.getLogger("dolphin.claim").info("CLAIM outbox purged: " + cnt);
+        }
+    }
+
+    @PreDestroy
+    public void stopService() {
+        if (!enabled) {
+            return;
+        }
+        running = false;
+        signal();
+        if (thread != null) {
+            try {
+                thread.join(5000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        workers.shutdown(timeoutMillis + 5000L);
+        for (ClaimConnection conn : connections) {
+            conn.close();
+        }
+        Logger.getLogger("dolphin.claim").info(toString());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("CLAIM outbox: inFlight=").append(workers != null ? workers.inFlightSize() : 0);
+        sb.append(" ack=").append(acks.get());
+        sb.append(" nak=").append(naks.get());
+        sb.append(" retried=").append(retried.get());
+        sb.append(" failed=").append(failed.get());
+        sb.append(" unknown=").append(unknown.get());
+        return sb.toString();
+    }
+}
@@ -0,0 +1,69 @@
+package open.dolphin.mbean;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.ejb.Lock;
+import javax.ejb.LockType;
+import javax.ejb.Schedule;
+import javax.ejb.Singleton;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Inject;
+import open.dolphin.session.NLabTrendServiceBean;
+
+/**
+ * 検査値の時系列（d_nlabo_trend）をまだ作っていない患者の分を 10 分毎に作る。
+ *
+ * このテーブルができる前に登録された検査結果を移すためのもので、一度最後まで作れば以降は何もしない。
+ * それ以降に登録された検査結果は取り込み時に時系列へ反映される。
+ * 終わるまでは NLabTrendServiceBean が時系列のない患者を NLaboItem から読むだけで組み立てる。
+ */
+@Singleton
+@Lock(LockType.READ)
+@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+public class LaboTrendBackfill {
+
+    private static final int BATCH_SIZE = 100;
+
+    @Inject
+    private NLabTrendServiceBean trendServiceBean;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile boolean completed;
+
+    /**
+     * @return 全ての患者の時系列を作り終えていれば true
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    @Schedule(hour="*", minute="*/10", persistent=false)
+    public void backfill() {
+
+        if (completed || !running.compareAndSet(false, true)) {
+            return;
+        }
+        Logger log = Logger.getLogger("open.dolphin");
+        try {
+            int cnt = 0;
+            String after = null;
+            List<String> done;
+            // BATCH_SIZE 人ずつ別のトランザクションで
+            while (!(done = trendServiceBean.buildPending(after, BATCH_SIZE)).isEmpty()) {
+                cnt += done.size();
+                after = done.get(done.size() - 1);
+            }
+            completed = true;
+            log.info("lab trend backfill completed: " + cnt);
+
+        } catch (RuntimeException e) {
+            log.log(Level.WARNING, "lab trend backfill failed", e);
+        } finally {
+            running.set(false);
+        }
+    }
+}
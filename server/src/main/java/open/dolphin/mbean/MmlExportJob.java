@@ -0,0 +1,331 @@
+package open.dolphin.mbean;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import open.dolphin.session.MmlServiceBean;
+
+/**
+ * 施設の全カルテを MML または JSON に書き出す。
+ *
+ * 文書を pk 順に batchSize 件ずつ keyset で読み、workers 本のスレッドで並列に
+ * デコード・生成して、書き出しは一本のスレッドが pk 順に行う。
+ * 書き終えた最後の pk を checkpoint.properties に記録するので、止めても続きから再開できる。
+ * zip はパート毎（partSize 件）に閉じてから記録する。再開すると次のパートから書く。
+ * 生成できなかった文書は failed.log に記録して先へ進む。
+ * 施設ID・患者ID・文書ID・シェーマの href は safeName でファイル名にしてから使う。
+ */
+public class MmlExportJob implements Runnable {
+
+    public static final String FORMAT_MML = "mml";
+    public static final String FORMAT_JSON = "json";
+
+    private static final String CHECKPOINT = "checkpoint.properties";
+    private static final String FAILED_LOG = "failed.log";
+
+    private final MmlServiceBean mmlServiceBean;
+    private final String facilityId;
+    private final String format;
+    private final boolean zip;
+    private final File dir;
+    private final ThreadFactory threadFactory;
+    private final int workers;
+    private final int batchSize;
+    private final int partSize;
+
+    private volatile String state = "waiting";
+    private volatile boolean cancelled;
+    private volatile long total;
+    private volatile long lastId;
+    private volatile int part;
+    private volatile String error;
+    private long started;
+    private long finished;
+    private final AtomicLong done = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong doneThisRun = new AtomicLong();
+
+    private ZipOutputStream zipOut;
+    private int inPart;
+
+    public MmlExportJob(MmlServiceBean mmlServiceBean, String facilityId, String format, boolean zip, File dir,
+            ThreadFactory threadFactory, int workers, int batchSize, int partSize) {
+        this.mmlServiceBean = mmlServiceBean;
+        this.facilityId = facilityId;
+        this.format = FORMAT_JSON.equals(format) ? FORMAT_JSON : FORMAT_MML;
+        this.zip = zip;
+        this.dir = dir;
+        this.threadFactory = threadFactory;
+        this.workers = Math.max(1, workers);
+        this.batchSize = Math.max(1, batchSize);
+        this.partSize = Math.max(1, partSize);
+    }
+
+    /**
+     * 前回の続きから始めるかどうかを決める。
+     * @param resume false なら checkpoint を消して最初から
+     * @throws IOException
+     */
+    public void prepare(boolean resume) throws IOException {
+        Files.createDirectories(dir.toPath());
+        File f = new File(dir, CHECKPOINT);
+        if (!resume) {
+            Files.deleteIfExists(f.toPath());
+            return;
+        }
+        if (!f.exists()) {
+            return;
+        }
+        Properties cp = new Properties();
+        try (Reader r = new FileReader(f)) {
+            cp.load(r);
+        }
+        // 形式・出力先の種類が変わっていたら最初から
+        if (!format.equals(cp.getProperty("format")) || zip != Boolean.parseBoolean(cp.getProperty("zip"))) {
+            return;
+        }
+        lastId = Long.parseLong(cp.getProperty("lastId", "0"));
+        done.set(Long.parseLong(cp.getProperty("done", "0")));
+        failed.set(Long.parseLong(cp.getProperty("failed", "0")));
+        part = Integer.parseInt(cp.getProperty("part", "0"));
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isRunning() {
+        return "running".equals(state) || "waiting".equals(state);
+    }
+
+    @Override
+    public void run() {
+        Logger log = Logger.getLogger("open.dolphin");
+        started = System.currentTimeMillis();
+        state = "running";
+        ExecutorService pool = Executors.newFixedThreadPool(workers, threadFactory);
+        try {
+            total = mmlServiceBean.getFacilityDocumentCount(facilityId);
+            log.info("MML export start " + facilityId + " format=" + format + " zip=" + zip + " from pk=" + lastId + " " + dir);
+
+            final boolean json = FORMAT_JSON.equals(format);
+            List<Long> ids = mmlServiceBean.getFacilityDocumentIds(facilityId, lastId, batchSize);
+            while (!ids.isEmpty() && !cancelled) {
+
+                // 並列に生成する
+                List<Future<MmlServiceBean.ExportEntry>> futures = new ArrayList<>(ids.size());
+                for (final Long pk : ids) {
+                    futures.add(pool.submit(() -> mmlServiceBean.exportDocument(pk, json)));
+                }
+                long batchLast = ids.get(ids.size() - 1);
+
+                // 生成している間に次を読んでおく
+                List<Long> next = mmlServiceBean.getFacilityDocumentIds(facilityId, batchLast, batchSize);
+
+                // pk 順に書く
+                for (int i = 0; i < futures.size(); i++) {
+                    try {
+                        write(futures.get(i).get());
+                        done.incrementAndGet();
+                        doneThisRun.incrementAndGet();
+                    } catch (ExecutionException e) {
+                        failed.incrementAndGet();
+                        logFailure(ids.get(i), e.getCause());
+                    }
+                }
+                lastId = batchLast;
+
+                if (!zip) {
+                    checkpoint();
+                } else if (inPart >= partSize) {
+                    closePart();
+                    checkpoint();
+                }
+                ids = next;
+            }
+
+            if (zip) {
+                closePart();
+                checkpoint();
+            }
+            state = cancelled ? "cancelled" : "done";
+            log.info("MML export " + state + " " + this);
+
+        } catch (Throwable e) {
+            state = "failed";
+            error = e.toString();
+            log.log(Level.WARNING, "MML export failed " + facilityId, e);
+            if (zipOut != null) {
+                // 書きかけのパートは checkpoint に含まれないので再開時に書き直される
+                try {
+                    zipOut.close();
+                } catch (IOException ie) {
+                }
+                zipOut = null;
+            }
+        } finally {
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finished = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * パスの一部に使える名前にする。英数字と . _ - 以外は _ にし、. で始まる名前（.. など）は先頭を _ にする。
+     * @param s 施設ID・患者ID など
+     * @return ファイル名
+     */
+    public static String safeName(String s) {
+        if (s == null || s.isEmpty()) {
+            return "_";
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            boolean ok = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '.' || c == '_' || c == '-';
+            sb.append(ok ? c : '_');
+        }
+        if (sb.charAt(0) == '.') {
+            sb.setCharAt(0, '_');
+        }
+        return sb.toString();
+    }
+
+    // シェーマの href はファイル名の部分だけを使う
+    private static String schemaFileName(String href) {
+        String name = href != null ? href.substring(Math.max(href.lastIndexOf('/'), href.lastIndexOf('\\')) + 1) : null;
+        return safeName(name);
+    }
+
+    private void write(MmlServiceBean.ExportEntry entry) throws IOException {
+        String base = "karte/" + safeName(entry.getPatientId()) + "/";
+        String name = base + safeName(entry.getDocId()) + (FORMAT_JSON.equals(format) ? ".json" : ".xml");
+        if (zip) {
+            if (zipOut == null) {
+                part++;
+                String fileName = String.format("%s-%s-%03d.zip", safeName(facilityId), format, part);
+                zipOut = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir, fileName)), 65536));
+                inPart = 0;
+            }
+            putEntry(name, entry.getData());
+            for (int i = 0; i < entry.getSchemaNames().size(); i++) {
+                putEntry(base + schemaFileName(entry.getSchemaNames().get(i)), entry.getSchemaData().get(i));
+            }
+            inPart++;
+        } else {
+            writeFile(name, entry.getData());
+            for (int i = 0; i < entry.getSchemaNames().size(); i++) {
+                writeFile(base + schemaFileName(entry.getSchemaNames().get(i)), entry.getSchemaData().get(i));
+            }
+        }
+    }
+
+    private void putEntry(String name, byte[] data) throws IOException {
+        zipOut.putNextEntry(new ZipEntry(name));
+        zipOut.write(data);
+        zipOut.closeEntry();
+        bytes.addAndGet(data.length);
+    }
+
+    private void writeFile(String name, byte[] data) throws IOException {
+        File f = new File(dir, name);
+        Files.createDirectories(f.getParentFile().toPath());
+        Files.write(f.toPath(), data);
+        bytes.addAndGet(data.length);
+    }
+
+    private void closePart() throws IOException {
+        if (zipOut != null) {
+            zipOut.close();
+            zipOut = null;
+        }
+    }
+
+    private void checkpoint() throws IOException {
+        Properties cp = new Properties();
+        cp.setProperty("facilityId", facilityId);
+        cp.setProperty("format", format);
+        cp.setProperty("zip", String.valueOf(zip));
+        cp.setProperty("lastId", String.valueOf(lastId));
+        cp.setProperty("done", String.valueOf(done.get()));
+        cp.setProperty("failed", String.valueOf(failed.get()));
+        cp.setProperty("part", String.valueOf(part));
+        File tmp = new File(dir, CHECKPOINT + ".tmp");
+        try (Writer w = new FileWriter(tmp)) {
+            cp.store(w, null);
+        }
+        Files.move(tmp.toPath(), new File(dir, CHECKPOINT).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void logFailure(long pk, Throwable cause) {
+        Logger.getLogger("open.dolphin").warning("MML export failed pk=" + pk + ": " + cause);
+        try (PrintWriter pw = new PrintWriter(new FileWriter(new File(dir, FAILED_LOG), true))) {
+            pw.println(pk + "\t" + cause);
+        } catch (IOException e) {
+            Logger.getLogger("open.dolphin").warning(e.toString());
+        }
+    }
+
+    /**
+     * 進捗
+     * @return state, total, done, failed, lastId, docsPerSec ...
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> ret = new LinkedHashMap<>();
+        long end = finished != 0L ? finished : System.currentTimeMillis();
+        long elapsed = started != 0L ? end - started : 0L;
+        ret.put("facilityId", facilityId);
+        ret.put("state", state);
+        ret.put("format", format);
+        ret.put("zip", zip);
+        ret.put("dir", dir.getPath());
+        ret.put("total", total);
+        ret.put("done", done.get());
+        ret.put("failed", failed.get());
+        ret.put("lastId", lastId);
+        ret.put("bytes", bytes.get());
+        ret.put("started", started != 0L ? new Date(started) : null);
+        ret.put("elapsedSec", elapsed / 1000L);
+        ret.put("docsPerSec", elapsed > 0L ? doneThisRun.get() * 1000.0 / elapsed : 0.0);
+        if (error != null) {
+            ret.put("error", error);
+        }
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        return getStatus().toString();
+    }
+}
@@ -0,0 +1,94 @@
+package open.dolphin.mbean;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.Singleton;
+import javax.enterprise.concurrent.ManagedThreadFactory;
+import javax.inject.Inject;
+import open.dolphin.session.MmlServiceBean;
+import open.orca.rest.ORCAConnection;
+
+/**
+ * 施設毎の MML/JSON エクスポート（MmlExportJob）を管理する。
+ * 一施設で同時に動くのは一つだけ。
+ *
+ * 出力先 ${jboss.home.dir}/mml/export/施設ID（mml.export.dir で変更）
+ * 並列数 mml.export.workers（4）・一度に読む件数 mml.export.batch（100）・zip の一パートの件数 mml.export.partSize（10000）
+ */
+@Singleton
+public class MmlExportService {
+
+    @Resource(lookup="java:jboss/ee/concurrency/factory/default")
+    private ManagedThreadFactory threadFactory;
+
+    @Inject
+    private MmlServiceBean mmlServiceBean;
+
+    private final Map<String, MmlExportJob> jobs = new HashMap<>();
+
+    /**
+     * エクスポートを開始する。すでに動いていればそれを返す。
+     * @param fid 施設ID
+     * @param format mml or json
+     * @param zip true なら zip に、false ならディレクトリに書く
+     * @param resume true なら前回の続きから
+     * @return ジョブ
+     * @throws IOException
+     */
+    public MmlExportJob start(String fid, String format, boolean zip, boolean resume) throws IOException {
+
+        MmlExportJob job = jobs.get(fid);
+        if (job != null && job.isRunning()) {
+            return job;
+        }
+
+        Properties config = ORCAConnection.getInstance().getProperties();
+        String base = config.getProperty("mml.export.dir");
+        if (base == null) {
+            base = System.getProperty("jboss.home.dir") + File.separator + "mml" + File.separator + "export";
+        }
+        File dir = new File(base, MmlExportJob.safeName(fid));
+        int workers = Integer.parseInt(config.getProperty("mml.export.workers", "4"));
+        int batch = Integer.parseInt(config.getProperty("mml.export.batch", "100"));
+        int partSize = Integer.parseInt(config.getProperty("mml.export.partSize", "10000"));
+
+        job = new MmlExportJob(mmlServiceBean, fid, format, zip, dir, threadFactory, workers, batch, partSize);
+        job.prepare(resume);
+        jobs.put(fid, job);
+
+        Thread t = threadFactory.newThread(job);
+        t.setName("mml-export-" + fid);
+        t.start();
+        return job;
+    }
+
+    public MmlExportJob getJob(String fid) {
+        return jobs.get(fid);
+    }
+
+    /**
+     * 止める。書き終えた所までは checkpoint に残るので start(resume=true) で再開できる。
+     * @param fid 施設ID
+     * @return 動いていたら true
+     */
+    public boolean cancel(String fid) {
+        MmlExportJob job = jobs.get(fid);
+        if (job != null && job.isRunning()) {
+            job.cancel();
+            return true;
+        }
+        return false;
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (MmlExportJob job : jobs.values()) {
+            job.cancel();
+        }
+    }
+}
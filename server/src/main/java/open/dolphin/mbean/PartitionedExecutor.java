@@ -0,0 +1,116 @@
+package open.dolphin.mbean;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * キー（患者ID）で振り分けた一本ずつのワーカー。
+ *
+ * 同じキーの仕事は同じワーカーで渡した順に実行される。渡した仕事は終わるまで inFlight に残るので、
+ * 待ち行列から取り出す側は処理中のものを二重に渡さずに済む。仕事が終わると取り出す側を起こす。
+ * PvtQueueConsumer と ClaimOutboxService で使う。
+ *
+ * @param <T> 仕事の識別子
+ */
+public class PartitionedExecutor<T> {
+
+    private final ExecutorService[] partitions;
+
+    // ワーカーに渡して終わっていない仕事
+    private final Set<T> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>());
+
+    private final Object signal = new Object();
+
+    public PartitionedExecutor(ThreadFactory threadFactory, int concurrency) {
+        partitions = new ExecutorService[Math.max(1, concurrency)];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = Executors.newSingleThreadExecutor(threadFactory);
+        }
+    }
+
+    public int size() {
+        return partitions.length;
+    }
+
+    /**
+     * @param key 振り分けるキー null なら最初のワーカー
+     * @return ワーカーの番号
+     */
+    public int partition(String key) {
+        return key != null ? (key.hashCode() & 0x7fffffff) % partitions.length : 0;
+    }
+
+    public int inFlightSize() {
+        return inFlight.size();
+    }
+
+    public boolean isInFlight(T id) {
+        return inFlight.contains(id);
+    }
+
+    /**
+     * 仕事をワーカーに渡す。終わるまで inFlight に残る。
+     * @param id 仕事の識別子
+     * @param partition ワーカーの番号
+     * @param task 仕事
+     */
+    public void execute(final T id, int partition, final Runnable task) {
+        inFlight.add(id);
+        partitions[partition].execute(() -> {
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(id);
+                signal();
+            }
+        });
+    }
+
+    /**
+     * 取り出す側を起こす。
+     */
+    public void signal() {
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+    }
+
+    /**
+     * 仕事が終わるか signal されるまで待つ。
+     * @param millis 最大待ち時間
+     * @return 割り込まれたら false
+     */
+    public boolean await(long millis) {
+        synchronized (signal) {
+            try {
+                signal.wait(millis);
+                return true;
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * 渡した仕事が終わるのを待ってワーカーを止める。
+     * @param timeoutMillis ワーカー毎の待ち時間 過ぎたら割り込む
+     */
+    public void shutdown(long timeoutMillis) {
+        for (ExecutorService es : partitions) {
+            es.shutdown();
+            try {
+                if (!es.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    es.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                es.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package open.dolphin.mbean;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import open.dolphin.infomodel.PatientModel;
+
+/**
+ * 施設毎の患者検索索引。
+ *
+ * 氏名・カナ・ローマ字（KanaToAscii）・アプリメモを空白を除いて正規化し、2-gram の転置リストで
+ * 候補を絞ってから部分一致を確認する。電話番号・郵便番号・患者IDは前方一致で全件を走査する。
+ * LIKE '%name' のような索引の効かない後方一致を DB に投げないためのもの。
+ *
+ * 患者の追加・更新は同じ pk のエントリーを置き換える（古いスロットは削除扱いにして、
+ * 削除扱いが増えたら作り直す）。
+ */
+public class PatientSearchIndex {
+
+    // 一致の順位 小さいほど上位
+    public static final int RANK_EXACT = 0;
+    public static final int RANK_PREFIX = 1;
+    public static final int RANK_CONTAINS = 2;
+    public static final int RANK_ROMAN_PREFIX = 3;
+    public static final int RANK_ROMAN_CONTAINS = 4;
+    public static final int RANK_MEMO_PREFIX = 5;
+    public static final int RANK_MEMO_CONTAINS = 6;
+    public static final int RANK_PHONE_PREFIX = 7;
+    public static final int RANK_ZIP_PREFIX = 8;
+    public static final int NO_MATCH = Integer.MAX_VALUE;
+
+    private static final KanaToAscii KANA_TO_ASCII = new KanaToAscii();
+
+    private final List<Entry> slots = new ArrayList<>();
+    private final Map<Long, Integer> slotByPk = new HashMap<>();
+    private final Map<Integer, int[]> postings = new HashMap<>();
+    private final Map<Integer, Integer> postingSizes = new HashMap<>();
+    private int removed;
+    private volatile boolean loaded;
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * 施設の全患者で作り直す。
+     * @param rows p.id, p.patientId, p.fullName, p.kanaName, p.telephone, p.mobilePhone, p.address.zipCode, p.appMemo
+     */
+    public synchronized void load(List<Object[]> rows) {
+        clearIndex();
+        for (Object[] row : rows) {
+            add(new Entry((Long)row[0], (String)row[1], (String)row[2], (String)row[3],
+                    (String)row[4], (String)row[5], (String)row[6], (String)row[7]));
+        }
+        loaded = true;
+    }
+
+    /**
+     * 患者を追加・更新する。読み込み前なら何もしない（最初の検索時に読み込まれる）。
+     * @param pm 患者
+     */
+    public synchronized void put(PatientModel pm) {
+        if (!loaded || pm.getId() == 0L) {
+            return;
+        }
+        String zip = pm.getSimpleAddressModel()!=null ? pm.getSimpleAddressModel().getZipCode() : null;
+        Entry entry = new Entry(pm.getId(), pm.getPatientId(), pm.getFullName(), pm.getKanaName(),
+                pm.getTelephone(), pm.getMobilePhone(), zip, pm.getAppMemo());
+        Integer old = slotByPk.get(entry.pk);
+        if (old != null) {
+            slots.set(old, null);
+            removed++;
+        }
+        add(entry);
+        if (removed > 1000 && removed > slots.size() / 4) {
+            compact();
+        }
+    }
+
+    /**
+     * 日替わりなどで捨てる。次の検索で読み直す。
+     */
+    public synchronized void invalidate() {
+        clearIndex();
+        loaded = false;
+    }
+
+    public synchronized int size() {
+        return slotByPk.size();
+    }
+
+    /**
+     * 氏名・カナ・ローマ字・アプリメモで検索する。
+     * @param text 検索語
+     * @return 患者の pk 順位・カナ順
+     */
+    public synchronized List<Long> searchText(String text) {
+        String q = normalize(text);
+        if (q.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Hit> hits = new ArrayList<>();
+        if (q.length() >= 2) {
+            int[] candidates = null;
+            int candidateSize = 0;
+            for (int i = 0; i+1 < q.length(); i++) {
+                int key = bigram(q, i);
+                int[] list = postings.get(key);
+                if (list == null) {
+                    return Collections.emptyList();
+                }
+                int size = postingSizes.get(key);
+                if (candidates == null || size < candidateSize) {
+                    candidates = list;
+                    candidateSize = size;
+                }
+            }
+            for (int i = 0; i < candidateSize; i++) {
+                Entry e = slots.get(candidates[i]);
+                if (e != null) {
+                    addHit(hits, e, e.rankText(q));
+                }
+            }
+        } else {
+            for (Entry e : slots) {
+                if (e != null) {
+                    addHit(hits, e, e.rankText(q));
+                }
+            }
+        }
+        return sorted(hits);
+    }
+
+    /**
+     * 患者ID・電話番号・郵便番号の前方一致で検索する。
+     * @param digit 検索語
+     * @return 患者の pk 患者ID一致、電話番号一致、郵便番号一致の順
+     */
+    public synchronized List<Long> searchDigit(String digit) {
+        String q = normalizeDigit(digit);
+        if (q.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Hit> hits = new ArrayList<>();
+        for (Entry e : slots) {
+            if (e == null) {
+                continue;
+            }
+            if (e.patientId!=null && e.patientId.startsWith(q)) {
+                addHit(hits, e, e.patientId.equals(q) ? RANK_EXACT : RANK_PREFIX);
+            } else if ((e.telephone!=null && e.telephone.startsWith(q)) || (e.mobilePhone!=null && e.mobilePhone.startsWith(q))) {
+                addHit(hits, e, RANK_PHONE_PREFIX);
+            } else if (e.zipCode!=null && e.zipCode.startsWith(q)) {
+                addHit(hits, e, RANK_ZIP_PREFIX);
+            }
+        }
+        return sorted(hits);
+    }
+
+    // 空白を除き、ひらがなはカタカナ、英字は大文字、全角英数は半角にする
+    static String normalize(String s) {
+        if (s == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isWhitespace(c) || c == '　') {
+                continue;
+            }
+            if (c >= 'ぁ' && c <= 'ゖ') {
+                c = (char)(c + 0x60);
+            } else if (c >= '！' && c <= '～') {
+                c = (char)(c - 0xFEE0);
+            }
+            if (c >= 'a' && c <= 'z') {
+                c = (char)(c - 0x20);
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    // 数字だけを残す
+    static String normalizeDigit(String s) {
+        if (s == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= '０' && c <= '９') {
+                c = (char)(c - 0xFEE0);
+            }
+            if (c >= '0' && c <= '9') {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int bigram(String s, int i) {
+        return (s.charAt(i) << 16) | s.charAt(i+1);
+    }
+
+    private void addHit(List<Hit> hits, Entry e, int rank) {
+        if (rank != NO_MATCH) {
+            hits.add(new Hit(e, rank));
+        }
+    }
+
+    private List<Long> sorted(List<Hit> hits) {
+        Collections.sort(hits, (h1, h2) -> {
+            if (h1.rank != h2.rank) {
+                return h1.rank < h2.rank ? -1 : 1;
+            }
+            int cmp = h1.entry.kana.compareTo(h2.entry.kana);
+            return cmp != 0 ? cmp : Long.compare(h1.entry.pk, h2.entry.pk);
+        });
+        List<Long> ret = new ArrayList<>(hits.size());
+        for (Hit h : hits) {
+            ret.add(h.entry.pk);
+        }
+        return ret;
+    }
+
+    private void add(Entry entry) {
+        int slot = slots.size();
+        slots.add(entry);
+        slotByPk.put(entry.pk, slot);
+        for (String field : new String[]{entry.name, entry.kana, entry.roman, entry.memo}) {
+            for (int i = 0; i+1 < field.length(); i++) {
+                int key = bigram(field, i);
+                int[] list = postings.get(key);
+                int size = list != null ? postingSizes.get(key) : 0;
+                if (size > 0 && list[size-1] == slot) {
+                    continue;
+                }
+                if (list == null) {
+                    list = new int[4];
+                    postings.put(key, list);
+                } else if (size == list.length) {
+                    list = Arrays.copyOf(list, size * 2);
+                    postings.put(key, list);
+                }
+                list[size] = slot;
+                postingSizes.put(key, size + 1);
+            }
+        }
+    }
+
+    private void compact() {
+        List<Entry> live = new ArrayList<>(slotByPk.size());
+        for (Entry e : slots) {
+            if (e != null) {
+                live.add(e);
+            }
+        }
+        clearIndex();
+        for (Entry e : live) {
+            add(e);
+        }
+    }
+
+    private void clearIndex() {
+        slots.clear();
+        slotByPk.clear();
+        postings.clear();
+        postingSizes.clear();
+        removed = 0;
+    }
+
+    private static class Hit {
+
+        private final Entry entry;
+        private final int rank;
+
+        private Hit(Entry entry, int rank) {
+            this.entry = entry;
+            this.rank = rank;
+        }
+    }
+
+    /**
+     * 検索用に正規化した患者の属性
+     */
+    private static class Entry {
+
+        private final long pk;
+        private final String patientId;
+        private final String name;
+        private final String kana;
+        private final String roman;
+        private final String memo;
+        private final String telephone;
+        private final String mobilePhone;
+        private final String zipCode;
+
+        private Entry(long pk, String patientId, String fullName, String kanaName,
+                String telephone, String mobilePhone, String zipCode, String appMemo) {
+            this.pk = pk;
+            this.patientId = patientId;
+            this.name = normalize(fullName);
+            this.kana = normalize(kanaName);
+            this.roman = kana.isEmpty() ? "" : KANA_TO_ASCII.CHGKanatoASCII(kana, "").replace("?", "");
+            this.memo = normalize(appMemo);
+            this.telephone = emptyToNull(normalizeDigit(telephone));
+            this.mobilePhone = emptyToNull(normalizeDigit(mobilePhone));
+            this.zipCode = emptyToNull(normalizeDigit(zipCode));
+        }
+
+        private int rankText(String q) {
+            if (name.equals(q) || kana.equals(q)) {
+                return RANK_EXACT;
+            }
+            if (name.startsWith(q) || kana.startsWith(q)) {
+                return RANK_PREFIX;
+            }
+            if (name.contains(q) || kana.contains(q)) {
+                return RANK_CONTAINS;
+            }
+            if (roman.startsWith(q)) {
+                return RANK_ROMAN_PREFIX;
+            }
+            if (roman.contains(q)) {
+                return RANK_ROMAN_CONTAINS;
+            }
+            if (memo.startsWith(q)) {
+                return RANK_MEMO_PREFIX;
+            }
+            if (memo.contains(q)) {
+                return RANK_MEMO_CONTAINS;
+            }
+            return NO_MATCH;
+        }
+
+        private static String emptyToNull(String s) {
+            return s.isEmpty() ? null : s;
+        }
+    }
+}
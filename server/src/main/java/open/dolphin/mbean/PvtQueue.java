@@ -0,0 +1,168 @@
+package open.dolphin.mbean;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * 受信した CLAIM 受付電文をローカルディスクに溜めるキュー。
+ *
+ * 一電文一ファイル（連番.claim）で、書き込み後に fsync してから rename し、rename を
+ * ディレクトリの fsync で確定させるので、append が戻った電文はサーバーが落ちても残る。取り出しは連番順で、処理が済んだら remove、
+ * 処理できない電文は dead ディレクトリへ移してエラーを .err に残す。
+ */
+public class PvtQueue {
+
+    private static final String SUFFIX = ".claim";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File dir;
+    private final File deadDir;
+    private long seq;
+
+    public PvtQueue(File dir) {
+        this.dir = dir;
+        this.deadDir = new File(dir, "dead");
+    }
+
+    /**
+     * ディレクトリを作り、書きかけのファイルを消して連番を続きから始める。
+     * @throws IOException
+     */
+    public synchronized void open() throws IOException {
+        if (!deadDir.isDirectory() && !deadDir.mkdirs()) {
+            throw new IOException("cannot create " + deadDir);
+        }
+        File[] tmps = dir.listFiles((d, name) -> name.endsWith(TMP_SUFFIX));
+        if (tmps != null) {
+            for (File f : tmps) {
+                Files.deleteIfExists(f.toPath());
+            }
+        }
+        seq = 0L;
+        for (File f : pending(Integer.MAX_VALUE)) {
+            seq = Math.max(seq, seqOf(f));
+        }
+        File[] dead = deadDir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (dead != null) {
+            for (File f : dead) {
+                seq = Math.max(seq, seqOf(f));
+            }
+        }
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * 電文を追加する。ディスクに書いてから戻る。
+     * @param message 電文
+     * @return 追加したファイル
+     * @throws IOException
+     */
+    public File append(String message) throws IOException {
+        long n;
+        synchronized (this) {
+            n = ++seq;
+        }
+        String name = String.format("%020d", n);
+        File tmp = new File(dir, name + TMP_SUFFIX);
+        File dest = new File(dir, name + SUFFIX);
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(message.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        syncDir();
+        return dest;
+    }
+
+    // rename はディレクトリのエントリを書き換えるだけなので、ディレクトリも fsync する
+    private void syncDir() throws IOException {
+        try (FileChannel ch = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException e) {
+            // Windows ではディレクトリを開けない。NTFS はメタデータをジャーナルするので rename は残る
+            if (!System.getProperty("os.name", "").startsWith("Windows")) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 溜まっている電文を連番順に返す。
+     * @param max 最大数
+     * @return ファイル
+     */
+    public List<File> pending(int max) {
+        String[] names = dir.list((d, name) -> name.endsWith(SUFFIX));
+        if (names == null || names.length == 0) {
+            return new ArrayList<>(0);
+        }
+        Arrays.sort(names);
+        int len = Math.min(max, names.length);
+        List<File> ret = new ArrayList<>(len);
+        for (int i = 0; i < len; i++) {
+            ret.add(new File(dir, names[i]));
+        }
+        return ret;
+    }
+
+    public int size() {
+        String[] names = dir.list((d, name) -> name.endsWith(SUFFIX));
+        return names != null ? names.length : 0;
+    }
+
+    public int deadSize() {
+        String[] names = deadDir.list((d, name) -> name.endsWith(SUFFIX));
+        return names != null ? names.length : 0;
+    }
+
+    public String read(File f) throws IOException {
+        return new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+    }
+
+    public void remove(File f) throws IOException {
+        Files.deleteIfExists(f.toPath());
+    }
+
+    /**
+     * 処理できない電文を dead ディレクトリへ移す。
+     * @param f 電文のファイル
+     * @param cause 原因
+     */
+    public void deadLetter(File f, Throwable cause) {
+        try {
+            File dest = new File(deadDir, f.getName());
+            Files.move(f.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            StringWriter sw = new StringWriter();
+            cause.printStackTrace(new PrintWriter(sw));
+            String errName = f.getName().substring(0, f.getName().length() - SUFFIX.length()) + ".err";
+            Files.write(new File(deadDir, errName).toPath(), sw.toString().getBytes(StandardCharsets.UTF_8));
+            Logger.getLogger("open.dolphin").warning("PVT message moved to " + dest + ": " + cause);
+        } catch (IOException e) {
+            Logger.getLogger("open.dolphin").severe("cannot move PVT message " + f + ": " + e.getMessage());
+        }
+    }
+
+    private static long seqOf(File f) {
+        String name = f.getName();
+        try {
+            return Long.parseLong(name.substring(0, name.indexOf('.')));
+        } catch (RuntimeException e) {
+            return 0L;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package open.dolphin.mbean;
+
+import java.io.File;
+import java.nio.file.NoSuchFileException;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import open.dolphin.infomodel.PatientVisitModel;
+
+/**
+ * PvtQueue に溜まった電文を取り出して登録する。
+ *
+ * 一本のスレッドが連番順に最大 batchSize 件ずつ取り出して PVTBuilder で解析し、
+ * 患者ID で振り分けた consumers 本のワーカーに渡す。同じ患者の受付は同じワーカーで
+ * 受信順に登録される。解析できない電文はすぐに、登録に maxAttempts 回失敗した電文は
+ * 間隔を倍にしながら再試行した後、dead へ移す。
+ */
+public class PvtQueueConsumer implements Runnable {
+
+    /**
+     * 電文の解析と登録
+     */
+    public interface Sink {
+
+        /**
+         * @param message 電文
+         * @return 受付 登録不要の電文（患者登録など）は null
+         * @throws Exception 解析できない
+         */
+        PatientVisitModel parse(String message) throws Exception;
+
+        void store(PatientVisitModel pvt) throws Exception;
+    }
+
+    private static final long FIRST_RETRY_MILLIS = 1000L;
+    private static final long MAX_RETRY_MILLIS = 60000L;
+
+    private final PvtQueue queue;
+    private final Sink sink;
+    private final ThreadFactory threadFactory;
+    private final int batchSize;
+    private final int maxAttempts;
+
+    // 電文を患者ID で振り分けるワーカー
+    private final PartitionedExecutor<File> workers;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    private final AtomicLong stored = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong dead = new AtomicLong();
+
+    public PvtQueueConsumer(PvtQueue queue, Sink sink, ThreadFactory threadFactory, int consumers, int batchSize, int maxAttempts) {
+        this.queue = queue;
+        this.sink = sink;
+        this.threadFactory = threadFactory;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.workers = new PartitionedExecutor<>(threadFactory, consumers);
+    }
+
+    public void start() {
+        running = true;
+        thread = threadFactory.newThread(this);
+        thread.setName("pvt-queue");
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        signal();
+        if (thread != null) {
+            try {
+                thread.join(5000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+        workers.shutdown(10000L);
+    }
+
+    /**
+     * 電文が追加されたことを知らせる。
+     */
+    public void signal() {
+        workers.signal();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            boolean dispatched = false;
+            try {
+                if (workers.inFlightSize() < batchSize) {
+                    List<File> files = queue.pending(batchSize + workers.inFlightSize());
+                    for (File f : files) {
+                        if (!running || workers.inFlightSize() >= batchSize) {
+                            break;
+                        }
+                        if (!workers.isInFlight(f)) {
+                            dispatch(f);
+                            dispatched = true;
+                        }
+                    }
+                }
+            } catch (Throwable e) {
+                Logger.getLogger("open.dolphin").log(Level.WARNING, "PVT queue dispatch failed", e);
+            }
+            if (!dispatched && !workers.await(1000L)) {
+                return;
+            }
+        }
+    }
+
+    private void dispatch(final File f) throws Exception {
+        final PatientVisitModel pvt;
+        try {
+            pvt = sink.parse(queue.read(f));
+        } catch (NoSuchFileException e) {
+            // 一覧を取った後にワーカーが登録して消した
+            return;
+        } catch (Exception e) {
+            dead.incrementAndGet();
+            queue.deadLetter(f, e);
+            return;
+        }
+        if (pvt == null) {
+            skipped.incrementAndGet();
+            queue.remove(f);
+            return;
+        }
+        String key = pvt.getPatientModel() != null ? pvt.getPatientModel().getPatientId() : null;
+        workers.execute(f, workers.partition(key), () -> store(f, pvt));
+    }
+
+    private void store(File f, PatientVisitModel pvt) {
+        long wait = FIRST_RETRY_MILLIS;
+        for (int attempt = 1; running; attempt++) {
+            try {
+                sink.store(pvt);
+                stored.incrementAndGet();
+                queue.remove(f);
+                return;
+            } catch (Throwable e) {
+                if (attempt >= maxAttempts) {
+                    dead.incrementAndGet();
+                    queue.deadLetter(f, e);
+                    return;
+                }
+                retried.incrementAndGet();
+                Logger.getLogger("open.dolphin").warning("PVT store failed (" + attempt + "/" + maxAttempts + ") " + f.getName() + ": " + e);
+            }
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            wait = Math.min(wait * 2, MAX_RETRY_MILLIS);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("PVT queue: pending=").append(queue.size());
+        sb.append(" inFlight=").append(workers.inFlightSize());
+        sb.append(" stored=").append(stored.get());
+        sb.append(" skipped=").append(skipped.get());
+        sb.append(" retried=").append(retried.get());
+        sb.append(" dead=").append(dead.get());
+        sb.append(" deadTotal=").append(queue.deadSize());
+        return sb.toString();
+    }
+}
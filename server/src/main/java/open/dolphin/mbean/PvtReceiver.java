@@ -0,0 +1,525 @@
+package open.dolphin.mbean;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ORCA からの CLAIM 受付電文を受信する。
+ *
+ * 一本のスレッドが Selector で accept と受信を行い、EOT までを一電文として切り出す
+ * （EOT が read の途中や次の read に来ても良い）。電文の処理は固定数のワーカーで行い、
+ * 処理が終わったら ACK/NAK を返す。
+ *
+ * 一接続で処理中の電文は一つだけで、応答を返すまでその接続からは読まない。
+ * 処理中＋待ちの電文がワーカー数＋キュー長を超えたら、空くまで受信を止める（ORCA は ACK 待ちで止まる）。
+ * 電文の途中で readTimeout 無通信、または電文の間に idleTimeout 無通信の接続は閉じる。
+ */
+public class PvtReceiver implements Runnable {
+
+    public static final int EOT = 0x04;
+    public static final int ACK = 0x06;
+    public static final int NAK = 0x15;
+
+    /**
+     * 切り出した電文を処理する。例外を投げたら NAK を返す。
+     */
+    public interface Handler {
+        void handle(String message) throws Exception;
+    }
+
+    private final InetSocketAddress address;
+    private final String encoding;
+    private final Handler handler;
+    private final ThreadFactory threadFactory;
+    private final int workers;
+    private final int maxInFlight;
+    private final long readTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final int maxMessageSize;
+
+    private final Stats stats = new Stats();
+
+    // ワーカーから Selector スレッドへ返す応答
+    private final ConcurrentLinkedQueue<Reply> replies = new ConcurrentLinkedQueue<>();
+
+    // 以下は Selector スレッドだけが触る
+    private final ArrayDeque<Conn> waiting = new ArrayDeque<>();
+    private final Set<Conn> conns = new HashSet<>();
+    private int inFlight;
+
+    private ServerSocketChannel serverChannel;
+    private Selector selector;
+    private ExecutorService executor;
+    private Thread selectorThread;
+    private volatile boolean running;
+
+    /**
+     * @param address 待ち受けアドレス
+     * @param encoding 電文のエンコーディング
+     * @param handler 電文の処理
+     * @param threadFactory Selector とワーカーのスレッド
+     * @param workers ワーカー数
+     * @param queueSize ワーカー待ちの電文数の上限
+     * @param readTimeoutMillis 電文の途中で待つ時間
+     * @param idleTimeoutMillis 電文の間で待つ時間
+     * @param maxMessageSize 一電文の最大バイト数
+     */
+    public PvtReceiver(InetSocketAddress address, String encoding, Handler handler, ThreadFactory threadFactory,
+            int workers, int queueSize, long readTimeoutMillis, long idleTimeoutMillis, int maxMessageSize) {
+        this.address = address;
+        this.encoding = encoding;
+        this.handler = handler;
+        this.threadFactory = threadFactory;
+        this.workers = Math.max(1, workers);
+        this.maxInFlight = this.workers + Math.max(0, queueSize);
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    public void start() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.bind(address);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+        // 受信の上限は Selector 側で管理するのでキュー自体は無制限
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory);
+
+        running = true;
+        selectorThread = threadFactory.newThread(this);
+        selectorThread.setName("pvt-receiver");
+        selectorThread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+        if (selectorThread != null) {
+            try {
+                selectorThread.join(5000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            selectorThread = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            executor = null;
+        }
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select(1000L);
+                if (!running) {
+                    break;
+                }
+                Iterator<SelectionKey> itr = selector.selectedKeys().iterator();
+                while (itr.hasNext()) {
+                    SelectionKey key = itr.next();
+                    itr.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Conn conn = (Conn)key.attachment();
+                        if (key.isWritable()) {
+                            conn.flushReply();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            conn.read();
+                        }
+                    }
+                }
+                Reply reply;
+                while ((reply = replies.poll()) != null) {
+                    inFlight--;
+                    reply.conn.reply(reply);
+                }
+                while (inFlight < maxInFlight && !waiting.isEmpty()) {
+                    dispatch(waiting.poll());
+                }
+                expire();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                Logger.getLogger("open.dolphin").log(Level.SEVERE, "PVT receiver stopped", e);
+            }
+        } finally {
+            for (Conn conn : new HashSet<>(conns)) {
+                conn.close();
+            }
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                Logger.getLogger("open.dolphin").warning(e.getMessage());
+            }
+            Logger.getLogger("open.dolphin").info("PVT Server is closed");
+        }
+    }
+
+    private void accept() {
+        SocketChannel channel = null;
+        try {
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                Conn conn = new Conn(channel);
+                conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+                conns.add(conn);
+                stats.connections.incrementAndGet();
+                Logger.getLogger("open.dolphin").info("connected from " + conn.remote);
+            }
+        } catch (IOException e) {
+            Logger.getLogger("open.dolphin").warning("PVT accept failed: " + e.getMessage());
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e2) {
+                }
+            }
+        }
+    }
+
+    private void dispatch(Conn conn) {
+        if (!conn.channel.isOpen()) {
+            return;
+        }
+        inFlight++;
+        final Conn c = conn;
+        final byte[] bytes = conn.message;
+        final long received = conn.messageReceivedAt;
+        conn.message = null;
+        executor.execute(() -> {
+            int code = ACK;
+            try {
+                String message = new String(bytes, encoding);
+                Logger.getLogger("open.dolphin").info("length of claim instance = " + message.length() + " bytes");
+                Logger.getLogger("open.dolphin").info(message);
+                handler.handle(message);
+            } catch (Throwable e) {
+                code = NAK;
+                stats.failures.incrementAndGet();
+                Logger.getLogger("open.dolphin").log(Level.WARNING, "PVT message from " + c.remote + " failed", e);
+            }
+            replies.add(new Reply(c, code, received));
+            selector.wakeup();
+        });
+    }
+
+    private void expire() {
+        long now = System.currentTimeMillis();
+        for (Conn conn : new HashSet<>(conns)) {
+            if (conn.processing || conn.message != null) {
+                continue;
+            }
+            long limit = conn.frame.size() > 0 ? readTimeoutMillis : idleTimeoutMillis;
+            if (limit > 0 && now - conn.lastRead > limit) {
+                stats.timeouts.incrementAndGet();
+                Logger.getLogger("open.dolphin").warning("PVT connection timed out: " + conn.remote + " pending bytes=" + conn.frame.size());
+                if (conn.frame.size() > 0) {
+                    conn.write(NAK);
+                }
+                conn.close();
+            }
+        }
+    }
+
+    private static final class Reply {
+
+        private final Conn conn;
+        private final int code;
+        private final long receivedAt;
+
+        private Reply(Conn conn, int code, long receivedAt) {
+            this.conn = conn;
+            this.code = code;
+            this.receivedAt = receivedAt;
+        }
+    }
+
+    /**
+     * 一接続の受信状態
+     */
+    private final class Conn {
+
+        private final SocketChannel channel;
+        private final String remote;
+        private final ByteBuffer buffer = ByteBuffer.allocate(16384);
+        private final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        private SelectionKey key;
+        private long lastRead = System.currentTimeMillis();
+
+        // EOT まで受信して処理を待っている電文
+        private byte[] message;
+        private long messageReceivedAt;
+        private boolean processing;
+
+        // 書ききれなかった応答
+        private ByteBuffer pendingReply;
+        private boolean closeAfterReply;
+
+        private Conn(SocketChannel channel) {
+            this.channel = channel;
+            String addr;
+            try {
+                addr = String.valueOf(channel.getRemoteAddress());
+            } catch (IOException e) {
+                addr = "?";
+            }
+            this.remote = addr;
+            buffer.flip();
+        }
+
+        private void read() {
+            buffer.compact();
+            int len;
+            try {
+                len = channel.read(buffer);
+            } catch (IOException e) {
+                buffer.flip();
+                Logger.getLogger("open.dolphin").warning("PVT read failed: " + remote + " " + e.getMessage());
+                close();
+                return;
+            }
+            buffer.flip();
+            if (len == -1) {
+                Logger.getLogger("open.dolphin").fine("EOF " + remote);
+                close();
+                return;
+            }
+            if (len > 0) {
+                lastRead = System.currentTimeMillis();
+                stats.bytes.addAndGet(len);
+                frame();
+            }
+        }
+
+        // バッファから EOT までを切り出す。残りは次の電文として応答後に処理する
+        private void frame() {
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == EOT) {
+                    message = frame.toByteArray();
+                    messageReceivedAt = System.nanoTime();
+                    frame.reset();
+                    stats.messages.incrementAndGet();
+                    processing = true;
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                    if (inFlight < maxInFlight) {
+                        dispatch(this);
+                    } else {
+                        stats.deferred.incrementAndGet();
+                        waiting.add(this);
+                    }
+                    return;
+                }
+                frame.write(b);
+                if (maxMessageSize > 0 && frame.size() > maxMessageSize) {
+                    stats.failures.incrementAndGet();
+                    Logger.getLogger("open.dolphin").warning("PVT message too large from " + remote + ": " + frame.size() + " bytes");
+                    write(NAK);
+                    close();
+                    return;
+                }
+            }
+        }
+
+        private void reply(Reply reply) {
+            processing = false;
+            if (!channel.isOpen()) {
+                return;
+            }
+            stats.addLatency(System.nanoTime() - reply.receivedAt, reply.code == ACK);
+            Logger.getLogger("open.dolphin").info("return code = " + reply.code);
+            if (reply.code == NAK) {
+                // 以前と同じく NAK を返したら閉じる
+                closeAfterReply = true;
+            }
+            write(reply.code);
+            if (pendingReply != null || closeAfterReply) {
+                return;
+            }
+            lastRead = System.currentTimeMillis();
+            frame();
+            if (!processing && key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+
+        private void write(int code) {
+            pendingReply = ByteBuffer.wrap(new byte[]{(byte)code});
+            flushReply();
+        }
+
+        private void flushReply() {
+            if (pendingReply == null) {
+                return;
+            }
+            try {
+                channel.write(pendingReply);
+            } catch (IOException e) {
+                Logger.getLogger("open.dolphin").warning("PVT reply failed: " + remote + " " + e.getMessage());
+                close();
+                return;
+            }
+            if (pendingReply.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            pendingReply = null;
+            if (closeAfterReply) {
+                close();
+                return;
+            }
+            if (key.isValid() && (key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                key.interestOps(0);
+                frame();
+                if (!processing && key.isValid()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            }
+        }
+
+        private void close() {
+            if (!conns.remove(this)) {
+                return;
+            }
+            waiting.remove(this);
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Logger.getLogger("open.dolphin").warning(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 受信の集計
+     */
+    public static final class Stats {
+
+        private final AtomicLong connections = new AtomicLong();
+        private final AtomicLong messages = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong acks = new AtomicLong();
+        private final AtomicLong naks = new AtomicLong();
+        private final AtomicLong deferred = new AtomicLong();
+        private final AtomicLong timeouts = new AtomicLong();
+        private final AtomicLong totalReplyNanos = new AtomicLong();
+        private final AtomicLong maxReplyNanos = new AtomicLong();
+        private final AtomicLong replies = new AtomicLong();
+
+        private void addLatency(long nanos, boolean ack) {
+            (ack ? acks : naks).incrementAndGet();
+            replies.incrementAndGet();
+            totalReplyNanos.addAndGet(nanos);
+            long max = maxReplyNanos.get();
+            while (nanos > max && !maxReplyNanos.compareAndSet(max, nanos)) {
+                max = maxReplyNanos.get();
+            }
+        }
+
+        public long getConnections() {
+            return connections.get();
+        }
+
+        public long getMessages() {
+            return messages.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getAcks() {
+            return acks.get();
+        }
+
+        public long getNaks() {
+            return naks.get();
+        }
+
+        public long getDeferred() {
+            return deferred.get();
+        }
+
+        public long getTimeouts() {
+            return timeouts.get();
+        }
+
+        public long getAverageReplyMillis() {
+            long c = replies.get();
+            return c > 0 ? totalReplyNanos.get() / c / 1000000L : 0L;
+        }
+
+        public long getMaxReplyMillis() {
+            return maxReplyNanos.get() / 1000000L;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("PVT receiver: connections=").append(getConnections());
+            sb.append(" messages=").append(getMessages());
+            sb.append(" bytes=").append(getBytes());
+            sb.append(" failures=").append(getFailures());
+            sb.append(" ack=").append(getAcks());
+            sb.append(" nak=").append(getNaks());
+            sb.append(" deferred=").append(getDeferred());
+            sb.append(" timeouts=").append(getTimeouts());
+            sb.append(" avg ms=").append(getAverageReplyMillis());
+            sb.append(" max ms=").append(getMaxReplyMillis());
+            return sb.toString();
+        }
+    }
+}
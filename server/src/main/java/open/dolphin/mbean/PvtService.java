@@ -3,21 +3,17 @@ package open.dolphin.mbean;
 import java.io.*;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.text.DateFormat;
 import java.util.Collection;
-import java.util.Date;
 import java.util.Properties;
 import java.util.logging.Logger;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import javax.ejb.Schedule;
 import javax.ejb.Singleton;
 import javax.ejb.Startup;
 import javax.enterprise.concurrent.ManagedThreadFactory;
 import javax.inject.Inject;
-import javax.jms.*;
 import open.dolphin.infomodel.HealthInsuranceModel;
 import open.dolphin.infomodel.PatientVisitModel;
 import open.dolphin.session.PVTServiceBean;
@@ -31,14 +27,15 @@ import open.orca.rest.ORCAConnection;
  *   1) MBean 化廃止
  *   2) Server threadにManagedThreadFactoryを使用
  *   3) custom.properits の読み込みを ORCAConnection 一箇所
+ * 
+ * 受信は PvtReceiver（NIO・固定数のワーカー）で行う。接続毎のスレッドは作らない。
+ * 受信した電文は PvtQueue に書いてすぐ ACK を返し、PvtQueueConsumer が登録する
+ * （pvt.queue=false なら以前と同じく登録してから ACK を返す）。
  */
 @Singleton
 @Startup
-public class PvtService implements Runnable {
+public class PvtService implements PvtReceiver.Handler, PvtQueueConsumer.Sink {
    
-    private static final int EOT = 0x04;
-    private static final int ACK = 0x06;
-    private static final int NAK = 0x15;
     private static final String UTF8 = "UTF-8";
 //minagawa^     
     @Resource(lookup="java:jboss/ee/concurrency/factory/default")
@@ -48,17 +45,15 @@ public class PvtService implements Runnable {
     @Inject
     PVTServiceBean pvtServiceBean;
     
-    private ServerSocket listenSocket;
+    private PvtReceiver receiver;
+    private PvtQueue queue;
+    private PvtQueueConsumer consumer;
     private String encoding = UTF8;
-    private Thread serverThread;
     private String FACILITY_ID;
-    private boolean DEBUG;
     
     @PostConstruct
     public void register() {
         
-        DEBUG = Logger.getLogger("open.dolphin").getLevel().equals(java.util.logging.Level.FINE);
-        
         try {
             startService();
             
@@ -96,38 +91,66 @@ public class PvtService implements Runnable {
         int port = Integer.parseInt(config.getProperty("pvt.listen.port"));
         
         // encoding
-        encoding = config.getProperty("pvt.listen.encoding");
+        encoding = config.getProperty("pvt.listen.encoding", UTF8);
+        
+        // ワーカー数・待ち電文数・タイムアウト（秒）・一電文の最大バイト数
+        int workers = Integer.parseInt(config.getProperty("pvt.listen.workers", "4"));
+        int queueSize = Integer.parseInt(config.getProperty("pvt.listen.queue", "64"));
+        long readTimeout = Long.parseLong(config.getProperty("pvt.listen.readTimeout", "30")) * 1000L;
+        long idleTimeout = Long.parseLong(config.getProperty("pvt.listen.idleTimeout", "600")) * 1000L;
+        int maxMessageSize = Integer.parseInt(config.getProperty("pvt.listen.maxMessageSize", "4194304"));
+        
+        // 受信した電文をディスクに溜めてから登録する
+        if (Boolean.parseBoolean(config.getProperty("pvt.queue", "true"))) {
+            String dir = config.getProperty("pvt.queue.dir");
+            if (dir == null) {
+                String base = System.getProperty("jboss.server.data.dir", System.getProperty("jboss.home.dir"));
+                dir = base + File.separator + "pvt-queue";
+            }
+            queue = new PvtQueue(new File(dir));
+            queue.open();
+            int consumers = Integer.parseInt(config.getProperty("pvt.queue.consumers", "2"));
+            int batch = Integer.parseInt(config.getProperty("pvt.queue.batch", "50"));
+            int attempts = Integer.parseInt(config.getProperty("pvt.queue.attempts", "5"));
+            consumer = new PvtQueueConsumer(queue, this, threadFactory, consumers, batch, attempts);
+            consumer.start();
+            log("PVT queue " + queue.getDir() + " pending: " + queue.size());
+        }
         
         InetAddress addr = InetAddress.getByName(bindIP);
         InetSocketAddress socketAddress = new InetSocketAddress(addr, port);
         
-        listenSocket = new ServerSocket();
-        listenSocket.bind(socketAddress);
-        log("PVT Server is binded " + socketAddress + " with encoding: " + encoding);
-        
 //minagawa^ Use ManagedThreadFactory
-        serverThread = threadFactory.newThread(this);
+        receiver = new PvtReceiver(socketAddress, encoding, this, threadFactory,
+                workers, queueSize, readTimeout, idleTimeout, maxMessageSize);
 //minagawa$        
-        serverThread.start();
-        log("server thread started"); 
+        receiver.start();
+        log("PVT Server is binded " + socketAddress + " with encoding: " + encoding + " workers: " + workers);
     }
 
     @PreDestroy
     public void stopService() {
         log("PreDestroy did call");
         
-        if (serverThread != null) {
-            serverThread = null;
+        if (receiver != null) {
+            log(receiver.getStats().toString());
+            receiver.stop();
+            receiver = null;
         }
-
-        if (listenSocket != null) {
-            try {
-                listenSocket.close();
-                listenSocket = null;
-                log("PVT Server is closed");
-            } catch (IOException e) {
-                e.printStackTrace(System.err);
-            }
+        if (consumer != null) {
+            log(consumer.toString());
+            consumer.stop();
+            consumer = null;
+        }
+    }
+    
+    @Schedule(hour="*", minute="*/10", persistent=false)
+    public void logStats() {
+        if (receiver != null) {
+            log(receiver.getStats().toString());
+        }
+        if (consumer != null) {
+            log(consumer.toString());
         }
     }
     
@@ -139,186 +162,54 @@ public class PvtService implements Runnable {
         Logger.getLogger("open.dolphin").warning(msg);
     }
     
-    private void debug(String msg) {
-        if (DEBUG) {
-            Logger.getLogger("open.dolphin").fine(msg);
+    /**
+     * 受信のワーカースレッドから呼ばれる。例外を投げたら NAK を返す。
+     * @param pvtXml 受信した CLAIM 電文
+     */
+    @Override
+    public void handle(String pvtXml) throws Exception {
+        if (consumer != null) {
+            queue.append(pvtXml);
+            consumer.signal();
+            return;
+        }
+        PatientVisitModel model = parse(pvtXml);
+        if (model != null) {
+            store(model);
         }
     }
     
     @Override
-    public void run() {
-
-        Thread thisThread = Thread.currentThread();
-
-        while (thisThread==serverThread) {
-            try {
-                Socket clientSocket = listenSocket.accept();
-                PvtService.Connection con = new PvtService.Connection(clientSocket);
-                Thread t = new Thread(con);
-                t.setPriority(Thread.NORM_PRIORITY);
-                t.start();
-            } catch (IOException e) {
-                if (thisThread!=serverThread) {
-                } else {
-                    e.printStackTrace(System.err);
-                }
-            }
-        }
-    }
-  
-    protected final class Connection implements Runnable {
-
-        private Socket client;
-
-        public Connection(Socket clientSocket) {
-            this.client = clientSocket;
-        }
-        
-        private void printInfo() {
-            String addr = this.client.getInetAddress().getHostAddress();
-            String time = DateFormat.getDateTimeInstance().format(new Date());
-            StringBuilder sb = new StringBuilder();
-            sb.append("connected from ").append(addr).append(" at ").append(time);
-            log(sb.toString());
-        }
-
-        @Override
-        public void run() {
-
-            BufferedInputStream reader;
-            BufferedOutputStream writer = null;
-            javax.jms.Connection conn = null;
-            
-            try {
-                printInfo();
-                
-                reader = new BufferedInputStream(new DataInputStream(this.client.getInputStream()));
-                writer = new BufferedOutputStream(new DataOutputStream(this.client.getOutputStream()));
-                
-                ByteArrayOutputStream bo = new ByteArrayOutputStream();
-                BufferedOutputStream buf = new BufferedOutputStream(bo);
-                String recieved;
-
-                byte[] buffer = new byte[16384];
-                int readLen;
-
-                while (true) {
-
-                    readLen = reader.read(buffer);
-
-                    if (readLen == -1) {
-                        debug("EOF");
-                        break;
-                    }
-
-                    if (buffer[readLen-1] == EOT) {
-                        buf.write(buffer, 0, readLen-1);
-                        buf.flush();
-                        recieved = bo.toString(encoding);
-                        int len = recieved.length();
-                        bo.close();
-                        buf.close();
-                        
-                        //---------------------------------------------
-                        StringBuilder sb = new StringBuilder();
-                        sb.append("length of claim instance = ");
-                        sb.append(len);
-                        sb.append(" bytes");
-                        log(sb.toString());
-                        debug(recieved);
-                        
-//                        //---------------------------------------------
-//                        // send queue
-//                        //---------------------------------------------
-//                        conn = connectionFactory.createConnection();
-//                        Session session = conn.createSession(false, QueueSession.AUTO_ACKNOWLEDGE);
-//                        ObjectMessage msg = session.createObjectMessage(recieved);
-//                        MessageProducer producer = session.createProducer(queue);
-//                        producer.send(msg);
-                        
-                        log(recieved);
-                        int result = parseAndSend(recieved);
-                        
-                        // Reply ACK
-                        writeRetCode(writer, ACK);
-
-                    } else {
-                        buf.write(buffer, 0, readLen);
-                    }
-                }
-
-                reader.close();
-                writer.close();
-                client.close();
-                client = null;
-                
-            } catch (Exception e) {
-                writeRetCode(writer, NAK);
-                e.printStackTrace(System.err);
-                warn(e.getMessage());
-                
-            } finally {
-                if(conn != null) {
-                    try {
-                        conn.close();
-                    } catch (JMSException e) {
-                        e.printStackTrace(System.err);
-                        warn(e.getMessage());
-                    }
-                }
-                if (client != null) {
-                    try {
-                        client.close();
-                        client = null;
-                    } catch (IOException e2) {
-                        e2.printStackTrace(System.err);
-                        warn(e2.getMessage());
-                    }
-                }
-            }
-        }
+    public PatientVisitModel parse(String pvtXml) throws Exception {
         
-        private void writeRetCode(BufferedOutputStream writer, int retCode) {
-            if (writer!=null) {
-                try {
-                    writer.write(retCode);
-                    writer.flush();
-                    log("return code = " + retCode);
-                } catch (Exception e) {
-                    e.printStackTrace(System.err);
-                    warn(e.getMessage());
-                }
-            }
-        }
-        
-        private int parseAndSend(String pvtXml) throws Exception {
+        // Parse
+        BufferedReader r = new BufferedReader(new StringReader(pvtXml));
+        PVTBuilder builder = new PVTBuilder();
+        builder.parse(r);
+        PatientVisitModel model = builder.getProduct();
         
-            // Parse
-            BufferedReader r = new BufferedReader(new StringReader(pvtXml));
-            PVTBuilder builder = new PVTBuilder();
-            builder.parse(r);
-            PatientVisitModel model = builder.getProduct();
-            
 //s.oh^ 2014/03/13 ORCA患者登録対応
-            if(model == null) {
-                return -1;
-            }
+        if(model == null) {
+            return null;
+        }
 //s.oh$
 
-            // 関係構築
-            model.setFacilityId(FACILITY_ID);
-            model.getPatientModel().setFacilityId(FACILITY_ID);
+        // 関係構築
+        model.setFacilityId(FACILITY_ID);
+        model.getPatientModel().setFacilityId(FACILITY_ID);
 
-            Collection<HealthInsuranceModel> c = model.getPatientModel().getHealthInsurances();
-            if (c!= null && c.size() > 0) {
-                for (HealthInsuranceModel hm : c) {
-                    hm.setPatient(model.getPatientModel());
-                }
+        Collection<HealthInsuranceModel> c = model.getPatientModel().getHealthInsurances();
+        if (c!= null && c.size() > 0) {
+            for (HealthInsuranceModel hm : c) {
+                hm.setPatient(model.getPatientModel());
             }
-
-            int result = pvtServiceBean.addPvt(model);
-            
-            return result;
         }
+        
+        return model;
+    }
+    
+    @Override
+    public void store(PatientVisitModel model) throws Exception {
+        pvtServiceBean.addPvt(model);
     }
 }
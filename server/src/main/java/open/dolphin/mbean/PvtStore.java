@@ -0,0 +1,156 @@
+package open.dolphin.mbean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import open.dolphin.infomodel.PatientVisitModel;
+
+/**
+ * 施設毎の今日の受付リスト。
+ *
+ * 受付の pk と患者の pk で索引し、状態変更・削除を O(1) で行う。
+ * 並び順は受付順（置き換えても位置は変わらない）。
+ * 読み出しには構造が変わるまで使い回す変更不可のスナップショットを返す。
+ */
+public class PvtStore {
+
+    // pvt pk -> PatientVisitModel 受付順
+    private final LinkedHashMap<Long, PatientVisitModel> byPvtPk = new LinkedHashMap<>();
+
+    // patient pk -> pvt pk
+    private final Map<Long, Set<Long>> byPatientPk = new HashMap<>();
+
+    // 追加・削除があるまで有効なスナップショット
+    private volatile List<PatientVisitModel> snapshot = Collections.emptyList();
+    private volatile boolean dirty;
+
+    /**
+     * 受付を追加する。同じ pk があれば同じ位置で置き換える。
+     * @param pvt 受付
+     */
+    public synchronized void put(PatientVisitModel pvt) {
+        PatientVisitModel old = byPvtPk.put(pvt.getId(), pvt);
+        if (old != null) {
+            unindexPatient(old);
+        }
+        indexPatient(pvt);
+        dirty = true;
+    }
+
+    public synchronized PatientVisitModel get(long pvtPk) {
+        return byPvtPk.get(pvtPk);
+    }
+
+    /**
+     * 受付を削除する。
+     * @param pvtPk 受付の pk
+     * @return 削除した受付 なければ null
+     */
+    public synchronized PatientVisitModel remove(long pvtPk) {
+        PatientVisitModel old = byPvtPk.remove(pvtPk);
+        if (old != null) {
+            unindexPatient(old);
+            dirty = true;
+        }
+        return old;
+    }
+
+    /**
+     * 患者の今日の受付を返す。
+     * @param patientPk 患者の pk
+     * @return 受付のリスト（受付順）
+     */
+    public synchronized List<PatientVisitModel> findByPatient(long patientPk) {
+        Set<Long> pks = byPatientPk.get(patientPk);
+        if (pks == null) {
+            return Collections.emptyList();
+        }
+        List<PatientVisitModel> ret = new ArrayList<>(pks.size());
+        for (Long pk : pks) {
+            ret.add(byPvtPk.get(pk));
+        }
+        return ret;
+    }
+
+    /**
+     * 受付順の変更不可なリストを返す。追加・削除がなければ同じインスタンスを返す。
+     * @return 受付リスト
+     */
+    public List<PatientVisitModel> snapshot() {
+        if (!dirty) {
+            return snapshot;
+        }
+        synchronized (this) {
+            if (dirty) {
+                snapshot = Collections.unmodifiableList(new ArrayList<>(byPvtPk.values()));
+                dirty = false;
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * 日替わり時 BIT_SAVE_CLAIM, BIT_MODIFY_CLAIM, BIT_CANCEL の受付を削除する。
+     * @return 削除した数
+     */
+    public synchronized int removeFinished() {
+        int cnt = 0;
+        for (Iterator<PatientVisitModel> itr = byPvtPk.values().iterator(); itr.hasNext();) {
+            PatientVisitModel pvt = itr.next();
+            if (pvt.getStateBit(PatientVisitModel.BIT_SAVE_CLAIM)
+                    || pvt.getStateBit(PatientVisitModel.BIT_MODIFY_CLAIM)
+                    || pvt.getStateBit(PatientVisitModel.BIT_CANCEL)) {
+                itr.remove();
+                unindexPatient(pvt);
+                cnt++;
+            }
+        }
+        if (cnt > 0) {
+            dirty = true;
+        }
+        return cnt;
+    }
+
+    public synchronized void clear() {
+        byPvtPk.clear();
+        byPatientPk.clear();
+        dirty = true;
+    }
+
+    public synchronized int size() {
+        return byPvtPk.size();
+    }
+
+    private void indexPatient(PatientVisitModel pvt) {
+        if (pvt.getPatientModel() == null) {
+            return;
+        }
+        long ptPk = pvt.getPatientModel().getId();
+        Set<Long> pks = byPatientPk.get(ptPk);
+        if (pks == null) {
+            pks = new LinkedHashSet<>(4);
+            byPatientPk.put(ptPk, pks);
+        }
+        pks.add(pvt.getId());
+    }
+
+    private void unindexPatient(PatientVisitModel pvt) {
+        if (pvt.getPatientModel() == null) {
+            return;
+        }
+        long ptPk = pvt.getPatientModel().getId();
+        Set<Long> pks = byPatientPk.get(ptPk);
+        if (pks != null) {
+            pks.remove(pvt.getId());
+            if (pks.isEmpty()) {
+                byPatientPk.remove(ptPk);
+            }
+        }
+    }
+}
@@ -1,13 +1,10 @@
 package open.dolphin.mbean;
 
-import java.util.ArrayList;
 import java.util.GregorianCalendar;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 import javax.inject.Singleton;
-import javax.servlet.AsyncContext;
 import open.dolphin.infomodel.PatientVisitModel;
 
 /**
@@ -21,30 +18,31 @@ public class ServletContextHolder {
     private GregorianCalendar today;
     private GregorianCalendar tomorrow;
 
-    // AsyncContextのリスト
-    private final List<AsyncContext> acList = new ArrayList<>();
+    // facilityIdとChartEventQueueのマップ
+    private final ConcurrentHashMap<String, ChartEventQueue> eventQueueMap
+            = new ConcurrentHashMap<>();
+    
+    // facilityIdとPvtStoreのマップ
+    private final ConcurrentHashMap<String, PvtStore> pvtStoreMap
+            = new ConcurrentHashMap<>();
     
-    // facilityIdとpvtListのマップ
-    private final Map<String, List<PatientVisitModel>> pvtListMap 
+    // facilityIdとPatientSearchIndexのマップ
+    private final ConcurrentHashMap<String, PatientSearchIndex> patientSearchIndexMap
             = new ConcurrentHashMap<>();
     
     // サーバーのUUID
     private String serverUUID;
 
-    public List<AsyncContext> getAsyncContextList() {
-        return acList;
-    }
-
-    public void addAsyncContext(AsyncContext ac) {
-        synchronized (acList) {
-            acList.add(ac);
-        }
-    }
-
-    public void removeAsyncContext(AsyncContext ac) {
-        synchronized (acList) {
-            acList.remove(ac);
+    public ChartEventQueue getEventQueue(String fid) {
+        ChartEventQueue queue = eventQueueMap.get(fid);
+        if (queue == null) {
+            ChartEventQueue newQueue = new ChartEventQueue(fid);
+            queue = eventQueueMap.putIfAbsent(fid, newQueue);
+            if (queue == null) {
+                queue = newQueue;
+            }
         }
+        return queue;
     }
     
     public String getServerUUID() {
@@ -55,17 +53,41 @@ public class ServletContextHolder {
         serverUUID = uuid;
     }
 
-    public Map<String, List<PatientVisitModel>> getPvtListMap() {
-        return pvtListMap;
+    public Map<String, PvtStore> getPvtStoreMap() {
+        return pvtStoreMap;
     }
     
-    public List<PatientVisitModel> getPvtList(String fid) {
-        List<PatientVisitModel> pvtList = pvtListMap.get(fid);
-        if (pvtList == null) {
-            pvtList = new CopyOnWriteArrayList<>();
-            pvtListMap.put(fid, pvtList);
+    public PvtStore getPvtStore(String fid) {
+        PvtStore store = pvtStoreMap.get(fid);
+        if (store == null) {
+            PvtStore newStore = new PvtStore();
+            store = pvtStoreMap.putIfAbsent(fid, newStore);
+            if (store == null) {
+                store = newStore;
+            }
         }
-        return pvtList;
+        return store;
+    }
+    
+    public Map<String, PatientSearchIndex> getPatientSearchIndexMap() {
+        return patientSearchIndexMap;
+    }
+    
+    public PatientSearchIndex getPatientSearchIndex(String fid) {
+        PatientSearchIndex index = patientSearchIndexMap.get(fid);
+        if (index == null) {
+            PatientSearchIndex newIndex = new PatientSearchIndex();
+            index = patientSearchIndexMap.putIfAbsent(fid, newIndex);
+            if (index == null) {
+                index = newIndex;
+            }
+        }
+        return index;
+    }
+    
+    // 受付順の変更不可なスナップショット
+    public List<PatientVisitModel> getPvtList(String fid) {
+        return getPvtStore(fid).snapshot();
     }
 
     // 今日と明日を設定する
@@ -15,6 +15,7 @@ import javax.inject.Inject;
 import open.dolphin.session.ChartEventServiceBean;
 import open.dolphin.session.SystemServiceBean;
 import open.orca.rest.ORCAConnection;
+import open.orca.rest.OrcaMasterCache;
 //import open.dolphin.updater.Updater;
 
 /**
@@ -42,10 +43,13 @@ private static final Logger logger = Logger.getLogger(ServletStartup.class.getSi
     public void init() {
 //        updater.start();
         eventServiceBean.start();
+        // ORCA マスターキャッシュを別スレッドで読み込む
+        OrcaMasterCache.getInstance().refreshAsync();
     }
 
     @PreDestroy
     public void stop() {
+        ORCAConnection.getInstance().closePool();
     }
 
     // 日付が変わったらpvtListをクリアしクライアントに伝える
@@ -53,6 +57,8 @@ private static final Logger logger = Logger.getLogger(ServletStartup.class.getSi
     public void dayChange() {
         Logger.getLogger("open.dolphin").info("Renew pvtlist.");
         eventServiceBean.renewPvtList();
+        // 患者検索索引は次の検索で作り直す
+        eventServiceBean.invalidatePatientSearchIndex();
     }
     @Timeout
     public void timeout(Timer timer) {
@@ -104,4 +110,23 @@ private static final Logger logger = Logger.getLogger(ServletStartup.class.getSi
         }          
     }
 //s.oh$
+    
+    /**
+     * ORCA 接続プールの統計を 10 分毎にログへ出す（claim.conn=server の場合のみ）。
+     */
+    @Schedule(hour="*", minute="*/10", persistent=false)
+    public void logOrcaPoolStats() {
+        String stats = ORCAConnection.getInstance().getPoolStats();
+        if (stats != null) {
+            Logger.getLogger("open.dolphin").info(stats);
+        }
+    }
+    
+    /**
+     * ORCA のマスター更新（tbl_dbkanri）を 10 分毎に確認し、変わっていればマスターキャッシュを読み直す。
+     */
+    @Schedule(hour="*", minute="5/10", persistent=false)
+    public void refreshOrcaMasterCache() {
+        OrcaMasterCache.getInstance().refreshAsync();
+    }
 }
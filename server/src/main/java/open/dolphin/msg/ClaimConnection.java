@@ -0,0 +1,150 @@
+package open.dolphin.msg;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.logging.Logger;
+
+/**
+ * ORCA の CLAIM 受信ポートへの接続。
+ * 電文 + EOT を書いて ACK/NAK を一バイト読む。keepAlive なら接続を使い回す。
+ * 使い回す接続は書く前に ORCA から切られていないか確かめ、切られていれば繋ぎ直す。
+ *
+ * 接続・書き込みで失敗した電文は ORCA に届いていないので送り直してよい（IOException）。
+ * 書いた後に応答が読めなかった電文は届いたかどうか分からないので UnknownReplyException にする。
+ * ORCA で受け付けたか確認してから手で送り直すこと。二重登録になるので自動では送り直さない。
+ * 一つの接続を複数のスレッドから使わないこと。
+ */
+public class ClaimConnection {
+
+    /**
+     * 電文を書いた後に応答が得られなかった。ORCA に届いたかどうか分からない。
+     */
+    public static class UnknownReplyException extends IOException {
+
+        public UnknownReplyException(String message) {
+            super(message);
+        }
+
+        public UnknownReplyException(Throwable cause) {
+            super(cause);
+        }
+    }
+
+    public static final int EOT = 0x04;
+    public static final int ACK = 0x06;
+    public static final int NAK = 0x15;
+
+    private final String host;
+    private final int port;
+    private final String enc;
+    private final int timeoutMillis;
+    private final boolean keepAlive;
+
+    private Socket socket;
+    private BufferedInputStream reader;
+    private BufferedOutputStream writer;
+
+    public ClaimConnection(String host, int port, String enc, int timeoutMillis, boolean keepAlive) {
+        this.host = host;
+        this.port = port;
+        this.enc = enc;
+        this.timeoutMillis = timeoutMillis;
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * 電文を送る。
+     * @param message CLAIM 電文
+     * @return ORCA の応答 ACK または NAK
+     * @throws UnknownReplyException 書いた後に応答がなかった 送り直さないこと
+     * @throws IOException 接続できなかった・書けなかった 送り直してよい
+     */
+    public int send(String message) throws IOException {
+        byte[] bytes = message.getBytes(enc);
+        try {
+            if (socket != null && isClosedByPeer()) {
+                Logger.getLogger("dolphin.claim").fine("reconnect to ORCA");
+                close();
+            }
+            if (socket == null) {
+                connect();
+            }
+            try {
+                writer.write(bytes);
+                writer.write(EOT);
+                writer.flush();
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+            int c;
+            try {
+                c = reader.read();
+            } catch (IOException e) {
+                close();
+                throw new UnknownReplyException(e);
+            }
+            if (c == -1) {
+                close();
+                throw new UnknownReplyException(new EOFException("ORCA closed the connection"));
+            }
+            return c;
+        } finally {
+            if (!keepAlive) {
+                close();
+            }
+        }
+    }
+
+    public void close() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+            socket = null;
+            reader = null;
+            writer = null;
+        }
+    }
+
+    private void connect() throws IOException {
+        Socket s = new Socket();
+        try {
+            s.connect(new InetSocketAddress(host, port), timeoutMillis);
+            s.setSoTimeout(timeoutMillis);
+            reader = new BufferedInputStream(s.getInputStream());
+            writer = new BufferedOutputStream(s.getOutputStream());
+        } catch (IOException e) {
+            s.close();
+            throw e;
+        }
+        socket = s;
+    }
+
+    // 使い回す接続が ORCA から切られているか 待っていない応答が届いていても使えない
+    private boolean isClosedByPeer() {
+        try {
+            if (reader.available() > 0) {
+                return true;
+            }
+            socket.setSoTimeout(1);
+            try {
+                // 切られた（-1）か、待っていない応答が届いた
+                reader.read();
+                return true;
+            } catch (SocketTimeoutException e) {
+                return false;
+            } finally {
+                socket.setSoTimeout(timeoutMillis);
+            }
+        } catch (IOException e) {
+            return true;
+        }
+    }
+}
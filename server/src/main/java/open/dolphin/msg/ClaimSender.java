@@ -1,14 +1,10 @@
 package open.dolphin.msg;
 
-import java.beans.XMLDecoder;
 import java.io.*;
-import java.net.Socket;
 import java.util.Collection;
 import java.util.Date;
 import java.util.logging.Logger;
 import open.dolphin.infomodel.*;
-import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.Velocity;
 
 /**
  * Claim 送信クラス。
@@ -20,9 +16,8 @@ import org.apache.velocity.app.Velocity;
  */
 public class ClaimSender {
     
-    private static final int EOT = 0x04;
-    private static final int ACK = 0x06;
-    private static final int NAK = 0x15;
+    private static final int ACK = ClaimConnection.ACK;
+    private static final int NAK = ClaimConnection.NAK;
     private static final String ACK_STR = "ACK: ";
     private static final String NAK_STR = "NAK: ";
     private static final String OBJECT_NAME = "claimHelper";
@@ -33,6 +28,8 @@ public class ClaimSender {
     private int port;
     private String enc;
     
+    private String baseInfo;
+    
     private boolean DEBUG;
 
     public ClaimSender() {
@@ -54,6 +51,31 @@ public class ClaimSender {
      * @throws Exception 
      */
     public void send(DocumentModel sendModel) throws Exception {
+        String claimMessage = createMessage(sendModel);
+        ClaimConnection conn = new ClaimConnection(host, port, enc, 0, false);
+        int c = conn.send(claimMessage);
+        if (c == ACK) {
+            log(ACK_STR + baseInfo);
+        } else if (c == NAK) {
+            log(NAK_STR + baseInfo);
+        }
+    }
+    
+    /**
+     * 送信ログ用の基本情報（確定日 患者ID 氏名 性別）。createMessage の後に有効。
+     * @return 基本情報
+     */
+    public String getBaseInfo() {
+        return baseInfo;
+    }
+
+    /**
+     * CLAIM 電文を生成する。
+     * @param sendModel 送信するDocuentModel
+     * @return CLAIM 電文
+     * @throws Exception 
+     */
+    public String createMessage(DocumentModel sendModel) throws Exception {
 
         // ヘルパークラスを生成しVelocityが使用するためのパラメータを設定する
         ClaimHelper helper = new ClaimHelper();
@@ -170,19 +192,12 @@ public class ClaimSender {
         // ログのために基本情報を生成する
         StringBuilder sb = new StringBuilder();
         sb.append(confirmedStr).append(" ").append(patientId).append(" ").append(patientName).append(" ").append(patientGender);
-        String baseInfo = sb.toString();
+        baseInfo = sb.toString();
         
         //--------------------------------------------------------
         // CLIAM message を生成する
         //--------------------------------------------------------
-        VelocityContext context = VelocityHelper.getContext();
-        context.put(OBJECT_NAME, helper);
-        StringWriter sw = new StringWriter();
-        BufferedWriter bw = new BufferedWriter(sw);
-        Velocity.mergeTemplate(TEMPLATE_NAME, TEMPLATE_ENC, context, bw);
-        bw.flush();
-        bw.close();
-        String claimMessage = sw.toString();
+        String claimMessage = VelocityHelper.merge(TEMPLATE_NAME, TEMPLATE_ENC, OBJECT_NAME, helper);
 //minagawa^ CLAIM Log INFOで          
         log(claimMessage);
 //        if (DEBUG) {
@@ -191,36 +206,7 @@ public class ClaimSender {
 //minagawa$        
         //--------------------------------------------------------
         
-        // ORCAへ接続する
-        Socket socket = new Socket(host, port);
-        OutputStream out = socket.getOutputStream();
-        DataOutputStream dout = new DataOutputStream(out);
-        BufferedOutputStream writer = new BufferedOutputStream(dout);
-
-        InputStream in = socket.getInputStream();
-        DataInputStream din = new DataInputStream(in);
-        BufferedInputStream reader = new BufferedInputStream(din);
-
-        // Writes UTF8 data
-        writer.write(claimMessage.getBytes(enc));
-        writer.write(EOT);
-        writer.flush();
-        
-        // Reads result
-        int c = reader.read();
-        if (c == ACK) {
-            sb = new StringBuilder();
-            sb.append(ACK_STR).append(baseInfo);
-            log(sb.toString());
-        } else if (c == NAK) {
-            sb = new StringBuilder();
-            sb.append(NAK_STR).append(baseInfo);
-            log(sb.toString());
-        }
-
-        writer.close();
-        reader.close();
-        socket.close();
+        return claimMessage;
     }
     
     private void log(String msg) {
@@ -238,11 +224,6 @@ public class ClaimSender {
 //minagawa$    
     
     private Object xmlDecode(byte[] bytes)  {
-
-        XMLDecoder d = new XMLDecoder(
-                new BufferedInputStream(
-                new ByteArrayInputStream(bytes)));
-
-        return d.readObject();
+        return BeanCodec.decode(bytes);
     }
 }
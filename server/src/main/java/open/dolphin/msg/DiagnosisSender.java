@@ -1,7 +1,6 @@
 package open.dolphin.msg;
 
 import java.io.*;
-import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -9,8 +8,6 @@ import java.util.List;
 import java.util.Properties;
 import java.util.logging.Logger;
 import open.dolphin.infomodel.*;
-import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.Velocity;
 
 /**
  * Claim 送信クラス。
@@ -22,9 +19,8 @@ import org.apache.velocity.app.Velocity;
  */
 public class DiagnosisSender {
     
-    private static final int EOT = 0x04;
-    private static final int ACK = 0x06;
-    private static final int NAK = 0x15;
+    private static final int ACK = ClaimConnection.ACK;
+    private static final int NAK = ClaimConnection.NAK;
     private static final String ACK_STR = "ACK: ";
     private static final String NAK_STR = "NAK: ";
     private static final String OBJECT_NAME = "diseaseHelper";
@@ -44,6 +40,8 @@ public class DiagnosisSender {
     private int port;
     private String enc;
     
+    private String baseInfo;
+    
     private boolean DEBUG;
 
     public DiagnosisSender() {
@@ -65,6 +63,34 @@ public class DiagnosisSender {
      * @throws Exception 
      */
     public void send(DiagnosisSendWrapper wrapper) throws Exception {
+        String claimMessage = createMessage(wrapper);
+        if (claimMessage == null) {
+            return;
+        }
+        ClaimConnection conn = new ClaimConnection(host, port, enc, 0, false);
+        int c = conn.send(claimMessage);
+        if (c == ACK) {
+            log(ACK_STR + baseInfo);
+        } else if (c == NAK) {
+            log(NAK_STR + baseInfo);
+        }
+    }
+    
+    /**
+     * 送信ログ用の基本情報（確定日 患者ID 氏名 性別）。createMessage の後に有効。
+     * @return 基本情報
+     */
+    public String getBaseInfo() {
+        return baseInfo;
+    }
+
+    /**
+     * 傷病名の CLAIM 電文を生成する。
+     * @param wrapper 送信する傷病名
+     * @return CLAIM 電文 送信しない設定・送信する傷病名がない場合は null
+     * @throws Exception 
+     */
+    public String createMessage(DiagnosisSendWrapper wrapper) throws Exception {
         
 //s.oh^ 2013/12/10 傷病名のCLAIM送信する／しない
         Properties config = new Properties();
@@ -79,7 +105,7 @@ public class DiagnosisSender {
         isr.close();
         String claimSend = config.getProperty("diagnosis.claim.send");
         if(claimSend != null && claimSend.equals("false")) {
-            return;
+            return null;
         }
 //s.oh$
         
@@ -161,7 +187,7 @@ public class DiagnosisSender {
         }
         
         if (actualList.isEmpty()) {
-            return;
+            return null;
         }
         
         Collections.sort(actualList, new DiagnosisSendComparator());
@@ -228,19 +254,12 @@ public class DiagnosisSender {
         sb.append(wrapper.getPatientId()).append(" ");
         sb.append(wrapper.getPatientName()).append(" ");
         sb.append(wrapper.getPatientGender());
-        String baseInfo = sb.toString();
+        baseInfo = sb.toString();
         
         //--------------------------------------------------------
         // CLIAM message を生成する
         //--------------------------------------------------------
-        VelocityContext context = VelocityHelper.getContext();
-        context.put(OBJECT_NAME, dhl);
-        StringWriter sw = new StringWriter();
-        BufferedWriter bw = new BufferedWriter(sw);
-        Velocity.mergeTemplate(TEMPLATE_NAME, TEMPLATE_ENC, context, bw);
-        bw.flush();
-        bw.close();
-        String claimMessage = sw.toString();
+        String claimMessage = VelocityHelper.merge(TEMPLATE_NAME, TEMPLATE_ENC, OBJECT_NAME, dhl);
 //minagawa^ CLAIM Log    
         log(claimMessage);
 //        if (DEBUG) {
@@ -249,36 +268,7 @@ public class DiagnosisSender {
 //minagawa$        
         //--------------------------------------------------------
         
-        // ORCAへ接続する
-        Socket socket = new Socket(host, port);
-        OutputStream out = socket.getOutputStream();
-        DataOutputStream dout = new DataOutputStream(out);
-        BufferedOutputStream writer = new BufferedOutputStream(dout);
-
-        InputStream in = socket.getInputStream();
-        DataInputStream din = new DataInputStream(in);
-        BufferedInputStream reader = new BufferedInputStream(din);
-
-        // Writes UTF8 data
-        writer.write(claimMessage.getBytes(enc));
-        writer.write(EOT);
-        writer.flush();
-
-        // Reads result
-        int c = reader.read();
-        if (c == ACK) {
-            sb = new StringBuilder();
-            sb.append(ACK_STR).append(baseInfo);
-            log(sb.toString());
-        } else if (c == NAK) {
-            sb = new StringBuilder();
-            sb.append(NAK_STR).append(baseInfo);
-            log(sb.toString());
-        }
-
-        writer.close();
-        reader.close();
-        socket.close();
+        return claimMessage;
     }
     
 //s.oh^ 2014/11/11 傷病名送信順番の変更
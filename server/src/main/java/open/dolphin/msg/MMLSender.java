@@ -1,17 +1,11 @@
 package open.dolphin.msg;
 
-import java.beans.XMLDecoder;
-import java.io.BufferedInputStream;
-import java.io.BufferedWriter;
-import java.io.ByteArrayInputStream;
-import java.io.StringWriter;
 import java.util.List;
 import java.util.logging.Logger;
+import open.dolphin.infomodel.BeanCodec;
 import open.dolphin.infomodel.DocumentModel;
 import open.dolphin.infomodel.IInfoModel;
 import open.dolphin.infomodel.ModuleModel;
-import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.Velocity;
 
 /**
  *
@@ -48,14 +42,7 @@ public class MMLSender {
         helper.setDocument(dm);
         helper.buildText();
 
-        VelocityContext context = new VelocityContext();
-        context.put(OBJECT_NAME, helper);
-        StringWriter sw = new StringWriter();
-        BufferedWriter bw = new BufferedWriter(sw);
-        Velocity.mergeTemplate(TEMPLATE_NAME, TEMPLATE_ENC, context, bw);
-        bw.flush();
-        bw.close();
-        String mml = sw.toString();
+        String mml = VelocityHelper.merge(TEMPLATE_NAME, TEMPLATE_ENC, OBJECT_NAME, helper);
         if (DEBUG) {
             log(mml);
         }
@@ -70,11 +57,6 @@ public class MMLSender {
     }
     
     private Object xmlDecode(byte[] bytes)  {
-
-        XMLDecoder d = new XMLDecoder(
-                new BufferedInputStream(
-                new ByteArrayInputStream(bytes)));
-
-        return d.readObject();
+        return BeanCodec.decode(bytes);
     }
 }
@@ -1,19 +1,32 @@
 package open.dolphin.msg;
 
+import java.io.CharArrayWriter;
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.Properties;
 import java.util.logging.Logger;
+import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
 import org.apache.velocity.app.Velocity;
 
 /**
  *
  * @author kazushi
+ *
+ * 解析済みのテンプレートは Velocity のリソースキャッシュに保持する。
+ * テンプレートファイルの更新は velocity.modificationCheckInterval 秒（既定 60）毎に確認する。
+ * merge は呼び出し毎のバッファへ書き出す。プールのスレッドにバッファを残さない。
  */
 public class VelocityHelper {
-    
+
     static {
-        
+
         try {
             // Velocity を初期化する
             Properties p = new Properties();
@@ -23,14 +36,84 @@ public class VelocityHelper {
             String resDir = sb.toString();
             // Resource(template) load directory
             p.setProperty("file.resource.loader.path", resDir);
+            // 解析済みテンプレートをキャッシュする
+            p.setProperty("file.resource.loader.cache", "true");
+            p.setProperty("file.resource.loader.modificationCheckInterval", System.getProperty("velocity.modificationCheckInterval", "60"));
             Velocity.init(p);
-            
+
         } catch (Exception e) {
             Logger.getLogger("open.dolphin").warning(e.getMessage());
         }
     }
-    
+
     public static VelocityContext getContext() {
         return new VelocityContext();
     }
+
+    /**
+     * キャッシュされたテンプレートを返す。
+     * @param name テンプレート名
+     * @param enc テンプレートのエンコーディング
+     * @return テンプレート
+     */
+    public static Template getTemplate(String name, String enc) {
+        return Velocity.getTemplate(name, enc);
+    }
+
+    /**
+     * テンプレートに helper を一つ渡して文字列を生成する。
+     * @param name テンプレート名
+     * @param enc テンプレートのエンコーディング
+     * @param objectName テンプレート内の helper 名
+     * @param helper helper
+     * @return 生成した文字列
+     */
+    public static String merge(String name, String enc, String objectName, Object helper) {
+        return render(name, enc, objectName, helper).toString();
+    }
+
+    /**
+     * テンプレートに helper を一つ渡して生成した文字列を charset のバイト列にする。
+     * 中間の String を作らない。
+     * @param name テンプレート名
+     * @param enc テンプレートのエンコーディング
+     * @param objectName テンプレート内の helper 名
+     * @param helper helper
+     * @param charset 出力のエンコーディング
+     * @return 生成したバイト列 position=0 limit=長さ
+     * @throws IOException
+     */
+    public static ByteBuffer mergeToBytes(String name, String enc, String objectName, Object helper, Charset charset) throws IOException {
+        return encode(render(name, enc, objectName, helper).chars(), charset);
+    }
+
+    private static Buffer render(String name, String enc, String objectName, Object helper) {
+        VelocityContext context = getContext();
+        context.put(objectName, helper);
+        Buffer buf = new Buffer();
+        getTemplate(name, enc).merge(context, buf);
+        return buf;
+    }
+
+    private static ByteBuffer encode(CharBuffer chars, Charset charset) throws CharacterCodingException {
+        // String.getBytes と同じく表現できない文字は置換する
+        CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        return encoder.encode(chars);
+    }
+
+    /**
+     * 内部配列をそのまま CharBuffer として見せる CharArrayWriter
+     */
+    private static final class Buffer extends CharArrayWriter {
+
+        Buffer() {
+            super(8192);
+        }
+
+        CharBuffer chars() {
+            return CharBuffer.wrap(buf, 0, count);
+        }
+    }
 }
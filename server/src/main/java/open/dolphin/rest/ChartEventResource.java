@@ -1,6 +1,8 @@
 package open.dolphin.rest;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import javax.inject.Inject;
 import javax.servlet.AsyncContext;
 import javax.servlet.AsyncEvent;
@@ -11,6 +13,7 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import open.dolphin.converter.ChartEventModelConverter;
 import open.dolphin.infomodel.ChartEventModel;
+import open.dolphin.mbean.ChartEventQueue;
 import open.dolphin.mbean.ServletContextHolder;
 import open.dolphin.session.ChartEventServiceBean;
 import org.codehaus.jackson.map.DeserializationConfig;
@@ -33,6 +36,11 @@ public class ChartEventResource extends AbstractResource {
     public static final String CLIENT_UUID = "clientUUID";
     public static final String FID = "fid";
     public static final String DISPATCH_URL = "/resources/chartEvent/dispatch";
+    public static final String DISPATCH_LIST_URL = "/resources/chartEvent/dispatchList";
+    // クライアントが最後に受け取った sequence 無しは旧クライアント、-1 は現在位置から
+    public static final String LAST_SEQUENCE = "lastSequence";
+    // lastSequence を振ったキューの epoch
+    public static final String EPOCH = "epoch";
     public static final String KEY_NAME = "chartEvent";
     
     @Inject
@@ -65,19 +73,16 @@ public class ChartEventResource extends AbstractResource {
         // requestにfid, clientUUIDを記録しておく
         ac.getRequest().setAttribute(FID, fid);
         ac.getRequest().setAttribute(CLIENT_UUID, clientUUID);
-        contextHolder.addAsyncContext(ac);
         
-//minagawa^
-        int subscribers = contextHolder.getAsyncContextList().size();
-        debug("subscribers count = " + subscribers);
-//minagawa$        
+        final ChartEventQueue queue = contextHolder.getEventQueue(fid);
+        ChartEventQueue.Subscriber subscriber = new ChartEventQueue.Subscriber(ac, clientUUID, getLastSequence(), servletReq.getHeader(EPOCH));
         
         ac.addListener(new AsyncListener() {
 
             private void remove() {
                 // JBOSS終了時にぬるぽ？
                 try {
-                    contextHolder.removeAsyncContext(ac);
+                    queue.remove(ac);
                 } catch (NullPointerException ex) {
                 }
             }
@@ -104,6 +109,32 @@ public class ChartEventResource extends AbstractResource {
             public void onStartAsync(AsyncEvent event) throws IOException {
             }
         });
+        
+        // 再接続の間に発行されたイベントがあれば待たずに返す
+        List<ChartEventModel> pending = queue.subscribe(subscriber);
+        if (pending != null) {
+            ac.getRequest().setAttribute(KEY_NAME, pending);
+            ac.dispatch(DISPATCH_LIST_URL);
+            debug(fid + ":" + clientUUID + " resumed with " + pending.size() + " events");
+            return;
+        }
+        
+//minagawa^
+        int subscribers = queue.getSubscriberCount();
+        debug("subscribers count = " + subscribers);
+//minagawa$        
+    }
+    
+    private long getLastSequence() {
+        String seq = servletReq.getHeader(LAST_SEQUENCE);
+        if (seq == null) {
+            return ChartEventQueue.NO_SEQUENCE;
+        }
+        try {
+            return Long.parseLong(seq.trim());
+        } catch (NumberFormatException e) {
+            return ChartEventQueue.FROM_NOW;
+        }
     }
     
     @PUT
@@ -146,6 +177,22 @@ public class ChartEventResource extends AbstractResource {
 //minagawa$          
     }
 
+    @GET
+    @Path("/dispatchList")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<ChartEventModelConverter> deliverChartEvents() {
+        
+        debug("deliverChartEvents did call");
+        List<ChartEventModel> list = (List<ChartEventModel>)servletReq.getAttribute(KEY_NAME);
+        List<ChartEventModelConverter> ret = new ArrayList<>(list.size());
+        for (ChartEventModel msg : list) {
+            ChartEventModelConverter conv = new ChartEventModelConverter();
+            conv.setModel(msg);
+            ret.add(conv);
+        }
+        return ret;
+    }
+
     @Override
     protected void debug(String msg) {
         if (debug || DEBUG) {
@@ -12,6 +12,7 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import open.dolphin.converter.*;
 import open.dolphin.infomodel.*;
+import open.dolphin.session.ClaimOutboxServiceBean;
 import open.dolphin.session.KarteServiceBean;
 import open.dolphin.session.PVTServiceBean;
 import org.codehaus.jackson.map.DeserializationConfig;
@@ -30,6 +31,9 @@ public class KarteResource extends AbstractResource {
     
     @Inject
     private PVTServiceBean pvtServiceBean;
+    
+    @Inject
+    private ClaimOutboxServiceBean claimOutboxServiceBean;
 
     /** Creates a new instance of KarteResource */
     public KarteResource() {
@@ -257,6 +261,48 @@ public class KarteResource extends AbstractResource {
         return conv;
     }
 
+    //-------------------------------------------------------
+    // CLAIM 送信状況
+    //-------------------------------------------------------
+    
+    @GET
+    @Path("/claim/outbox")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String getClaimOutbox(@Context HttpServletRequest servletReq, @QueryParam("pid") String pid, @QueryParam("from") String from) throws IOException {
+        
+        String fid = getRemoteFacility(servletReq.getRemoteUser());
+        // from yyyy-MM-dd HH:mm:ss 省略時は一日前から
+        Date fromDate = from != null ? parseDate(from) : null;
+        if (fromDate == null) {
+            fromDate = new Date(System.currentTimeMillis() - 24L * 60L * 60L * 1000L);
+        }
+        List<ClaimOutboxModel> list = claimOutboxServiceBean.getOutbox(fid, pid, fromDate);
+        
+        return getSerializeMapper().writeValueAsString(list);
+    }
+    
+    @PUT
+    @Path("/claim/outbox/{id}")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String resendClaim(@Context HttpServletRequest servletReq, @PathParam("id") String idStr) {
+        
+        String fid = getRemoteFacility(servletReq.getRemoteUser());
+        int cnt = claimOutboxServiceBean.resend(fid, Long.parseLong(idStr));
+        
+        return String.valueOf(cnt);
+    }
+    
+    @PUT
+    @Path("/claim/outbox/{id}/discard")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String discardClaim(@Context HttpServletRequest servletReq, @PathParam("id") String idStr) {
+        
+        String fid = getRemoteFacility(servletReq.getRemoteUser());
+        int cnt = claimOutboxServiceBean.discard(fid, Long.parseLong(idStr));
+        
+        return String.valueOf(cnt);
+    }
+
     //-------------------------------------------------------
 
     @GET
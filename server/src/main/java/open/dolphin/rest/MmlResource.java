@@ -1,14 +1,24 @@
 package open.dolphin.rest;
 
+import java.io.IOException;
 import java.util.List;
 import javax.inject.Inject;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import open.dolphin.converter.*;
 import open.dolphin.infomodel.*;
+import open.dolphin.mbean.MmlExportJob;
+import open.dolphin.mbean.MmlExportService;
 import open.dolphin.touch.converter.IPatientModel;
 import open.dolphin.session.MmlServiceBean;
 
@@ -22,30 +32,58 @@ public class MmlResource extends AbstractResource {
     @Inject
     private MmlServiceBean mmlServiceBean;
     
+    @Inject
+    private MmlExportService mmlExportService;
+    
        
     @GET
     @Path("/document/{param}")
-    public String dumpFacilityDocumentsAsMML(@PathParam("param") String param) {
+    public String dumpFacilityDocumentsAsMML(@PathParam("param") String param) throws IOException {
         
         String fid = param;
         
-        final List<Long> docList = mmlServiceBean.getFacilityDocumentList(fid);
-        if (docList.isEmpty()) {
-            return "0";
-        }
-        final int cnt = docList.size();
+        // 施設の全カルテを書き出す 前回止まった所から続ける
+        MmlExportJob job = mmlExportService.start(fid, MmlExportJob.FORMAT_MML, false, true);
         
-         Runnable r = () -> {
-             for (int i = 0; i < cnt; i++) {
-                 mmlServiceBean.dumpDocumentToMML(i, docList.get(i));
-             }
-             System.err.println("MMLダンプ終了しました。");
-        };
-        Thread t = new Thread(r);
-        t.setPriority(Thread.NORM_PRIORITY);
-        t.start();
+        return String.valueOf(job.getStatus().get("total"));
+    }
+    
+    //-------------------------------------------------------------------------
+    // 施設全体のエクスポート ログインしているユーザの施設
+    //-------------------------------------------------------------------------
+    @POST
+    @Path("/export")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String startExport(@Context HttpServletRequest servletReq,
+            @QueryParam("format") @DefaultValue("mml") String format,
+            @QueryParam("zip") @DefaultValue("true") boolean zip,
+            @QueryParam("resume") @DefaultValue("true") boolean resume) throws IOException {
+        
+        String fid = getRemoteFacility(servletReq.getRemoteUser());
+        MmlExportJob job = mmlExportService.start(fid, format, zip, resume);
+        return getSerializeMapper().writeValueAsString(job.getStatus());
+    }
+    
+    @GET
+    @Path("/export")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String getExportStatus(@Context HttpServletRequest servletReq) throws IOException {
         
-        return String.valueOf(cnt);
+        String fid = getRemoteFacility(servletReq.getRemoteUser());
+        MmlExportJob job = mmlExportService.getJob(fid);
+        if (job == null) {
+            throw new NotFoundException();
+        }
+        return getSerializeMapper().writeValueAsString(job.getStatus());
+    }
+    
+    @DELETE
+    @Path("/export")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String cancelExport(@Context HttpServletRequest servletReq) {
+        
+        String fid = getRemoteFacility(servletReq.getRemoteUser());
+        return String.valueOf(mmlExportService.cancel(fid));
     }
     
     @GET
@@ -9,6 +9,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import open.dolphin.converter.LaboImportSummaryListConverter;
 import open.dolphin.converter.NLaboItemListConverter;
 import open.dolphin.converter.NLaboModuleListConverter;
 import open.dolphin.converter.PatientLiteListConverter;
@@ -95,6 +96,76 @@ public class NLabResource extends AbstractResource {
         return conv;
     }
 
+    /**
+     * 検査結果の表（列が検査結果のモジュール、行が検査項目）を返す。
+     * @param servletReq
+     * @param pid 患者ID
+     * @param from この検体採取日から（yyyy-MM-dd 省略可）
+     * @param to この検体採取日まで（yyyy-MM-dd 省略可）
+     * @param max 列の最大数 新しい方から（省略時は全部）
+     * @return LaboTrendPivot
+     * @throws IOException 
+     */
+    @GET
+    @Path("/trend/{pid}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String getLaboTrend(@Context HttpServletRequest servletReq, @PathParam("pid") String pid,
+            @QueryParam("from") String from, @QueryParam("to") String to, @QueryParam("max") String max) throws IOException {
+
+        String fidPid = getFidPid(servletReq.getRemoteUser(), pid);
+        int maxColumns = max != null ? Integer.parseInt(max) : 0;
+
+        LaboTrendPivot result = nLabServiceBean.getLaboTrend(fidPid, from, to, maxColumns);
+
+        return getSerializeMapper().writeValueAsString(result);
+    }
+
+    /**
+     * 一検査項目の全履歴を返す（グラフ用）。
+     * @param servletReq
+     * @param pid 患者ID
+     * @param itemCode 検査項目コード
+     * @return LaboTrendRow なければ null
+     * @throws IOException 
+     */
+    @GET
+    @Path("/trend/{pid}/{itemCode}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String getLaboTrendItem(@Context HttpServletRequest servletReq, @PathParam("pid") String pid,
+            @PathParam("itemCode") String itemCode) throws IOException {
+
+        String fidPid = getFidPid(servletReq.getRemoteUser(), pid);
+
+        LaboTrendRow result = nLabServiceBean.getLaboTrendItem(fidPid, itemCode);
+
+        return getSerializeMapper().writeValueAsString(result);
+    }
+
+    /**
+     * 施設の検査値の時系列を NLaboItem から作り直す。
+     * @param servletReq
+     * @return 作り直した患者数
+     */
+    @POST
+    @Path("/trend/rebuild")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String rebuildLaboTrend(@Context HttpServletRequest servletReq) {
+
+        String fid = getRemoteFacility(servletReq.getRemoteUser());
+
+        int cnt = 0;
+        String after = null;
+        List<String> done;
+        // 100 人ずつ別のトランザクションで
+        while (!(done = nLabServiceBean.rebuildLaboTrend(fid, after, 100)).isEmpty()) {
+            cnt += done.size();
+            after = done.get(done.size() - 1);
+        }
+        debug("lab trend rebuilt: " + cnt);
+
+        return String.valueOf(cnt);
+    }
+
     @GET
     @Path("/patient/{param}")
     @Produces(MediaType.APPLICATION_JSON)
@@ -146,6 +217,36 @@ public class NLabResource extends AbstractResource {
         return conv;
     }
 
+    /**
+     * 検査結果ファイル一つ分をまとめて登録する。
+     * @param servletReq
+     * @param json NLaboModuleList
+     * @return 一モジュール毎の結果 LaboImportSummaryList
+     * @throws IOException 
+     */
+    @POST
+    @Path("/module/bulk")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public LaboImportSummaryListConverter postNLaboTests(@Context HttpServletRequest servletReq, String json) throws IOException {
+
+        String fid = getRemoteFacility(servletReq.getRemoteUser());
+        
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.configure(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        NLaboModuleList modules = mapper.readValue(json, NLaboModuleList.class);
+        
+        List<NLaboModule> list = modules.getList()!=null ? modules.getList() : new ArrayList<NLaboModule>(0);
+        List<LaboImportSummary> result = nLabServiceBean.createAll(fid, list);
+        
+        LaboImportSummaryList summaries = new LaboImportSummaryList();
+        summaries.setList(result);
+        LaboImportSummaryListConverter conv = new LaboImportSummaryListConverter();
+        conv.setModel(summaries);
+        
+        return conv;
+    }
+
     // ラボデータの削除 2013/06/24    
     @DELETE
     @Path("/module/{param}")
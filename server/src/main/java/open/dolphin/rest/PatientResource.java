@@ -34,12 +34,13 @@ public class PatientResource extends AbstractResource {
     @GET
     @Path("/name/{param}")
     @Produces(MediaType.APPLICATION_JSON)
-    public PatientListConverter getPatientsByName(@Context HttpServletRequest servletReq, @PathParam("param") String param) {
+    public PatientListConverter getPatientsByName(@Context HttpServletRequest servletReq, @PathParam("param") String param,
+            @QueryParam("insurances") @DefaultValue("true") boolean insurances) {
 
         String fid = getRemoteFacility(servletReq.getRemoteUser());
         String name = param;
 
-        List<PatientModel> result = patientServiceBean.getPatientsByName(fid, name);
+        List<PatientModel> result = patientServiceBean.getPatientsByName(fid, name, insurances);
         PatientList list = new PatientList();
         list.setList(result);
         
@@ -52,12 +53,13 @@ public class PatientResource extends AbstractResource {
     @GET
     @Path("/kana/{param}")
     @Produces(MediaType.APPLICATION_JSON)
-    public PatientListConverter getPatientsByKana(@Context HttpServletRequest servletReq, @PathParam("param") String param) {
+    public PatientListConverter getPatientsByKana(@Context HttpServletRequest servletReq, @PathParam("param") String param,
+            @QueryParam("insurances") @DefaultValue("true") boolean insurances) {
 
         String fid = getRemoteFacility(servletReq.getRemoteUser());
         String kana = param;
 
-        List<PatientModel> result = patientServiceBean.getPatientsByKana(fid, kana);
+        List<PatientModel> result = patientServiceBean.getPatientsByKana(fid, kana, insurances);
         PatientList list = new PatientList();
         list.setList(result);
         
@@ -70,14 +72,15 @@ public class PatientResource extends AbstractResource {
     @GET
     @Path("/digit/{param}")
     @Produces(MediaType.APPLICATION_JSON)
-    public PatientListConverter getPatientsByDigit(@Context HttpServletRequest servletReq, @PathParam("param") String param) {
+    public PatientListConverter getPatientsByDigit(@Context HttpServletRequest servletReq, @PathParam("param") String param,
+            @QueryParam("insurances") @DefaultValue("true") boolean insurances) {
 
         String fid = getRemoteFacility(servletReq.getRemoteUser());
         String digit = param;
         debug(fid);
         debug(digit);
 
-        List<PatientModel> result = patientServiceBean.getPatientsByDigit(fid, digit);
+        List<PatientModel> result = patientServiceBean.getPatientsByDigit(fid, digit, insurances);
         PatientList list = new PatientList();
         list.setList(result);
         
@@ -105,12 +108,13 @@ public class PatientResource extends AbstractResource {
     @GET
     @Path("/pvt/{param}")
     @Produces(MediaType.APPLICATION_JSON)
-    public PatientListConverter getPatientsByPvt(@Context HttpServletRequest servletReq, @PathParam("param") String param) {
+    public PatientListConverter getPatientsByPvt(@Context HttpServletRequest servletReq, @PathParam("param") String param,
+            @QueryParam("insurances") @DefaultValue("true") boolean insurances) {
 
         String fid = getRemoteFacility(servletReq.getRemoteUser());
         String pvtDate = param;
 
-        List<PatientModel> result = patientServiceBean.getPatientsByPvtDate(fid, pvtDate);
+        List<PatientModel> result = patientServiceBean.getPatientsByPvtDate(fid, pvtDate, insurances);
         PatientList list = new PatientList();
         list.setList(result);
         
@@ -219,11 +223,12 @@ public class PatientResource extends AbstractResource {
     @GET
     @Path("/custom/{param}")
     @Produces(MediaType.APPLICATION_JSON)
-    public PatientListConverter getDocumentsByCustom(@Context HttpServletRequest servletReq, @PathParam("param") String param) {
+    public PatientListConverter getDocumentsByCustom(@Context HttpServletRequest servletReq, @PathParam("param") String param,
+            @QueryParam("insurances") @DefaultValue("true") boolean insurances) {
 
         String fid = getRemoteFacility(servletReq.getRemoteUser());
         
-        List<PatientModel> result = patientServiceBean.getCustom(fid, param);
+        List<PatientModel> result = patientServiceBean.getCustom(fid, param, insurances);
         PatientList list = new PatientList();
         list.setList(result);
         
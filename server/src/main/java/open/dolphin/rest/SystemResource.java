@@ -19,6 +19,7 @@ import javax.ws.rs.core.MediaType;
 import open.dolphin.infomodel.ActivityModel;
 import open.dolphin.infomodel.RoleModel;
 import open.dolphin.infomodel.UserModel;
+import open.dolphin.mbean.ActivityCounterService;
 import open.dolphin.session.AccountSummary;
 import open.dolphin.session.SystemServiceBean;
 import org.codehaus.jackson.map.DeserializationConfig;
@@ -34,6 +35,9 @@ public class SystemResource extends AbstractResource {
     
     @Inject
     private SystemServiceBean systemServiceBean;
+    
+    @Inject
+    private ActivityCounterService activityCounterService;
 
     /** Creates a new instance of SystemResource */
     public SystemResource() {
@@ -108,6 +112,17 @@ public class SystemResource extends AbstractResource {
         return Arrays.asList(array);
     }
     
+    /**
+     * 施設・日毎の件数を既存データから作り直す。
+     * @param servletReq
+     */
+    @POST
+    @Path("/activity/rebuild")
+    public void rebuildActivities(@Context HttpServletRequest servletReq) {
+        String fid = getRemoteFacility(servletReq.getRemoteUser());
+        activityCounterService.rebuild(fid);
+    }
+    
 //s.oh^ 2014/07/08 クラウド0対応
     @POST
     @Path("/license")
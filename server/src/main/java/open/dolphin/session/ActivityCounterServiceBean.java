@@ -0,0 +1,327 @@
+package open.dolphin.session;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import javax.annotation.Resource;
+import javax.ejb.Stateless;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import open.dolphin.infomodel.ActivityCounterModel;
+import open.dolphin.infomodel.ActivityModel;
+import open.dolphin.infomodel.IInfoModel;
+import open.dolphin.infomodel.KarteEntryBean;
+import open.dolphin.infomodel.UserModel;
+import open.dolphin.mbean.ActivityCounterService;
+
+/**
+ * 施設・日毎の利用件数（d_activity_counter）の更新と集計。
+ *
+ * 登録・削除した各 ServiceBean から count を呼ぶ。増減はトランザクション毎にまとめ、
+ * コミットされたら ActivityCounterService に渡す（d_activity_counter への書き込みは
+ * ActivityCounterService がまとめて行うので、カルテ保存等が同じ行を取り合わない）。
+ */
+@Named
+@Stateless
+public class ActivityCounterServiceBean {
+
+    // 件数の種類（ActivityModel の項目）
+    // 患者はカルテを作った時に数える（QUERY_BACKFILL、SystemServiceBean の件数と同じ）
+    public static final int PATIENTS = 0;
+    public static final int PATIENT_VISITS = 1;
+    public static final int KARTE = 2;
+    public static final int IMAGES = 3;
+    public static final int ATTACHMENTS = 4;
+    public static final int DIAGNOSIS = 5;
+    public static final int LETTERS = 6;
+    public static final int LAB_TESTS = 7;
+    public static final int NUM_COUNTERS = 8;
+
+    private static final String QUERY_COUNTER_BY_FID_DATE = "from ActivityCounterModel c where c.facilityId=:fid and c.activityDate=:date";
+    private static final String QUERY_READY_FACILITIES = "select c.facilityId from ActivityCounterModel c where c.activityDate is null";
+    private static final String QUERY_FACILITY_IDS = "select f.facilityId from FacilityModel f";
+    private static final String SUM = "select sum(c.patients), sum(c.patientVisits), sum(c.karte), sum(c.images),"
+            + " sum(c.attachments), sum(c.diagnosis), sum(c.letters), sum(c.labTests) from ActivityCounterModel c";
+    private static final String QUERY_SUM_BY_FID = SUM + " where c.facilityId=:fid";
+    private static final String QUERY_SUM_BY_FID_DATE = SUM + " where c.facilityId=:fid and c.activityDate between :fromDate and :toDate";
+    private static final String DELETE_COUNTER_BY_FID = "delete from ActivityCounterModel c where c.facilityId=:fid";
+
+    // 既存データの集計（SystemServiceBean の件数と同じ条件を日毎に）
+    private static final String[] QUERY_BACKFILL = {
+        "select k.created, count(p.id) from PatientModel p, KarteBean k where p.id=k.patient.id and p.facilityId=:fid group by k.created",
+        "select substring(p.pvtDate, 1, 10), count(p.id) from PatientVisitModel p where p.facilityId=:fid and p.status!=6 group by substring(p.pvtDate, 1, 10)",
+        "select cast(d.started as date), count(d.id) from DocumentModel d where d.creator.userId like :fidLike and d.status='F' group by cast(d.started as date)",
+        "select cast(s.started as date), count(s.id) from SchemaModel s where s.creator.userId like :fidLike and s.status='F' group by cast(s.started as date)",
+        "select cast(a.started as date), count(a.id) from AttachmentModel a where a.creator.userId like :fidLike and a.status='F' group by cast(a.started as date)",
+        "select cast(r.started as date), count(r.id) from RegisteredDiagnosisModel r where r.creator.userId like :fidLike group by cast(r.started as date)",
+        "select cast(l.started as date), count(l.id) from LetterModule l where l.creator.userId like :fidLike and l.status='F' group by cast(l.started as date)",
+        "select substring(l.sampleDate, 1, 10), count(l.id) from NLaboModule l where l.patientId like :fidLike group by substring(l.sampleDate, 1, 10)"
+    };
+
+    private static final String FID = "fid";
+    private static final String FID_LIKE = "fidLike";
+    private static final String DATE = "date";
+    private static final String FROM_DATE = "fromDate";
+    private static final String TO_DATE = "toDate";
+    private static final String DATE_FORMAT = "yyyy-MM-dd";
+
+    // トランザクション内の増減 施設ID|yyyy-MM-dd -> 件数
+    private static final Object TX_KEY = ActivityCounterServiceBean.class;
+
+    @PersistenceContext
+    private EntityManager em;
+
+    @Resource
+    private TransactionSynchronizationRegistry txRegistry;
+
+    @Inject
+    private ActivityCounterService counterService;
+
+    /**
+     * 件数を増減する。呼び出し元のトランザクションがコミットされたら反映される。
+     * @param fid 施設ID
+     * @param counter PATIENTS ... LAB_TESTS
+     * @param date 日（yyyy-MM-dd で始まる文字列）
+     * @param delta 増減
+     */
+    public void count(String fid, int counter, String date, int delta) {
+        if (fid == null || date == null || date.length() < DATE_FORMAT.length()) {
+            return;
+        }
+        Map<String, long[]> pending = (Map<String, long[]>)txRegistry.getResource(TX_KEY);
+        if (pending == null) {
+            pending = new HashMap<>();
+            txRegistry.putResource(TX_KEY, pending);
+            final Map<String, long[]> deltas = pending;
+            txRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        counterService.add(deltas);
+                    }
+                }
+            });
+        }
+        String key = fid + ActivityCounterService.KEY_SEPARATOR + date.substring(0, DATE_FORMAT.length());
+        long[] counts = pending.get(key);
+        if (counts == null) {
+            counts = new long[NUM_COUNTERS];
+            pending.put(key, counts);
+        }
+        counts[counter] += delta;
+    }
+
+    public void count(String fid, int counter, Date date, int delta) {
+        if (date != null) {
+            count(fid, counter, new SimpleDateFormat(DATE_FORMAT).format(date), delta);
+        }
+    }
+
+    /**
+     * カルテ・画像・添付文書・傷病名・紹介状を数える。
+     * 傷病名以外は確定（status=F）のもののみ。施設は作成者から、日は started から。
+     * @param entry KarteEntryBean
+     * @param counter KARTE, IMAGES, ATTACHMENTS, DIAGNOSIS, LETTERS
+     * @param delta 増減
+     */
+    public void countEntry(KarteEntryBean entry, int counter, int delta) {
+        if (entry == null) {
+            return;
+        }
+        if (counter != DIAGNOSIS && !IInfoModel.STATUS_FINAL.equals(entry.getStatus())) {
+            return;
+        }
+        count(facilityOf(entry.getUserModel()), counter, entry.getStarted(), delta);
+    }
+
+    public void countEntries(List<? extends KarteEntryBean> entries, int counter, int delta) {
+        if (entries != null) {
+            for (KarteEntryBean entry : entries) {
+                countEntry(entry, counter, delta);
+            }
+        }
+    }
+
+    private String facilityOf(UserModel user) {
+        if (user == null) {
+            return null;
+        }
+        String userId = user.getUserId();
+        if (userId == null && user.getId() != 0L) {
+            UserModel exist = em.find(UserModel.class, user.getId());
+            userId = exist != null ? exist.getUserId() : null;
+        }
+        int index = userId != null ? userId.indexOf(IInfoModel.COMPOSITE_KEY_MAKER) : -1;
+        return index > 0 ? userId.substring(0, index) : null;
+    }
+
+    /**
+     * ActivityCounterService から溜まった増減を書き込む。
+     * @param fid 施設ID
+     * @param date 日 yyyy-MM-dd
+     * @param deltas 増減
+     */
+    public void apply(String fid, String date, long[] deltas) {
+        Date day = parse(date);
+        if (day == null) {
+            return;
+        }
+        List<ActivityCounterModel> list = em.createQuery(QUERY_COUNTER_BY_FID_DATE)
+                .setParameter(FID, fid)
+                .setParameter(DATE, day)
+                .getResultList();
+        ActivityCounterModel c;
+        if (list.isEmpty()) {
+            c = new ActivityCounterModel();
+            c.setFacilityId(fid);
+            c.setActivityDate(day);
+            em.persist(c);
+        } else {
+            c = list.get(0);
+        }
+        add(c, deltas);
+    }
+
+    /**
+     * 既存データを集計し終えた施設
+     * @return 施設ID
+     */
+    public List<String> getReadyFacilities() {
+        return em.createQuery(QUERY_READY_FACILITIES).getResultList();
+    }
+
+    public List<String> getFacilityIds() {
+        return em.createQuery(QUERY_FACILITY_IDS).getResultList();
+    }
+
+    /**
+     * 施設の件数を既存データから作り直す（一度だけ・または件数がずれた時）。
+     * @param fid 施設ID
+     */
+    public void rebuild(String fid) {
+
+        long started = System.currentTimeMillis();
+        em.createQuery(DELETE_COUNTER_BY_FID).setParameter(FID, fid).executeUpdate();
+
+        Map<Date, ActivityCounterModel> byDate = new HashMap<>();
+        for (int counter = 0; counter < NUM_COUNTERS; counter++) {
+            String jpql = QUERY_BACKFILL[counter];
+            Query query = em.createQuery(jpql);
+            if (jpql.contains(":fidLike")) {
+                query.setParameter(FID_LIKE, fid + IInfoModel.COMPOSITE_KEY_MAKER + "%");
+            } else {
+                query.setParameter(FID, fid);
+            }
+            List<Object[]> rows = query.getResultList();
+            for (Object[] row : rows) {
+                Date day = row[0] instanceof String ? parse((String)row[0]) : (Date)row[0];
+                if (day == null) {
+                    continue;
+                }
+                // java.sql.Date と java.util.Date を同じキーにする
+                day = new Date(day.getTime());
+                ActivityCounterModel c = byDate.get(day);
+                if (c == null) {
+                    c = new ActivityCounterModel();
+                    c.setFacilityId(fid);
+                    c.setActivityDate(day);
+                    byDate.put(day, c);
+                }
+                long[] deltas = new long[NUM_COUNTERS];
+                deltas[counter] = (Long)row[1];
+                add(c, deltas);
+            }
+        }
+        for (ActivityCounterModel c : byDate.values()) {
+            em.persist(c);
+        }
+
+        // 集計済みの印
+        ActivityCounterModel marker = new ActivityCounterModel();
+        marker.setFacilityId(fid);
+        em.persist(marker);
+
+        Logger.getLogger("open.dolphin").info("activity counters rebuilt " + fid + " days=" + byDate.size()
+                + " " + (System.currentTimeMillis() - started) + "ms");
+    }
+
+    /**
+     * 件数を集計する。
+     * @param fid 施設ID
+     * @param from 開始日 null なら全期間
+     * @param to 終了日
+     * @return 利用者数・DB容量・施設情報以外を設定した ActivityModel
+     */
+    public ActivityModel sum(String fid, Date from, Date to) {
+        Object[] row;
+        if (from != null) {
+            row = (Object[])em.createQuery(QUERY_SUM_BY_FID_DATE)
+                    .setParameter(FID, fid)
+                    .setParameter(FROM_DATE, truncate(from))
+                    .setParameter(TO_DATE, truncate(to))
+                    .getSingleResult();
+        } else {
+            row = (Object[])em.createQuery(QUERY_SUM_BY_FID)
+                    .setParameter(FID, fid)
+                    .getSingleResult();
+        }
+        long[] v = new long[NUM_COUNTERS];
+        for (int i = 0; i < NUM_COUNTERS; i++) {
+            v[i] = row[i] != null ? ((Number)row[i]).longValue() : 0L;
+        }
+        ActivityModel am = new ActivityModel();
+        am.setNumOfPatients(v[PATIENTS]);
+        am.setNumOfPatientVisits(v[PATIENT_VISITS]);
+        am.setNumOfKarte(v[KARTE]);
+        am.setNumOfImages(v[IMAGES]);
+        am.setNumOfAttachments(v[ATTACHMENTS]);
+        am.setNumOfDiagnosis(v[DIAGNOSIS]);
+        am.setNumOfLetters(v[LETTERS]);
+        am.setNumOfLabTests(v[LAB_TESTS]);
+        return am;
+    }
+
+    public String queryDbSize() {
+        return em.createNativeQuery("select pg_size_pretty(pg_database_size('dolphin'))").getSingleResult().toString();
+    }
+
+    private static void add(ActivityCounterModel c, long[] d) {
+        c.setPatients(c.getPatients() + d[PATIENTS]);
+        c.setPatientVisits(c.getPatientVisits() + d[PATIENT_VISITS]);
+        c.setKarte(c.getKarte() + d[KARTE]);
+        c.setImages(c.getImages() + d[IMAGES]);
+        c.setAttachments(c.getAttachments() + d[ATTACHMENTS]);
+        c.setDiagnosis(c.getDiagnosis() + d[DIAGNOSIS]);
+        c.setLetters(c.getLetters() + d[LETTERS]);
+        c.setLabTests(c.getLabTests() + d[LAB_TESTS]);
+    }
+
+    private static Date parse(String date) {
+        if (date == null || date.length() < DATE_FORMAT.length()) {
+            return null;
+        }
+        try {
+            return new SimpleDateFormat(DATE_FORMAT).parse(date.substring(0, DATE_FORMAT.length()));
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    private static Date truncate(Date d) {
+        return parse(new SimpleDateFormat(DATE_FORMAT).format(d));
+    }
+}
@@ -0,0 +1,98 @@
+package open.dolphin.session;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import open.dolphin.infomodel.BeanCodec;
+
+/**
+ * d_module.beanBytes を XMLEncoder 形式から BeanCodec のバイナリ形式へ書き換える。
+ * 一回の呼び出しで id 順に batchSize 件ずつ処理し、バッチ毎にコミットする。
+ * XML を読む時に XMLDecoder が例外を報告したもの、バイナリから戻した Bean が元と同じ XML にならないものは
+ * XML のまま残す（欠けた Bean を書き戻さない）。
+ */
+@Named
+@Stateless
+public class BeanBytesMigrationServiceBean {
+
+    private static final String QUERY_MODULE_BYTES_FROM_ID
+            = "select m.id, m.beanBytes from ModuleModel m where m.id > :id order by m.id";
+    private static final String UPDATE_MODULE_BYTES
+            = "update ModuleModel m set m.beanBytes=:bytes where m.id=:id";
+
+    private static final String ID = "id";
+    private static final String BYTES = "bytes";
+
+    @PersistenceContext
+    private EntityManager em;
+
+    /**
+     * fromId より大きい ModuleModel を batchSize 件変換する。
+     * @param fromId 前回処理した最後の id
+     * @param batchSize 処理件数
+     * @return 今回処理した最後の id 対象がなければ -1
+     */
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public long migrateModules(long fromId, int batchSize) {
+
+        List<Object[]> rows = em.createQuery(QUERY_MODULE_BYTES_FROM_ID)
+                .setParameter(ID, fromId)
+                .setMaxResults(batchSize)
+                .getResultList();
+
+        if (rows.isEmpty()) {
+            return -1L;
+        }
+
+        long lastId = fromId;
+        int converted = 0;
+
+        for (Object[] row : rows) {
+            lastId = (Long)row[0];
+            byte[] bytes = (byte[])row[1];
+            if (bytes==null || BeanCodec.isBinary(bytes)) {
+                continue;
+            }
+            try {
+                Object bean = BeanCodec.decodeStrict(bytes);
+                if (bean==null) {
+                    continue;
+                }
+                byte[] binary = BeanCodec.encode(bean);
+                if (!BeanCodec.isBinary(binary)) {
+                    // バイナリで表現できないものは XML のまま残す
+                    continue;
+                }
+                if (!Arrays.equals(BeanCodec.xmlEncode(bean), BeanCodec.xmlEncode(BeanCodec.decode(binary)))) {
+                    warn("beanBytes migration skipped module " + lastId + ": binary round trip differs");
+                    continue;
+                }
+                em.createQuery(UPDATE_MODULE_BYTES)
+                        .setParameter(BYTES, binary)
+                        .setParameter(ID, lastId)
+                        .executeUpdate();
+                converted++;
+            } catch (Exception e) {
+                warn("beanBytes migration skipped module " + lastId + ": " + e.getMessage());
+            }
+        }
+
+        log("beanBytes migration: " + converted + "/" + rows.size() + " modules converted up to id " + lastId);
+
+        return lastId;
+    }
+
+    private void log(String msg) {
+        Logger.getLogger("open.dolphin").info(msg);
+    }
+
+    private void warn(String msg) {
+        Logger.getLogger("open.dolphin").warning(msg);
+    }
+}
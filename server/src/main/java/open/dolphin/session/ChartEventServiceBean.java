@@ -10,12 +10,19 @@ import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.Resource;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.servlet.AsyncContext;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 import open.dolphin.infomodel.*;
+import open.dolphin.mbean.ChartEventQueue;
+import open.dolphin.mbean.PatientSearchIndex;
+import open.dolphin.mbean.PvtStore;
 import open.dolphin.mbean.ServletContextHolder;
 import open.dolphin.rest.ChartEventResource;
 
@@ -34,6 +41,12 @@ public class ChartEventServiceBean {
     @PersistenceContext
     private EntityManager em;
     
+    @Resource
+    private TransactionSynchronizationRegistry txRegistry;
+    
+    // トランザクション毎の索引に入れる患者
+    private static final Object INDEX_TX_KEY = PatientSearchIndex.class;
+    
     private boolean DEBUG = false;
     
 
@@ -45,33 +58,36 @@ public class ChartEventServiceBean {
             return;
         }
 
-        List<AsyncContext> acList = contextHolder.getAsyncContextList();
-        synchronized (acList) {
-            for (Iterator<AsyncContext> itr = acList.iterator(); itr.hasNext();) {
-                
-                AsyncContext ac = itr.next();
-                String acFid = (String) ac.getRequest().getAttribute(ChartEventResource.FID);
-                String acUUID = (String) ac.getRequest().getAttribute(ChartEventResource.CLIENT_UUID);
-                String issuerUUID = evt.getIssuerUUID();
-                
-                // 同一施設かつChartEventModelの発行者でないクライアントに通知する
-                if (fid.equals(acFid) && !acUUID.equals(issuerUUID)) {
-                    itr.remove();
-                    try {
-                        ac.getRequest().setAttribute(ChartEventResource.KEY_NAME, evt);
-                        ac.dispatch(ChartEventResource.DISPATCH_URL);
+        // 施設のバッファに追加し、起こす購読者を得る ロックは施設単位
+        ChartEventQueue queue = contextHolder.getEventQueue(fid);
+        Map<ChartEventQueue.Subscriber, List<ChartEventModel>> toDispatch = queue.publish(evt);
+        
+        String issuerUUID = evt.getIssuerUUID();
+        for (Map.Entry<ChartEventQueue.Subscriber, List<ChartEventModel>> entry : toDispatch.entrySet()) {
+            
+            ChartEventQueue.Subscriber s = entry.getKey();
+            AsyncContext ac = s.getAsyncContext();
+            try {
+                // sequence を申告したクライアントには溜まっているイベントをまとめて送る
+                if (s.isBatch()) {
+                    ac.getRequest().setAttribute(ChartEventResource.KEY_NAME, entry.getValue());
+                    ac.dispatch(ChartEventResource.DISPATCH_LIST_URL);
+                } else {
+                    ac.getRequest().setAttribute(ChartEventResource.KEY_NAME, entry.getValue().get(0));
+                    ac.dispatch(ChartEventResource.DISPATCH_URL);
+                }
 //minagawa^                        
-                        if (true) {
-                            StringBuilder sb = new StringBuilder();
-                            sb.append(acFid).append(":").append(acUUID);
-                            sb.append(" did notified by ").append(issuerUUID);
-                            debug(sb.toString());
-                        }
-//minagawa$                        
-                    } catch (Exception ex) {
-                        warn("Exception in ac.dispatch.");
-                    }
+                if (DEBUG) {
+                    StringBuilder sb = new StringBuilder();
+                    sb.append(fid).append(":").append(s.getClientUUID());
+                    sb.append(" did notified by ").append(issuerUUID);
+                    sb.append(" seq=").append(evt.getSequence());
+                    sb.append(" count=").append(entry.getValue().size());
+                    debug(sb.toString());
                 }
+//minagawa$                        
+            } catch (Exception ex) {
+                warn("Exception in ac.dispatch.");
             }
         }
     }
@@ -84,6 +100,50 @@ public class ChartEventServiceBean {
         return contextHolder.getPvtList(fid);
     }
     
+    public PvtStore getPvtStore(String fid) {
+        return contextHolder.getPvtStore(fid);
+    }
+    
+    public PatientSearchIndex getPatientSearchIndex(String fid) {
+        return contextHolder.getPatientSearchIndex(fid);
+    }
+    
+    /**
+     * 患者を検索索引に追加・更新する。呼び出し元のトランザクションがコミットされたら反映される。
+     * ロールバックした患者や、コミット前の患者が他の検索に出ないようにするため。
+     * @param patient 永続化・更新した患者
+     */
+    public void indexPatient(PatientModel patient) {
+        List<PatientModel> pending = (List<PatientModel>)txRegistry.getResource(INDEX_TX_KEY);
+        if (pending == null) {
+            pending = new ArrayList<>();
+            txRegistry.putResource(INDEX_TX_KEY, pending);
+            final List<PatientModel> patients = pending;
+            txRegistry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        for (PatientModel pm : patients) {
+                            contextHolder.getPatientSearchIndex(pm.getFacilityId()).put(pm);
+                        }
+                    }
+                }
+            });
+        }
+        pending.add(patient);
+    }
+    
+    // 患者検索索引を捨てる 次の検索で読み直す
+    public void invalidatePatientSearchIndex() {
+        for (PatientSearchIndex index : contextHolder.getPatientSearchIndexMap().values()) {
+            index.invalidate();
+        }
+    }
+    
     /**
      * ChartEventModelを処理する
      */
@@ -135,17 +195,7 @@ public class ChartEventServiceBean {
             em.remove(exist);
         }
         // pvtListから削除
-        List<PatientVisitModel> pvtList = getPvtList(fid);
-        PatientVisitModel toRemove = null;
-        for (PatientVisitModel model : pvtList) {
-            if (model.getId() == pvtPk) {
-                toRemove = model;
-                break;
-            }
-        }
-        if (toRemove != null) {
-            pvtList.remove(toRemove);
-        }
+        contextHolder.getPvtStore(fid).remove(pvtPk);
     }
     
     private boolean processPvtStateEvent(ChartEventModel evt) {
@@ -164,7 +214,7 @@ public class ChartEventServiceBean {
             return false;
         }
 
-        List<PatientVisitModel> pvtList = getPvtList(fid);
+        PvtStore pvtStore = contextHolder.getPvtStore(fid);
 
         // データベースのPatientVisitModelを更新
         PatientVisitModel pvt = em.find(PatientVisitModel.class, pvtId);
@@ -209,49 +259,45 @@ public class ChartEventServiceBean {
         }
 
         // pvtListを更新
-        for (PatientVisitModel model : pvtList) {
-            if (model.getId() == pvtId) {
+        PatientVisitModel model = pvtStore.get(pvtId);
+        if (model != null) {
 //s.oh^ 2013/08/29
-                //model.setState(state);
-                if(state <= 1 && model.getState() >= 2) {
-                    if((state & (1 << PatientVisitModel.BIT_CANCEL)) == 0 && (model.getState() & (1 << PatientVisitModel.BIT_CANCEL)) > 0) {
-                        int status = model.getState();
-                        status &= ~(1 << PatientVisitModel.BIT_CANCEL);
-                        model.setState(status);
-                    }else if((state & (1 << PatientVisitModel.BIT_TREATMENT)) == 0 && (model.getState() & (1 << PatientVisitModel.BIT_TREATMENT)) > 0) {
-                        int status = model.getState();
-                        status &= ~(1 << PatientVisitModel.BIT_TREATMENT);
-                        model.setState(status);
-                    }else if((state & (1 << PatientVisitModel.BIT_GO_OUT)) == 0 && (model.getState() & (1 << PatientVisitModel.BIT_GO_OUT)) > 0) {
-                        int status = model.getState();
-                        status &= ~(1 << PatientVisitModel.BIT_GO_OUT);
-                        model.setState(status);
-                    }else if((state & (1 << PatientVisitModel.BIT_HURRY)) == 0 && (model.getState() & (1 << PatientVisitModel.BIT_HURRY)) > 0) {
-                        int status = model.getState();
-                        status &= ~(1 << PatientVisitModel.BIT_HURRY);
-                        model.setState(status);
-                    }else{
-                        log("state <= 1 && model.getState() >= 2 && model.getState() != BIT_CANCEL/BIT_TREATMENT/BIT_GO_OUT/BIT_HURRY");
-                    }
-                    // 正しい情報で通知するように設定
-                    evt.setState(model.getState());
+            //model.setState(state);
+            if(state <= 1 && model.getState() >= 2) {
+                if((state & (1 << PatientVisitModel.BIT_CANCEL)) == 0 && (model.getState() & (1 << PatientVisitModel.BIT_CANCEL)) > 0) {
+                    int status = model.getState();
+                    status &= ~(1 << PatientVisitModel.BIT_CANCEL);
+                    model.setState(status);
+                }else if((state & (1 << PatientVisitModel.BIT_TREATMENT)) == 0 && (model.getState() & (1 << PatientVisitModel.BIT_TREATMENT)) > 0) {
+                    int status = model.getState();
+                    status &= ~(1 << PatientVisitModel.BIT_TREATMENT);
+                    model.setState(status);
+                }else if((state & (1 << PatientVisitModel.BIT_GO_OUT)) == 0 && (model.getState() & (1 << PatientVisitModel.BIT_GO_OUT)) > 0) {
+                    int status = model.getState();
+                    status &= ~(1 << PatientVisitModel.BIT_GO_OUT);
+                    model.setState(status);
+                }else if((state & (1 << PatientVisitModel.BIT_HURRY)) == 0 && (model.getState() & (1 << PatientVisitModel.BIT_HURRY)) > 0) {
+                    int status = model.getState();
+                    status &= ~(1 << PatientVisitModel.BIT_HURRY);
+                    model.setState(status);
                 }else{
-                    model.setState(state);
+                    log("state <= 1 && model.getState() >= 2 && model.getState() != BIT_CANCEL/BIT_TREATMENT/BIT_GO_OUT/BIT_HURRY");
                 }
-//s.oh$
-                model.setByomeiCount(byomeiCount);
-                model.setByomeiCountToday(byomeiCountToday);
-                model.setMemo(memo);
-                model.getPatientModel().setOwnerUUID(ownerUUID);
-                break;
+                // 正しい情報で通知するように設定
+                evt.setState(model.getState());
+            }else{
+                model.setState(state);
             }
+//s.oh$
+            model.setByomeiCount(byomeiCount);
+            model.setByomeiCountToday(byomeiCountToday);
+            model.setMemo(memo);
+            model.getPatientModel().setOwnerUUID(ownerUUID);
         }
 //s.oh^ 2013/08/13
-        for (PatientVisitModel model : pvtList) {
-            if (model.getPatientModel().getId() == ptPk) {
-                model.setStateBit(PatientVisitModel.BIT_OPEN, ownerUUID != null);
-                model.getPatientModel().setOwnerUUID(ownerUUID);
-            }
+        for (PatientVisitModel visit : pvtStore.findByPatient(ptPk)) {
+            visit.setStateBit(PatientVisitModel.BIT_OPEN, ownerUUID != null);
+            visit.getPatientModel().setOwnerUUID(ownerUUID);
         }
 //s.oh$
         return true;
@@ -269,8 +315,6 @@ public class ChartEventServiceBean {
             return false;
         }
 
-        List<PatientVisitModel> pvtList = getPvtList(fid);
-
         PatientVisitModel pvt = em.find(PatientVisitModel.class, pvtId);
         if(pvt != null) {
             pvt.setMemo(memo);
@@ -278,11 +322,9 @@ public class ChartEventServiceBean {
         
         log("processPvtMemoEvent : pvtPk = " + String.valueOf(pvtId) + ", memo = " + memo);
 
-        for(PatientVisitModel model : pvtList) {
-            if(model.getId() == pvtId) {
-                model.setMemo(memo);
-                break;
-            }
+        PatientVisitModel model = contextHolder.getPvtStore(fid).get(pvtId);
+        if(model != null) {
+            model.setMemo(memo);
         }
         return true;
     }
@@ -330,7 +372,7 @@ public class ChartEventServiceBean {
         for (PatientVisitModel pvt : result) {
             
             String fid = pvt.getFacilityId();
-            contextHolder.getPvtList(fid).add(pvt);
+            contextHolder.getPvtStore(fid).put(pvt);
 
             PatientModel patient = pvt.getPatientModel();
 
@@ -408,7 +450,7 @@ public class ChartEventServiceBean {
         
         contextHolder.setToday();
         
-        Map<String, List<PatientVisitModel>> map = contextHolder.getPvtListMap();
+        Map<String, PvtStore> map = contextHolder.getPvtStoreMap();
         
 //s.oh^ 受付リストのクリア 2013/08/15
         Properties config = new Properties();
@@ -434,12 +476,10 @@ public class ChartEventServiceBean {
         
         if(pvtListClear != null && pvtListClear.equals("true")) {
             List<String> fidList = new ArrayList<String>();
-            for (Iterator itr = map.entrySet().iterator(); itr.hasNext();) {
-                Map.Entry entry = (Map.Entry) itr.next();
-                List<PatientVisitModel> pvtList = (List<PatientVisitModel>) entry.getValue();
-                pvtList.clear();
-                fidList.add((String)entry.getKey());
-                log("ChartEventService: fid = " + (String)entry.getKey());
+            for (Map.Entry<String, PvtStore> entry : map.entrySet()) {
+                entry.getValue().clear();
+                fidList.add(entry.getKey());
+                log("ChartEventService: fid = " + entry.getKey());
             }
             initializePvtList();
             for(int i = 0; i < fidList.size(); i++) {
@@ -454,23 +494,12 @@ public class ChartEventServiceBean {
         }else{
 //s.oh$
         
-            for (Iterator itr = map.entrySet().iterator(); itr.hasNext();) {
-                Map.Entry entry = (Map.Entry) itr.next();
-                List<PatientVisitModel> pvtList = (List<PatientVisitModel>) entry.getValue();
-
-                List<PatientVisitModel> toRemove = new ArrayList<PatientVisitModel>();
-                for (PatientVisitModel pvt : pvtList) {
-                    // BIT_SAVE_CLAIMとBIT_MODIFY_CLAIMは削除する
-                    if (pvt.getStateBit(PatientVisitModel.BIT_SAVE_CLAIM) 
-                            || pvt.getStateBit(PatientVisitModel.BIT_MODIFY_CLAIM)
-                            || pvt.getStateBit(PatientVisitModel.BIT_CANCEL)) {
-                        toRemove.add(pvt);
-                    }
-                }
-                pvtList.removeAll(toRemove);
+            for (Map.Entry<String, PvtStore> entry : map.entrySet()) {
+                // BIT_SAVE_CLAIMとBIT_MODIFY_CLAIMは削除する
+                entry.getValue().removeFinished();
 
                 // クライアントに伝える。
-                String fid = (String) entry.getKey();
+                String fid = entry.getKey();
                 String uuid = contextHolder.getServerUUID();
                 ChartEventModel msg = new ChartEventModel(uuid);
                 msg.setFacilityId(fid);
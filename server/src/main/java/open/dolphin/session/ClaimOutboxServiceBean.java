@@ -0,0 +1,267 @@
+package open.dolphin.session;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import javax.annotation.Resource;
+import javax.ejb.Stateless;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import open.dolphin.infomodel.ClaimOutboxModel;
+import open.dolphin.mbean.ClaimOutboxService;
+
+/**
+ * CLAIM 送信待ち行列（d_claim_outbox）の操作。
+ */
+@Named
+@Stateless
+public class ClaimOutboxServiceBean {
+
+    // 送信待ちのうち、同じ患者のより古い電文が全て送信済みか対応済みのもの（患者毎に作成順で送る）
+    // NAK・送信失敗・応答なしの電文があればその患者の後の電文は送らず、送り直すか対応済みにするのを待つ
+    private static final String QUERY_DUE
+            = "from ClaimOutboxModel c where c.status=0 and c.nextAttempt<=:now"
+            + " and not exists (select o.id from ClaimOutboxModel o where o.facilityId=c.facilityId and o.patientId=c.patientId and o.status not in (1,5) and o.id<c.id)"
+            + " order by c.id";
+    private static final String QUERY_OUTBOX_BY_FID
+            = "select c.id, c.patientId, c.kind, c.docId, c.summary, c.status, c.attempts, c.created, c.nextAttempt, c.sent, c.lastError"
+            + " from ClaimOutboxModel c where c.facilityId=:fid and c.created>=:fromDate order by c.id desc";
+    private static final String QUERY_OUTBOX_BY_FID_PID
+            = "select c.id, c.patientId, c.kind, c.docId, c.summary, c.status, c.attempts, c.created, c.nextAttempt, c.sent, c.lastError"
+            + " from ClaimOutboxModel c where c.facilityId=:fid and c.patientId=:pid and c.created>=:fromDate order by c.id desc";
+    private static final String QUERY_COUNT_PENDING = "select count(c) from ClaimOutboxModel c where c.status=0";
+    private static final String DELETE_SENT = "delete from ClaimOutboxModel c where c.status in (1,5) and c.sent<:before";
+
+    private static final String NOW = "now";
+    private static final String FID = "fid";
+    private static final String PID = "pid";
+    private static final String FROM_DATE = "fromDate";
+    private static final String BEFORE = "before";
+
+    @PersistenceContext
+    private EntityManager em;
+
+    @Resource
+    private TransactionSynchronizationRegistry txRegistry;
+
+    @Inject
+    private ClaimOutboxService outboxService;
+
+    /**
+     * 電文を送信待ちにする。呼び出し元のトランザクション（カルテ・傷病名の保存）と一緒にコミットされる。
+     * @param fid 施設ID
+     * @param pid 患者ID
+     * @param kind ClaimOutboxModel.KIND_DOCUMENT or KIND_DIAGNOSIS
+     * @param docId 文書ID
+     * @param summary 確定日 患者ID 氏名 性別
+     * @param message CLAIM 電文
+     * @return 送信待ちの pk
+     */
+    public long enqueue(String fid, String pid, String kind, String docId, String summary, String message) {
+        Date now = new Date();
+        ClaimOutboxModel model = new ClaimOutboxModel();
+        model.setFacilityId(fid);
+        model.setPatientId(pid);
+        model.setKind(kind);
+        model.setDocId(docId);
+        model.setSummary(summary);
+        model.setMessage(message);
+        model.setStatus(ClaimOutboxModel.STATUS_PENDING);
+        model.setCreated(now);
+        model.setNextAttempt(now);
+        em.persist(model);
+
+        // コミットされたら送信スレッドを起こす
+        txRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    outboxService.signal();
+                }
+            }
+        });
+        return model.getId();
+    }
+
+    /**
+     * 送信できる電文を作成順に返す。
+     * @param maxResults 最大数
+     * @return 送信待ち
+     */
+    public List<ClaimOutboxModel> getDue(int maxResults) {
+        return (List<ClaimOutboxModel>)em.createQuery(QUERY_DUE)
+                .setParameter(NOW, new Date())
+                .setMaxResults(maxResults)
+                .getResultList();
+    }
+
+    /**
+     * ORCA の応答を記録する。
+     * @param id pk
+     * @param status STATUS_SENT(ACK) or STATUS_NAK
+     */
+    public void replied(long id, int status) {
+        ClaimOutboxModel model = em.find(ClaimOutboxModel.class, id);
+        if (model != null) {
+            model.setStatus(status);
+            model.setAttempts(model.getAttempts() + 1);
+            model.setSent(new Date());
+            model.setLastError(null);
+        }
+    }
+
+    /**
+     * 送信できなかったことを記録する。
+     * @param id pk
+     * @param error エラー
+     * @param nextAttempt 次の送信 null なら諦めて STATUS_FAILED にする
+     */
+    public void failed(long id, String error, Date nextAttempt) {
+        ClaimOutboxModel model = em.find(ClaimOutboxModel.class, id);
+        if (model != null) {
+            model.setAttempts(model.getAttempts() + 1);
+            model.setLastError(error != null && error.length() > 255 ? error.substring(0, 255) : error);
+            if (nextAttempt != null) {
+                model.setNextAttempt(nextAttempt);
+            } else {
+                model.setStatus(ClaimOutboxModel.STATUS_FAILED);
+            }
+        }
+    }
+
+    /**
+     * 送った後に応答が得られなかったことを記録する。ORCA に届いたか分からないので自動では送り直さない。
+     * @param id pk
+     * @param error エラー
+     */
+    public void unknown(long id, String error) {
+        ClaimOutboxModel model = em.find(ClaimOutboxModel.class, id);
+        if (model != null) {
+            model.setAttempts(model.getAttempts() + 1);
+            model.setLastError(error != null && error.length() > 255 ? error.substring(0, 255) : error);
+            model.setStatus(ClaimOutboxModel.STATUS_UNKNOWN);
+        }
+    }
+
+    /**
+     * NAK・送信失敗・応答なしの電文を送り直す。
+     * @param fid 施設ID
+     * @param id pk
+     * @return 送信待ちに戻した数
+     */
+    public int resend(String fid, long id) {
+        ClaimOutboxModel model = em.find(ClaimOutboxModel.class, id);
+        if (model == null || !model.getFacilityId().equals(fid) || model.getStatus() == ClaimOutboxModel.STATUS_PENDING) {
+            return 0;
+        }
+        model.setStatus(ClaimOutboxModel.STATUS_PENDING);
+        model.setAttempts(0);
+        model.setNextAttempt(new Date());
+        model.setLastError(null);
+        txRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    outboxService.signal();
+                }
+            }
+        });
+        return 1;
+    }
+
+    /**
+     * NAK・送信失敗・応答なしの電文を送らずに対応済みにする。その患者の後の電文が送られるようになる。
+     * @param fid 施設ID
+     * @param id pk
+     * @return 対応済みにした数
+     */
+    public int discard(String fid, long id) {
+        ClaimOutboxModel model = em.find(ClaimOutboxModel.class, id);
+        if (model == null || !model.getFacilityId().equals(fid)
+                || model.getStatus() == ClaimOutboxModel.STATUS_PENDING || model.getStatus() == ClaimOutboxModel.STATUS_SENT) {
+            return 0;
+        }
+        model.setStatus(ClaimOutboxModel.STATUS_DISCARDED);
+        model.setSent(new Date());
+        txRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    outboxService.signal();
+                }
+            }
+        });
+        return 1;
+    }
+
+    /**
+     * 送信状況を返す（電文本体は含めない）。
+     * @param fid 施設ID
+     * @param pid 患者ID null なら施設の全患者
+     * @param fromDate この日時以降に作成したもの
+     * @return 新しい順
+     */
+    public List<ClaimOutboxModel> getOutbox(String fid, String pid, Date fromDate) {
+        List<Object[]> rows;
+        if (pid != null) {
+            rows = em.createQuery(QUERY_OUTBOX_BY_FID_PID)
+                    .setParameter(FID, fid)
+                    .setParameter(PID, pid)
+                    .setParameter(FROM_DATE, fromDate)
+                    .getResultList();
+        } else {
+            rows = em.createQuery(QUERY_OUTBOX_BY_FID)
+                    .setParameter(FID, fid)
+                    .setParameter(FROM_DATE, fromDate)
+                    .getResultList();
+        }
+        List<ClaimOutboxModel> ret = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            ClaimOutboxModel model = new ClaimOutboxModel();
+            model.setId((Long)row[0]);
+            model.setFacilityId(fid);
+            model.setPatientId((String)row[1]);
+            model.setKind((String)row[2]);
+            model.setDocId((String)row[3]);
+            model.setSummary((String)row[4]);
+            model.setStatus((Integer)row[5]);
+            model.setAttempts((Integer)row[6]);
+            model.setCreated((Date)row[7]);
+            model.setNextAttempt((Date)row[8]);
+            model.setSent((Date)row[9]);
+            model.setLastError((String)row[10]);
+            ret.add(model);
+        }
+        return ret;
+    }
+
+    public long countPending() {
+        return (Long)em.createQuery(QUERY_COUNT_PENDING).getSingleResult();
+    }
+
+    /**
+     * 送信済み（ACK）・対応済みの古い電文を削除する。
+     * @param before この日時より前に送信・対応したもの
+     * @return 削除数
+     */
+    public int purgeSent(Date before) {
+        return em.createQuery(DELETE_SENT).setParameter(BEFORE, before).executeUpdate();
+    }
+}
@@ -0,0 +1,136 @@
+package open.dolphin.session;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.persistence.EntityManager;
+import open.dolphin.infomodel.AttachmentModel;
+import open.dolphin.infomodel.DocumentModel;
+import open.dolphin.infomodel.ModuleModel;
+import open.dolphin.infomodel.SchemaModel;
+
+/**
+ * DocumentModel の本体（ModuleModel, SchemaModel, AttachmentModel）を
+ * 文書の数によらず一定回数のクエリで取得し、メモリ上で文書毎に振り分ける。
+ *
+ * 文書毎に QUERY_MODULE_BY_DOC_ID 等を発行していた箇所（KarteServiceBean,
+ * touch/adm10/adm20 の ServiceBean）から共通に使う。
+ */
+public final class DocumentLoader {
+
+    private static final String QUERY_DOCUMENT_BY_IDS = "from DocumentModel d where d.id in (:ids)";
+    private static final String QUERY_MODULE_BY_DOC_IDS = "from ModuleModel m where m.document.id in (:ids) order by m.id";
+    private static final String QUERY_SCHEMA_BY_DOC_IDS = "from SchemaModel i where i.document.id in (:ids) order by i.id";
+    private static final String QUERY_ATTACHMENT_BY_DOC_IDS = "from AttachmentModel a where a.document.id in (:ids) order by a.id";
+
+    private static final String IDS = "ids";
+
+    // IN 句に渡す id の最大数
+    private static final int IN_LIST_SIZE = 500;
+
+    private DocumentLoader() {
+    }
+
+    /**
+     * id のリストから DocumentModel を取得する。順番は ids の順に揃え、存在しない id は除く。
+     * @param em EntityManager
+     * @param ids DocumentModel の pk
+     * @return DocumentModel のリスト
+     */
+    public static List<DocumentModel> findDocuments(EntityManager em, List<Long> ids) {
+
+        Map<Long, DocumentModel> map = new HashMap<>(ids.size()*2);
+
+        for (List<Long> chunk : chunks(ids)) {
+            List<DocumentModel> list = em.createQuery(QUERY_DOCUMENT_BY_IDS)
+                    .setParameter(IDS, chunk)
+                    .getResultList();
+            for (DocumentModel doc : list) {
+                map.put(doc.getId(), doc);
+            }
+        }
+
+        List<DocumentModel> ret = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            DocumentModel doc = map.get(id);
+            if (doc!=null) {
+                ret.add(doc);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * 文書のモジュール・シェーマ・添付ファイルを一括で取得して設定する。
+     * @param em EntityManager
+     * @param documents 対象の文書
+     * @param withAttachment 添付ファイルも取得する場合 true
+     */
+    public static void fetchContents(EntityManager em, List<DocumentModel> documents, boolean withAttachment) {
+
+        if (documents==null || documents.isEmpty()) {
+            return;
+        }
+
+        Map<Long, DocumentModel> map = new HashMap<>(documents.size()*2);
+        Map<Long, List<ModuleModel>> modules = new HashMap<>(documents.size()*2);
+        Map<Long, List<SchemaModel>> images = new HashMap<>(documents.size()*2);
+        Map<Long, List<AttachmentModel>> attachments = new HashMap<>(documents.size()*2);
+
+        List<Long> ids = new ArrayList<>(documents.size());
+        for (DocumentModel doc : documents) {
+            map.put(doc.getId(), doc);
+            ids.add(doc.getId());
+            modules.put(doc.getId(), new ArrayList<ModuleModel>());
+            images.put(doc.getId(), new ArrayList<SchemaModel>());
+            attachments.put(doc.getId(), new ArrayList<AttachmentModel>());
+        }
+
+        for (List<Long> chunk : chunks(ids)) {
+
+            // ModuleBean を取得する
+            List<ModuleModel> mList = em.createQuery(QUERY_MODULE_BY_DOC_IDS)
+                    .setParameter(IDS, chunk)
+                    .getResultList();
+            for (ModuleModel m : mList) {
+                modules.get(m.getDocumentModel().getId()).add(m);
+            }
+
+            // SchemaModel を取得する
+            List<SchemaModel> sList = em.createQuery(QUERY_SCHEMA_BY_DOC_IDS)
+                    .setParameter(IDS, chunk)
+                    .getResultList();
+            for (SchemaModel s : sList) {
+                images.get(s.getDocumentModel().getId()).add(s);
+            }
+
+            // AttachmentModel を取得する
+            if (withAttachment) {
+                List<AttachmentModel> aList = em.createQuery(QUERY_ATTACHMENT_BY_DOC_IDS)
+                        .setParameter(IDS, chunk)
+                        .getResultList();
+                for (AttachmentModel a : aList) {
+                    attachments.get(a.getDocumentModel().getId()).add(a);
+                }
+            }
+        }
+
+        for (Map.Entry<Long, DocumentModel> e : map.entrySet()) {
+            DocumentModel doc = e.getValue();
+            doc.setModules(modules.get(e.getKey()));
+            doc.setSchema(images.get(e.getKey()));
+            if (withAttachment) {
+                doc.setAttachment(attachments.get(e.getKey()));
+            }
+        }
+    }
+
+    private static List<List<Long>> chunks(List<Long> ids) {
+        List<List<Long>> ret = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += IN_LIST_SIZE) {
+            ret.add(ids.subList(i, Math.min(i + IN_LIST_SIZE, ids.size())));
+        }
+        return ret;
+    }
+}
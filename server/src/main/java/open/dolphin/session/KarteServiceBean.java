@@ -1,19 +1,18 @@
 package open.dolphin.session;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.*;
 import java.util.logging.Logger;
 import javax.ejb.Stateless;
+import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 import open.dolphin.infomodel.*;
+import open.dolphin.mbean.ClaimOutboxService;
 import open.dolphin.msg.ClaimSender;
 import open.dolphin.msg.DiagnosisSender;
+import open.orca.rest.ORCAConnection;
 
 /**
  *
@@ -34,9 +33,8 @@ public class KarteServiceBean {
     private static final String PID = "pid";
 
     private static final String QUERY_KARTE = "from KarteBean k where k.patient.id=:patientPk";
-    private static final String QUERY_ALLERGY = "from ObservationModel o where o.karte.id=:karteId and o.observation='Allergy'";
-    private static final String QUERY_BODY_HEIGHT = "from ObservationModel o where o.karte.id=:karteId and o.observation='PhysicalExam' and o.phenomenon='bodyHeight'";
-    private static final String QUERY_BODY_WEIGHT = "from ObservationModel o where o.karte.id=:karteId and o.observation='PhysicalExam' and o.phenomenon='bodyWeight'";
+    // アレルギー・身長・体重を一度に取得する
+    private static final String QUERY_KARTE_OBSERVATIONS = "from ObservationModel o where o.karte.id=:karteId and (o.observation='Allergy' or (o.observation='PhysicalExam' and o.phenomenon in ('bodyHeight','bodyWeight')))";
     // Cancel status=64 を where へ追加
     private static final String QUERY_PATIENT_VISIT = "from PatientVisitModel p where p.patient.id=:patientPk and p.pvtDate >= :fromDate and p.status!=64";
     private static final String QUERY_DOC_INFO = "from DocumentModel d where d.karte.id=:karteId and d.started >= :fromDate and (d.status='F' or d.status='T')";
@@ -79,7 +77,8 @@ public class KarteServiceBean {
 
     private static final String QUERY_APPO_BY_KARTE_ID_PERIOD = "from AppointmentModel a where a.karte.id = :karteId and a.date between :fromDate and :toDate";
 
-    private static final String QUERY_PATIENT_BY_FID_PID = "from PatientModel p where p.facilityId=:fid and p.patientId=:pid";
+    private static final String QUERY_KARTE_BY_PATIENT_PK = "from KarteBean k join fetch k.patient p where p.id=:patientPk";
+    private static final String QUERY_KARTE_BY_FID_PID = "from KarteBean k join fetch k.patient p where p.facilityId=:fid and p.patientId=:pid";
     
 //masuda^
     private static final String QUERY_LASTDOC_DATE 
@@ -94,6 +93,15 @@ public class KarteServiceBean {
     @PersistenceContext
     private EntityManager em;
     
+    @Inject
+    private ClaimOutboxServiceBean claimOutboxServiceBean;
+    
+    @Inject
+    private ClaimOutboxService claimOutboxService;
+
+    @Inject
+    private ActivityCounterServiceBean activityCounter;
+    
 //s.oh^ 2014/02/21 Claim送信方法の変更
     //@Resource(mappedName = "java:/JmsXA")
     //private ConnectionFactory connectionFactory;
@@ -107,135 +115,14 @@ public class KarteServiceBean {
         try {
             
             // 患者レコードは FacilityId と patientId で複合キーになっている
-            PatientModel patient
-                = (PatientModel)em.createQuery(QUERY_PATIENT_BY_FID_PID)
-                .setParameter(FID, fid)
-                .setParameter(PID, pid)
-                .getSingleResult();
-
-            long patientPK = patient.getId();
-            
-            // 最初に患者のカルテを取得する
-            List<KarteBean> kartes = em.createQuery(QUERY_KARTE)
-                                  .setParameter(PATIENT_PK, patientPK)
+            // 患者とカルテを一度に取得する
+            List<KarteBean> kartes = em.createQuery(QUERY_KARTE_BY_FID_PID)
+                                  .setParameter(FID, fid)
+                                  .setParameter(PID, pid)
                                   .getResultList();
             KarteBean karte = kartes.get(0);
 
-            // カルテの PK を得る
-            long karteId = karte.getId();
-
-            // アレルギーデータを取得する
-            List<ObservationModel> list1 =
-                    (List<ObservationModel>)em.createQuery(QUERY_ALLERGY)
-                                              .setParameter(KARTE_ID, karteId)
-                                              .getResultList();
-            if (!list1.isEmpty()) {
-                List<AllergyModel> allergies = new ArrayList<>(list1.size());
-                for (ObservationModel observation : list1) {
-                    AllergyModel allergy = new AllergyModel();
-                    allergy.setObservationId(observation.getId());
-                    allergy.setFactor(observation.getPhenomenon());
-                    allergy.setSeverity(observation.getCategoryValue());
-                    allergy.setIdentifiedDate(observation.confirmDateAsString());
-                    allergy.setMemo(observation.getMemo());
-                    allergies.add(allergy);
-                }
-                karte.setAllergies(allergies);
-            }
-
-            // 身長データを取得する
-            List<ObservationModel> list2 =
-                    (List<ObservationModel>)em.createQuery(QUERY_BODY_HEIGHT)
-                                              .setParameter(KARTE_ID, karteId)
-                                              .getResultList();
-            if (!list2.isEmpty()) {
-                List<PhysicalModel> physicals = new ArrayList<>(list2.size());
-                for (ObservationModel observation : list2) {
-                    PhysicalModel physical = new PhysicalModel();
-                    physical.setHeightId(observation.getId());
-                    physical.setHeight(observation.getValue());
-                    physical.setIdentifiedDate(observation.confirmDateAsString());
-                    physical.setMemo(ModelUtils.getDateAsString(observation.getRecorded()));
-                    physicals.add(physical);
-                }
-                karte.setHeights(physicals);
-            }
-
-            // 体重データを取得する
-            List<ObservationModel> list3 =
-                    (List<ObservationModel>)em.createQuery(QUERY_BODY_WEIGHT)
-                                              .setParameter(KARTE_ID, karteId)
-                                              .getResultList();
-            if (!list3.isEmpty()) {
-                List<PhysicalModel> physicals = new ArrayList<>(list3.size());
-                for (ObservationModel observation : list3) {
-                    PhysicalModel physical = new PhysicalModel();
-                    physical.setWeightId(observation.getId());
-                    physical.setWeight(observation.getValue());
-                    physical.setIdentifiedDate(observation.confirmDateAsString());
-                    physical.setMemo(ModelUtils.getDateAsString(observation.getRecorded()));
-                    physicals.add(physical);
-                }
-                karte.setWeights(physicals);
-            }
-
-            // 直近の来院日エントリーを取得しカルテに設定する
-            List<PatientVisitModel> latestVisits =
-                    (List<PatientVisitModel>)em.createQuery(QUERY_PATIENT_VISIT)
-                                               .setParameter(PATIENT_PK, patientPK)
-                                               .setParameter(FROM_DATE, ModelUtils.getDateAsString(fromDate))
-                                               .getResultList();
-
-            if (!latestVisits.isEmpty()) {
-                List<String> visits = new ArrayList<>(latestVisits.size());
-                for (PatientVisitModel bean : latestVisits) {
-                    // 2012-07-23
-                    // cancelしている場合は返さない
-                    // 来院日のみを使用する
-                    visits.add(bean.getPvtDate());
-                }
-                karte.setPatientVisits(visits);
-            }
-
-            // 文書履歴エントリーを取得しカルテに設定する
-            List<DocumentModel> documents =
-                    (List<DocumentModel>)em.createQuery(QUERY_DOC_INFO)
-                                           .setParameter(KARTE_ID, karteId)
-                                           .setParameter(FROM_DATE, fromDate)
-                                           .getResultList();
-
-            if (!documents.isEmpty()) {
-                List<DocInfoModel> c = new ArrayList<>(documents.size());
-                for (DocumentModel docBean : documents) {
-                    docBean.toDetuch();
-                    c.add(docBean.getDocInfoModel());
-                }
-                karte.setDocInfoList(c);
-            }
-
-            // 患者Memoを取得する
-            List<PatientMemoModel> memo =
-                    (List<PatientMemoModel>)em.createQuery(QUERY_PATIENT_MEMO)
-                                              .setParameter(KARTE_ID, karteId)
-                                              .getResultList();
-            if (!memo.isEmpty()) {
-                karte.setMemoList(memo);
-            }
-            
-//masuda^
-            // 最終文書日
-            try {
-                Date lastDocDate = (Date)
-                        em.createQuery(QUERY_LASTDOC_DATE)
-                        .setParameter(KARTE_ID, karteId)
-                        .getSingleResult();
-                karte.setLastDocDate(lastDocDate);
-            } catch (NoResultException e) {
-            }
-//masuda$            
-
-            return karte;
-        
+            return fetchKarteSummary(karte, fromDate);
             
         } catch (Exception e) {
             
@@ -254,128 +141,144 @@ public class KarteServiceBean {
 
         try {
             // 最初に患者のカルテを取得する
-            List<KarteBean> kartes = em.createQuery(QUERY_KARTE)
+            List<KarteBean> kartes = em.createQuery(QUERY_KARTE_BY_PATIENT_PK)
                                   .setParameter(PATIENT_PK, patientPK)
                                   .getResultList();
             KarteBean karte = kartes.get(0);
 
-            // カルテの PK を得る
-            long karteId = karte.getId();
-
-            // アレルギーデータを取得する
-            List<ObservationModel> list1 =
-                    (List<ObservationModel>)em.createQuery(QUERY_ALLERGY)
-                                              .setParameter(KARTE_ID, karteId)
-                                              .getResultList();
-            if (!list1.isEmpty()) {
-                List<AllergyModel> allergies = new ArrayList<>(list1.size());
-                for (ObservationModel observation : list1) {
-                    AllergyModel allergy = new AllergyModel();
-                    allergy.setObservationId(observation.getId());
-                    allergy.setFactor(observation.getPhenomenon());
-                    allergy.setSeverity(observation.getCategoryValue());
-                    allergy.setIdentifiedDate(observation.confirmDateAsString());
-                    allergy.setMemo(observation.getMemo());
-                    allergies.add(allergy);
-                }
-                karte.setAllergies(allergies);
-            }
+            return fetchKarteSummary(karte, fromDate);
 
-            // 身長データを取得する
-            List<ObservationModel> list2 =
-                    (List<ObservationModel>)em.createQuery(QUERY_BODY_HEIGHT)
-                                              .setParameter(KARTE_ID, karteId)
-                                              .getResultList();
-            if (!list2.isEmpty()) {
-                List<PhysicalModel> physicals = new ArrayList<>(list2.size());
-                for (ObservationModel observation : list2) {
-                    PhysicalModel physical = new PhysicalModel();
-                    physical.setHeightId(observation.getId());
-                    physical.setHeight(observation.getValue());
-                    physical.setIdentifiedDate(observation.confirmDateAsString());
-                    physical.setMemo(ModelUtils.getDateAsString(observation.getRecorded()));
-                    physicals.add(physical);
-                }
-                karte.setHeights(physicals);
-            }
-
-            // 体重データを取得する
-            List<ObservationModel> list3 =
-                    (List<ObservationModel>)em.createQuery(QUERY_BODY_WEIGHT)
-                                              .setParameter(KARTE_ID, karteId)
-                                              .getResultList();
-            if (!list3.isEmpty()) {
-                List<PhysicalModel> physicals = new ArrayList<>(list3.size());
-                for (ObservationModel observation : list3) {
-                    PhysicalModel physical = new PhysicalModel();
-                    physical.setWeightId(observation.getId());
-                    physical.setWeight(observation.getValue());
-                    physical.setIdentifiedDate(observation.confirmDateAsString());
-                    physical.setMemo(ModelUtils.getDateAsString(observation.getRecorded()));
-                    physicals.add(physical);
-                }
-                karte.setWeights(physicals);
-            }
+        } catch (NoResultException e) {
+            // 患者登録の際にカルテも生成してある
+        }
 
-            // 直近の来院日エントリーを取得しカルテに設定する
-            List<PatientVisitModel> latestVisits =
-                    (List<PatientVisitModel>)em.createQuery(QUERY_PATIENT_VISIT)
-                                               .setParameter(PATIENT_PK, patientPK)
-                                               .setParameter(FROM_DATE, ModelUtils.getDateAsString(fromDate))
-                                               .getResultList();
-
-            if (!latestVisits.isEmpty()) {
-                List<String> visits = new ArrayList<>(latestVisits.size());
-                for (PatientVisitModel bean : latestVisits) {
-                    // 来院日のみを使用する
-                    visits.add(bean.getPvtDate());
-                }
-                karte.setPatientVisits(visits);
+        return null;
+    }
+    
+    /**
+     * カルテを開く際に必要なアレルギー、身長、体重、来院日、文書履歴、メモ、最終文書日を設定する。
+     * アレルギー・身長・体重は一回のクエリで取得し、最終文書日は文書履歴から求める。
+     * @param karte 患者をフェッチ済みのカルテ
+     * @param fromDate 各種エントリの検索開始日
+     * @return karte
+     */
+    private KarteBean fetchKarteSummary(KarteBean karte, Date fromDate) {
+        
+        // カルテと患者の PK を得る
+        long karteId = karte.getId();
+        long patientPK = karte.getPatientModel().getId();
+        
+        // アレルギー・身長・体重データを取得する
+        List<ObservationModel> observations =
+                (List<ObservationModel>)em.createQuery(QUERY_KARTE_OBSERVATIONS)
+                                          .setParameter(KARTE_ID, karteId)
+                                          .getResultList();
+        
+        List<AllergyModel> allergies = new ArrayList<>();
+        List<PhysicalModel> heights = new ArrayList<>();
+        List<PhysicalModel> weights = new ArrayList<>();
+        
+        for (ObservationModel observation : observations) {
+            
+            if ("Allergy".equals(observation.getObservation())) {
+                AllergyModel allergy = new AllergyModel();
+                allergy.setObservationId(observation.getId());
+                allergy.setFactor(observation.getPhenomenon());
+                allergy.setSeverity(observation.getCategoryValue());
+                allergy.setIdentifiedDate(observation.confirmDateAsString());
+                allergy.setMemo(observation.getMemo());
+                allergies.add(allergy);
+                
+            } else if ("bodyHeight".equals(observation.getPhenomenon())) {
+                PhysicalModel physical = new PhysicalModel();
+                physical.setHeightId(observation.getId());
+                physical.setHeight(observation.getValue());
+                physical.setIdentifiedDate(observation.confirmDateAsString());
+                physical.setMemo(ModelUtils.getDateAsString(observation.getRecorded()));
+                heights.add(physical);
+                
+            } else {
+                PhysicalModel physical = new PhysicalModel();
+                physical.setWeightId(observation.getId());
+                physical.setWeight(observation.getValue());
+                physical.setIdentifiedDate(observation.confirmDateAsString());
+                physical.setMemo(ModelUtils.getDateAsString(observation.getRecorded()));
+                weights.add(physical);
             }
+        }
+        if (!allergies.isEmpty()) {
+            karte.setAllergies(allergies);
+        }
+        if (!heights.isEmpty()) {
+            karte.setHeights(heights);
+        }
+        if (!weights.isEmpty()) {
+            karte.setWeights(weights);
+        }
 
-            // 文書履歴エントリーを取得しカルテに設定する
-            List<DocumentModel> documents =
-                    (List<DocumentModel>)em.createQuery(QUERY_DOC_INFO)
-                                           .setParameter(KARTE_ID, karteId)
-                                           .setParameter(FROM_DATE, fromDate)
+        // 直近の来院日エントリーを取得しカルテに設定する
+        List<PatientVisitModel> latestVisits =
+                (List<PatientVisitModel>)em.createQuery(QUERY_PATIENT_VISIT)
+                                           .setParameter(PATIENT_PK, patientPK)
+                                           .setParameter(FROM_DATE, ModelUtils.getDateAsString(fromDate))
                                            .getResultList();
 
-            if (!documents.isEmpty()) {
-                List<DocInfoModel> c = new ArrayList<>(documents.size());
-                for (DocumentModel docBean : documents) {
-                    docBean.toDetuch();
-                    c.add(docBean.getDocInfoModel());
-                }
-                karte.setDocInfoList(c);
+        if (!latestVisits.isEmpty()) {
+            List<String> visits = new ArrayList<>(latestVisits.size());
+            for (PatientVisitModel bean : latestVisits) {
+                // 2012-07-23
+                // cancelしている場合は返さない
+                // 来院日のみを使用する
+                visits.add(bean.getPvtDate());
             }
+            karte.setPatientVisits(visits);
+        }
 
-            // 患者Memoを取得する
-            List<PatientMemoModel> memo =
-                    (List<PatientMemoModel>)em.createQuery(QUERY_PATIENT_MEMO)
-                                              .setParameter(KARTE_ID, karteId)
-                                              .getResultList();
-            if (!memo.isEmpty()) {
-                karte.setMemoList(memo);
+        // 文書履歴エントリーを取得しカルテに設定する
+        List<DocumentModel> documents =
+                (List<DocumentModel>)em.createQuery(QUERY_DOC_INFO)
+                                       .setParameter(KARTE_ID, karteId)
+                                       .setParameter(FROM_DATE, fromDate)
+                                       .getResultList();
+
+        Date lastDocDate = null;
+        if (!documents.isEmpty()) {
+            List<DocInfoModel> c = new ArrayList<>(documents.size());
+            for (DocumentModel docBean : documents) {
+                docBean.toDetuch();
+                c.add(docBean.getDocInfoModel());
+                if (lastDocDate==null || (docBean.getStarted()!=null && docBean.getStarted().after(lastDocDate))) {
+                    lastDocDate = docBean.getStarted();
+                }
             }
-            
+            karte.setDocInfoList(c);
+        }
+
+        // 患者Memoを取得する
+        List<PatientMemoModel> memo =
+                (List<PatientMemoModel>)em.createQuery(QUERY_PATIENT_MEMO)
+                                          .setParameter(KARTE_ID, karteId)
+                                          .getResultList();
+        if (!memo.isEmpty()) {
+            karte.setMemoList(memo);
+        }
+        
 //masuda^
-            // 最終文書日
+        // 最終文書日
+        // fromDate 以降に文書があればその最大値、なければ全期間から求める
+        if (lastDocDate==null) {
             try {
-                Date lastDocDate = (Date)
+                lastDocDate = (Date)
                         em.createQuery(QUERY_LASTDOC_DATE)
                         .setParameter(KARTE_ID, karteId)
                         .getSingleResult();
-                karte.setLastDocDate(lastDocDate);
             } catch (NoResultException e) {
             }
-//masuda$
-            return karte;
-
-        } catch (NoResultException e) {
-            // 患者登録の際にカルテも生成してある
         }
-
-        return null;
+        karte.setLastDocDate(lastDocDate);
+//masuda$
+        
+        return karte;
     }
 
     /**
@@ -418,34 +321,11 @@ public class KarteServiceBean {
      */
     public List<DocumentModel> getDocuments(List<Long> ids) {
 
-        List<DocumentModel> ret = new ArrayList<>(3);
-
-        // ループする
-        for (Long id : ids) {
+        // DocuentBean を取得する
+        List<DocumentModel> ret = DocumentLoader.findDocuments(em, ids);
 
-            // DocuentBean を取得する
-            DocumentModel document = (DocumentModel) em.find(DocumentModel.class, id);
-
-            // ModuleBean を取得する
-            List modules = em.createQuery(QUERY_MODULE_BY_DOC_ID)
-            .setParameter(ID, id)
-            .getResultList();
-            document.setModules(modules);
-
-            // SchemaModel を取得する
-            List images = em.createQuery(QUERY_SCHEMA_BY_DOC_ID)
-            .setParameter(ID, id)
-            .getResultList();
-            document.setSchema(images);
-            
-            // AttachmentModel を取得する
-            List attachments = em.createQuery(QUERY_ATTACHMENT_BY_DOC_ID)
-            .setParameter(ID, id)
-            .getResultList();
-            document.setAttachment(attachments);
-
-            ret.add(document);
-        }
+        // ModuleBean, SchemaModel, AttachmentModel をまとめて取得する
+        DocumentLoader.fetchContents(em, ret, true);
         
 //s.oh^ 不具合修正
         for (DocumentModel doc : ret) {
@@ -467,6 +347,9 @@ public class KarteServiceBean {
 
         // 永続化する
         em.persist(document);
+        activityCounter.countEntry(document, ActivityCounterServiceBean.KARTE, 1);
+        activityCounter.countEntries(document.getSchema(), ActivityCounterServiceBean.IMAGES, 1);
+        activityCounter.countEntries(document.getAttachment(), ActivityCounterServiceBean.ATTACHMENTS, 1);
 
         // ID
         long id = document.getId();
@@ -481,6 +364,7 @@ public class KarteServiceBean {
 
             // オリジナルを取得し 終了日と status = M を設定する
             DocumentModel old = (DocumentModel)em.find(DocumentModel.class, parentPk);
+            activityCounter.countEntry(old, ActivityCounterServiceBean.KARTE, -1);
             old.setEnded(ended);
             old.setStatus(IInfoModel.STATUS_MODIFIED);
 
@@ -498,6 +382,7 @@ public class KarteServiceBean {
             .setParameter(ID, parentPk).getResultList();
             for (Iterator iter = oldImages.iterator(); iter.hasNext(); ) {
                 SchemaModel model = (SchemaModel)iter.next();
+                activityCounter.countEntry(model, ActivityCounterServiceBean.IMAGES, -1);
                 model.setEnded(ended);
                 model.setStatus(IInfoModel.STATUS_MODIFIED);
             }
@@ -507,6 +392,7 @@ public class KarteServiceBean {
             .setParameter(ID, parentPk).getResultList();
             for (Iterator iter = oldAttachments.iterator(); iter.hasNext(); ) {
                 AttachmentModel model = (AttachmentModel)iter.next();
+                activityCounter.countEntry(model, ActivityCounterServiceBean.ATTACHMENTS, -1);
                 model.setEnded(ended);
                 model.setStatus(IInfoModel.STATUS_MODIFIED);
             }
@@ -528,6 +414,9 @@ public class KarteServiceBean {
 
         // 永続化する
         em.persist(document);
+        activityCounter.countEntry(document, ActivityCounterServiceBean.KARTE, 1);
+        activityCounter.countEntries(document.getSchema(), ActivityCounterServiceBean.IMAGES, 1);
+        activityCounter.countEntries(document.getAttachment(), ActivityCounterServiceBean.ATTACHMENTS, 1);
 
         // ID
         long id = document.getId();
@@ -542,6 +431,7 @@ public class KarteServiceBean {
 
             // オリジナルを取得し 終了日と status = M を設定する
             DocumentModel old = (DocumentModel) em.find(DocumentModel.class, parentPk);
+            activityCounter.countEntry(old, ActivityCounterServiceBean.KARTE, -1);
             old.setEnded(ended);
             old.setStatus(IInfoModel.STATUS_MODIFIED);
 
@@ -559,6 +449,7 @@ public class KarteServiceBean {
             .setParameter(ID, parentPk).getResultList();
             for (Iterator iter = oldImages.iterator(); iter.hasNext(); ) {
                 SchemaModel model = (SchemaModel)iter.next();
+                activityCounter.countEntry(model, ActivityCounterServiceBean.IMAGES, -1);
                 model.setEnded(ended);
                 model.setStatus(IInfoModel.STATUS_MODIFIED);
             }
@@ -568,6 +459,7 @@ public class KarteServiceBean {
             .setParameter(ID, parentPk).getResultList();
             for (Iterator iter = oldAttachments.iterator(); iter.hasNext(); ) {
                 AttachmentModel model = (AttachmentModel)iter.next();
+                activityCounter.countEntry(model, ActivityCounterServiceBean.ATTACHMENTS, -1);
                 model.setEnded(ended);
                 model.setStatus(IInfoModel.STATUS_MODIFIED);
             }
@@ -621,21 +513,7 @@ public class KarteServiceBean {
     // JMS+MDB
     public void sendDocument(DocumentModel document) {
 //s.oh^ 2014/01/23 ORCAとの接続対応
-        Properties config = new Properties();
-        StringBuilder sb = new StringBuilder();
-        sb.append(System.getProperty("jboss.home.dir"));
-        sb.append(File.separator);
-        sb.append("custom.properties");
-        File f = new File(sb.toString());
-        try {
-            FileInputStream fin = new FileInputStream(f);
-            InputStreamReader r = new InputStreamReader(fin, "JISAutoDetect");
-            config.load(r);
-            r.close();
-        } catch (IOException ex) {
-            ex.printStackTrace(System.err);
-            return;
-        }
+        Properties config = ORCAConnection.getInstance().getProperties();
         String claimConn = config.getProperty("claim.conn");
         if(claimConn != null && claimConn.equals("server")) {
 //s.oh$
@@ -667,8 +545,21 @@ public class KarteServiceBean {
             int port = Integer.parseInt(config.getProperty("claim.send.port"));
             String enc = config.getProperty("claim.send.encoding");
             String facilityId = config.getProperty("dolphin.facilityId");
-            Logger.getLogger("open.dolphin").info("Document message has received. Sending ORCA will start(Not Que).");
             ClaimSender sender = new ClaimSender(host, port, enc);
+            if (claimOutboxService.isEnabled()) {
+                // 送信待ちにしてカルテと一緒にコミットする 送信は ClaimOutboxService
+                try {
+                    String message = sender.createMessage(document);
+                    DocInfoModel docInfo = document.getDocInfoModel();
+                    claimOutboxServiceBean.enqueue(facilityId, docInfo.getPatientId(), ClaimOutboxModel.KIND_DOCUMENT,
+                            docInfo.getDocId(), sender.getBaseInfo(), message);
+                } catch (Exception ex) {
+                    ex.printStackTrace(System.err);
+                    Logger.getLogger("open.dolphin").warning("Claim message error : " + ex.getMessage());
+                }
+                return;
+            }
+            Logger.getLogger("open.dolphin").info("Document message has received. Sending ORCA will start(Not Que).");
             try {
                 sender.send(document);
             } catch (Exception ex) {
@@ -717,6 +608,7 @@ public class KarteServiceBean {
                 //------------------------
                 // 削除フラグをたてる
                 //------------------------
+                activityCounter.countEntry(delete, ActivityCounterServiceBean.KARTE, -1);
                 delete.setStatus(IInfoModel.STATUS_DELETE);
                 delete.setEnded(ended);
                 cnt++;
@@ -740,6 +632,7 @@ public class KarteServiceBean {
                 .setParameter(ID, id).getResultList();
                 for (Iterator iter = deleteImages.iterator(); iter.hasNext(); ) {
                     SchemaModel model = (SchemaModel) iter.next();
+                    activityCounter.countEntry(model, ActivityCounterServiceBean.IMAGES, -1);
                     model.setStatus(IInfoModel.STATUS_DELETE);
                     model.setEnded(ended);
                 }
@@ -751,6 +644,7 @@ public class KarteServiceBean {
                 .setParameter(ID, id).getResultList();
                 for (Iterator iter = deleteAttachments.iterator(); iter.hasNext(); ) {
                     AttachmentModel model = (AttachmentModel)iter.next();
+                    activityCounter.countEntry(model, ActivityCounterServiceBean.ATTACHMENTS, -1);
                     model.setStatus(IInfoModel.STATUS_DELETE);
                     model.setEnded(ended);
                 }
@@ -914,6 +808,7 @@ public class KarteServiceBean {
                 // ORCAの病名をインポート、Dolphinに登録しないで削除==0Lを除く
                 if (bean.getId()!=0L) {
                     RegisteredDiagnosisModel delete = (RegisteredDiagnosisModel)em.find(RegisteredDiagnosisModel.class, bean.getId());
+                    activityCounter.countEntry(delete, ActivityCounterServiceBean.DIAGNOSIS, -1);
                     em.remove(delete);
                     cnt++;
                 }
@@ -941,6 +836,7 @@ public class KarteServiceBean {
             
             for (RegisteredDiagnosisModel bean : addList) {
                 em.persist(bean);
+                activityCounter.countEntry(bean, ActivityCounterServiceBean.DIAGNOSIS, 1);
                 ret.add(new Long(bean.getId()));
             }
         }
@@ -950,21 +846,7 @@ public class KarteServiceBean {
         //-------------------------------------------------------------
         if (wrapper.getSendClaim() && wrapper.getConfirmDate()!=null) {
 //s.oh^ 2014/01/23 ORCAとの接続対応
-            Properties config = new Properties();
-            StringBuilder sb = new StringBuilder();
-            sb.append(System.getProperty("jboss.home.dir"));
-            sb.append(File.separator);
-            sb.append("custom.properties");
-            File f = new File(sb.toString());
-            try {
-                FileInputStream fin = new FileInputStream(f);
-                InputStreamReader r = new InputStreamReader(fin, "JISAutoDetect");
-                config.load(r);
-                r.close();
-            } catch (IOException ex) {
-                ex.printStackTrace(System.err);
-                throw new RuntimeException(ex.getMessage());
-            }
+            Properties config = ORCAConnection.getInstance().getProperties();
             String claimConn = config.getProperty("claim.conn");
             if(claimConn != null && claimConn.equals("server")) {
 //s.oh$
@@ -998,8 +880,22 @@ public class KarteServiceBean {
                 String host = config.getProperty("claim.host");
                 int port = Integer.parseInt(config.getProperty("claim.send.port"));
                 String enc = config.getProperty("claim.send.encoding");
-                Logger.getLogger("open.dolphin").info("DiagnosisSendWrapper message has received. Sending ORCA will start(Not Que).");
                 DiagnosisSender sender = new DiagnosisSender(host, port, enc);
+                if (claimOutboxService.isEnabled()) {
+                    // 送信待ちにして傷病名と一緒にコミットする 送信は ClaimOutboxService
+                    try {
+                        String message = sender.createMessage(wrapper);
+                        if (message != null) {
+                            claimOutboxServiceBean.enqueue(config.getProperty("dolphin.facilityId"), wrapper.getPatientId(),
+                                    ClaimOutboxModel.KIND_DIAGNOSIS, null, sender.getBaseInfo(), message);
+                        }
+                    } catch (Exception ex) {
+                        ex.printStackTrace(System.err);
+                        Logger.getLogger("open.dolphin").warning("Diagnosis Claim message error : " + ex.getMessage());
+                    }
+                    return ret;
+                }
+                Logger.getLogger("open.dolphin").info("DiagnosisSendWrapper message has received. Sending ORCA will start(Not Que).");
                 try {
                     sender.send(wrapper);
                 } catch (Exception ex) {
@@ -1025,6 +921,7 @@ public class KarteServiceBean {
 
         for (RegisteredDiagnosisModel bean : addList) {
             em.persist(bean);
+            activityCounter.countEntry(bean, ActivityCounterServiceBean.DIAGNOSIS, 1);
             ret.add(new Long(bean.getId()));
         }
 
@@ -1059,6 +956,7 @@ public class KarteServiceBean {
 
         for (Long id : removeList) {
             RegisteredDiagnosisModel bean = (RegisteredDiagnosisModel) em.find(RegisteredDiagnosisModel.class, id);
+            activityCounter.countEntry(bean, ActivityCounterServiceBean.DIAGNOSIS, -1);
             em.remove(bean);
             cnt++;
         }
@@ -1387,43 +1285,12 @@ public class KarteServiceBean {
         
         if(documents != null) {
             for (DocumentModel model : documents) {
-
                 model.toDetuch();
-                
-                long id = model.getId();
-
-                // ModuleBean を取得する
-                try {
-                    List modules = em.createQuery(QUERY_MODULE_BY_DOC_ID)
-                    .setParameter(ID, id)
-                    .getResultList();
-                    model.setModules(modules);
-                } catch (NoResultException e) {
-                    // 患者登録の際にカルテも生成してある
-                }
-
-                // SchemaModel を取得する
-                try {
-                    List images = em.createQuery(QUERY_SCHEMA_BY_DOC_ID)
-                    .setParameter(ID, id)
-                    .getResultList();
-                    model.setSchema(images);
-                } catch (NoResultException e) {
-                    // 患者登録の際にカルテも生成してある
-                }
-
-                // AttachmentModel を取得する
-                try {
-                    List attachments = em.createQuery(QUERY_ATTACHMENT_BY_DOC_ID)
-                    .setParameter(ID, id)
-                    .getResultList();
-                    model.setAttachment(attachments);
-                } catch (NoResultException e) {
-                    // 患者登録の際にカルテも生成してある
-                }
-
-                result.add(model);
             }
+            
+            // ModuleBean, SchemaModel, AttachmentModel をまとめて取得する
+            DocumentLoader.fetchContents(em, documents, true);
+            result.addAll(documents);
         }
         
         return result;
@@ -4,6 +4,7 @@ import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.ejb.Stateless;
+import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -33,11 +34,15 @@ public class LetterServiceBean {
     @PersistenceContext
     private EntityManager em;
 
+    @Inject
+    private ActivityCounterServiceBean activityCounter;
+
     
     public long saveOrUpdateLetter(LetterModule model) {
 
         // 保存
         em.persist(model);
+        activityCounter.countEntry(model, ActivityCounterServiceBean.LETTERS, 1);
         List<LetterItem> items = model.getLetterItems();
         if (items != null) {
             for (LetterItem item : items) {
@@ -106,6 +111,7 @@ public class LetterServiceBean {
                             em.createQuery(QUERY_LETTER_BY_ID)
                             .setParameter(ID, model.getLinkId())
                             .getSingleResult();
+                activityCounter.countEntry(delete, ActivityCounterServiceBean.LETTERS, -1);
                 em.remove(delete);
             }catch(NoResultException e) {
                 Logger.getLogger("open.dolphin").log(Level.WARNING, "QUERY_LETTER_BY_ID : {0}", new Object[]{e.toString()});
@@ -202,6 +208,7 @@ public class LetterServiceBean {
                         em.createQuery(QUERY_LETTER_BY_ID)
                         .setParameter(ID, pk)
                         .getSingleResult();
+            activityCounter.countEntry(delete, ActivityCounterServiceBean.LETTERS, -1);
             em.remove(delete);
         }catch(NoResultException e) {
             Logger.getLogger("open.dolphin").log(Level.WARNING, "QUERY_LETTER_BY_ID : {0}", new Object[]{e.toString()});
@@ -1,9 +1,9 @@
 package open.dolphin.session;
 
-import java.beans.XMLDecoder;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -12,13 +12,12 @@ import javax.ejb.Stateless;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import open.dolphin.converter.DocumentModelConverter;
 import open.dolphin.infomodel.*;
 import open.dolphin.touch.converter.IPatientModel;
 import open.dolphin.msg.MMLHelper;
 import open.dolphin.msg.PatientHelper;
 import open.dolphin.msg.VelocityHelper;
-import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.Velocity;
 import org.apache.velocity.exception.MethodInvocationException;
 import org.apache.velocity.exception.ParseErrorException;
 import org.apache.velocity.exception.ResourceNotFoundException;
@@ -60,6 +59,7 @@ public class MmlServiceBean {
     private static final String QUERY_DATE_BY_ID = "from LetterDate l where l.module.id=:id";
     
     
+    // MML は VelocityHelper.mergeToBytes でキャッシュしたテンプレートから UTF-8 のバイト列へ直接生成する
     private static final String PATIENT_HELPER_OBJECT = "patientHelper";
     private static final String PATIENT_HELPER_TEMPLATE = "patientHelper.vm";
     private static final String PATIENT_HELPER_ENCODING = "SHIFT_JIS";
@@ -67,6 +67,11 @@ public class MmlServiceBean {
     private static final String MML_HELPER_TEMPLATE = "mml2.3Helper.vm";
     private static final String MML_HELPER_ENCODING = "SHIFT_JIS";
     
+    private static final String QUERY_DOC_IDS_AFTER = "select d.id from DocumentModel d where d.creator.userId like :fid and d.id>:pk order by d.id";
+    
+    // エクスポート用 設定後は変更しないのでスレッド間で共有する
+    private static final ObjectMapper EXPORT_MAPPER = new ObjectMapper();
+    
     @PersistenceContext
     private EntityManager em;
     
@@ -122,24 +127,7 @@ public class MmlServiceBean {
             helper.setFacility(facility);
 
             // Create MML instance
-            VelocityContext context = VelocityHelper.getContext();
-            context.put(PATIENT_HELPER_OBJECT, helper);
-            StringWriter sw = new StringWriter();
-            try (BufferedWriter bw = new BufferedWriter(sw)) {
-                Velocity.mergeTemplate(PATIENT_HELPER_TEMPLATE, PATIENT_HELPER_ENCODING, context, bw);
-                bw.flush();
-            }
-            String mml = sw.toString();
-            if (false) {
-                log(mml);
-            }
-
-            // Byte data
-            byte[] data = mml.getBytes("UTF-8");
-            ByteBuffer buf = ByteBuffer.allocate(data.length);
-            buf.clear();
-            buf.put(data);
-            buf.flip();
+            ByteBuffer buf = VelocityHelper.mergeToBytes(PATIENT_HELPER_TEMPLATE, PATIENT_HELPER_ENCODING, PATIENT_HELPER_OBJECT, helper, StandardCharsets.UTF_8);
 
             // MML File
             File f = getPatientMmlFile(pm.getPatientId());
@@ -240,24 +228,7 @@ public class MmlServiceBean {
                 helper.setFacility(facility.getFacilityId());
 
                 // Create MML instance
-                VelocityContext context = VelocityHelper.getContext();
-                context.put(PATIENT_HELPER_OBJECT, helper);
-                StringWriter sw = new StringWriter();
-                try (BufferedWriter bw = new BufferedWriter(sw)) {
-                    Velocity.mergeTemplate(PATIENT_HELPER_TEMPLATE, PATIENT_HELPER_ENCODING, context, bw);
-                    bw.flush();
-                }
-                String mml = sw.toString();
-                if (false) {
-                    log(mml);
-                }
-                
-                // Byte data
-                byte[] data = mml.getBytes("UTF-8");
-                ByteBuffer buf = ByteBuffer.allocate(data.length);
-                buf.clear();
-                buf.put(data);
-                buf.flip();
+                ByteBuffer buf = VelocityHelper.mergeToBytes(PATIENT_HELPER_TEMPLATE, PATIENT_HELPER_ENCODING, PATIENT_HELPER_OBJECT, helper, StandardCharsets.UTF_8);
                 
                 // MML File
                 File f = getPatientMmlFile(pm.getPatientId());
@@ -355,24 +326,7 @@ public class MmlServiceBean {
             //------------------------------------------------------------------
 
             // Create MML instance
-            VelocityContext context = VelocityHelper.getContext();
-            context.put(MML_HELPER_OBJECT, helper);
-            StringWriter sw = new StringWriter();
-            try (BufferedWriter bw = new BufferedWriter(sw)) {
-                Velocity.mergeTemplate(MML_HELPER_TEMPLATE, MML_HELPER_ENCODING, context, bw);
-                bw.flush();
-            }
-            String mml = sw.toString();
-            if (false) {
-                log(mml);
-            }
-
-            // Byte data
-            byte[] data = mml.getBytes("UTF-8");
-            ByteBuffer buf = ByteBuffer.allocate(data.length);
-            buf.clear();
-            buf.put(data);
-            buf.flip();
+            ByteBuffer buf = VelocityHelper.mergeToBytes(MML_HELPER_TEMPLATE, MML_HELPER_ENCODING, MML_HELPER_OBJECT, helper, StandardCharsets.UTF_8);
 
             File f = getKarteMmlFile(dm.getKarteBean().getPatientModel().getPatientId(),dm.getDocInfoModel().getDocId());
             FileOutputStream fout = new FileOutputStream(f);
@@ -495,24 +449,7 @@ public class MmlServiceBean {
                 //------------------------------------------------------------------
 
                 // Create MML instance
-                VelocityContext context = VelocityHelper.getContext();
-                context.put(MML_HELPER_OBJECT, helper);
-                StringWriter sw = new StringWriter();
-                try (BufferedWriter bw = new BufferedWriter(sw)) {
-                    Velocity.mergeTemplate(MML_HELPER_TEMPLATE, MML_HELPER_ENCODING, context, bw);
-                    bw.flush();
-                }
-                String mml = sw.toString();
-                if (false) {
-                    log(mml);
-                }
-                
-                // Byte data
-                byte[] data = mml.getBytes("UTF-8");
-                ByteBuffer buf = ByteBuffer.allocate(data.length);
-                buf.clear();
-                buf.put(data);
-                buf.flip();
+                ByteBuffer buf = VelocityHelper.mergeToBytes(MML_HELPER_TEMPLATE, MML_HELPER_ENCODING, MML_HELPER_OBJECT, helper, StandardCharsets.UTF_8);
                 
                 File f = getKarteMmlFile(dm.getKarteBean().getPatientModel().getPatientId(),dm.getDocInfoModel().getDocId());
                 FileOutputStream fout = new FileOutputStream(f);
@@ -557,6 +494,105 @@ public class MmlServiceBean {
         }
     }
     
+    //--------------------------------------------------------------------------
+    // 施設全体のエクスポート（MmlExportJob から呼ばれる）
+    //--------------------------------------------------------------------------
+    
+    /**
+     * afterId より大きい文書の pk を id 順に返す（keyset で読むので後ろの方でも遅くならない）。
+     * @param fid 施設ID
+     * @param afterId この pk より後
+     * @param maxResults 最大数
+     * @return pk
+     */
+    public List<Long> getFacilityDocumentIds(String fid, long afterId, int maxResults) {
+        return (List<Long>)em.createQuery(QUERY_DOC_IDS_AFTER)
+                .setParameter(FID, fid+":%")
+                .setParameter(PK, afterId)
+                .setMaxResults(maxResults)
+                .getResultList();
+    }
+    
+    /**
+     * 一文書を MML または JSON にする。ファイルには書かない。
+     * @param pk 文書の pk
+     * @param json true なら DocumentModelConverter の JSON
+     * @return 生成したデータ
+     * @throws IOException 
+     */
+    public ExportEntry exportDocument(long pk, boolean json) throws IOException {
+        
+        DocumentModel dm = getKarteByPK(pk);
+        ExportEntry entry = new ExportEntry();
+        entry.id = pk;
+        entry.patientId = dm.getKarteBean().getPatientModel().getPatientId();
+        entry.docId = dm.getDocInfoModel().getDocId();
+        dm.toDetuch();
+        
+        if (json) {
+            DocumentModelConverter conv = new DocumentModelConverter();
+            conv.setModel(dm);
+            entry.data = EXPORT_MAPPER.writeValueAsBytes(conv);
+            return entry;
+        }
+        
+        for (ModuleModel mm : dm.getModules()) {
+            mm.setModel((IInfoModel)this.xmlDecode(mm.getBeanBytes()));
+        }
+        MMLHelper helper = new MMLHelper();
+        helper.setDocument(dm);
+        helper.buildText();
+        
+        ByteBuffer buf = VelocityHelper.mergeToBytes(MML_HELPER_TEMPLATE, MML_HELPER_ENCODING, MML_HELPER_OBJECT, helper, StandardCharsets.UTF_8);
+        entry.data = new byte[buf.remaining()];
+        buf.get(entry.data);
+        
+        if (dm.getSchema()!=null) {
+            for (SchemaModel sm : dm.getSchema()) {
+                entry.schemaNames.add(sm.getExtRefModel().getHref());
+                entry.schemaData.add(sm.getJpegByte());
+            }
+        }
+        return entry;
+    }
+    
+    /**
+     * エクスポートする一文書
+     */
+    public static final class ExportEntry implements java.io.Serializable {
+        
+        private long id;
+        private String patientId;
+        private String docId;
+        private byte[] data;
+        private final List<String> schemaNames = new ArrayList<>(0);
+        private final List<byte[]> schemaData = new ArrayList<>(0);
+
+        public long getId() {
+            return id;
+        }
+
+        public String getPatientId() {
+            return patientId;
+        }
+
+        public String getDocId() {
+            return docId;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public List<String> getSchemaNames() {
+            return schemaNames;
+        }
+
+        public List<byte[]> getSchemaData() {
+            return schemaData;
+        }
+    }
+    
     private File getPatientMmlFile(String pid) {
         // Directory
         StringBuilder sb = new StringBuilder();
@@ -603,12 +639,7 @@ public class MmlServiceBean {
     }
     
     private Object xmlDecode(byte[] bytes)  {
-
-        XMLDecoder d = new XMLDecoder(
-                new BufferedInputStream(
-                new ByteArrayInputStream(bytes)));
-
-        return d.readObject();
+        return BeanCodec.decode(bytes);
     }
     
     private void log(String msg) {
@@ -1,10 +1,18 @@
 package open.dolphin.session;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 import javax.ejb.Stateless;
+import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -22,25 +30,39 @@ public class NLabServiceBean {
     private static final String QUERY_MODULE_BY_MODULE_KEY = "from NLaboModule m where m.moduleKey=:moduleKey";
     private static final String QUERY_MODULE_BY_PID_SAMPLEDATE_LABCODE = "from NLaboModule m where m.patientId=:fidPid and m.sampleDate=:sampleDate and m.laboCenterCode=:laboCode";
     private static final String QUERY_MODULE_BY_FIDPID = "from NLaboModule l where l.patientId=:fidPid order by l.sampleDate desc";
-    private static final String QUERY_ITEM_BY_MID = "from NLaboItem l where l.laboModule.id=:mid order by groupCode,parentCode,itemCode";
-    private static final String QUERY_ITEM_BY_MID_ORDERBY_SORTKEY = "from NLaboItem l where l.laboModule.id=:mid order by l.sortKey";
+    private static final String QUERY_ITEM_BY_MIDS = "from NLaboItem l where l.laboModule.id in (:mids) order by groupCode,parentCode,itemCode";
     private static final String QUERY_ITEM_BY_FIDPID_ITEMCODE = "from NLaboItem l where l.patientId=:fidPid and l.itemCode=:itemCode order by l.sampleDate desc";
     private static final String QUERY_INSURANCE_BY_PATIENT_PK = "from HealthInsuranceModel h where h.patient.id=:pk";
 //s.oh^ 2013/09/18 ラボデータの高速化
     private static final String QUERY_MODULECOUNT_BY_FIDPID = "select count(*) from NLaboModule l where l.patientId=:fidPid";
 //s.oh$
 
+    private static final String QUERY_PATIENTS_BY_FID_PIDS = "from PatientModel p where p.facilityId=:fid and p.patientId in (:pids)";
+    private static final String QUERY_INSURANCE_BY_PATIENT_PKS = "select h.patient.id, h from HealthInsuranceModel h where h.patient.id in (:pks)";
+    private static final String QUERY_MODULE_IDS_BY_MODULE_KEYS = "select m.id, m.moduleKey, m.sampleDate from NLaboModule m where m.moduleKey in (:keys)";
+    private static final String QUERY_MODULE_IDS_BY_PIDS_SAMPLEDATES = "select m.id, m.patientId, m.sampleDate, m.laboCenterCode from NLaboModule m where m.patientId in (:fidPids) and m.sampleDate in (:sampleDates)";
+    private static final String DELETE_ITEMS_BY_MODULE_IDS = "delete from NLaboItem i where i.laboModule.id in (:ids)";
+    private static final String DELETE_MODULES_BY_IDS = "delete from NLaboModule m where m.id in (:ids)";
+    private static final int IN_CLAUSE_SIZE = 500;
+    private static final int BULK_FLUSH_SIZE = 50;
+
     private static final String PK = "pk";
     private static final String FIDPID = "fidPid";
     private static final String SAMPLEDATE = "sampleDate";
     private static final String LABOCODE = "laboCode";
     private static final String MODULEKEY = "moduleKey";
-    private static final String MID = "mid";
+    private static final String MIDS = "mids";
     private static final String ITEM_CODE = "itemCode";
     private static final String WOLF = "WOLF";
 
     @PersistenceContext
     private EntityManager em;
+    
+    @Inject
+    private NLabTrendServiceBean trendServiceBean;
+    
+    @Inject
+    private ActivityCounterServiceBean activityCounter;
 
     
     public List<PatientLiteModel> getConstrainedPatients(String fid, List<String>idList) {
@@ -147,18 +169,243 @@ public class NLabServiceBean {
         }
 
         // Cascade.TYPE=ALL
+        List<Long> removed = new ArrayList<>(1);
         if (exist != null) {
+            removed.add(exist.getId());
+            activityCounter.count(fid, ActivityCounterServiceBean.LAB_TESTS, exist.getSampleDate(), -1);
             em.remove(exist);
             //System.err.println("module did remove");
         }
 
         // 永続化する
         em.persist(module);
+        activityCounter.count(fid, ActivityCounterServiceBean.LAB_TESTS, module.getSampleDate(), 1);
+        
+        // 検査値の時系列
+        em.flush();
+        Map<String, List<NLaboModule>> added = new HashMap<>();
+        added.put(fidPid, Collections.singletonList(module));
+        trendServiceBean.update(added, removed);
 
         return patient;
     }
 
 
+    /**
+     * 検査結果ファイル一つ分のモジュールをまとめて登録する。
+     * 患者・健康保険・再報告の既存モジュールはまとめて引き、NLaboItem は
+     * BULK_FLUSH_SIZE モジュール毎に flush して JDBC batch で insert する。
+     * 同じ moduleKey（moduleKey が無ければ 患者・検体採取日・ラボコード）のモジュールが複数あれば
+     * 後のものが残り（一件ずつ登録した時と同じ）、前のものは RESULT_DUPLICATE になる。
+     * 患者が登録されていないモジュールは登録せず、既存のモジュールも削除しない。
+     * @param fid 施設ID
+     * @param modules パースした検査結果
+     * @return modules と同じ順の結果
+     */
+    public List<LaboImportSummary> createAll(String fid, List<NLaboModule> modules) {
+        
+        List<LaboImportSummary> ret = new ArrayList<>(modules.size());
+        
+        //--------------------------------------------------------
+        // 患者と健康保険
+        //--------------------------------------------------------
+        Set<String> pids = new HashSet<>();
+        for (NLaboModule module : modules) {
+            pids.add(module.getPatientId());
+        }
+        Map<String, PatientModel> patients = new HashMap<>();
+        List<String> pidList = new ArrayList<>(pids);
+        for (int i = 0; i < pidList.size(); i += IN_CLAUSE_SIZE) {
+            List<PatientModel> list = em.createQuery(QUERY_PATIENTS_BY_FID_PIDS)
+                    .setParameter("fid", fid)
+                    .setParameter("pids", pidList.subList(i, Math.min(i + IN_CLAUSE_SIZE, pidList.size())))
+                    .getResultList();
+            for (PatientModel pm : list) {
+                pm.setHealthInsurances(new ArrayList<HealthInsuranceModel>());
+                patients.put(pm.getPatientId(), pm);
+            }
+        }
+        List<PatientModel> patientList = new ArrayList<>(patients.values());
+        Map<Long, PatientModel> byPk = new HashMap<>();
+        for (PatientModel pm : patientList) {
+            byPk.put(pm.getId(), pm);
+        }
+        for (int i = 0; i < patientList.size(); i += IN_CLAUSE_SIZE) {
+            List<Long> pks = new ArrayList<>();
+            for (PatientModel pm : patientList.subList(i, Math.min(i + IN_CLAUSE_SIZE, patientList.size()))) {
+                pks.add(pm.getId());
+            }
+            List<Object[]> rows = em.createQuery(QUERY_INSURANCE_BY_PATIENT_PKS)
+                    .setParameter("pks", pks)
+                    .getResultList();
+            for (Object[] row : rows) {
+                byPk.get((Long)row[0]).getHealthInsurances().add((HealthInsuranceModel)row[1]);
+            }
+        }
+        
+        //--------------------------------------------------------
+        // patientId を施設IDつきにし moduleKey を補正する（create と同じ）
+        //--------------------------------------------------------
+        Map<String, Integer> lastIndexByKey = new HashMap<>();
+        // moduleKey の無いモジュールは 患者・検体採取日・ラボコード で
+        Map<List<String>, Integer> lastIndexBySample = new HashMap<>();
+        for (int i = 0; i < modules.size(); i++) {
+            NLaboModule module = modules.get(i);
+            String pid = module.getPatientId();
+            LaboImportSummary summary = new LaboImportSummary();
+            summary.setPatientId(pid);
+            summary.setSampleTime(module.getSampleDate());
+            summary.setLaboratoryCenter(module.getLaboCenterCode());
+            summary.setPatient(patients.get(pid));
+            ret.add(summary);
+            
+            String fidPid = fid+":"+pid;
+            module.setPatientId(fidPid);
+            if (module.getItems()!=null) {
+                for (NLaboItem item : module.getItems()) {
+                    item.setPatientId(fidPid);
+                    item.setLaboModule(module);
+                }
+            }
+            String moduleKey = module.getModuleKey();
+            if (moduleKey!=null) {
+                StringBuilder sb = new StringBuilder();
+                sb.append(pid).append(".").append(module.getSampleDate()).append(".").append(module.getLaboCenterCode());
+                if (sb.toString().equals(moduleKey)) {
+                    moduleKey = fid + ":" + moduleKey;
+                    module.setModuleKey(moduleKey);
+                }
+            }
+            summary.setModuleKey(module.getModuleKey());
+            
+            // 患者がいなければ登録しないので、既存のモジュールも置き換えない
+            if (summary.getPatient()==null) {
+                continue;
+            }
+            if (moduleKey!=null) {
+                lastIndexByKey.put(moduleKey, i);
+            } else {
+                lastIndexBySample.put(sampleKey(module), i);
+            }
+        }
+        
+        //--------------------------------------------------------
+        // 再報告として削除する既存モジュール
+        //--------------------------------------------------------
+        List<String> keys = new ArrayList<>(lastIndexByKey.keySet());
+        Set<Long> removeIds = new HashSet<>();
+        Set<String> existKeys = new HashSet<>();
+        for (int i = 0; i < keys.size(); i += IN_CLAUSE_SIZE) {
+            List<Object[]> rows = em.createQuery(QUERY_MODULE_IDS_BY_MODULE_KEYS)
+                    .setParameter("keys", keys.subList(i, Math.min(i + IN_CLAUSE_SIZE, keys.size())))
+                    .getResultList();
+            for (Object[] row : rows) {
+                if (removeIds.add((Long)row[0])) {
+                    activityCounter.count(fid, ActivityCounterServiceBean.LAB_TESTS, (String)row[2], -1);
+                }
+                existKeys.add((String)row[1]);
+            }
+        }
+        Set<List<String>> existSamples = new HashSet<>();
+        if (!lastIndexBySample.isEmpty()) {
+            // 患者と検体採取日で絞って引き、ラボコードまで一致するものを削除する
+            Set<String> fidPids = new HashSet<>();
+            Set<String> sampleDates = new HashSet<>();
+            for (List<String> sample : lastIndexBySample.keySet()) {
+                fidPids.add(sample.get(0));
+                sampleDates.add(sample.get(1));
+            }
+            List<String> fidPidList = new ArrayList<>(fidPids);
+            List<String> sampleDateList = new ArrayList<>(sampleDates);
+            for (int i = 0; i < fidPidList.size(); i += IN_CLAUSE_SIZE) {
+                for (int j = 0; j < sampleDateList.size(); j += IN_CLAUSE_SIZE) {
+                    List<Object[]> rows = em.createQuery(QUERY_MODULE_IDS_BY_PIDS_SAMPLEDATES)
+                            .setParameter("fidPids", fidPidList.subList(i, Math.min(i + IN_CLAUSE_SIZE, fidPidList.size())))
+                            .setParameter("sampleDates", sampleDateList.subList(j, Math.min(j + IN_CLAUSE_SIZE, sampleDateList.size())))
+                            .getResultList();
+                    for (Object[] row : rows) {
+                        List<String> sample = Arrays.asList((String)row[1], (String)row[2], (String)row[3]);
+                        if (!lastIndexBySample.containsKey(sample)) {
+                            continue;
+                        }
+                        if (removeIds.add((Long)row[0])) {
+                            activityCounter.count(fid, ActivityCounterServiceBean.LAB_TESTS, (String)row[2], -1);
+                        }
+                        existSamples.add(sample);
+                    }
+                }
+            }
+        }
+        List<Long> removeList = new ArrayList<>(removeIds);
+        for (int i = 0; i < removeList.size(); i += IN_CLAUSE_SIZE) {
+            List<Long> sub = removeList.subList(i, Math.min(i + IN_CLAUSE_SIZE, removeList.size()));
+            em.createQuery(DELETE_ITEMS_BY_MODULE_IDS).setParameter("ids", sub).executeUpdate();
+            em.createQuery(DELETE_MODULES_BY_IDS).setParameter("ids", sub).executeUpdate();
+        }
+        
+        //--------------------------------------------------------
+        // 登録
+        //--------------------------------------------------------
+        int pending = 0;
+        Map<String, List<NLaboModule>> added = new HashMap<>();
+        List<NLaboModule> persisted = new ArrayList<>();
+        List<LaboImportSummary> persistedSummary = new ArrayList<>();
+        for (int i = 0; i < modules.size(); i++) {
+            NLaboModule module = modules.get(i);
+            LaboImportSummary summary = ret.get(i);
+            if (summary.getPatient()==null) {
+                summary.setResult(LaboImportSummary.RESULT_NO_PATIENT);
+                continue;
+            }
+            String moduleKey = module.getModuleKey();
+            List<String> sample = moduleKey==null ? sampleKey(module) : null;
+            int last = moduleKey!=null ? lastIndexByKey.get(moduleKey) : lastIndexBySample.get(sample);
+            if (last != i) {
+                // 同じファイル内の後の報告で置き換わる
+                summary.setResult(LaboImportSummary.RESULT_DUPLICATE);
+                continue;
+            }
+            em.persist(module);
+            activityCounter.count(fid, ActivityCounterServiceBean.LAB_TESTS, module.getSampleDate(), 1);
+            persisted.add(module);
+            persistedSummary.add(summary);
+            List<NLaboModule> byPatient = added.get(module.getPatientId());
+            if (byPatient==null) {
+                byPatient = new ArrayList<>();
+                added.put(module.getPatientId(), byPatient);
+            }
+            byPatient.add(module);
+            boolean replaced = moduleKey!=null ? existKeys.contains(moduleKey) : existSamples.contains(sample);
+            summary.setResult(replaced ? LaboImportSummary.RESULT_REPLACED : LaboImportSummary.RESULT_REGISTERED);
+            if (++pending >= BULK_FLUSH_SIZE) {
+                flushModules(persisted, persistedSummary);
+                pending = 0;
+            }
+        }
+        flushModules(persisted, persistedSummary);
+        
+        // 検査値の時系列（detach したモジュールの id と items を使う）
+        trendServiceBean.update(added, removeIds);
+        
+        return ret;
+    }
+    
+    // moduleKey の無いモジュールの再報告の key 施設IDつき患者ID・検体採取日・ラボコード
+    private static List<String> sampleKey(NLaboModule module) {
+        return Arrays.asList(module.getPatientId(), module.getSampleDate(), module.getLaboCenterCode());
+    }
+    
+    private void flushModules(List<NLaboModule> persisted, List<LaboImportSummary> summaries) {
+        em.flush();
+        for (int i = 0; i < persisted.size(); i++) {
+            summaries.get(i).setModuleId(persisted.get(i).getId());
+            em.detach(persisted.get(i));
+        }
+        persisted.clear();
+        summaries.clear();
+    }
+
+
     /**
      * ラボモジュールを検索する。
      * @param patientId     対象患者のID
@@ -181,22 +428,31 @@ public class NLabServiceBean {
                           .setMaxResults(maxResult)
                           .getResultList();
 
+        if (ret.isEmpty()) {
+            return ret;
+        }
+
+        // 項目はモジュール毎に引かずにまとめて引く
+        Map<Long, List<NLaboItem>> itemsByModule = new HashMap<>();
+        List<Long> mids = new ArrayList<>(ret.size());
         for (NLaboModule m : ret) {
+            mids.add(m.getId());
+            itemsByModule.put(m.getId(), new ArrayList<NLaboItem>());
+        }
+        List<NLaboItem> items = (List<NLaboItem>)
+                        em.createQuery(QUERY_ITEM_BY_MIDS)
+                          .setParameter(MIDS, mids)
+                          .getResultList();
+        for (NLaboItem item : items) {
+            itemsByModule.get(item.getLaboModule().getId()).add(item);
+        }
 
+        for (NLaboModule m : ret) {
+            List<NLaboItem> list = itemsByModule.get(m.getId());
             if (m.getReportFormat()!=null && m.getReportFormat().equals(WOLF)) {
-                List<NLaboItem> items = (List<NLaboItem>)
-                                em.createQuery(QUERY_ITEM_BY_MID_ORDERBY_SORTKEY)
-                                  .setParameter(MID, m.getId())
-                                  .getResultList();
-                m.setItems(items);
-
-            } else {
-                List<NLaboItem> items = (List<NLaboItem>)
-                                em.createQuery(QUERY_ITEM_BY_MID)
-                                  .setParameter(MID, m.getId())
-                                  .getResultList();
-                m.setItems(items);
+                Collections.sort(list, SORTKEY_ORDER);
             }
+            m.setItems(list);
         }
         return ret;
     }
@@ -239,8 +495,57 @@ public class NLabServiceBean {
     public int deleteLabTest(long id) {
         //Logger.getLogger("open.dolphin").info("Lab module to detele is " + id);
         NLaboModule target = em.find(NLaboModule.class,id);
+        trendServiceBean.removeModule(target.getPatientId(), id);
+        int index = target.getPatientId().indexOf(IInfoModel.COMPOSITE_KEY_MAKER);
+        if (index > 0) {
+            activityCounter.count(target.getPatientId().substring(0, index), ActivityCounterServiceBean.LAB_TESTS, target.getSampleDate(), -1);
+        }
         em.remove(target);
         Logger.getLogger("open.dolphin").info("Lab module deleted " + id);
         return 1;
     }
+    
+    // WOLF 形式は sortKey 順 sortKey のないものは後
+    private static final Comparator<NLaboItem> SORTKEY_ORDER = new Comparator<NLaboItem>() {
+        @Override
+        public int compare(NLaboItem i1, NLaboItem i2) {
+            if (i1.getSortKey()==null) {
+                return i2.getSortKey()==null ? 0 : 1;
+            }
+            return i2.getSortKey()==null ? -1 : i1.getSortKey().compareTo(i2.getSortKey());
+        }
+    };
+    
+    /**
+     * 検査結果の表（検査結果のモジュール × 検査項目）を返す。
+     * @param fidPid 施設ID:患者ID
+     * @param fromDate この検体採取日から null なら最初から
+     * @param toDate この検体採取日まで null なら最後まで
+     * @param maxColumns 列の最大数（新しい方から） 0 なら全部
+     * @return 表
+     */
+    public LaboTrendPivot getLaboTrend(String fidPid, String fromDate, String toDate, int maxColumns) {
+        return trendServiceBean.getPivot(fidPid, fromDate, toDate, maxColumns);
+    }
+    
+    /**
+     * 一検査項目の全履歴を返す。
+     * @param fidPid 施設ID:患者ID
+     * @param itemCode 検査項目コード
+     * @return 検体採取日の昇順 なければ null
+     */
+    public LaboTrendRow getLaboTrendItem(String fidPid, String itemCode) {
+        return trendServiceBean.getItemHistory(fidPid, itemCode);
+    }
+    
+    /**
+     * 施設の検査値の時系列を患者ID順に作り直す。
+     * @param fid 施設ID
+     * @param after この施設ID:患者ID より後から
+     * @param max 一度に作り直す患者数
+     * @return 作り直した患者 空なら終わり
+     */
+    public List<String> rebuildLaboTrend(String fid, String after, int max) {
+        return trendServiceBean.rebuildFacility(fid, after, max);
+    }
 }
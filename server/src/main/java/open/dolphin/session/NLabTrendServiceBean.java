@@ -0,0 +1,633 @@
+package open.dolphin.session;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.ejb.Stateless;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.PersistenceContext;
+import open.dolphin.infomodel.IInfoModel;
+import open.dolphin.infomodel.LaboTrendPivot;
+import open.dolphin.infomodel.LaboTrendRow;
+import open.dolphin.infomodel.NLaboItem;
+import open.dolphin.infomodel.NLaboModule;
+import open.dolphin.infomodel.NLaboTrend;
+import open.dolphin.mbean.LaboTrendBackfill;
+
+/**
+ * 検査値の時系列（d_nlabo_trend）の更新と検索。
+ *
+ * ラボモジュールの登録・削除時に NLabServiceBean から呼ばれ、患者の時系列を差分で更新する。
+ * 時系列を作った患者には項目コード BUILT の行を置き、検査結果がなくなっても作成済みと分かるようにする。
+ * まだ時系列のない患者（このテーブルができる前に登録された患者）は、登録時か LaboTrendBackfill で NLaboItem から作り直す。
+ * 検索では作り直さない。LaboTrendBackfill が終わるまでは時系列のない患者を NLaboItem から読むだけで組み立てる。
+ *
+ * 時系列を書き換える時は患者（PatientModel）の行をロックして、同じ患者の取り込みや作り直しを順に行う。
+ */
+@Named
+@Stateless
+public class NLabTrendServiceBean {
+
+    private static final String QUERY_TREND_BY_FIDPID = "from NLaboTrend t where t.patientId=:fidPid";
+    private static final String QUERY_TREND_BY_FIDPIDS = "from NLaboTrend t where t.patientId in (:fidPids)";
+    private static final String QUERY_TREND_BY_FIDPID_ITEMCODE = "from NLaboTrend t where t.patientId=:fidPid and t.itemCode=:itemCode";
+    private static final String QUERY_ITEM_BY_FIDPID
+            = "select i.laboModule.id, i.sampleDate, i.itemCode, i.itemName, i.groupCode, i.parentCode, i.sortKey,"
+            + " i.unit, i.normalValue, i.value, i.abnormalFlg, i.reportStatus, i.comment1, i.comment2"
+            + " from NLaboItem i where i.patientId=:fidPid order by i.laboModule.id, i.id";
+    private static final String QUERY_LAB_PATIENTS_BY_FID
+            = "select distinct m.patientId from NLaboModule m where m.patientId like :fid and m.patientId>:after order by m.patientId";
+    private static final String QUERY_PENDING_LAB_PATIENTS
+            = "select distinct m.patientId from NLaboModule m where m.patientId>:after"
+            + " and not exists (select t.id from NLaboTrend t where t.patientId=m.patientId and t.itemCode=:itemCode)"
+            + " order by m.patientId";
+    private static final String QUERY_PATIENT_FOR_UPDATE
+            = "from PatientModel p where p.facilityId=:fid and p.patientId in (:pids) order by p.patientId";
+    private static final String DELETE_TREND_BY_FIDPID = "delete from NLaboTrend t where t.patientId=:fidPid";
+
+    private static final String FIDPID = "fidPid";
+    private static final String FIDPIDS = "fidPids";
+    private static final String ITEM_CODE = "itemCode";
+    private static final String FID = "fid";
+    private static final String AFTER = "after";
+    private static final String PIDS = "pids";
+    private static final int IN_CLAUSE_SIZE = 500;
+
+    // 再報告等で同じモジュールに同じ項目が複数ある時はこの報告状態のものを優先する（LaboTestPanel と同じ）
+    private static final String REPORT_STATUS_FINAL = "E";
+
+    // 時系列を作成済みの印の項目コード
+    public static final String BUILT = "#built";
+
+    @PersistenceContext
+    private EntityManager em;
+
+    @Inject
+    private LaboTrendBackfill backfill;
+
+    /**
+     * 登録・再報告されたモジュールを時系列に反映する。呼び出し元は登録したモジュールを flush しておくこと。
+     * @param added 登録したモジュール 施設ID:患者ID 毎
+     * @param removedModuleIds 再報告で削除したモジュールの pk
+     */
+    public void update(Map<String, List<NLaboModule>> added, Collection<Long> removedModuleIds) {
+
+        lockPatients(added.keySet());
+
+        Map<String, Map<String, NLaboTrend>> trends = new HashMap<>();
+        List<String> fidPids = new ArrayList<>(added.keySet());
+        for (int i = 0; i < fidPids.size(); i += IN_CLAUSE_SIZE) {
+            List<NLaboTrend> list = em.createQuery(QUERY_TREND_BY_FIDPIDS)
+                    .setParameter(FIDPIDS, fidPids.subList(i, Math.min(i + IN_CLAUSE_SIZE, fidPids.size())))
+                    .getResultList();
+            for (NLaboTrend t : list) {
+                Map<String, NLaboTrend> map = trends.get(t.getPatientId());
+                if (map == null) {
+                    map = new HashMap<>();
+                    trends.put(t.getPatientId(), map);
+                }
+                map.put(t.getItemCode(), t);
+            }
+        }
+
+        for (String fidPid : fidPids) {
+            Map<String, NLaboTrend> map = trends.get(fidPid);
+            if (map == null || map.remove(BUILT) == null) {
+                // 時系列がまだない
+                rebuild(fidPid);
+                continue;
+            }
+            Map<NLaboTrend, List<Point>> dirty = new HashMap<>();
+            if (removedModuleIds != null && !removedModuleIds.isEmpty()) {
+                for (NLaboTrend t : map.values()) {
+                    List<Point> points = parse(t.getSeries());
+                    if (removeModules(points, removedModuleIds)) {
+                        dirty.put(t, points);
+                    }
+                }
+            }
+            for (NLaboModule module : added.get(fidPid)) {
+                for (NLaboItem item : selectItems(module.getItems())) {
+                    NLaboTrend t = map.get(item.getItemCode());
+                    if (t == null) {
+                        t = newTrend(fidPid, item, true);
+                        map.put(t.getItemCode(), t);
+                    }
+                    List<Point> points = dirty.get(t);
+                    if (points == null) {
+                        points = parse(t.getSeries());
+                        dirty.put(t, points);
+                    }
+                    removeModules(points, Collections.singleton(module.getId()));
+                    add(t, points, item, module.getId());
+                }
+            }
+            for (Map.Entry<NLaboTrend, List<Point>> e : dirty.entrySet()) {
+                store(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /**
+     * 削除したモジュールを時系列から除く。
+     * @param fidPid 施設ID:患者ID
+     * @param moduleId モジュールの pk
+     */
+    public void removeModule(String fidPid, long moduleId) {
+        lockPatients(Collections.singleton(fidPid));
+        List<NLaboTrend> list = em.createQuery(QUERY_TREND_BY_FIDPID).setParameter(FIDPID, fidPid).getResultList();
+        for (NLaboTrend t : list) {
+            if (BUILT.equals(t.getItemCode())) {
+                continue;
+            }
+            List<Point> points = parse(t.getSeries());
+            if (removeModules(points, Collections.singleton(moduleId))) {
+                store(t, points);
+            }
+        }
+    }
+
+    /**
+     * 患者の時系列を NLaboItem から作り直す。
+     * @param fidPid 施設ID:患者ID
+     * @return 作り直した時系列
+     */
+    public List<NLaboTrend> rebuild(String fidPid) {
+
+        lockPatients(Collections.singleton(fidPid));
+        em.createQuery(DELETE_TREND_BY_FIDPID).setParameter(FIDPID, fidPid).executeUpdate();
+
+        List<NLaboTrend> ret = build(fidPid, true);
+
+        NLaboTrend built = new NLaboTrend();
+        built.setPatientId(fidPid);
+        built.setItemCode(BUILT);
+        em.persist(built);
+        return ret;
+    }
+
+    /**
+     * NLaboItem から時系列を組み立てる。
+     * @param fidPid 施設ID:患者ID
+     * @param persist 永続化するか false なら読むだけ
+     */
+    private List<NLaboTrend> build(String fidPid, boolean persist) {
+
+        List<Object[]> rows = em.createQuery(QUERY_ITEM_BY_FIDPID).setParameter(FIDPID, fidPid).getResultList();
+
+        // モジュール毎にまとめる
+        Map<String, NLaboTrend> map = new LinkedHashMap<>();
+        Map<NLaboTrend, List<Point>> series = new HashMap<>();
+        int start = 0;
+        while (start < rows.size()) {
+            Long moduleId = (Long)rows.get(start)[0];
+            List<NLaboItem> items = new ArrayList<>();
+            int end = start;
+            while (end < rows.size() && moduleId.equals(rows.get(end)[0])) {
+                items.add(toItem(rows.get(end)));
+                end++;
+            }
+            for (NLaboItem item : selectItems(items)) {
+                NLaboTrend t = map.get(item.getItemCode());
+                if (t == null) {
+                    t = newTrend(fidPid, item, persist);
+                    map.put(t.getItemCode(), t);
+                    series.put(t, new ArrayList<Point>());
+                }
+                add(t, series.get(t), item, moduleId);
+            }
+            start = end;
+        }
+
+        List<NLaboTrend> ret = new ArrayList<>(map.size());
+        for (NLaboTrend t : map.values()) {
+            store(t, series.get(t));
+            ret.add(t);
+        }
+        return ret;
+    }
+
+    /**
+     * 時系列をまだ作っていない検査結果のある患者について、施設ID:患者ID順に作る。
+     * 呼び出し毎に一トランザクションなので、空が返るまで after を進めて呼ぶ。
+     * @param after この施設ID:患者ID より後から
+     * @param max 一度に作る患者数
+     * @return 作った患者（施設ID:患者ID）
+     */
+    public List<String> buildPending(String after, int max) {
+        List<String> fidPids = em.createQuery(QUERY_PENDING_LAB_PATIENTS)
+                .setParameter(AFTER, after != null ? after : "")
+                .setParameter(ITEM_CODE, BUILT)
+                .setMaxResults(max)
+                .getResultList();
+        for (String fidPid : fidPids) {
+            rebuild(fidPid);
+        }
+        return fidPids;
+    }
+
+    /**
+     * 検査結果のある患者の時系列を患者ID順に作り直す。
+     * 呼び出し毎に一トランザクションなので、空が返るまで after を進めて呼ぶ。
+     * @param fid 施設ID
+     * @param after この施設ID:患者ID より後から
+     * @param max 一度に作り直す患者数
+     * @return 作り直した患者（施設ID:患者ID）
+     */
+    public List<String> rebuildFacility(String fid, String after, int max) {
+        List<String> fidPids = em.createQuery(QUERY_LAB_PATIENTS_BY_FID)
+                .setParameter(FID, fid + ":%")
+                .setParameter(AFTER, after != null ? after : "")
+                .setMaxResults(max)
+                .getResultList();
+        for (String fidPid : fidPids) {
+            rebuild(fidPid);
+        }
+        return fidPids;
+    }
+
+    /**
+     * 検査結果の表を返す。
+     * @param fidPid 施設ID:患者ID
+     * @param fromDate この検体採取日から null なら最初から
+     * @param toDate この検体採取日まで null なら最後まで
+     * @param maxColumns 列（検査結果のモジュール）の最大数 新しい方から 0 なら全部
+     * @return 列はモジュール毎で検体採取日・pk の昇順
+     */
+    public LaboTrendPivot getPivot(String fidPid, String fromDate, String toDate, int maxColumns) {
+
+        List<NLaboTrend> trends = getTrends(fidPid);
+
+        Map<NLaboTrend, List<Point>> inRange = new HashMap<>();
+        Map<Long, String> moduleDates = new HashMap<>();
+        for (NLaboTrend t : trends) {
+            List<Point> points = new ArrayList<>();
+            for (Point p : parse(t.getSeries())) {
+                if (inRange(p.sampleDate, fromDate, toDate)) {
+                    points.add(p);
+                    moduleDates.put(p.moduleId, p.sampleDate);
+                }
+            }
+            inRange.put(t, points);
+        }
+        // 同じ検体採取日のモジュールもそれぞれ一列にする
+        List<Long> columns = new ArrayList<>(moduleDates.keySet());
+        Collections.sort(columns, (Long a, Long b) -> {
+            int c = moduleDates.get(a).compareTo(moduleDates.get(b));
+            return c != 0 ? c : a.compareTo(b);
+        });
+        if (maxColumns > 0 && columns.size() > maxColumns) {
+            columns = new ArrayList<>(columns.subList(columns.size() - maxColumns, columns.size()));
+        }
+        List<String> sampleDates = new ArrayList<>(columns.size());
+        Map<Long, Integer> index = new HashMap<>();
+        for (int i = 0; i < columns.size(); i++) {
+            sampleDates.add(moduleDates.get(columns.get(i)));
+            index.put(columns.get(i), i);
+        }
+
+        List<NLaboTrend> sorted = new ArrayList<>(trends);
+        Collections.sort(sorted, ROW_ORDER);
+        List<LaboTrendRow> rows = new ArrayList<>();
+        for (NLaboTrend t : sorted) {
+            String[] values = new String[columns.size()];
+            String[] flags = new String[columns.size()];
+            Long[] moduleIds = new Long[columns.size()];
+            String[] comments = new String[columns.size()];
+            boolean any = false;
+            for (Point p : inRange.get(t)) {
+                Integer i = index.get(p.moduleId);
+                if (i != null) {
+                    values[i] = p.value;
+                    flags[i] = p.abnormalFlg;
+                    moduleIds[i] = p.moduleId;
+                    comments[i] = p.comment;
+                    any = true;
+                }
+            }
+            if (any) {
+                LaboTrendRow row = toRow(t);
+                row.setValues(Arrays.asList(values));
+                row.setAbnormalFlgs(Arrays.asList(flags));
+                row.setModuleIds(Arrays.asList(moduleIds));
+                row.setComments(Arrays.asList(comments));
+                rows.add(row);
+            }
+        }
+
+        LaboTrendPivot ret = new LaboTrendPivot();
+        ret.setPatientId(fidPid);
+        ret.setSampleDates(sampleDates);
+        ret.setModuleIds(columns);
+        ret.setRows(rows);
+        return ret;
+    }
+
+    /**
+     * 一検査項目の全履歴を返す。
+     * @param fidPid 施設ID:患者ID
+     * @param itemCode 検査項目コード
+     * @return 検体採取日の昇順 履歴がなければ null
+     */
+    public LaboTrendRow getItemHistory(String fidPid, String itemCode) {
+
+        List<NLaboTrend> list = em.createQuery(QUERY_TREND_BY_FIDPID_ITEMCODE)
+                .setParameter(FIDPID, fidPid)
+                .setParameter(ITEM_CODE, itemCode)
+                .getResultList();
+        NLaboTrend trend = null;
+        if (!list.isEmpty()) {
+            trend = list.get(0);
+        } else if (!backfill.isCompleted()) {
+            for (NLaboTrend t : getTrends(fidPid)) {
+                if (itemCode.equals(t.getItemCode())) {
+                    trend = t;
+                }
+            }
+        }
+        if (trend == null) {
+            return null;
+        }
+
+        List<Point> points = parse(trend.getSeries());
+        List<String> dates = new ArrayList<>(points.size());
+        List<String> values = new ArrayList<>(points.size());
+        List<String> flags = new ArrayList<>(points.size());
+        List<Long> moduleIds = new ArrayList<>(points.size());
+        List<String> comments = new ArrayList<>(points.size());
+        for (Point p : points) {
+            dates.add(p.sampleDate);
+            values.add(p.value);
+            flags.add(p.abnormalFlg);
+            moduleIds.add(p.moduleId);
+            comments.add(p.comment);
+        }
+        LaboTrendRow row = toRow(trend);
+        row.setSampleDates(dates);
+        row.setValues(values);
+        row.setAbnormalFlgs(flags);
+        row.setModuleIds(moduleIds);
+        row.setComments(comments);
+        return row;
+    }
+
+    /**
+     * 患者の時系列を返す。書き込みはしない。
+     * 作成済みの印がなく LaboTrendBackfill も終わっていなければ、NLaboItem から組み立てて返す（保存はしない）。
+     * LaboTrendBackfill が終われば、時系列のない患者は検査結果のない患者なのでそのまま空を返す。
+     */
+    private List<NLaboTrend> getTrends(String fidPid) {
+        List<NLaboTrend> list = em.createQuery(QUERY_TREND_BY_FIDPID).setParameter(FIDPID, fidPid).getResultList();
+        List<NLaboTrend> ret = new ArrayList<>(list.size());
+        boolean built = false;
+        for (NLaboTrend t : list) {
+            if (BUILT.equals(t.getItemCode())) {
+                built = true;
+            } else {
+                ret.add(t);
+            }
+        }
+        if (built || backfill.isCompleted()) {
+            return ret;
+        }
+        return build(fidPid, false);
+    }
+
+    /**
+     * 時系列を書き換える前に患者の行を施設ID:患者ID順にロックする。
+     * 同じ患者の取り込み・削除・作り直しが並んでも (patientId, itemCode) を二重に作らないようにする。
+     * 患者が登録されていなければロックしない（version の楽観ロックと一意制約が残る）。
+     */
+    private void lockPatients(Collection<String> fidPids) {
+        Map<String, List<String>> pidsByFid = new TreeMap<>();
+        for (String fidPid : fidPids) {
+            int index = fidPid.indexOf(IInfoModel.COMPOSITE_KEY_MAKER);
+            if (index < 0) {
+                continue;
+            }
+            String fid = fidPid.substring(0, index);
+            List<String> pids = pidsByFid.get(fid);
+            if (pids == null) {
+                pids = new ArrayList<>();
+                pidsByFid.put(fid, pids);
+            }
+            pids.add(fidPid.substring(index + 1));
+        }
+        for (Map.Entry<String, List<String>> e : pidsByFid.entrySet()) {
+            List<String> pids = e.getValue();
+            Collections.sort(pids);
+            for (int i = 0; i < pids.size(); i += IN_CLAUSE_SIZE) {
+                em.createQuery(QUERY_PATIENT_FOR_UPDATE)
+                        .setParameter(FID, e.getKey())
+                        .setParameter(PIDS, pids.subList(i, Math.min(i + IN_CLAUSE_SIZE, pids.size())))
+                        .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                        .getResultList();
+            }
+        }
+    }
+
+    private static boolean inRange(String sampleDate, String fromDate, String toDate) {
+        if (fromDate != null && sampleDate.compareTo(fromDate) < 0) {
+            return false;
+        }
+        // toDate が日付だけなら時刻つきの検体採取日もその日のうち
+        return toDate == null
+                || sampleDate.substring(0, Math.min(sampleDate.length(), toDate.length())).compareTo(toDate) <= 0;
+    }
+
+    /**
+     * モジュール内で同じ項目コードが重複していれば一つにする。
+     */
+    private static Collection<NLaboItem> selectItems(List<NLaboItem> items) {
+        Map<String, NLaboItem> ret = new LinkedHashMap<>();
+        if (items == null) {
+            return ret.values();
+        }
+        for (NLaboItem item : items) {
+            if (item.getItemCode() == null || item.getSampleDate() == null) {
+                continue;
+            }
+            NLaboItem prev = ret.get(item.getItemCode());
+            if (prev == null || !REPORT_STATUS_FINAL.equals(prev.getReportStatus())) {
+                ret.put(item.getItemCode(), item);
+            }
+        }
+        return ret.values();
+    }
+
+    private static NLaboItem toItem(Object[] row) {
+        NLaboItem item = new NLaboItem();
+        item.setSampleDate((String)row[1]);
+        item.setItemCode((String)row[2]);
+        item.setItemName((String)row[3]);
+        item.setGroupCode((String)row[4]);
+        item.setParentCode((String)row[5]);
+        item.setSortKey((String)row[6]);
+        item.setUnit((String)row[7]);
+        item.setNormalValue((String)row[8]);
+        item.setValue((String)row[9]);
+        item.setAbnormalFlg((String)row[10]);
+        item.setReportStatus((String)row[11]);
+        item.setComment1((String)row[12]);
+        item.setComment2((String)row[13]);
+        return item;
+    }
+
+    private NLaboTrend newTrend(String fidPid, NLaboItem item, boolean persist) {
+        NLaboTrend t = new NLaboTrend();
+        t.setPatientId(fidPid);
+        t.setItemCode(item.getItemCode());
+        if (persist) {
+            em.persist(t);
+        }
+        return t;
+    }
+
+    private static void add(NLaboTrend t, List<Point> points, NLaboItem item, long moduleId) {
+        points.add(new Point(item.getSampleDate(), item.getValue(), item.getAbnormalFlg(), moduleId, comment(item)));
+        // 名称・単位・基準値は最新の検査値のもの
+        if (t.getLastSampleDate() == null || item.getSampleDate().compareTo(t.getLastSampleDate()) >= 0) {
+            t.setLastSampleDate(item.getSampleDate());
+            t.setItemName(item.getItemName());
+            t.setGroupCode(item.getGroupCode());
+            t.setParentCode(item.getParentCode());
+            t.setSortKey(item.getSortKey());
+            t.setUnit(item.getUnit());
+            t.setNormalValue(item.getNormalValue());
+        }
+    }
+
+    private static boolean removeModules(List<Point> points, Collection<Long> moduleIds) {
+        boolean removed = false;
+        for (Iterator<Point> iter = points.iterator(); iter.hasNext();) {
+            if (moduleIds.contains(iter.next().moduleId)) {
+                iter.remove();
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    private void store(NLaboTrend t, List<Point> points) {
+        if (points.isEmpty()) {
+            em.remove(t);
+            return;
+        }
+        Collections.sort(points, POINT_ORDER);
+        StringBuilder sb = new StringBuilder(points.size() * 32);
+        for (Point p : points) {
+            sb.append(p.sampleDate).append('\t');
+            sb.append(clean(p.value)).append('\t');
+            sb.append(clean(p.abnormalFlg)).append('\t');
+            sb.append(p.moduleId).append('\t');
+            sb.append(clean(p.comment)).append('\n');
+        }
+        t.setSeries(sb.toString());
+        t.setNumPoints(points.size());
+        t.setLastSampleDate(points.get(points.size() - 1).sampleDate);
+    }
+
+    private static List<Point> parse(String series) {
+        List<Point> ret = new ArrayList<>();
+        if (series == null || series.isEmpty()) {
+            return ret;
+        }
+        for (String line : series.split("\n")) {
+            String[] f = line.split("\t", -1);
+            if (f.length == 5) {
+                ret.add(new Point(f[0], f[1].isEmpty() ? null : f[1], f[2].isEmpty() ? null : f[2], Long.parseLong(f[3]),
+                        f[4].isEmpty() ? null : f[4]));
+            }
+        }
+        return ret;
+    }
+
+    // LabTestValueObject.concatComment と同じ
+    private static String comment(NLaboItem item) {
+        StringBuilder sb = new StringBuilder();
+        if (item.getComment1() != null && !item.getComment1().isEmpty()) {
+            sb.append(item.getComment1()).append(' ');
+        }
+        if (item.getComment2() != null && !item.getComment2().isEmpty()) {
+            sb.append(item.getComment2());
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    private static String clean(String s) {
+        if (s == null) {
+            return "";
+        }
+        return s.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private static LaboTrendRow toRow(NLaboTrend t) {
+        LaboTrendRow row = new LaboTrendRow();
+        row.setItemCode(t.getItemCode());
+        row.setItemName(t.getItemName());
+        row.setGroupCode(t.getGroupCode());
+        row.setParentCode(t.getParentCode());
+        row.setUnit(t.getUnit());
+        row.setNormalValue(t.getNormalValue());
+        return row;
+    }
+
+    private static int compare(String a, String b) {
+        if (a == null) {
+            return b == null ? 0 : 1;
+        }
+        return b == null ? -1 : a.compareTo(b);
+    }
+
+    // 検体採取日、同じ日なら登録順
+    private static final Comparator<Point> POINT_ORDER = new Comparator<Point>() {
+        @Override
+        public int compare(Point p1, Point p2) {
+            int c = p1.sampleDate.compareTo(p2.sampleDate);
+            return c != 0 ? c : Long.compare(p1.moduleId, p2.moduleId);
+        }
+    };
+
+    // sortKey（WOLF）があればそれ、なければ getLaboTest と同じ groupCode, parentCode, itemCode の順
+    private static final Comparator<NLaboTrend> ROW_ORDER = new Comparator<NLaboTrend>() {
+        @Override
+        public int compare(NLaboTrend t1, NLaboTrend t2) {
+            int c = NLabTrendServiceBean.compare(t1.getSortKey(), t2.getSortKey());
+            if (c == 0) {
+                c = NLabTrendServiceBean.compare(t1.getGroupCode(), t2.getGroupCode());
+            }
+            if (c == 0) {
+                c = NLabTrendServiceBean.compare(t1.getParentCode(), t2.getParentCode());
+            }
+            return c != 0 ? c : NLabTrendServiceBean.compare(t1.getItemCode(), t2.getItemCode());
+        }
+    };
+
+    private static final class Point {
+
+        private final String sampleDate;
+        private final String value;
+        private final String abnormalFlg;
+        private final long moduleId;
+        private final String comment;
+
+        Point(String sampleDate, String value, String abnormalFlg, long moduleId, String comment) {
+            this.sampleDate = sampleDate;
+            this.value = value;
+            this.abnormalFlg = abnormalFlg;
+            this.moduleId = moduleId;
+            this.comment = comment;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 import open.dolphin.infomodel.*;
 import open.dolphin.mbean.KanaToAscii;
+import open.dolphin.mbean.PvtStore;
 import open.dolphin.mbean.ServletContextHolder;
 
 /**
@@ -60,6 +61,9 @@ public class PVTServiceBean {
     
     @Inject
     private ServletContextHolder contextHolder;
+
+    @Inject
+    private ActivityCounterServiceBean activityCounter;
     
     
    /**
@@ -158,18 +162,21 @@ public class PVTServiceBean {
             em.merge(exist);
             // PatientVisit との関係を設定する
             pvt.setPatientModel(exist);
+            eventServiceBean.indexPatient(exist);
 
         } catch (NoResultException e) {
             Logger.getLogger("open.dolphin").info("addPvt : add patient");
             // 新規患者であれば登録する
             // 患者属性は cascade=PERSIST で自動的に保存される
             em.persist(patient);
+            eventServiceBean.indexPatient(patient);
 
             // この患者のカルテを生成する
             KarteBean karte = new KarteBean();
             karte.setPatientModel(patient);
             karte.setCreated(new Date());
             em.persist(karte);
+            activityCounter.count(fid, ActivityCounterServiceBean.PATIENTS, karte.getCreated(), 1);
         }
 
         // ここからPVT登録処理
@@ -196,6 +203,7 @@ public class PVTServiceBean {
             if (list.isEmpty()) {
                 // 受付がない場合
                 em.persist(pvt);
+                activityCounter.count(fid, ActivityCounterServiceBean.PATIENT_VISITS, pvt.getPvtDate(), 1);
 
             } else {
                 // 最初のレコードを後から来たデータで上書きする
@@ -242,9 +250,8 @@ public class PVTServiceBean {
         }
 
         // 受付嬢にORCAの受付ボタンを連打されたとき用ｗ 復活！！
-        List<PatientVisitModel> pvtList = eventServiceBean.getPvtList(fid);
-        for (int i = 0; i < pvtList.size(); ++i) {
-            PatientVisitModel test = pvtList.get(i);
+        PvtStore pvtStore = eventServiceBean.getPvtStore(fid);
+        for (PatientVisitModel test : pvtStore.findByPatient(pvt.getPatientModel().getId())) {
             // pvt時刻が同じでキャンセルでないものは更新(merge)する
             if (test.getPvtDate().equals(pvt.getPvtDate()) 
                     && (test.getState() & (1<< PatientVisitModel.BIT_CANCEL)) ==0) {
@@ -260,7 +267,7 @@ public class PVTServiceBean {
                     // データベースを更新
                     em.merge(pvt);
                     // 新しいもので置き換える
-                    pvtList.set(i, pvt);
+                    pvtStore.put(pvt);
                     // クライアントに通知
                     String uuid = contextHolder.getServerUUID();
                     ChartEventModel msg = new ChartEventModel(uuid);
@@ -275,8 +282,9 @@ public class PVTServiceBean {
         // 同じ時刻のPVTがないならばPVTをデータベースに登録(persist)する
         eventServiceBean.setByomeiCount(karteId, pvt);   // 病名数をカウントする
         em.persist(pvt);
+        activityCounter.count(fid, ActivityCounterServiceBean.PATIENT_VISITS, pvt.getPvtDate(), 1);
         // pvtListに追加
-        pvtList.add(pvt);    
+        pvtStore.put(pvt);
         // クライアントに通知
         String uuid = contextHolder.getServerUUID();
         ChartEventModel msg = new ChartEventModel(uuid);
@@ -678,19 +686,11 @@ public class PVTServiceBean {
             // WatingListから開いていないとexist = nullなので。
             if (exist != null) {
                 em.remove(exist);
+                activityCounter.count(exist.getFacilityId(), ActivityCounterServiceBean.PATIENT_VISITS, exist.getPvtDate(), -1);
             }
 
             // pvtListから削除
-            List<PatientVisitModel> pvtList = eventServiceBean.getPvtList(fid);
-            PatientVisitModel toRemove = null;
-            for (PatientVisitModel model : pvtList) {
-                if (model.getId() == id) {
-                    toRemove = model;
-                    break;
-                }
-            }
-            if (toRemove != null) {
-                pvtList.remove(toRemove);
+            if (eventServiceBean.getPvtStore(fid).remove(id) != null) {
                 return 1;
             }
         } catch (Exception e) {
@@ -706,6 +706,7 @@ public class PVTServiceBean {
     public int removePvt(long id) {
         PatientVisitModel exist = (PatientVisitModel) em.find(PatientVisitModel.class, new Long(id));
         em.remove(exist);
+        activityCounter.count(exist.getFacilityId(), ActivityCounterServiceBean.PATIENT_VISITS, exist.getPvtDate(), -1);
         return 1;
     }
 
@@ -4,11 +4,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
-import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 import open.dolphin.infomodel.ChartEventModel;
 import open.dolphin.infomodel.DocumentModel;
@@ -17,6 +17,7 @@ import open.dolphin.infomodel.KarteBean;
 import open.dolphin.infomodel.PatientModel;
 import open.dolphin.infomodel.PatientVisitModel;
 import open.dolphin.infomodel.RegisteredDiagnosisModel;
+import open.dolphin.mbean.PatientSearchIndex;
 
 /**
  *
@@ -28,27 +29,21 @@ public class PatientServiceBean {
 
     // cancel status=64 を where 節へ追加
     private static final String QUERY_PATIENT_BY_PVTDATE = "from PatientVisitModel p where p.facilityId = :fid and p.pvtDate like :date and p.status!=64";
-    private static final String QUERY_PATIENT_BY_NAME = "from PatientModel p where p.facilityId=:fid and p.fullName like :name";
-    private static final String QUERY_PATIENT_BY_KANA = "from PatientModel p where p.facilityId=:fid and p.kanaName like :name";
     private static final String QUERY_PATIENT_BY_FID_PID = "from PatientModel p where p.facilityId=:fid and p.patientId like :pid";
-    private static final String QUERY_PATIENT_BY_TELEPHONE = "from PatientModel p where p.facilityId = :fid and (p.telephone like :number or p.mobilePhone like :number)";
-    private static final String QUERY_PATIENT_BY_ZIPCODE = "from PatientModel p where p.facilityId = :fid and p.address.zipCode like :zipCode";
     private static final String QUERY_INSURANCE_BY_PATIENT_PK = "from HealthInsuranceModel h where h.patient.id=:pk";
-//s.oh^ 2014/08/19 施設患者一括表示機能
-    private static final String QUERY_PATIENT_BY_APPMEMO = "from PatientModel p where p.facilityId = :fid and p.appMemo like :appMemo";
-//s.oh$
+    private static final String QUERY_INSURANCE_BY_PATIENT_PKS = "select h.patient.id, h from HealthInsuranceModel h where h.patient.id in (:ids)";
+    private static final String QUERY_LAST_PVTDATE_BY_PATIENT_PKS = "select p.patient.id, max(p.pvtDate) from PatientVisitModel p where p.facilityId=:fid and p.patient.id in (:ids) and p.status != :status group by p.patient.id";
+    // 患者検索索引
+    private static final String QUERY_PATIENT_SEARCH_INDEX = "select p.id, p.patientId, p.fullName, p.kanaName, p.telephone, p.mobilePhone, p.address.zipCode, p.appMemo from PatientModel p where p.facilityId=:fid";
+    private static final String QUERY_PATIENT_BY_PKS = "from PatientModel p where p.id in (:ids)";
+    private static final int IN_CLAUSE_SIZE = 500;
 
     private static final String PK = "pk";
     private static final String FID = "fid";
     private static final String PID = "pid";
-    private static final String NAME = "name";
-    private static final String NUMBER = "number";
-    private static final String ZIPCODE = "zipCode";
+    private static final String IDS = "ids";
     private static final String DATE = "date";
     private static final String PERCENT = "%";
-//s.oh^ 2014/08/19 施設患者一括表示機能
-    private static final String APPMEMO = "appMemo";
-//s.oh$
 
     @PersistenceContext
     private EntityManager em;
@@ -60,38 +55,22 @@ public class PatientServiceBean {
 
     
     public List<PatientModel> getPatientsByName(String fid, String name) {
+        return getPatientsByName(fid, name, true);
+    }
+    
+    /**
+     * @param withInsurances false なら健康保険を読まない（一覧表示用）
+     */
+    public List<PatientModel> getPatientsByName(String fid, String name, boolean withInsurances) {
 
-        List<PatientModel> ret = em.createQuery(QUERY_PATIENT_BY_NAME)
-                .setParameter(FID, fid)
-                .setParameter(NAME, name + PERCENT)
-                .getResultList();
-
-        // 後方一致検索を行う
-        if (ret.isEmpty()) {
-            ret = em.createQuery(QUERY_PATIENT_BY_NAME)
-                .setParameter(FID, fid)
-                .setParameter(NAME, PERCENT + name)
-                .getResultList();
-        }
-        
-//s.oh^ 2014/08/19 施設患者一括表示機能
-        if (ret.isEmpty()) {
-            ret = em.createQuery(QUERY_PATIENT_BY_APPMEMO)
-                .setParameter(FID, fid)
-                .setParameter(APPMEMO, name+PERCENT)
-                .getResultList();
-        }
-        if (ret.isEmpty()) {
-            ret = em.createQuery(QUERY_PATIENT_BY_APPMEMO)
-                .setParameter(FID, fid)
-                .setParameter(APPMEMO, PERCENT+name)
-                .getResultList();
-        }
-//s.oh$
+        // 患者検索索引 前方一致・後方一致・アプリメモを一度に検索し順位順に返す
+        List<PatientModel> ret = findPatients(fid, getPatientSearchIndex(fid).searchText(name));
         
         //-----------------------------------
         // 患者の健康保険を取得する
-        setHealthInsurances(ret);
+        if (withInsurances) {
+            setHealthInsurances(ret);
+        }
         //-----------------------------------
         
 //masuda^   最終受診日設定
@@ -105,37 +84,22 @@ public class PatientServiceBean {
 
     
     public List<PatientModel> getPatientsByKana(String fid, String name) {
+        return getPatientsByKana(fid, name, true);
+    }
+    
+    /**
+     * @param withInsurances false なら健康保険を読まない（一覧表示用）
+     */
+    public List<PatientModel> getPatientsByKana(String fid, String name, boolean withInsurances) {
 
-        List<PatientModel> ret = em.createQuery(QUERY_PATIENT_BY_KANA)
-            .setParameter(FID, fid)
-            .setParameter(NAME, name + PERCENT)
-            .getResultList();
-
-        if (ret.isEmpty()) {
-            ret = em.createQuery(QUERY_PATIENT_BY_KANA)
-                .setParameter(FID, fid)
-                .setParameter(NAME, PERCENT + name)
-                .getResultList();
-        }
-        
-//s.oh^ 2014/08/19 施設患者一括表示機能
-        if (ret.isEmpty()) {
-            ret = em.createQuery(QUERY_PATIENT_BY_APPMEMO)
-                .setParameter(FID, fid)
-                .setParameter(APPMEMO, name+PERCENT)
-                .getResultList();
-        }
-        if (ret.isEmpty()) {
-            ret = em.createQuery(QUERY_PATIENT_BY_APPMEMO)
-                .setParameter(FID, fid)
-                .setParameter(APPMEMO, PERCENT+name)
-                .getResultList();
-        }
-//s.oh$
+        // 患者検索索引 カナ・ローマ字・アプリメモを一度に検索し順位順に返す
+        List<PatientModel> ret = findPatients(fid, getPatientSearchIndex(fid).searchText(name));
 
         //-----------------------------------
         // 患者の健康保険を取得する
-        setHealthInsurances(ret);
+        if (withInsurances) {
+            setHealthInsurances(ret);
+        }
         //-----------------------------------
         
 //masuda^   最終受診日設定
@@ -149,29 +113,22 @@ public class PatientServiceBean {
 
     
     public List<PatientModel> getPatientsByDigit(String fid, String digit) {
+        return getPatientsByDigit(fid, digit, true);
+    }
+    
+    /**
+     * @param withInsurances false なら健康保険を読まない（一覧表示用）
+     */
+    public List<PatientModel> getPatientsByDigit(String fid, String digit, boolean withInsurances) {
 
-        List<PatientModel> ret = em.createQuery(QUERY_PATIENT_BY_FID_PID)
-            .setParameter(FID, fid)
-            .setParameter(PID, digit+PERCENT)
-            .getResultList();
-
-        if (ret.isEmpty()) {
-            ret = em.createQuery(QUERY_PATIENT_BY_TELEPHONE)
-                .setParameter(FID, fid)
-                .setParameter(NUMBER, digit+PERCENT)
-                .getResultList();
-        }
-
-        if (ret.isEmpty()) {
-            ret = em.createQuery(QUERY_PATIENT_BY_ZIPCODE)
-                .setParameter(FID, fid)
-                .setParameter(ZIPCODE, digit+PERCENT)
-                .getResultList();
-        }
+        // 患者検索索引 患者ID・電話番号・郵便番号の前方一致
+        List<PatientModel> ret = findPatients(fid, getPatientSearchIndex(fid).searchDigit(digit));
 
         //-----------------------------------
         // 患者の健康保険を取得する
-        setHealthInsurances(ret);
+        if (withInsurances) {
+            setHealthInsurances(ret);
+        }
         //-----------------------------------
         
 //masuda^   最終受診日設定
@@ -184,6 +141,13 @@ public class PatientServiceBean {
     }
     
     public List<PatientModel> getPatientsByPvtDate(String fid, String pvtDate) {
+        return getPatientsByPvtDate(fid, pvtDate, true);
+    }
+    
+    /**
+     * @param withInsurances false なら健康保険を読まない（一覧表示用）
+     */
+    public List<PatientModel> getPatientsByPvtDate(String fid, String pvtDate, boolean withInsurances) {
 
         List<PatientVisitModel> list =
                 em.createQuery(QUERY_PATIENT_BY_PVTDATE)
@@ -195,18 +159,16 @@ public class PatientServiceBean {
 
         for (PatientVisitModel pvt : list) {
             PatientModel patient = pvt.getPatientModel();
-            List<HealthInsuranceModel> insurances
-                        = (List<HealthInsuranceModel>)em.createQuery(QUERY_INSURANCE_BY_PATIENT_PK)
-                        .setParameter(PK, patient.getId()).getResultList();
-                patient.setHealthInsurances(insurances);
             ret.add(patient);
-            
-            // 患者の健康保険を取得する
-            setHealthInsurances(patient);
 //masuda^   最終受診日設定
            patient.setPvtDate(pvt.getPvtDate());
 //masuda$        
         }
+        
+        // 患者の健康保険をまとめて取得する
+        if (withInsurances) {
+            setHealthInsurances(ret);
+        }
         return ret;
     }
 
@@ -291,6 +253,7 @@ public class PatientServiceBean {
     public long addPatient(PatientModel patient) {
         em.persist(patient);
         long pk = patient.getId();
+        eventServiceBean.indexPatient(patient);
         return pk;
     }
 
@@ -302,6 +265,7 @@ public class PatientServiceBean {
     
     public int update(PatientModel patient) {
         em.merge(patient);
+        eventServiceBean.indexPatient(patient);
  //masuda^   患者情報が更新されたらPvtListも更新する必要あり
         updatePvtList(patient);
 //masuda$       
@@ -312,44 +276,83 @@ public class PatientServiceBean {
     // pvtListのPatientModelを更新し、クライアントにも通知する
     private void updatePvtList(PatientModel pm) {
         String fid = pm.getFacilityId();
-        List<PatientVisitModel> pvtList = eventServiceBean.getPvtList(fid);
-        for (PatientVisitModel pvt : pvtList) {
-            if (pvt.getPatientModel().getId() == pm.getId()) {
+        for (PatientVisitModel pvt : eventServiceBean.getPvtStore(fid).findByPatient(pm.getId())) {
 //s.oh^ 2013/10/07 患者情報が正しく表示されない
-                List<HealthInsuranceModel> him = pvt.getPatientModel().getHealthInsurances();
-                if(pm.getHealthInsurances() == null) {
-                    pm.setHealthInsurances(him);
-                }
+            List<HealthInsuranceModel> him = pvt.getPatientModel().getHealthInsurances();
+            if(pm.getHealthInsurances() == null) {
+                pm.setHealthInsurances(him);
+            }
 //s.oh$
-                pvt.setPatientModel(pm);
-                 // クライアントに通知
-                String uuid = eventServiceBean.getServerUUID();
-                ChartEventModel msg = new ChartEventModel(uuid);
-                msg.setPatientModel(pm);
-                msg.setFacilityId(fid);
-                msg.setEventType(ChartEventModel.PM_MERGE);
-                eventServiceBean.notifyEvent(msg);
+            pvt.setPatientModel(pm);
+             // クライアントに通知
+            String uuid = eventServiceBean.getServerUUID();
+            ChartEventModel msg = new ChartEventModel(uuid);
+            msg.setPatientModel(pm);
+            msg.setFacilityId(fid);
+            msg.setEventType(ChartEventModel.PM_MERGE);
+            eventServiceBean.notifyEvent(msg);
+        }
+    }
+    
+    // 施設の患者検索索引 初回は全患者を読み込む
+    private PatientSearchIndex getPatientSearchIndex(String fid) {
+        PatientSearchIndex index = eventServiceBean.getPatientSearchIndex(fid);
+        if (!index.isLoaded()) {
+            synchronized (index) {
+                if (!index.isLoaded()) {
+                    List<Object[]> rows = em.createQuery(QUERY_PATIENT_SEARCH_INDEX)
+                            .setParameter(FID, fid)
+                            .getResultList();
+                    index.load(rows);
+                }
             }
         }
+        return index;
     }
     
+    // pk のリストの順に患者を返す
+    private List<PatientModel> findPatients(String fid, List<Long> pks) {
+        Map<Long, PatientModel> map = new HashMap<>(pks.size() * 2);
+        for (int i = 0; i < pks.size(); i += IN_CLAUSE_SIZE) {
+            List<Long> ids = pks.subList(i, Math.min(i + IN_CLAUSE_SIZE, pks.size()));
+            List<PatientModel> list = em.createQuery(QUERY_PATIENT_BY_PKS)
+                    .setParameter(IDS, ids)
+                    .getResultList();
+            for (PatientModel pm : list) {
+                if (fid.equals(pm.getFacilityId())) {
+                    map.put(pm.getId(), pm);
+                }
+            }
+        }
+        List<PatientModel> ret = new ArrayList<>(map.size());
+        for (Long pk : pks) {
+            PatientModel pm = map.get(pk);
+            if (pm != null) {
+                ret.add(pm);
+            }
+        }
+        return ret;
+    }
+    
+    // 最終受診日（キャンセル以外）を IN_CLAUSE_SIZE 件ずつまとめて取得する
     private void setPvtDate(String fid, List<PatientModel> list) {
         
-        final String sql =
-                "from PatientVisitModel p where p.facilityId = :fid and p.patient.id = :patientPk "
-                + "and p.status != :status order by p.pvtDate desc";
-        
+        Map<Long, String> lastVisit = new HashMap<>(list.size() * 2);
+        List<Long> pks = toPks(list);
+        for (int i = 0; i < pks.size(); i += IN_CLAUSE_SIZE) {
+            List<Object[]> rows = em.createQuery(QUERY_LAST_PVTDATE_BY_PATIENT_PKS)
+                    .setParameter(FID, fid)
+                    .setParameter(IDS, pks.subList(i, Math.min(i + IN_CLAUSE_SIZE, pks.size())))
+                    .setParameter("status", -1)
+                    .getResultList();
+            for (Object[] row : rows) {
+                lastVisit.put((Long)row[0], (String)row[1]);
+            }
+        }
         for (PatientModel patient : list) {
-            try {
-                PatientVisitModel pvt = (PatientVisitModel) 
-                        em.createQuery(sql)
-                        .setParameter("fid", fid)
-                        .setParameter("patientPk", patient.getId())
-                        .setParameter("status", -1)
-                        .setMaxResults(1)
-                        .getSingleResult();
-                patient.setPvtDate(pvt.getPvtDate());
-            } catch (NoResultException e) {
+            String pvtDate = lastVisit.get(patient.getId());
+            if (pvtDate != null) {
+                patient.setPvtDate(pvtDate);
             }
         }
     }
@@ -371,12 +374,35 @@ public class PatientServiceBean {
         return list;
     }
 
+    // 健康保険を IN_CLAUSE_SIZE 件ずつまとめて取得する
     protected void setHealthInsurances(Collection<PatientModel> list) {
-        if (list != null && !list.isEmpty()) {
-            for (PatientModel pm : list) {
-                setHealthInsurances(pm);
+        if (list == null || list.isEmpty()) {
+            return;
+        }
+        Map<Long, List<HealthInsuranceModel>> map = new HashMap<>(list.size() * 2);
+        for (PatientModel pm : list) {
+            map.put(pm.getId(), new ArrayList<HealthInsuranceModel>(2));
+        }
+        List<Long> pks = new ArrayList<>(map.keySet());
+        for (int i = 0; i < pks.size(); i += IN_CLAUSE_SIZE) {
+            List<Object[]> rows = em.createQuery(QUERY_INSURANCE_BY_PATIENT_PKS)
+                    .setParameter(IDS, pks.subList(i, Math.min(i + IN_CLAUSE_SIZE, pks.size())))
+                    .getResultList();
+            for (Object[] row : rows) {
+                map.get((Long)row[0]).add((HealthInsuranceModel)row[1]);
             }
         }
+        for (PatientModel pm : list) {
+            pm.setHealthInsurances(map.get(pm.getId()));
+        }
+    }
+    
+    private List<Long> toPks(Collection<PatientModel> list) {
+        List<Long> pks = new ArrayList<>(list.size());
+        for (PatientModel pm : list) {
+            pks.add(pm.getId());
+        }
+        return pks;
     }
     
     protected void setHealthInsurances(PatientModel pm) {
@@ -421,6 +447,10 @@ public class PatientServiceBean {
     
 //s.oh^ 2014/10/01 患者検索(傷病名)
     public List<PatientModel> getCustom(String fid, String param) {
+        return getCustom(fid, param, true);
+    }
+    
+    public List<PatientModel> getCustom(String fid, String param, boolean withInsurances) {
         List<PatientModel> ret = new ArrayList();
         
         final String DIAGNOSIS = "[D]";
@@ -464,7 +494,9 @@ public class PatientServiceBean {
             map.clear();
         }
         
-        this.setHealthInsurances(ret);
+        if (withInsurances) {
+            this.setHealthInsurances(ret);
+        }
         
         return ret;
     }
@@ -16,12 +16,14 @@ import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.ejb.Stateless;
+import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityExistsException;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 import open.dolphin.infomodel.*;
+import open.dolphin.mbean.ActivityCounterService;
 import open.dolphin.msg.OidSender;
 import open.stamp.seed.CopyStampTreeBuilder;
 import open.stamp.seed.CopyStampTreeDirector;
@@ -61,6 +63,15 @@ public class SystemServiceBean {
     @PersistenceContext
     private EntityManager em;
     
+    @Inject
+    private ActivityCounterServiceBean activityCounterServiceBean;
+    
+    @Inject
+    private ActivityCounterService activityCounterService;
+    
+    @Inject
+    private ChartEventServiceBean eventServiceBean;
+    
 //s.oh^ 2014/02/21 Claim送信方法の変更
     //@Resource(mappedName = "java:/JmsXA")
     //private ConnectionFactory connectionFactory;
@@ -166,12 +177,14 @@ public class SystemServiceBean {
 
             // 永続化する
             em.persist(copyPatient);
+            eventServiceBean.indexPatient(copyPatient);
 
             // カルテを生成する
             KarteBean karte = new KarteBean();
             karte.setPatientModel(copyPatient);
             karte.setCreated(new Date());
             em.persist(karte);
+            activityCounterServiceBean.count(fid, ActivityCounterServiceBean.PATIENTS, karte.getCreated(), 1);
         }
         
         //----------------------------------------
@@ -252,7 +265,10 @@ public class SystemServiceBean {
      */
     public ActivityModel countTotalActivities(String fid) {
         
-        ActivityModel am = new ActivityModel();
+        // 施設・日毎の件数（d_activity_counter）を集計し終えていればそれを合計する
+        ActivityModel am = activityCounterService.isReady(fid)
+                ? activityCounterServiceBean.sum(fid, null, null)
+                : countTotalActivitiesByQuery(fid);
         
         // ユーザー数
         StringBuilder sb = new StringBuilder();
@@ -265,9 +281,41 @@ public class SystemServiceBean {
         long count = (long)obj;
         am.setNumOfUsers(count);
         
-        // 全患者数
+        // 医療機関情報
+        sb = new StringBuilder();
+        sb.append("from FacilityModel f where f.facilityId=:fid");
+        sql = sb.toString();
+        FacilityModel fm = (FacilityModel)em.createQuery(sql)
+                .setParameter("fid", fid)
+                .getSingleResult();
+        am.setFacilityId(fm.getFacilityId());
+        am.setFacilityName(fm.getFacilityName());
+        am.setFacilityZip(fm.getZipCode());
+        am.setFacilityAddress(fm.getAddress());
+        am.setFacilityTelephone(fm.getTelephone());
+        am.setFacilityFacimile(fm.getFacsimile());
+        
+        // DB size（一時間毎に更新）
+        am.setDbSize(activityCounterService.getDbSize());
+        
+        // bind address
+        am.setBindAddress(this.getBindAddress());
+        
+        return am;
+    }
+    
+    // d_activity_counter を集計し終えるまではこれまで通り各テーブルを数える
+    private ActivityModel countTotalActivitiesByQuery(String fid) {
+        
+        ActivityModel am = new ActivityModel();
+        StringBuilder sb;
+        String sql;
+        Object obj;
+        long count;
+        
+        // 全患者数（カルテのある患者 ActivityCounterServiceBean.PATIENTS と同じ）
         sb = new StringBuilder();
-        sb.append("select count(p.id) from PatientModel p where p.facilityId=:fid");
+        sb.append("select count(p.id) from PatientModel p, KarteBean k where p.id=k.patient.id and p.facilityId=:fid");
         sql = sb.toString();
         obj = em.createQuery(sql)
                 .setParameter("fid", fid)
@@ -346,30 +394,6 @@ public class SystemServiceBean {
         count = (long)obj;
         am.setNumOfLabTests(count);
         
-        // 医療機関情報
-        sb = new StringBuilder();
-        sb.append("from FacilityModel f where f.facilityId=:fid");
-        sql = sb.toString();
-        FacilityModel fm = (FacilityModel)em.createQuery(sql)
-                .setParameter("fid", fid)
-                .getSingleResult();
-        am.setFacilityId(fm.getFacilityId());
-        am.setFacilityName(fm.getFacilityName());
-        am.setFacilityZip(fm.getZipCode());
-        am.setFacilityAddress(fm.getAddress());
-        am.setFacilityTelephone(fm.getTelephone());
-        am.setFacilityFacimile(fm.getFacsimile());
-        
-        // DB size
-        sb = new StringBuilder();
-        sb.append("select pg_size_pretty(pg_database_size('dolphin'))");
-        sql = sb.toString();
-        obj = em.createNativeQuery(sql).getSingleResult();
-        am.setDbSize(obj.toString());
-        
-        // bind address
-        am.setBindAddress(this.getBindAddress());
-        
         return am;
     }
     
@@ -382,6 +406,13 @@ public class SystemServiceBean {
      */
     public ActivityModel countActivities(String fid, Date from, Date to) {
         
+        if (activityCounterService.isReady(fid)) {
+            ActivityModel am = activityCounterServiceBean.sum(fid, from, to);
+            am.setFromDate(from);
+            am.setToDate(to);
+            return am;
+        }
+        
         ActivityModel am = new ActivityModel();
         am.setFromDate(from);
         am.setToDate(to);
@@ -1,6 +1,5 @@
 package open.dolphin.touch;
 
-import java.beans.XMLDecoder;
 import java.io.*;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -9,6 +8,7 @@ import java.util.Iterator;
 import org.jdom.Document;
 import org.jdom.JDOMException;
 import org.jdom.input.SAXBuilder;
+import open.dolphin.infomodel.BeanCodec;
 
 /**
  *
@@ -257,12 +257,7 @@ public class AbstractResource {
     }
 
     protected static Object xmlDecode(byte[] bytes)  {
-
-        XMLDecoder d = new XMLDecoder(
-                new BufferedInputStream(
-                new ByteArrayInputStream(bytes)));
-
-        return d.readObject();
+        return BeanCodec.decode(bytes);
     }
 
     protected static String sexValueToDesc(String code) {
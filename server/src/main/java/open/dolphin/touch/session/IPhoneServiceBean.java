@@ -2,6 +2,7 @@ package open.dolphin.touch.session;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import javax.ejb.Stateless;
@@ -10,6 +11,7 @@ import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 import open.dolphin.infomodel.*;
+import open.dolphin.session.DocumentLoader;
 
 /**
  *
@@ -578,23 +580,8 @@ public class IPhoneServiceBean {
             .setMaxResults(maxResult)
             .getResultList();
         
-        for (DocumentModel doc : ret) {
-
-            // module
-            List<ModuleModel> modules =
-                    em.createQuery(QUERY_MODULE_BY_DOCUMENT)
-                      .setParameter("id", doc.getId())
-                      .getResultList();
-
-            doc.setModules(modules);
-
-            // SchemaModel を取得する
-            List<SchemaModel> images =
-                    em.createQuery(QUERY_SCHEMA_BY_DOCUMENT)
-                      .setParameter("id", doc.getId())
-                      .getResultList();
-            doc.setSchema(images);
-        }
+        // module, SchemaModel をまとめて取得する
+        DocumentLoader.fetchContents(em, ret, false);
 
         return ret;
     }
@@ -607,26 +594,8 @@ public class IPhoneServiceBean {
                                        .setParameter(PK, docPk)
                                        .getSingleResult();
         
-        // module
-        List<ModuleModel> modules =
-                em.createQuery(QUERY_MODULE_BY_DOCUMENT)
-                  .setParameter(ID, ret.getId())
-                  .getResultList();
-
-        ret.setModules(modules);
-
-        // SchemaModel を取得する
-        List<SchemaModel> images =
-                em.createQuery(QUERY_SCHEMA_BY_DOCUMENT)
-                  .setParameter(ID, ret.getId())
-                  .getResultList();
-        ret.setSchema(images);
-        
-        // AttachmentModel を取得する
-            List attachments = em.createQuery(QUERY_ATTACHMENT_BY_DOC_ID)
-            .setParameter(ID, ret.getId())
-            .getResultList();
-            ret.setAttachment(attachments);
+        // module, SchemaModel, AttachmentModel を取得する
+        DocumentLoader.fetchContents(em, Collections.singletonList(ret), true);
         
         return ret;
     }
@@ -4,12 +4,13 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Properties;
+import java.util.logging.Logger;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.sql.DataSource;
+import open.dolphin.common.JdbcConnectionPool;
 
 /**
  * 2013/08/29
@@ -30,6 +31,9 @@ public class ORCAConnection {
     private final Properties config;
 //minagawa$
     
+    // claim.conn=server 時の接続プール
+    private JdbcConnectionPool pool;
+    
     public static ORCAConnection getInstance() {
         return instane;
     }
@@ -56,6 +60,14 @@ public class ORCAConnection {
                 jdbcURL = config.getProperty("claim.jdbc.url");
                 user = config.getProperty("claim.user");
                 password = config.getProperty("claim.password");
+                // 接続プール
+                if (jdbcURL!=null && user!=null && password!=null) {
+                    int max = Integer.parseInt(config.getProperty("claim.jdbc.pool.size", "10"));
+                    long wait = Long.parseLong(config.getProperty("claim.jdbc.pool.wait", "10000"));
+                    int stmtCache = Integer.parseInt(config.getProperty("claim.jdbc.statement.cache", "50"));
+                    pool = new JdbcConnectionPool(jdbcURL, user, password, true, max, wait, stmtCache);
+                    Logger.getLogger("open.dolphin").info("ORCA connection pool: max=" + max + ", wait=" + wait + "ms, statementCache=" + stmtCache);
+                }
             }
             
         } catch (Exception e) {
@@ -66,10 +78,9 @@ public class ORCAConnection {
     public Connection getConnection() {
         
         try {
-            if (jdbcURL!=null && user!=null && password!=null) {
-                Connection conn = DriverManager.getConnection(jdbcURL, user, password);         
-                conn.setReadOnly(true);           
-                return conn;
+            if (pool!=null) {
+                // 接続プール 使い終わったら close() でプールに戻る
+                return pool.getConnection();
             } else {
                 DataSource ds = (DataSource)InitialContext.doLookup("java:jboss/datasources/ORCADS");
                 return ds.getConnection();
@@ -89,6 +100,20 @@ public class ORCAConnection {
         return config.getProperty(prop);
     }
     
+    /**
+     * 接続プールの統計 プールを使っていなければ null
+     * @return 統計の文字列
+     */
+    public String getPoolStats() {
+        return pool!=null ? pool.getStats() : null;
+    }
+    
+    public void closePool() {
+        if (pool!=null) {
+            pool.close();
+        }
+    }
+    
     public boolean isSendClaim() {
         String test = config.getProperty("claim.conn");         // connection type
         return test!=null && test.equals("server");
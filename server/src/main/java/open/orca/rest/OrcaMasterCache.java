@@ -0,0 +1,605 @@
+package open.orca.rest;
+
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import open.dolphin.infomodel.DiseaseEntry;
+import open.dolphin.infomodel.TensuMaster;
+
+/**
+ * ORCA の点数マスター（tbl_tensu）と病名マスター（tbl_byomei）のメモリキャッシュ。
+ *
+ * 今日以降有効なレコードだけを読み込み、名称・カナ名称の前方一致（ソート済み配列）と
+ * 部分一致（2-gram）、コードと診療区分の前方一致で検索する。
+ * OrcaResource の検索は ~ による全件走査のため、オーダー・病名エディタの入力毎に
+ * ORCA の DB を読んでいた。
+ *
+ * 読み込みは別スレッドで行い、読み込み中・過去日付の検索は null を返す（呼び出し側で SQL を使う）。
+ * tbl_dbkanri の内容が変わった（マスター更新・バージョンアップ）か日付が変わったら読み直す。
+ *
+ * custom.properties
+ *   orca.master.cache=false で使わない
+ */
+public class OrcaMasterCache {
+
+    private static final String QUERY_TENSU
+            = "select srycd,name,kananame,taniname,tensikibetu,ten,nyugaitekkbn,routekkbn,srysyukbn,hospsrykbn,ykzkbn,yakkakjncd,yukostymd,yukoedymd from tbl_tensu where yukoedymd>=? order by srycd,yukostymd";
+
+    private static final String QUERY_BYOMEI
+            = "select byomeicd, byomei, byomeikana, icd10_1, haisiymd from tbl_byomei where haisiymd>=? order by byomeicd";
+
+    private static final String QUERY_DBKANRI
+            = "select * from tbl_dbkanri order by kanricd";
+
+    // これを含む検索語は正規表現として扱う
+    private static final String REGEX_META = ".[]{}()*+?|\\$";
+
+    private static final OrcaMasterCache instance = new OrcaMasterCache();
+
+    private volatile Snapshot snapshot;
+
+    private final AtomicBoolean loading = new AtomicBoolean();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public static OrcaMasterCache getInstance() {
+        return instance;
+    }
+
+    private OrcaMasterCache() {
+    }
+
+    public boolean isEnabled() {
+        String test = ORCAConnection.getInstance().getProperty("orca.master.cache");
+        return test==null || !test.equals("false");
+    }
+
+    /**
+     * 名称またはカナ名称で点数マスターを検索する。
+     * @param name 検索語（全角変換済み）
+     * @param now 基準日 yyyyMMdd
+     * @param partialMatch 部分一致
+     * @return 結果 キャッシュで答えられない場合は null
+     */
+    public List<TensuMaster> findTensuByName(String name, String now, boolean partialMatch) {
+        Snapshot s = ready(now);
+        if (s == null) {
+            return null;
+        }
+        BitSet ids;
+        if (name.length()==1) {
+            // SQL と同じく１文字は完全一致
+            ids = s.tensuNames.equalTo(name);
+        } else {
+            ids = s.tensuNames.find(name, partialMatch);
+        }
+        if (ids == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        return tensuList(s, ids, now);
+    }
+
+    /**
+     * 診療行為コードで点数マスターを検索する（前方一致）。
+     * @param regExp コード 先頭の ^ はなし
+     * @param now 基準日 yyyyMMdd
+     * @return 結果 キャッシュで答えられない場合は null
+     */
+    public List<TensuMaster> findTensuByCode(String regExp, String now) {
+        Snapshot s = ready(now);
+        if (s == null) {
+            return null;
+        }
+        BitSet ids = s.tensuCodes.find("^" + regExp, false);
+        if (ids == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        return tensuList(s, ids, now);
+    }
+
+    /**
+     * 診療種別区分で点数マスターを検索する。
+     * @param shinku 区分の正規表現 例 ^(11|12)
+     * @param now 基準日 yyyyMMdd
+     * @return 結果 キャッシュで答えられない場合は null
+     */
+    public List<TensuMaster> findTensuByShinku(String shinku, String now) {
+        Snapshot s = ready(now);
+        if (s == null) {
+            return null;
+        }
+        BitSet ids = s.tensuShinku.find(shinku, false);
+        if (ids == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        return tensuList(s, ids, now);
+    }
+
+    /**
+     * 病名またはカナで病名マスターを検索する。
+     * @param name 検索語
+     * @param now 基準日 yyyyMMdd
+     * @param partialMatch 部分一致
+     * @return 結果 キャッシュで答えられない場合は null
+     */
+    public List<DiseaseEntry> findDiseaseByName(String name, String now, boolean partialMatch) {
+        Snapshot s = ready(now);
+        if (s == null) {
+            return null;
+        }
+        BitSet ids = s.byomeiNames.find(name, partialMatch);
+        if (ids == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        List<DiseaseEntry> list = new ArrayList<>();
+        for (int i = ids.nextSetBit(0); i >= 0; i = ids.nextSetBit(i+1)) {
+            DiseaseEntry de = s.byomei[i];
+            if (de.getDisUseDate()!=null && de.getDisUseDate().compareTo(now) >= 0) {
+                list.add(de);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * tbl_dbkanri か日付が変わっていれば別スレッドで読み直す。
+     * 読み込み中なら何もしない。
+     */
+    public void refreshAsync() {
+        if (!isEnabled() || !loading.compareAndSet(false, true)) {
+            return;
+        }
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refreshIfChanged();
+                } finally {
+                    loading.set(false);
+                }
+            }
+        }, "orca-master-cache");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public String getStats() {
+        Snapshot s = snapshot;
+        StringBuilder sb = new StringBuilder();
+        sb.append("ORCA master cache: ");
+        if (s == null) {
+            sb.append("not loaded");
+        } else {
+            sb.append("date=").append(s.loadDate);
+            sb.append(", tensu=").append(s.tensu.length);
+            sb.append(", byomei=").append(s.byomei.length);
+            sb.append(", loadMillis=").append(s.loadMillis);
+        }
+        sb.append(", hits=").append(hits.get()).append(", misses=").append(misses.get());
+        return sb.toString();
+    }
+
+    private Snapshot ready(String now) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Snapshot s = snapshot;
+        if (s == null) {
+            refreshAsync();
+            misses.incrementAndGet();
+            return null;
+        }
+        // 読み込み日より前の基準日は SQL で
+        if (now == null || now.compareTo(s.loadDate) < 0) {
+            misses.incrementAndGet();
+            return null;
+        }
+        return s;
+    }
+
+    private List<TensuMaster> tensuList(Snapshot s, BitSet ids, String now) {
+        hits.incrementAndGet();
+        List<TensuMaster> list = new ArrayList<>();
+        for (int i = ids.nextSetBit(0); i >= 0; i = ids.nextSetBit(i+1)) {
+            TensuMaster t = s.tensu[i];
+            if (t.getYukostymd()!=null && t.getYukostymd().compareTo(now) <= 0
+                    && t.getYukoedymd()!=null && t.getYukoedymd().compareTo(now) >= 0) {
+                list.add(t);
+            }
+        }
+        return list;
+    }
+
+    private void refreshIfChanged() {
+
+        String today = new SimpleDateFormat("yyyyMMdd").format(new Date());
+        Connection con = null;
+
+        try {
+            con = ORCAConnection.getInstance().getConnection();
+            if (con == null) {
+                return;
+            }
+            String signature = dbkanriSignature(con);
+            Snapshot old = snapshot;
+            if (old!=null && old.signature.equals(signature) && old.loadDate.equals(today)) {
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            TensuMaster[] tensu = loadTensu(con, today);
+            DiseaseEntry[] byomei = loadByomei(con, today);
+            Snapshot s = new Snapshot(today, signature, tensu, byomei);
+            s.loadMillis = System.currentTimeMillis() - start;
+            snapshot = s;
+            Logger.getLogger("open.dolphin").info(getStats());
+
+        } catch (Exception e) {
+            Logger.getLogger("open.dolphin").warning("ORCA master cache: " + e.getMessage());
+
+        } finally {
+            if (con != null) {
+                try {
+                    con.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+    }
+
+    // tbl_dbkanri の全列のダイジェスト マスター更新・バージョンアップで変わる
+    private String dbkanriSignature(Connection con) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        try (Statement st = con.createStatement(); ResultSet rs = st.executeQuery(QUERY_DBKANRI)) {
+            ResultSetMetaData meta = rs.getMetaData();
+            int cols = meta.getColumnCount();
+            while (rs.next()) {
+                for (int i = 1; i <= cols; i++) {
+                    String value = rs.getString(i);
+                    md.update(String.valueOf(value).getBytes("UTF-8"));
+                    md.update((byte)0);
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private TensuMaster[] loadTensu(Connection con, String today) throws SQLException {
+        List<TensuMaster> list = new ArrayList<>(40000);
+        try (PreparedStatement ps = con.prepareStatement(QUERY_TENSU)) {
+            ps.setFetchSize(1000);
+            ps.setString(1, today);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    TensuMaster t = new TensuMaster();
+                    t.setSrycd(rs.getString(1));
+                    t.setName(rs.getString(2));
+                    t.setKananame(rs.getString(3));
+                    t.setTaniname(rs.getString(4));
+                    t.setTensikibetu(rs.getString(5));
+                    t.setTen(rs.getString(6));
+                    t.setNyugaitekkbn(rs.getString(7));
+                    t.setRoutekkbn(rs.getString(8));
+                    t.setSrysyukbn(rs.getString(9));
+                    t.setHospsrykbn(rs.getString(10));
+                    t.setYkzkbn(rs.getString(11));
+                    t.setYakkakjncd(rs.getString(12));
+                    t.setYukostymd(rs.getString(13));
+                    t.setYukoedymd(rs.getString(14));
+                    list.add(t);
+                }
+            }
+        }
+        return list.toArray(new TensuMaster[list.size()]);
+    }
+
+    private DiseaseEntry[] loadByomei(Connection con, String today) throws SQLException {
+        List<DiseaseEntry> list = new ArrayList<>(30000);
+        try (PreparedStatement ps = con.prepareStatement(QUERY_BYOMEI)) {
+            ps.setFetchSize(1000);
+            ps.setString(1, today);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    DiseaseEntry de = new DiseaseEntry();
+                    de.setCode(rs.getString(1));
+                    de.setName(rs.getString(2));
+                    de.setKana(rs.getString(3));
+                    de.setIcdTen(rs.getString(4));
+                    de.setDisUseDate(rs.getString(5));
+                    list.add(de);
+                }
+            }
+        }
+        return list.toArray(new DiseaseEntry[list.size()]);
+    }
+
+    /**
+     * 読み込んだマスターと索引 作成後は変更しない
+     */
+    private static class Snapshot {
+
+        private final String loadDate;
+        private final String signature;
+        private final TensuMaster[] tensu;
+        private final DiseaseEntry[] byomei;
+        private final TextIndex tensuNames;
+        private final TextIndex tensuCodes;
+        private final TextIndex tensuShinku;
+        private final TextIndex byomeiNames;
+        private long loadMillis;
+
+        private Snapshot(String loadDate, String signature, TensuMaster[] tensu, DiseaseEntry[] byomei) {
+            this.loadDate = loadDate;
+            this.signature = signature;
+            this.tensu = tensu;
+            this.byomei = byomei;
+
+            String[] names = new String[tensu.length];
+            String[] kanas = new String[tensu.length];
+            String[] codes = new String[tensu.length];
+            String[] shinku = new String[tensu.length];
+            for (int i = 0; i < tensu.length; i++) {
+                names[i] = tensu[i].getName();
+                kanas[i] = tensu[i].getKananame();
+                codes[i] = tensu[i].getSrycd();
+                shinku[i] = tensu[i].getSrysyukbn();
+            }
+            this.tensuNames = new TextIndex(true, names, kanas);
+            this.tensuCodes = new TextIndex(false, codes);
+            this.tensuShinku = new TextIndex(false, shinku);
+
+            String[] bnames = new String[byomei.length];
+            String[] bkanas = new String[byomei.length];
+            for (int i = 0; i < byomei.length; i++) {
+                bnames[i] = byomei[i].getName();
+                bkanas[i] = byomei[i].getKana();
+            }
+            this.byomeiNames = new TextIndex(true, bnames, bkanas);
+        }
+    }
+
+    /**
+     * 文字列の列（名称とカナ名称など）に対する索引。
+     * 前方一致はソート済み配列の二分探索、部分一致は 2-gram の転置リストで候補を絞り込んで確認する。
+     * どちらにも当たらない正規表現は全件に Pattern.find() を適用する（~ と同じく非アンカー）。
+     */
+    static class TextIndex {
+
+        private final String[][] columns;
+        private final int size;
+
+        // 前方一致 全列の値をソートしたものとその行番号
+        private final String[] sortedKeys;
+        private final int[] sortedRows;
+
+        // 2-gram -> 行番号（昇順）
+        private final Map<Integer, int[]> bigrams;
+
+        TextIndex(boolean partial, String[]... columns) {
+            this.columns = columns;
+            this.size = columns[0].length;
+
+            List<Object[]> pairs = new ArrayList<>(size * columns.length);
+            for (String[] col : columns) {
+                for (int row = 0; row < size; row++) {
+                    if (col[row] != null) {
+                        pairs.add(new Object[]{col[row], row});
+                    }
+                }
+            }
+            pairs.sort((o1, o2) -> ((String)o1[0]).compareTo((String)o2[0]));
+            sortedKeys = new String[pairs.size()];
+            sortedRows = new int[pairs.size()];
+            for (int i = 0; i < sortedKeys.length; i++) {
+                sortedKeys[i] = (String)pairs.get(i)[0];
+                sortedRows[i] = (Integer)pairs.get(i)[1];
+            }
+
+            bigrams = partial ? buildBigrams() : null;
+        }
+
+        private Map<Integer, int[]> buildBigrams() {
+            Map<Integer, int[]> work = new HashMap<>();
+            Map<Integer, Integer> counts = new HashMap<>();
+            for (int row = 0; row < size; row++) {
+                for (String[] col : columns) {
+                    String s = col[row];
+                    if (s == null) {
+                        continue;
+                    }
+                    for (int i = 0; i+1 < s.length(); i++) {
+                        int key = bigram(s, i);
+                        int[] list = work.get(key);
+                        if (list == null) {
+                            list = new int[4];
+                            work.put(key, list);
+                            counts.put(key, 0);
+                        }
+                        int cnt = counts.get(key);
+                        if (cnt > 0 && list[cnt-1] == row) {
+                            continue;
+                        }
+                        if (cnt == list.length) {
+                            list = Arrays.copyOf(list, cnt * 2);
+                            work.put(key, list);
+                        }
+                        list[cnt] = row;
+                        counts.put(key, cnt+1);
+                    }
+                }
+            }
+            Map<Integer, int[]> ret = new HashMap<>(work.size()*2);
+            for (Map.Entry<Integer, int[]> e : work.entrySet()) {
+                ret.put(e.getKey(), Arrays.copyOf(e.getValue(), counts.get(e.getKey())));
+            }
+            return ret;
+        }
+
+        private static int bigram(String s, int i) {
+            return (s.charAt(i) << 16) | s.charAt(i+1);
+        }
+
+        /**
+         * いずれかの列が値と等しい行。
+         */
+        BitSet equalTo(String value) {
+            BitSet ret = new BitSet(size);
+            for (int i = lowerBound(value); i < sortedKeys.length && sortedKeys[i].equals(value); i++) {
+                ret.set(sortedRows[i]);
+            }
+            return ret;
+        }
+
+        /**
+         * PostgreSQL の ~ と同じ結果を返す。
+         * @param regExp 検索語または正規表現
+         * @param partialMatch true なら部分一致（先頭に ^ を付けない）、false なら前方一致
+         * @return 該当行 正規表現として解釈できなければ null
+         */
+        BitSet find(String regExp, boolean partialMatch) {
+            String expr = partialMatch ? regExp : (regExp.startsWith("^") ? regExp : "^" + regExp);
+
+            if (expr.startsWith("^")) {
+                List<String> prefixes = literalAlternatives(expr.substring(1));
+                if (prefixes != null) {
+                    BitSet ret = new BitSet(size);
+                    for (String prefix : prefixes) {
+                        for (int i = lowerBound(prefix); i < sortedKeys.length && sortedKeys[i].startsWith(prefix); i++) {
+                            ret.set(sortedRows[i]);
+                        }
+                    }
+                    return ret;
+                }
+            } else if (isLiteral(expr)) {
+                return contains(expr);
+            }
+
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(expr);
+            } catch (PatternSyntaxException e) {
+                return null;
+            }
+            BitSet ret = new BitSet(size);
+            for (int row = 0; row < size; row++) {
+                for (String[] col : columns) {
+                    if (col[row] != null && pattern.matcher(col[row]).find()) {
+                        ret.set(row);
+                        break;
+                    }
+                }
+            }
+            return ret;
+        }
+
+        private BitSet contains(String value) {
+            BitSet ret = new BitSet(size);
+            int[] candidates = null;
+            if (bigrams != null && value.length() >= 2) {
+                // 一番短い転置リストを候補にする
+                for (int i = 0; i+1 < value.length(); i++) {
+                    int[] list = bigrams.get(bigram(value, i));
+                    if (list == null) {
+                        return ret;
+                    }
+                    if (candidates == null || list.length < candidates.length) {
+                        candidates = list;
+                    }
+                }
+            }
+            if (candidates != null) {
+                for (int row : candidates) {
+                    if (rowContains(row, value)) {
+                        ret.set(row);
+                    }
+                }
+            } else {
+                for (int row = 0; row < size; row++) {
+                    if (rowContains(row, value)) {
+                        ret.set(row);
+                    }
+                }
+            }
+            return ret;
+        }
+
+        private boolean rowContains(int row, String value) {
+            for (String[] col : columns) {
+                if (col[row] != null && col[row].contains(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int lowerBound(String key) {
+            int lo = 0;
+            int hi = sortedKeys.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sortedKeys[mid].compareTo(key) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        // abc -> [abc]  (11|12) -> [11, 12]  それ以外は null
+        private static List<String> literalAlternatives(String expr) {
+            if (isLiteral(expr)) {
+                return Arrays.asList(expr);
+            }
+            if (expr.length() > 2 && expr.charAt(0)=='(' && expr.charAt(expr.length()-1)==')') {
+                String[] alts = expr.substring(1, expr.length()-1).split("\\|", -1);
+                for (String alt : alts) {
+                    if (alt.isEmpty() || !isLiteral(alt)) {
+                        return null;
+                    }
+                }
+                return Arrays.asList(alts);
+            }
+            return null;
+        }
+
+        private static boolean isLiteral(String expr) {
+            if (expr.isEmpty()) {
+                return false;
+            }
+            for (int i = 0; i < expr.length(); i++) {
+                if (REGEX_META.indexOf(expr.charAt(i)) >= 0 || expr.charAt(i)=='^') {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
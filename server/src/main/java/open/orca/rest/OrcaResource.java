@@ -272,6 +272,12 @@ public class OrcaResource {
         }
         //System.err.println(shinku);
         
+        // マスターキャッシュ
+        List<TensuMaster> cached = OrcaMasterCache.getInstance().findTensuByShinku(shinku, now);
+        if (cached != null) {
+            return toTensuListConverter(cached);
+        }
+        
         // 結果を格納するリスト
         ArrayList<TensuMaster> list = new ArrayList<TensuMaster>();
 
@@ -350,6 +356,12 @@ public class OrcaResource {
 
         // 半角英数字を全角へ変換する
         name = StringTool.toZenkakuUpperLower(name);
+        
+        // マスターキャッシュ
+        List<TensuMaster> cached = OrcaMasterCache.getInstance().findTensuByName(name, now, partialMatch);
+        if (cached != null) {
+            return toTensuListConverter(cached);
+        }
 
         // SQL 文
         boolean one = name.length()==1 ? true : false;
@@ -431,6 +443,12 @@ public class OrcaResource {
         String[] params = param.split(CAMMA);
         String regExp = params[0];
         String now = params[1];
+        
+        // マスターキャッシュ
+        List<TensuMaster> cached = OrcaMasterCache.getInstance().findTensuByCode(regExp, now);
+        if (cached != null) {
+            return toTensuListConverter(cached);
+        }
 
         // 結果を格納するリスト
         ArrayList<TensuMaster> list = new ArrayList<TensuMaster>();
@@ -600,6 +618,16 @@ public class OrcaResource {
         String name = params[0];
         String now = params[1];
         boolean partialMatch = Boolean.parseBoolean(params[2]);
+        
+        // マスターキャッシュ
+        List<DiseaseEntry> cached = OrcaMasterCache.getInstance().findDiseaseByName(name, now, partialMatch);
+        if (cached != null) {
+            DiseaseList wrapper = new DiseaseList();
+            wrapper.setList(cached);
+            DiseaseListConverter conv = new DiseaseListConverter();
+            conv.setModel(wrapper);
+            return conv;
+        }
 
         // 結果を格納するリスト
         ArrayList<DiseaseEntry> list = new ArrayList<DiseaseEntry>();
@@ -1868,6 +1896,14 @@ public class OrcaResource {
         return sb.toString();
     }
     
+    private TensuListConverter toTensuListConverter(List<TensuMaster> list) {
+        TensuList wrapper = new TensuList();
+        wrapper.setList(list);
+        TensuListConverter conv = new TensuListConverter();
+        conv.setModel(wrapper);
+        return conv;
+    }
+    
     private Connection getConnection() throws SQLException {
 //minagawa^ 2013/08/29
         //return ds.getConnection();